@@ -0,0 +1,196 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import classification.Document;
+import classification.Lexicon;
+import classification.Pairtree;
+import datasets.Volume;
+import deduplication.Summary;
+
+/**
+ * Synthetic inputs for the benchmarks: a vocabulary, volumes whose word
+ * frequencies follow Zipf's law, and the same volumes written out as a
+ * pairtree of wordcount files. Everything is drawn from a seeded Random, so
+ * every fork of a benchmark sees the same data.
+ *
+ * @author tunderwood
+ *
+ */
+public class BenchmarkData {
+	static final String PREFIX = "bench";
+
+	/** @return Words "w0" to "w(size - 1)", most frequent first. */
+	public static ArrayList<String> vocabulary(int size) {
+		ArrayList<String> words = new ArrayList<String>(size);
+		for (int i = 0; i < size; ++i) {
+			words.add("w" + i);
+		}
+		return words;
+	}
+
+	/** @return The cumulative distribution of Zipf's law over a vocabulary of this size. */
+	public static double[] zipf(int size) {
+		double[] cumulative = new double[size];
+		double total = 0d;
+		for (int i = 0; i < size; ++i) {
+			total += 1d / (i + 1);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < size; ++i) {
+			cumulative[i] /= total;
+		}
+		return cumulative;
+	}
+
+	/**
+	 * Counts words drawn from a Zipf distribution. Later volumes favour later
+	 * words slightly, so there's a date signal for classifiers to find.
+	 * @param drift Between 0 and 1: how far through the period the volume falls.
+	 * @return Counts, indexed like the vocabulary.
+	 */
+	public static int[] wordCounts(Random random, double[] zipf, int tokens, double drift) {
+		int[] counts = new int[zipf.length];
+		int shift = (int) (drift * Math.min(50, zipf.length / 4));
+		for (int t = 0; t < tokens; ++t) {
+			int index = Arrays.binarySearch(zipf, random.nextDouble());
+			if (index < 0) index = -index - 1;
+			index = Math.min(zipf.length - 1, index + ((index >= 20) ? shift : 0));
+			counts[index] += 1;
+		}
+		return counts;
+	}
+
+	public static Volume volume(int index, int date, int totalWords) {
+		HashMap<String, String> values = new HashMap<String, String>();
+		values.put("date", Integer.toString(date));
+		values.put("totalwords", Integer.toString(totalWords));
+		values.put("recordid", Integer.toString(index / 2));
+		values.put("title", "Volume " + index);
+		values.put("author", "Author " + (index % 97));
+		return new Volume(PREFIX + "." + index, values);
+	}
+
+	/** @return A Document holding counts, with its terms registered in the Lexicon. */
+	public static Document document(Volume vol, ArrayList<String> vocabulary, int[] counts) {
+		int n = 0;
+		for (int count : counts) {
+			if (count > 0) n += 1;
+		}
+		int[] ids = new int[n];
+		float[] values = new float[n];
+		int k = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			if (counts[i] == 0) continue;
+			ids[k] = Lexicon.getId(vocabulary.get(i));
+			values[k] = counts[i];
+			k += 1;
+		}
+		return new Document(ids, values, n, vol, true);
+	}
+
+	/**
+	 * @return numVolumes volumes of roughly tokens words each, dated evenly
+	 * across the nineteenth century.
+	 */
+	public static ArrayList<Document> documents(Random random, ArrayList<String> vocabulary, int numVolumes, int tokens) {
+		double[] zipf = zipf(vocabulary.size());
+		ArrayList<Document> documents = new ArrayList<Document>(numVolumes);
+		for (int v = 0; v < numVolumes; ++v) {
+			int date = 1800 + (v * 100) / numVolumes;
+			int[] counts = wordCounts(random, zipf, tokens, (date - 1800) / 100d);
+			documents.add(document(volume(v, date, tokens), vocabulary, counts));
+		}
+		return documents;
+	}
+
+	/**
+	 * Writes each volume's wordcounts where PairtreeReader will look for them,
+	 * under root.
+	 */
+	public static ArrayList<Volume> writePairtree(File root, Random random, ArrayList<String> vocabulary,
+			int numVolumes, int tokens) throws IOException {
+		Pairtree pairtree = new Pairtree();
+		double[] zipf = zipf(vocabulary.size());
+		ArrayList<Volume> volumes = new ArrayList<Volume>(numVolumes);
+		for (int v = 0; v < numVolumes; ++v) {
+			int date = 1800 + (v * 100) / numVolumes;
+			Volume vol = volume(v, date, tokens);
+			String id = vol.htid.substring(vol.htid.indexOf('.') + 1);
+			String encapsulating = pairtree.cleanId(id);
+			File folder = new File(root, PREFIX + "/pairtree_root/" + pairtree.mapToPPath(id) + "/" + encapsulating);
+			folder.mkdirs();
+			int[] counts = wordCounts(random, zipf, tokens, (date - 1800) / 100d);
+			StringBuilder lines = new StringBuilder();
+			for (int i = 0; i < counts.length; ++i) {
+				if (counts[i] > 0) lines.append(vocabulary.get(i)).append('\t').append(counts[i]).append('\n');
+			}
+			Files.write(new File(folder, encapsulating + ".vol.tsv").toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+			volumes.add(vol);
+		}
+		return volumes;
+	}
+
+	/**
+	 * Summaries like deduplication's: raw counts of a short list of common
+	 * words, and the same counts divided by each word's average. Every
+	 * duplicateEvery-th volume is a near-copy of the one before it, with a
+	 * little noise, so there are real connections to find.
+	 */
+	public static ArrayList<Summary> summaries(Random random, int numSummaries, int numFeatures, int duplicateEvery) {
+		double[] zipf = zipf(numFeatures);
+		ArrayList<Summary> summaries = new ArrayList<Summary>(numSummaries);
+		ArrayList<double[]> rawVectors = new ArrayList<double[]>(numSummaries);
+		double[] totals = new double[numFeatures];
+		double[] previous = null;
+		for (int s = 0; s < numSummaries; ++s) {
+			int tokens = 20000 + random.nextInt(80000);
+			double[] raw = new double[numFeatures];
+			if (previous != null && s % duplicateEvery == 0) {
+				for (int i = 0; i < numFeatures; ++i) {
+					raw[i] = Math.max(0d, previous[i] * (1 + 0.02 * random.nextGaussian()));
+				}
+			}
+			else {
+				// The common words make up about a fifth of a volume's running text.
+				int[] counts = wordCounts(random, zipf, tokens / 5, random.nextDouble());
+				for (int i = 0; i < numFeatures; ++i) {
+					raw[i] = counts[i];
+				}
+			}
+			for (int i = 0; i < numFeatures; ++i) {
+				totals[i] += raw[i];
+			}
+			summaries.add(new Summary(volume(s, 1800 + random.nextInt(100), tokens), raw));
+			rawVectors.add(raw);
+			previous = raw;
+		}
+		for (int s = 0; s < numSummaries; ++s) {
+			double[] normalized = new double[numFeatures];
+			double[] raw = rawVectors.get(s);
+			for (int i = 0; i < numFeatures; ++i) {
+				normalized[i] = (totals[i] > 0) ? raw[i] / (totals[i] / numSummaries) : 0d;
+			}
+			summaries.get(s).setFeatures(normalized);
+		}
+		return summaries;
+	}
+
+	/** Deletes a folder written by writePairtree. */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
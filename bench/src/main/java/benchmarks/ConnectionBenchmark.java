@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import deduplication.Connection;
+import deduplication.Summary;
+
+/**
+ * Compares each deduplication summary with the next <code>window</code> ones,
+ * the shape of RecAndVolCorpus.deduplicateFaster's inner loop: a cosine
+ * similarity for every pair, and for pairs over the first threshold, the
+ * distance and probability as well.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ConnectionBenchmark {
+
+	/** Summaries compared. */
+	@Param({"1000", "10000"})
+	int summaries;
+
+	/** Neighbours each summary is compared with. */
+	@Param({"100"})
+	int window;
+
+	/** Words in each summary, as in deduplication's 105-word tables. */
+	static final int FEATURES = 105;
+	static final double FIRSTTHRESHOLD = 0.9;
+
+	ArrayList<Summary> summaryList;
+
+	@Setup
+	public void setup() {
+		summaryList = BenchmarkData.summaries(new Random(1), summaries, FEATURES, 10);
+	}
+
+	@Benchmark
+	public double cosineSimilarity() {
+		double total = 0d;
+		for (int i = 0; i < summaries; ++i) {
+			Summary first = summaryList.get(i);
+			int last = Math.min(summaries, i + 1 + window);
+			for (int j = i + 1; j < last; ++j) {
+				total += new Connection(first, summaryList.get(j)).cossim;
+			}
+		}
+		return total;
+	}
+
+	@Benchmark
+	public double probability() {
+		double total = 0d;
+		for (int i = 0; i < summaries; ++i) {
+			Summary first = summaryList.get(i);
+			int last = Math.min(summaries, i + 1 + window);
+			for (int j = i + 1; j < last; ++j) {
+				Connection connection = new Connection(first, summaryList.get(j));
+				if (connection.cossim > FIRSTTHRESHOLD) total += connection.calculateProbability();
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classification.DateInference;
+
+/**
+ * Turns each volume's class probabilities into a predicted and an expected
+ * date, as DatePredictor does after scoring. This is the work that used to be
+ * DatePredictor.predictDate; DateInference now does it for a whole chunk of
+ * volumes at a time, and one volume at a time for the service.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DateInferenceBenchmark {
+
+	/** Volumes whose dates are inferred by each invocation. */
+	@Param({"1000", "100000"})
+	int volumes;
+
+	/** Half-width of each date bin, in years; DatePredictor's binRadius. */
+	@Param({"2", "10"})
+	int binRadius;
+
+	static final int STARTDATE = 1800;
+	static final int ENDDATE = 1899;
+	static final int SMOOTHSPAN = 12;
+
+	DateInference inference;
+	double[][] predictions;
+	int[] predictedDates;
+	double[] expectedDates;
+
+	@Setup
+	public void setup() {
+		ArrayList<String> classLabels = new ArrayList<String>();
+		int binSpacing = (binRadius * 2) + 1;
+		for (int midpoint = STARTDATE + binRadius; midpoint <= ENDDATE; midpoint += binSpacing) {
+			classLabels.add(Integer.toString(midpoint));
+		}
+		inference = DateInference.forLabels(classLabels, SMOOTHSPAN, STARTDATE, ENDDATE);
+
+		Random random = new Random(1);
+		predictions = new double[volumes][classLabels.size()];
+		for (int v = 0; v < volumes; ++v) {
+			for (int c = 0; c < classLabels.size(); ++c) {
+				predictions[v][c] = random.nextDouble();
+			}
+		}
+		predictedDates = new int[volumes];
+		expectedDates = new double[volumes];
+	}
+
+	@Benchmark
+	public int[] inferDates() {
+		inference.inferDates(predictions, volumes, predictedDates, expectedDates);
+		return predictedDates;
+	}
+
+	@Benchmark
+	public int predictDate() {
+		int total = 0;
+		for (int v = 0; v < volumes; ++v) {
+			total += inference.predictDate(predictions[v]);
+		}
+		return total;
+	}
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import deduplication.Connection;
+import deduplication.HierarchicalClusters;
+import deduplication.Summary;
+
+/**
+ * Builds clusters from a sorted list of connections, as Deduplicate does once
+ * every pair has been compared. The summaries include planted near-duplicates,
+ * and record-level summaries for some two-volume records, so both the simple
+ * merge and the record bookkeeping are exercised. The constructor resets
+ * every summary's cluster pointer, so one set of inputs serves every call.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class HierarchicalClustersBenchmark {
+
+	/** Volume summaries; record summaries are added to these. */
+	@Param({"1000", "10000"})
+	int summaries;
+
+	/** One volume in this many is a near-duplicate of the one before. */
+	@Param({"10"})
+	int duplicateEvery;
+
+	static final int FEATURES = 105;
+	static final int WINDOW = 50;
+	static final int RECORDEVERY = 5;
+	static final double FIRSTTHRESHOLD = 0.9;
+
+	ArrayList<Summary> summaryList;
+	ArrayList<Connection> connections;
+
+	@Setup
+	public void setup() {
+		summaryList = BenchmarkData.summaries(new Random(1), summaries, FEATURES, duplicateEvery);
+
+		// Volumes 2k and 2k + 1 share record k; give some records a summary of their own.
+		int numVolumes = summaryList.size();
+		for (int k = 0; 2 * k + 1 < numVolumes; k += RECORDEVERY) {
+			ArrayList<Summary> members = new ArrayList<Summary>(2);
+			members.add(summaryList.get(2 * k));
+			members.add(summaryList.get(2 * k + 1));
+			Summary record = new Summary(Integer.toString(k), FEATURES, members);
+			double[] features = new double[FEATURES];
+			for (Summary member : members) {
+				double[] memberFeatures = member.getFeatures();
+				for (int i = 0; i < FEATURES; ++i) {
+					features[i] += memberFeatures[i];
+				}
+			}
+			record.setFeatures(features);
+			summaryList.add(record);
+		}
+
+		connections = new ArrayList<Connection>();
+		int total = summaryList.size();
+		for (int i = 0; i < total; ++i) {
+			Summary first = summaryList.get(i);
+			for (int j = i + 1; j < Math.min(total, i + 1 + WINDOW); ++j) {
+				Summary second = summaryList.get(j);
+				if (first.getRecordID().equals(second.getRecordID())) continue;
+				Connection connection = new Connection(first, second);
+				if (connection.cossim > FIRSTTHRESHOLD) {
+					connection.calculateProbability();
+					connections.add(connection);
+				}
+			}
+		}
+		Collections.sort(connections);
+	}
+
+	@Benchmark
+	public HierarchicalClusters construct() {
+		return new HierarchicalClusters(summaryList, connections);
+	}
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classification.Document;
+import classification.LogisticClassifier;
+
+/**
+ * Scores volumes with a Weka logistic model, one volume at a time, as
+ * DatePredictor does at double precision. The model is trained once, in setup,
+ * on a balanced sample of early and late volumes.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class LogisticClassifierBenchmark {
+
+	/** Volumes scored by each invocation. */
+	@Param({"100", "1000"})
+	int volumes;
+
+	/** Words the model reads. */
+	@Param({"100", "500"})
+	int features;
+
+	static final int TRAINING = 200;
+	static final int TOKENS = 20000;
+
+	LogisticClassifier model;
+	ArrayList<Document> documents;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		ArrayList<String> vocabulary = BenchmarkData.vocabulary(Math.max(features * 4, 2000));
+		ArrayList<Document> training = BenchmarkData.documents(random, vocabulary, TRAINING, TOKENS);
+		ArrayList<Double> classValues = new ArrayList<Double>(TRAINING);
+		for (int i = 0; i < TRAINING; ++i) {
+			// Later half of the century is the positive class.
+			classValues.add((i >= TRAINING / 2) ? 1d : 0d);
+		}
+		model = new LogisticClassifier("late", new ArrayList<String>(vocabulary.subList(0, features)),
+				training, classValues, "1.0");
+		documents = BenchmarkData.documents(random, vocabulary, volumes, TOKENS);
+	}
+
+	@Benchmark
+	public double predictDocument() {
+		double total = 0d;
+		for (Document doc : documents) {
+			total += model.predictDocument(doc);
+		}
+		return total;
+	}
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classification.Document;
+import classification.MannWhitneySorter;
+import classification.MembershipCorpus;
+
+/**
+ * Ranks a vocabulary by Mann-Whitney rho, as feature selection does for each
+ * class, over corpora of increasing size. Membership is graded, as it is for
+ * date bins with fuzzy edges.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class MannWhitneySorterBenchmark {
+
+	/** Documents in the corpus. */
+	@Param({"1000", "10000"})
+	int documents;
+
+	/** Candidate terms to rank. */
+	@Param({"1000", "10000"})
+	int terms;
+
+	/** Threads ranking terms; 0 for one per core. */
+	@Param({"1", "0"})
+	int threads;
+
+	static final int TOKENS = 5000;
+
+	MannWhitneySorter sorter;
+	ArrayList<String> candidates;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		candidates = BenchmarkData.vocabulary(terms);
+		ArrayList<Document> corpus = BenchmarkData.documents(random, candidates, documents, TOKENS);
+		ArrayList<Double> membership = new ArrayList<Double>(documents);
+		for (int i = 0; i < documents; ++i) {
+			// Full members in the middle of the period, partial members at its edges.
+			double distance = Math.abs(i - documents / 2) / (double) documents;
+			membership.add(Math.max(0d, 1d - 4 * distance));
+		}
+		MembershipCorpus view = new MembershipCorpus(corpus, membership, "1850");
+		sorter = (threads > 0) ? new MannWhitneySorter(view, threads) : new MannWhitneySorter(view);
+	}
+
+	@Benchmark
+	public int[] rankTermsByMW() {
+		return sorter.rankTermsByMW(candidates);
+	}
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classification.Document;
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * Reads and parses a pairtree of volume wordcount files, keeping only the
+ * words in a feature list, as DatePredictor does for every volume it scores.
+ * The files are written to a temporary folder first, so after the first
+ * iteration they come from the page cache: this measures parsing, not disk.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PairtreeReaderBenchmark {
+
+	/** Volumes in the corpus; each invocation reads them all. */
+	@Param({"100", "1000"})
+	int volumes;
+
+	/** Words in each volume. */
+	@Param({"10000", "100000"})
+	int tokens;
+
+	static final int VOCABULARY = 20000;
+	static final int FEATURES = 1000;
+
+	File root;
+	PairtreeReader reader;
+	ArrayList<Volume> volumeList;
+	HashSet<String> features;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Files.createTempDirectory("pairtree").toFile();
+		ArrayList<String> vocabulary = BenchmarkData.vocabulary(VOCABULARY);
+		volumeList = BenchmarkData.writePairtree(root, new Random(1), vocabulary, volumes, tokens);
+		features = new HashSet<String>(vocabulary.subList(0, FEATURES));
+		reader = new PairtreeReader(root.getPath() + "/");
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkData.delete(root);
+	}
+
+	@Benchmark
+	public int getDocument() {
+		int terms = 0;
+		for (Volume vol : volumeList) {
+			Document doc = reader.getDocument(vol, features);
+			terms += doc.numNonzeros();
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,131 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classification.VectorKernels;
+
+/**
+ * Compares the SIMD kernels with the scalar ones on the shapes the code base
+ * actually uses: deduplication's cosine and distance over dense double
+ * summaries, KNN similarity over 128 floats, and scoring a document's nonzero
+ * features against a feature-major ensemble of float32 or int8 coefficients.
+ *
+ * @author tunderwood
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorKernelsBenchmark {
+
+	@Param({"simd", "scalar"})
+	String kernel;
+
+	/** Length of the dense vectors. */
+	@Param({"128", "1000"})
+	int length;
+
+	/** Number of models in the ensemble. */
+	@Param({"100"})
+	int models;
+
+	/** Nonzero features in the document. */
+	@Param({"2000"})
+	int nonzeros;
+
+	static final int FEATURES = 20000;
+
+	VectorKernels kernels;
+	double[] a;
+	double[] b;
+	double[] products;
+	float[] items;
+	float[] query;
+	int[] rows;
+	float[] values;
+	float[] weights;
+	byte[] quantizedWeights;
+	float[] sums;
+
+	@Setup
+	public void setup() {
+		if (kernel.equals("scalar")) kernels = VectorKernels.scalar();
+		else kernels = VectorKernels.get();
+
+		Random random = new Random(1);
+		a = new double[length];
+		b = new double[length];
+		items = new float[length];
+		query = new float[length];
+		for (int i = 0; i < length; ++i) {
+			a[i] = random.nextGaussian();
+			b[i] = random.nextGaussian();
+			items[i] = random.nextFloat();
+			query[i] = random.nextFloat();
+		}
+		products = new double[3];
+
+		rows = new int[nonzeros];
+		values = new float[nonzeros];
+		for (int k = 0; k < nonzeros; ++k) {
+			rows[k] = random.nextInt(FEATURES);
+			values[k] = random.nextFloat() / 1000;
+		}
+		weights = new float[FEATURES * models];
+		quantizedWeights = new byte[FEATURES * models];
+		for (int i = 0; i < weights.length; ++i) {
+			weights[i] = (float) random.nextGaussian();
+			quantizedWeights[i] = (byte) (random.nextInt(255) - 127);
+		}
+		sums = new float[models];
+	}
+
+	@Benchmark
+	public double cosine() {
+		kernels.dotAndSquaredNorms(a, b, products);
+		return products[0] / Math.sqrt(products[1] * products[2]);
+	}
+
+	@Benchmark
+	public double cosineSimilarity() {
+		return kernels.cosineSimilarity(a, b, 0.1);
+	}
+
+	@Benchmark
+	public double squaredDistance() {
+		return kernels.squaredDistance(a, b);
+	}
+
+	@Benchmark
+	public float floatDot() {
+		return kernels.dot(items, 0, query, 0, length);
+	}
+
+	@Benchmark
+	public float[] sparseDotFloat32() {
+		kernels.sparseDot(rows, values, nonzeros, weights, models, sums);
+		return sums;
+	}
+
+	@Benchmark
+	public float[] sparseDotInt8() {
+		kernels.sparseDot(rows, values, nonzeros, quantizedWeights, models, sums);
+		return sums;
+	}
+}
@@ -15,10 +15,11 @@ import java.util.ArrayList;
  * @author tunder
  *
  */
-public class BayesianClassifier extends SupervisedLearner {
+public class BayesianClassifier extends SupervisedLearner implements java.io.Serializable {
+	static final long serialVersionUID = 927333932L;
 	
-	/** The corpus we're classifying. */
-	Corpus corpus;
+	/** The corpus we're classifying. Not saved with the model. */
+	transient Corpus corpus;
 	
 	/** Features to be used for classification */
 	ArrayList<String> features;
@@ -31,23 +32,39 @@ public class BayesianClassifier extends SupervisedLearner {
 	 */
 	double baseProbability;
 	
+	/** Maps each feature's term id to its position in <code>features</code>. Term ids
+	 * aren't stable across runs, so this is rebuilt after deserialization. */
+	transient TermIndex featureIndex;
+	
 	/** The length of the feature set. */
 	int featureCount = 0;
 	
 	/** Number of documents in corpus. */
 	int D;
 	
-	/** A logistic classifier to calibrate results. */
-	LogisticClassifier logisticCalibration;
+	/** Maps raw Bayesian scores to probabilities. */
+	Calibrator calibration;
 	
 	/** Create a Bayesian model to recognize a particular document
-	 * category.
+	 * category, calibrated by Platt scaling.
 	 */
 	public BayesianClassifier(ArrayList<String> featureList, Corpus corpus) {
+		this(featureList, corpus, false);
+	}
+	
+	/** Create a Bayesian model to recognize a particular document
+	 * category.
+	 * 
+	 * @param isotonic If true, calibrate scores by isotonic regression
+	 * rather than Platt scaling.
+	 */
+	public BayesianClassifier(ArrayList<String> featureList, Corpus corpus, boolean isotonic) {
 		this.features = featureList;
 		featureCount = features.size();
 		this.corpus = corpus;
-		D = corpus.numDocuments;
+		featureIndex = FeatureVector.indexFeatures(features);
+		ArrayList<Document> allDocs = corpus.getAllInstances();
+		D = allDocs.size();
 		double[] memberDegrees = makeDoubleArray(corpus.getMembershipProbs());
 		
 		// We're now going to gather the sum of feature counts for all
@@ -65,20 +82,26 @@ public class BayesianClassifier extends SupervisedLearner {
 		fill(outclassSums,0);
 		// These vectors contain in- and out-class sums for each feature.
 		
-		for (int i = 0; i < featureCount; ++ i ) {
-			String feature = features.get(i);
-			int[] distribOverDocs = doubleListToIntArray(corpus.rawFreqOverDocs(feature));
-			for (int d = 0; d < D; ++d){
-				double inclass = distribOverDocs[d] * memberDegrees[d];
+		// We make a single pass over the documents, visiting only the terms each
+		// document actually contains. Absent terms contribute nothing to either sum.
+		for (int d = 0; d < D; ++d) {
+			Document doc = allDocs.get(d);
+			for (int k = 0; k < doc.numNonzeros(); ++k) {
+				int i = featureIndex.get(doc.termIdAt(k));
+				if (i < 0) continue;
+				long count = Math.round(doc.countAt(k));
+				double inclass = count * memberDegrees[d];
 				// The term's representation in this class, for this document,
 				// is the product of its raw frequency in doc and the doc's
 				// degree of membership in the class.
-				double outclass = distribOverDocs[d] - inclass;
+				double outclass = count - inclass;
 				inclassSums[i] += inclass;
 				outclassSums[i] += outclass;
 			}
-		sumAllInClass += inclassSums[i];
-		sumAllOutClass += outclassSums[i];
+		}
+		for (int i = 0; i < featureCount; ++ i ) {
+			sumAllInClass += inclassSums[i];
+			sumAllOutClass += outclassSums[i];
 		}
 		
 		loglikelihoods = new double[featureCount];
@@ -96,41 +119,42 @@ public class BayesianClassifier extends SupervisedLearner {
 		}
 		baseProbability = Math.log(sumProbability / memberDegrees.length);
 		
-		// Now we need to build a simple logistic classifier that will calibrate
-		// the Bayesian predictions to produce a probabilistic prediction between
-		// zero and one.
-		//
-		// We start by running this Bayesian classifier on its own training documents.
-		ArrayList<ArrayList<Double>> predictionsOnTrainingSet = new ArrayList<ArrayList<Double>>(D);
-		ArrayList<Document> allDocs = corpus.getAllInstances();
-		for (Document doc : allDocs) {
-			ArrayList<Double> onefeature = new ArrayList<Double>(1);
-			onefeature.add(rawPrediction(doc));
-			predictionsOnTrainingSet.add(onefeature);
+		// Now we calibrate the Bayesian predictions to produce a probabilistic
+		// prediction between zero and one. We start by running this Bayesian
+		// classifier on its own training documents.
+		double[] predictionsOnTrainingSet = new double[D];
+		for (int d = 0; d < D; ++d) {
+			predictionsOnTrainingSet[d] = rawPrediction(allDocs.get(d));
 		}
 		
-		// Then we need a list of "features." Since we only have one "feature" (the
-		// Bayesian prediction) we create a dummy list. "__label__" below is similarly
-		// a dummy value for the class label.
-		ArrayList<String> dummy = new ArrayList<String>();
-		dummy.add("__feature__");
-		
-		logisticCalibration = new LogisticClassifier("__label__", corpus.getMembershipProbs(), 
-				dummy, predictionsOnTrainingSet, 0d);
+		if (isotonic) {
+			calibration = new IsotonicCalibrator(predictionsOnTrainingSet, memberDegrees);
+		}
+		else {
+			calibration = new PlattCalibrator(predictionsOnTrainingSet, memberDegrees);
+		}
+	}
+	
+	public ArrayList<String> getFeatures() {
+		return features;
 	}
 	
 	public double predictDocument(Document instance) {
 		double rawBayesianValue = rawPrediction(instance);
-		return logisticCalibration.predictScalar(rawBayesianValue);
+		return calibration.calibrate(rawBayesianValue);
 	}
 	
 	public double rawPrediction(Document instance) {
+		if (featureIndex == null) {
+			featureIndex = FeatureVector.indexFeatures(features);
+		}
 		double prediction = baseProbability;
-		//
-		for (int f = 0; f < featureCount; ++f) {
-			String feature = features.get(f);
-			prediction += instance.getRawTermFreq(feature) * loglikelihoods[f];
-			// 
+		// Only the document's nonzero terms can change the prediction, so we
+		// iterate over those rather than over the whole feature set.
+		for (int k = 0; k < instance.numNonzeros(); ++k) {
+			int f = featureIndex.get(instance.termIdAt(k));
+			if (f < 0) continue;
+			prediction += instance.countAt(k) * loglikelihoods[f];
 		}
 		return prediction;
 	}
@@ -144,13 +168,5 @@ private double[] makeDoubleArray(ArrayList<Double> aList) {
 	return doubleArray;
 }
 
-private int[] doubleListToIntArray(ArrayList<Double> aList) {
-	int len = aList.size();
-	int[] intArray = new int[len];
-	for (int i = 0; i < len; ++i) {
-		intArray[i] = (int) Math.round(aList.get(i));
-	}
-	return intArray;
-}
 	
 }
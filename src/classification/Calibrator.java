@@ -0,0 +1,16 @@
+package classification;
+
+/**
+ * Maps a classifier's raw score to a probability between zero and one.
+ * Implementations store only a few primitive parameters, so calibrating a
+ * prediction costs arithmetic rather than allocation.
+ *
+ * @author tunderwood
+ *
+ */
+public abstract class Calibrator implements java.io.Serializable {
+	static final long serialVersionUID = 927333929L;
+
+	public abstract double calibrate(double score);
+
+}
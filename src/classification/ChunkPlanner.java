@@ -0,0 +1,174 @@
+package classification;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * Keeps prediction within a heap budget, instead of reading a fixed number of
+ * volumes at a time. A fixed count is too many for a run of long volumes and
+ * too few for a run of short ones.
+ * <p>
+ * The budget is spent in two places. The PredictionPipeline holds no more
+ * than the budget's worth of volumes in flight, by their estimates. And the
+ * volume list is divided into chunks of about one budget's worth each: a chunk
+ * is the unit at which output is flushed and the heap is checked.
+ * <p>
+ * Each volume's cost is estimated before it's read: from its
+ * <code>totalwords</code> metadata if there is any, and otherwise from the size
+ * of its file. The planner learns bytes per word, and bytes per byte of file,
+ * from the Documents actually read, as a running average, so the estimates
+ * adapt to the vocabulary in use. A chunk ends when the next volume would take
+ * it over the budget.
+ * <p>
+ * After each chunk the planner also checks the heap, leaving out eden, whose
+ * contents are mostly the garbage of parsing. If what's left is above a
+ * high-water mark the budget shrinks; if it's comfortably low and chunks are
+ * filling the budget, the budget grows again, up to the ceiling it started with.
+ *
+ * @author tunderwood
+ *
+ */
+public class ChunkPlanner {
+	/** Shrink the budget when live heap exceeds this fraction of the maximum. */
+	static final double HIGHWATER = 0.8;
+	/** Grow it when live heap is below this fraction. */
+	static final double LOWWATER = 0.5;
+	static final double SHRINK = 0.7;
+	static final double GROW = 1.25;
+	/** Weight given to each new observation in the running averages. */
+	static final double LEARNINGRATE = 0.05;
+	static final long MINBUDGET = 1L << 20;
+
+	PairtreeReader reader;
+	long budget;
+	long ceiling;
+	long bytesPerVolume;
+	// Read by the pipeline's readers while the writer updates them.
+	volatile double bytesPerWord = 2d;
+	volatile double bytesPerFileByte = 1d;
+	boolean wordsObserved = false;
+	boolean fileBytesObserved = false;
+	long plannedBytes;
+	boolean chunkFull;
+
+	/**
+	 * @param reader Used to find file sizes for volumes without word counts.
+	 * @param budget Bytes of heap the volumes being predicted may hold at once.
+	 * @param bytesPerVolume Fixed cost of each volume apart from its Document,
+	 * e.g. its row of predictions and its line of output.
+	 */
+	public ChunkPlanner(PairtreeReader reader, long budget, long bytesPerVolume) {
+		this.reader = reader;
+		this.budget = Math.max(MINBUDGET, budget);
+		this.ceiling = this.budget;
+		this.bytesPerVolume = bytesPerVolume;
+	}
+
+	/**
+	 * A budget of half the heap that isn't already in use, which leaves room
+	 * for the garbage produced while volumes are parsed.
+	 */
+	public static long defaultBudget() {
+		long available = Runtime.getRuntime().maxMemory() - liveHeapBytes();
+		return Math.max(MINBUDGET, available / 2);
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return One past the last volume of the chunk that starts at from. Every
+	 * chunk has at least one volume, even if that volume alone is over budget.
+	 */
+	public int nextChunk(ArrayList<Volume> volumes, int from) {
+		long total = 0;
+		int to = from;
+		chunkFull = false;
+		while (to < volumes.size()) {
+			long cost = estimateBytes(volumes.get(to));
+			if (to > from && total + cost > budget) {
+				chunkFull = true;
+				break;
+			}
+			total += cost;
+			to += 1;
+		}
+		plannedBytes = total;
+		return to;
+	}
+
+	/** @return The estimated heap cost of a volume, before it's read. */
+	public long estimateBytes(Volume vol) {
+		long documentBytes;
+		if (vol.getNumWords() > 1) {
+			documentBytes = (long) (vol.getNumWords() * bytesPerWord);
+		}
+		else {
+			documentBytes = (long) (reader.getFileLength(vol) * bytesPerFileByte);
+		}
+		return bytesPerVolume + Document.OVERHEADBYTES + documentBytes;
+	}
+
+	/**
+	 * Learns from a Document's actual size how to estimate the next ones.
+	 */
+	public void observe(Volume vol, Document doc) {
+		if (doc.fileNotFound) return;
+		double bytes = doc.estimatedBytes() - Document.OVERHEADBYTES;
+		if (vol.getNumWords() > 1) {
+			double ratio = bytes / vol.getNumWords();
+			bytesPerWord = wordsObserved ? bytesPerWord + LEARNINGRATE * (ratio - bytesPerWord) : ratio;
+			wordsObserved = true;
+		}
+		else {
+			long length = reader.getFileLength(vol);
+			if (length < 1) return;
+			double ratio = bytes / length;
+			bytesPerFileByte = fileBytesObserved ? bytesPerFileByte + LEARNINGRATE * (ratio - bytesPerFileByte) : ratio;
+			fileBytesObserved = true;
+		}
+	}
+
+	/**
+	 * Adjusts the budget from the heap, once a chunk has been written. The
+	 * chunk's Documents are gone by then; what the check sees is everything
+	 * else the run holds, which the budget has to leave room for.
+	 * @return True if the budget changed.
+	 */
+	public boolean afterChunk() {
+		return afterChunk(liveHeapBytes(), Runtime.getRuntime().maxMemory());
+	}
+
+	boolean afterChunk(long live, long max) {
+		long previous = budget;
+		if (live > HIGHWATER * max) {
+			budget = Math.max(MINBUDGET, (long) (budget * SHRINK));
+		}
+		else if (live < LOWWATER * max && chunkFull) {
+			budget = Math.min(ceiling, (long) (budget * GROW));
+		}
+		return budget != previous;
+	}
+
+	/**
+	 * @return Heap in use outside the young generation's eden, which holds the
+	 * garbage of parsing and is emptied by every minor collection. What's left
+	 * is close to the live heap. Collectors with a single pool report all of it.
+	 */
+	static long liveHeapBytes() {
+		long live = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP || pool.getName().contains("Eden")) continue;
+			live += pool.getUsage().getUsed();
+		}
+		if (live > 0) return live;
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
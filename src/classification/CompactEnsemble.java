@@ -0,0 +1,343 @@
+package classification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * An ensemble of linear date-bin models in compact form, for scoring large
+ * collections. Coefficients are stored as float32, or optionally quantized to
+ * int8, which cuts the memory read per volume by a factor of two or eight
+ * against doubles.
+ * <p>
+ * Coefficients are laid out feature-major, so all the models' coefficients for
+ * one feature sit together. A volume's nonzero features are visited once, and
+ * each contributes to every model from one contiguous run of memory.
+ * <p>
+ * Any model that reports <code>linearCoefficients</code> can be exported;
+ * all the models must read the same features.
+ * <p>
+ * Quantization rounds each coefficient to a multiple of a step chosen per
+ * feature: the largest coefficient any model gives that feature, over 127.
+ * Coefficient size varies far more between features than between models, since
+ * rare words get large coefficients; a single step per model would be set by
+ * its rarest words and round away everything else. Per feature, the error a
+ * word adds to the log-odds is at most half its step times its frequency, so
+ * the large steps of rare words are multiplied by small frequencies.
+ * <p>
+ * An ensemble opened from a <code>ModelRegistry</code> file keeps its
+ * coefficients and scales in the memory-mapped file instead of on the heap.
+ *
+ * @author tunderwood
+ *
+ */
+public class CompactEnsemble {
+	static final int MAGIC = 0x434F4D31;
+	/** The most elements a Java array can hold. */
+	static final int MAXARRAY = Integer.MAX_VALUE - 8;
+
+	ArrayList<String> classLabels;
+	ArrayList<String> features;
+	FeatureHasher hasher;
+	int numModels;
+	int numFeatures;
+	boolean quantized;
+	/** float32 coefficients: weights[feature * numModels + model]. */
+	float[] weights;
+	/** int8 coefficients, in the same layout, when quantized. */
+	byte[] quantizedWeights;
+	/** For each feature, the value of one quantization step. */
+	float[] quantizationScales;
+	float[] intercepts;
+	/** Coefficients and scales in a mapped registry file, little-endian, in place of the arrays. */
+	ByteBuffer mappedWeights;
+	ByteBuffer mappedScales;
+	transient TermIndex featureIndex;
+
+	CompactEnsemble() {
+	}
+
+	/**
+	 * @param models Linear models that share a feature list (or a hasher).
+	 * @param classLabels The label of each model.
+	 * @param quantize True for int8 coefficients, false for float32.
+	 * @throws IllegalArgumentException If a model isn't linear, the models'
+	 * features differ, or there are too many coefficients for one array.
+	 */
+	public static CompactEnsemble fromModels(ArrayList<SupervisedLearner> models, ArrayList<String> classLabels, boolean quantize) {
+		CompactEnsemble ensemble = new CompactEnsemble();
+		ensemble.classLabels = classLabels;
+		ensemble.numModels = models.size();
+		SupervisedLearner first = models.get(0);
+		ensemble.features = first.getFeatures();
+		if (first instanceof StochasticLogisticClassifier) {
+			ensemble.hasher = ((StochasticLogisticClassifier) first).getHasher();
+		}
+		if (ensemble.hasher != null) ensemble.numFeatures = ensemble.hasher.numFeatures();
+		else ensemble.numFeatures = ensemble.features.size();
+		int numModels = ensemble.numModels;
+		int numFeatures = ensemble.numFeatures;
+		int size = tableSize(numFeatures, numModels);
+
+		double[][] coefficients = new double[numModels][numFeatures];
+		double[] intercepts = new double[numModels];
+		for (int m = 0; m < numModels; ++m) {
+			SupervisedLearner model = models.get(m);
+			ArrayList<String> modelFeatures = model.getFeatures();
+			if (modelFeatures != ensemble.features && (modelFeatures == null || !modelFeatures.equals(ensemble.features))) {
+				throw new IllegalArgumentException("Model " + classLabels.get(m) + " reads different features.");
+			}
+			intercepts[m] = model.linearCoefficients(coefficients[m]);
+			if (Double.isNaN(intercepts[m])) {
+				throw new IllegalArgumentException("Model " + classLabels.get(m) + " isn't linear.");
+			}
+		}
+
+		ensemble.intercepts = new float[numModels];
+		for (int m = 0; m < numModels; ++m) {
+			ensemble.intercepts[m] = (float) intercepts[m];
+		}
+		ensemble.quantized = quantize;
+		if (quantize) {
+			ensemble.quantizedWeights = new byte[size];
+			ensemble.quantizationScales = new float[numFeatures];
+			for (int j = 0; j < numFeatures; ++j) {
+				double largest = 0d;
+				for (int m = 0; m < numModels; ++m) {
+					largest = Math.max(largest, Math.abs(coefficients[m][j]));
+				}
+				double step = (largest > 0) ? largest / 127 : 1d;
+				ensemble.quantizationScales[j] = (float) step;
+				for (int m = 0; m < numModels; ++m) {
+					long q = Math.round(coefficients[m][j] / step);
+					ensemble.quantizedWeights[j * numModels + m] = (byte) Math.max(-127, Math.min(127, q));
+				}
+			}
+		}
+		else {
+			ensemble.weights = new float[size];
+			for (int m = 0; m < numModels; ++m) {
+				for (int j = 0; j < numFeatures; ++j) {
+					ensemble.weights[j * numModels + m] = (float) coefficients[m][j];
+				}
+			}
+		}
+		ensemble.indexFeatures();
+		return ensemble;
+	}
+
+	/**
+	 * @return The number of coefficients in a table of numFeatures rows and
+	 * numModels columns. Indices into it are ints, so it has to fit an array.
+	 * @throws IllegalArgumentException If it doesn't.
+	 */
+	static int tableSize(long numFeatures, long numModels) {
+		long size = numFeatures * numModels;
+		if (size > MAXARRAY) {
+			throw new IllegalArgumentException(numFeatures + " features by " + numModels +
+					" models is too many coefficients for one table; use fewer hash bits or wider date bins");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Builds the feature index now rather than on first use, so that threads can
+	 * share the ensemble from the start.
+	 */
+	void indexFeatures() {
+		if (hasher == null) featureIndex = FeatureVector.indexFeatures(features);
+	}
+
+	public int numModels() {
+		return numModels;
+	}
+
+	public boolean isQuantized() {
+		return quantized;
+	}
+
+	public FeatureHasher getHasher() {
+		return hasher;
+	}
+
+	public ArrayList<String> getClassLabels() {
+		return classLabels;
+	}
+
+	/** @return The features read, in order, or null if they are hashed. */
+	public ArrayList<String> getFeatures() {
+		return features;
+	}
+
+	/** @return The number of bytes the coefficients occupy. */
+	public long coefficientBytes() {
+		long size = (long) numFeatures * numModels;
+		if (quantized) return size + (4L * numFeatures);
+		return 4L * size;
+	}
+
+	/** @return True if the coefficients live in a memory-mapped file. */
+	public boolean isMapped() {
+		return mappedWeights != null;
+	}
+
+	float scaleAt(int feature) {
+		if (mappedScales != null) return mappedScales.getFloat(feature * 4);
+		return quantizationScales[feature];
+	}
+
+	float weightAt(int index) {
+		if (mappedWeights != null) return mappedWeights.getFloat(index * 4);
+		return weights[index];
+	}
+
+	byte quantizedWeightAt(int index) {
+		if (mappedWeights != null) return mappedWeights.get(index);
+		return quantizedWeights[index];
+	}
+
+	/**
+	 * Scores a document against every model at once.
+	 * @param doc A Document read with the ensemble's vocabulary, or its hasher.
+	 * @param predictions Receives each model's probability.
+	 */
+	public void predictDocument(Document doc, double[] predictions) {
+		float[] sums = new float[numModels];
+		float inverseNumWords = (float) doc.getInverseNumWords();
+		if (inverseNumWords > 0) {
+			if (hasher == null && featureIndex == null) featureIndex = FeatureVector.indexFeatures(features);
+			int nonzeros = doc.numNonzeros();
+			int[] rows = new int[nonzeros];
+			float[] values = new float[nonzeros];
+			int n = 0;
+			for (int k = 0; k < nonzeros; ++k) {
+				int j;
+				if (hasher != null) j = doc.termIdAt(k);
+				else j = featureIndex.get(doc.termIdAt(k));
+				if (j < 0) continue;
+				float value = (float) doc.countAt(k) * inverseNumWords;
+				if (quantized) value *= scaleAt(j);
+				rows[n] = j;
+				values[n] = value;
+				++n;
+			}
+			VectorKernels kernels = VectorKernels.get();
+			if (mappedWeights != null) {
+				if (quantized) kernels.sparseDotInt8(rows, values, n, mappedWeights, numModels, sums);
+				else kernels.sparseDotFloat32(rows, values, n, mappedWeights, numModels, sums);
+			}
+			else if (quantized) kernels.sparseDot(rows, values, n, quantizedWeights, numModels, sums);
+			else kernels.sparseDot(rows, values, n, weights, numModels, sums);
+		}
+		for (int m = 0; m < numModels; ++m) {
+			predictions[m] = StochasticLogisticClassifier.logistic(sums[m] + intercepts[m]);
+		}
+	}
+
+	public void save(String path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numModels);
+			for (String label : classLabels) {
+				out.writeUTF(label);
+			}
+			out.writeBoolean(hasher != null);
+			if (hasher != null) {
+				out.writeInt(hasher.bits);
+				out.writeInt(hasher.seed);
+			}
+			else {
+				out.writeInt(features.size());
+				for (String feature : features) {
+					out.writeUTF(feature);
+				}
+			}
+			out.writeBoolean(quantized);
+			for (int m = 0; m < numModels; ++m) {
+				out.writeFloat(intercepts[m]);
+			}
+			int size = tableSize(numFeatures, numModels);
+			if (quantized) {
+				for (int j = 0; j < numFeatures; ++j) {
+					out.writeFloat(scaleAt(j));
+				}
+				for (int i = 0; i < size; ++i) {
+					out.writeByte(quantizedWeightAt(i));
+				}
+			}
+			else {
+				for (int i = 0; i < size; ++i) {
+					out.writeFloat(weightAt(i));
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	public static CompactEnsemble load(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		CompactEnsemble ensemble = new CompactEnsemble();
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("Not a compact ensemble: " + path);
+			int numModels = in.readInt();
+			ensemble.numModels = numModels;
+			ensemble.classLabels = new ArrayList<String>(numModels);
+			for (int m = 0; m < numModels; ++m) {
+				ensemble.classLabels.add(in.readUTF());
+			}
+			if (in.readBoolean()) {
+				int bits = in.readInt();
+				ensemble.hasher = new FeatureHasher(bits, in.readInt());
+				ensemble.numFeatures = ensemble.hasher.numFeatures();
+			}
+			else {
+				int numFeatures = in.readInt();
+				ensemble.features = new ArrayList<String>(numFeatures);
+				for (int j = 0; j < numFeatures; ++j) {
+					ensemble.features.add(in.readUTF());
+				}
+				ensemble.numFeatures = numFeatures;
+			}
+			ensemble.quantized = in.readBoolean();
+			ensemble.intercepts = new float[numModels];
+			for (int m = 0; m < numModels; ++m) {
+				ensemble.intercepts[m] = in.readFloat();
+			}
+			int size;
+			try {
+				size = tableSize(ensemble.numFeatures, numModels);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage() + ": " + path);
+			}
+			if (ensemble.quantized) {
+				ensemble.quantizationScales = new float[ensemble.numFeatures];
+				for (int j = 0; j < ensemble.numFeatures; ++j) {
+					ensemble.quantizationScales[j] = in.readFloat();
+				}
+				ensemble.quantizedWeights = new byte[size];
+				in.readFully(ensemble.quantizedWeights);
+			}
+			else {
+				ensemble.weights = new float[size];
+				for (int i = 0; i < size; ++i) {
+					ensemble.weights[i] = in.readFloat();
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		ensemble.indexFeatures();
+		return ensemble;
+	}
+}
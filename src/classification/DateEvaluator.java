@@ -0,0 +1,317 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import datasets.*;
+
+/**
+ * Measures date-prediction error by k-fold cross-validation. Every volume with
+ * a usable date is assigned to a fold, stratified by date bin so that each fold
+ * has its share of every bin. For each fold we train a full ensemble of
+ * date-bin models on the rest of the collection, exactly as DatePredictor
+ * would, with the same trainer and options, and predict dates for the held-out
+ * volumes. Folds are trained and scored concurrently.
+ * <p>
+ * The report gives mean absolute error in years, accuracy per date bin, and the
+ * time and throughput of each stage (reading, training, scoring).
+ *
+ * @author tunderwood
+ *
+ */
+public class DateEvaluator {
+
+	static Metadata metadata;
+	static DateClassMap classMap;
+	static int startDate = 1800;
+	static int endDate = 1899;
+	static int SMOOTHSPAN = 12;
+
+	// Shared, read-only, by all folds.
+	static int[] folds;
+	static ArrayList<String> classLabels;
+	static int[] midpoints;
+	static DateInference inference;
+	static int binRadius;
+	static PairtreeReader dataReader;
+	static HashSet<String> vocabulary;
+	static FeatureHasher hasher;
+
+	/**
+	 * Arguments are the same as DatePredictor's, followed by the number of folds:
+	 * metadataFile dataFolder binRadius vocabularySize maxVolsToRead ridgeParameter
+	 * outputFolder k. Optional name=value arguments are DatePredictor's training
+	 * options (trainer, passes, batchsize, learningrate, hashbits, seed), and
+	 * threads (default: one per fold or per core, whichever is fewer).
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		String[] fieldList = {"date"};
+		binRadius = Integer.parseInt(args[2]);
+		int vocabularySize = Integer.parseInt(args[3]);
+		final int maxVolsToRead = Integer.parseInt(args[4]);
+		final String ridgeParameter = args[5];
+		String outputFolder = args[6];
+		final int k = Integer.parseInt(args[7]);
+		final HashMap<String, String> options = DatePredictor.parseOptions(args, 8);
+		int defaultThreads = Math.min(k, Runtime.getRuntime().availableProcessors());
+		int numThreads = Integer.parseInt(DatePredictor.getOption(options, "threads", Integer.toString(defaultThreads)));
+		// "learner" is the name this option had before training was shared with DatePredictor.
+		String trainerOption = DatePredictor.getOption(options, "trainer", DatePredictor.getOption(options, "learner", "weka"));
+		long seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+		String hashBits = DatePredictor.getOption(options, "hashbits", null);
+		if (hashBits != null) {
+			hasher = new FeatureHasher(Integer.parseInt(hashBits), 0);
+			if (!trainerOption.equals("sgd")) {
+				System.out.println("Hashed features need trainer=sgd; using it.");
+				trainerOption = "sgd";
+			}
+		}
+		final String trainer = trainerOption;
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+		Global.verbose = false;
+		// Otherwise every fold writes every model to the log.
+
+		long stageStart = System.currentTimeMillis();
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+		classMap = newClassMap(metadata);
+		classMap.setSeed(seed);
+		classLabels = classMap.getKnownClasses();
+		int numClasses = classLabels.size();
+		midpoints = new int[numClasses];
+		for (int c = 0; c < numClasses; ++c) {
+			midpoints[c] = Integer.parseInt(classLabels.get(c));
+		}
+		inference = new DateInference(midpoints, SMOOTHSPAN, startDate, endDate);
+		long metadataTime = System.currentTimeMillis() - stageStart;
+
+		stageStart = System.currentTimeMillis();
+		dataReader = new PairtreeReader(dataFolder);
+		ArrayList<String> vocabularyList = new ArrayList<String>();
+		if (hasher == null) vocabularyList = DatePredictor.buildVocabulary(classMap, classLabels, vocabularySize, dataReader);
+		final ArrayList<String> orderedVocabulary = vocabularyList;
+		vocabulary = new HashSet<String>(orderedVocabulary);
+		long vocabularyTime = System.currentTimeMillis() - stageStart;
+
+		folds = stratifiedFolds(classMap, classLabels, k, new Random(seed));
+
+		stageStart = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<FoldResult>> futures = new ArrayList<Future<FoldResult>>(k);
+		for (int f = 0; f < k; ++f) {
+			final int fold = f;
+			final long foldSeed = seed + fold;
+			futures.add(executor.submit(new Callable<FoldResult>() {
+				public FoldResult call() {
+					return evaluateFold(fold, orderedVocabulary, trainer, ridgeParameter, maxVolsToRead, foldSeed, options);
+				}
+			}));
+		}
+		ArrayList<FoldResult> results = new ArrayList<FoldResult>(k);
+		try {
+			for (Future<FoldResult> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+		long foldsTime = System.currentTimeMillis() - stageStart;
+
+		writeReport(results, outputFolder + "evaluation.tsv", metadataTime, vocabularyTime, foldsTime, numThreads);
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+
+	/** Bins dates the way DatePredictor does. */
+	static DateClassMap newClassMap(Metadata collection) {
+		int firstBinMidpoint = startDate + binRadius;
+		int binSpacing = (binRadius * 2) + 1;
+		DateClassMap map = new DateClassMap(firstBinMidpoint, endDate, binRadius, binSpacing, collection, "date");
+		map.mapVolsByMetadata(startDate, endDate);
+		return map;
+	}
+
+	/**
+	 * Assigns each volume in a date bin to one of k folds. Each bin's members
+	 * are shuffled and dealt out in turn, continuing from wherever the previous
+	 * bin left off, so every fold gets its share of every bin and the folds
+	 * differ in size by at most one. Bins can overlap; a volume is dealt with
+	 * the first bin it belongs to.
+	 * @return For each volume in the classMap, its fold, or -1 if its date is
+	 * unknown, in which case it's only ever used for training.
+	 */
+	static int[] stratifiedFolds(DateClassMap classMap, ArrayList<String> classLabels, int k, Random randomGenerator) {
+		int[] assigned = new int[classMap.getNumVolumes()];
+		Arrays.fill(assigned, -1);
+		int dealt = 0;
+		for (String label : classLabels) {
+			int[] members = classMap.getMemberIndices(label).clone();
+			for (int i = members.length - 1; i > 0; --i) {
+				int j = randomGenerator.nextInt(i + 1);
+				int swap = members[i];
+				members[i] = members[j];
+				members[j] = swap;
+			}
+			for (int v : members) {
+				if (assigned[v] >= 0) continue;
+				assigned[v] = dealt % k;
+				dealt += 1;
+			}
+		}
+		return assigned;
+	}
+
+	private static class FoldResult {
+		int fold;
+		int[] trueDates;
+		int[] predictedDates;
+		long trainTime;
+		long readTime;
+		long scoreTime;
+		int trainingSize;
+	}
+
+	/**
+	 * Trains on every volume outside the fold, through DatePredictor's own
+	 * training, and predicts dates for the volumes in it.
+	 */
+	private static FoldResult evaluateFold(int fold, ArrayList<String> features, String trainer, String ridgeParameter,
+			int maxVolsToRead, long seed, HashMap<String, String> options) {
+		ArrayList<Volume> volumes = metadata.getVolumes();
+		Metadata training = new Metadata(new String[] {"date"});
+		ArrayList<Volume> testVolumes = new ArrayList<Volume>();
+		for (int v = 0; v < volumes.size(); ++v) {
+			if (folds[v] == fold) testVolumes.add(volumes.get(v));
+			else training.addVolume(volumes.get(v));
+		}
+
+		long start = System.currentTimeMillis();
+		DateClassMap trainingMap = newClassMap(training);
+		trainingMap.setSeed(seed);
+		ArrayList<SupervisedLearner> models = DatePredictor.trainModels(trainingMap, classLabels, dataReader, features,
+				hasher, trainer, ridgeParameter, maxVolsToRead, seed, options);
+		long trainTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		ArrayList<Document> documents = new ArrayList<Document>(testVolumes.size());
+		for (Volume vol : testVolumes) {
+			Document doc;
+			if (hasher != null) doc = dataReader.getHashedDocument(vol, hasher);
+			else doc = dataReader.getDocument(vol, vocabulary);
+			if (!doc.fileNotFound) documents.add(doc);
+		}
+		long readTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		FoldResult result = new FoldResult();
+		result.fold = fold;
+		result.trueDates = new int[documents.size()];
+		result.predictedDates = new int[documents.size()];
+		double[][] predictions = new double[documents.size()][models.size()];
+		for (int t = 0; t < documents.size(); ++t) {
+			for (int m = 0; m < models.size(); ++m) {
+				predictions[t][m] = models.get(m).predictDocument(documents.get(t));
+			}
+			result.trueDates[t] = DateClassMap.parseDate(documents.get(t).getVolume().getValue("date"));
+		}
+		inference.inferDates(predictions, documents.size(), result.predictedDates, null);
+		result.scoreTime = System.currentTimeMillis() - start;
+		result.trainTime = trainTime;
+		result.readTime = readTime;
+		result.trainingSize = training.getSize();
+		System.out.println("Finished fold " + fold + ".");
+		return result;
+	}
+
+	private static void writeReport(ArrayList<FoldResult> results, String path, long metadataTime, long vocabularyTime,
+			long foldsTime, int numThreads) {
+		int numClasses = midpoints.length;
+		int[] binTotals = new int[numClasses];
+		int[] binCorrect = new int[numClasses];
+		double sumAbsoluteError = 0d;
+		int predictions = 0;
+		long trainTime = 0;
+		long readTime = 0;
+		long scoreTime = 0;
+
+		ArrayList<String> lines = new ArrayList<String>();
+		for (FoldResult result : results) {
+			double foldError = 0d;
+			for (int t = 0; t < result.trueDates.length; ++t) {
+				int trueDate = result.trueDates[t];
+				int predictedDate = result.predictedDates[t];
+				double error = Math.abs(trueDate - predictedDate);
+				foldError += error;
+				sumAbsoluteError += error;
+				predictions += 1;
+				int trueBin = nearestBin(trueDate);
+				binTotals[trueBin] += 1;
+				if (nearestBin(predictedDate) == trueBin) binCorrect[trueBin] += 1;
+			}
+			trainTime += result.trainTime;
+			readTime += result.readTime;
+			scoreTime += result.scoreTime;
+			int n = result.trueDates.length;
+			lines.add("fold\t" + result.fold + "\tmeanAbsoluteError\t" + (n > 0 ? foldError / n : 0d) +
+					"\ttrainingSize\t" + result.trainingSize + "\ttestSize\t" + n +
+					"\ttrainMillis\t" + result.trainTime + "\tscoreMillis\t" + result.scoreTime);
+		}
+
+		double meanAbsoluteError = predictions > 0 ? sumAbsoluteError / predictions : 0d;
+		lines.add(0, "meanAbsoluteError\t" + meanAbsoluteError + "\tpredictions\t" + predictions);
+		for (int c = 0; c < numClasses; ++c) {
+			double accuracy = binTotals[c] > 0 ? binCorrect[c] / (double) binTotals[c] : 0d;
+			lines.add("bin\t" + midpoints[c] + "\taccuracy\t" + accuracy + "\tvolumes\t" + binTotals[c]);
+		}
+		lines.add("stage\tmetadata\tmillis\t" + metadataTime);
+		lines.add("stage\tvocabulary\tmillis\t" + vocabularyTime);
+		lines.add("stage\tread\tmillis\t" + readTime + "\tvolumesPerSecond\t" + perSecond(predictions, readTime));
+		lines.add("stage\ttrain\tmillis\t" + trainTime + "\tmodelsPerSecond\t" + perSecond(numClasses * results.size(), trainTime));
+		lines.add("stage\tscore\tmillis\t" + scoreTime + "\tvolumesPerSecond\t" + perSecond(predictions, scoreTime));
+		lines.add("stage\tfolds\twallMillis\t" + foldsTime + "\tthreads\t" + numThreads);
+
+		for (String line : lines) {
+			System.out.println(line);
+		}
+		LineWriter writer = new LineWriter(path, false);
+		writer.send(lines.toArray(new String[lines.size()]));
+	}
+
+	private static int nearestBin(int date) {
+		int best = 0;
+		for (int c = 1; c < midpoints.length; ++c) {
+			if (Math.abs(date - midpoints[c]) < Math.abs(date - midpoints[best])) best = c;
+		}
+		return best;
+	}
+
+	private static double perSecond(int count, long millis) {
+		if (millis <= 0) return 0d;
+		return count / (millis / 1000d);
+	}
+}
@@ -0,0 +1,160 @@
+package classification;
+
+import java.util.ArrayList;
+
+/**
+ * Infers a date from the predictions of an ensemble of date-bin models. The
+ * predictions sit at bin midpoints; we smooth them onto individual years with a
+ * triangular kernel of half-width <code>span</code>, normalized so that each
+ * year's weights sum to one.
+ * <p>
+ * The kernel depends only on the midpoints, the span, and the date range, so we
+ * build it once, as a banded matrix with one row per year, and apply it to whole
+ * chunks of volumes at a time. Each kernel row is then read once per chunk rather
+ * than rebuilt once per volume.
+ * <p>
+ * Instances are immutable once constructed, and can be shared across threads.
+ *
+ * @author tunderwood
+ *
+ */
+public class DateInference {
+	static final int CHUNK = 256;
+
+	int startDate;
+	int endDate;
+	int numYears;
+	int numClasses;
+	/** Normalized kernel weights, row-major: kernel[(year - startDate) * numClasses + class]. */
+	double[] kernel;
+	/** For each year, the first class with nonzero weight; bandEnd is one past the last.
+	 * A year no bin covers has an empty band. */
+	int[] bandStart;
+	int[] bandEnd;
+
+	/**
+	 * @param midpoints The midpoint of each date bin, in the order of the predictions.
+	 * @param span Half-width of the triangular kernel, in years.
+	 * @param startDate First year that can be predicted.
+	 * @param endDate Last year that can be predicted.
+	 */
+	public DateInference(int[] midpoints, int span, int startDate, int endDate) {
+		this.startDate = startDate;
+		this.endDate = endDate;
+		numYears = endDate - startDate + 1;
+		numClasses = midpoints.length;
+		kernel = new double[numYears * numClasses];
+		bandStart = new int[numYears];
+		bandEnd = new int[numYears];
+
+		for (int y = 0; y < numYears; ++y) {
+			int date = startDate + y;
+			int row = y * numClasses;
+			double rowSum = 0d;
+			for (int c = 0; c < numClasses; ++c) {
+				int distance = Math.abs(midpoints[c] - date);
+				if (distance <= span) {
+					kernel[row + c] = span - distance;
+					// If you imagine a line from the edge of the span to the date,
+					// bisected by the year of this class, this is the far section of
+					// the line. So, it's bigger the closer the midpoint is to date.
+					rowSum += kernel[row + c];
+				}
+			}
+			int first = numClasses;
+			int last = -1;
+			if (rowSum > 0) {
+				for (int c = 0; c < numClasses; ++c) {
+					kernel[row + c] = kernel[row + c] / rowSum;
+					if (kernel[row + c] != 0d) {
+						if (first == numClasses) first = c;
+						last = c;
+					}
+				}
+			}
+			// Rows with no coverage keep an empty band, and are never predicted.
+			bandStart[y] = first;
+			bandEnd[y] = last + 1;
+		}
+	}
+
+	/**
+	 * @param classLabels Class labels that parse as the integer midpoints of bins.
+	 */
+	public static DateInference forLabels(ArrayList<String> classLabels, int span, int startDate, int endDate) {
+		int[] midpoints = new int[classLabels.size()];
+		for (int c = 0; c < midpoints.length; ++c) {
+			midpoints[c] = Integer.parseInt(classLabels.get(c));
+		}
+		return new DateInference(midpoints, span, startDate, endDate);
+	}
+
+	/**
+	 * Infers dates for a batch of volumes.
+	 *
+	 * @param predictions One row of bin predictions per volume.
+	 * @param count Number of rows to use.
+	 * @param predictedDates Receives, for each volume, the year whose smoothed
+	 * prediction is highest. Ties go to the earlier year. If no year scores above
+	 * zero, the date is 0.
+	 * @param expectedDates Receives, for each volume, the mean year weighted by
+	 * smoothed prediction, or NaN if every smoothed prediction is zero. May be null.
+	 */
+	public void inferDates(double[][] predictions, int count, int[] predictedDates, double[] expectedDates) {
+		double[] best = new double[CHUNK];
+		double[] weightedYears = new double[CHUNK];
+		double[] totals = new double[CHUNK];
+		for (int from = 0; from < count; from += CHUNK) {
+			int to = Math.min(count, from + CHUNK);
+			int n = to - from;
+			for (int v = 0; v < n; ++v) {
+				best[v] = 0d;
+				weightedYears[v] = 0d;
+				totals[v] = 0d;
+				predictedDates[from + v] = 0;
+			}
+			// Year-major order, so each kernel row is read once for the whole chunk.
+			for (int y = 0; y < numYears; ++y) {
+				int first = bandStart[y];
+				int last = bandEnd[y];
+				if (first >= last) continue;
+				int row = y * numClasses;
+				int date = startDate + y;
+				for (int v = 0; v < n; ++v) {
+					double[] volumePredictions = predictions[from + v];
+					double smoothed = 0d;
+					for (int c = first; c < last; ++c) {
+						smoothed += volumePredictions[c] * kernel[row + c];
+					}
+					if (smoothed > best[v]) {
+						best[v] = smoothed;
+						predictedDates[from + v] = date;
+					}
+					weightedYears[v] += smoothed * date;
+					totals[v] += smoothed;
+				}
+			}
+			if (expectedDates != null) {
+				for (int v = 0; v < n; ++v) {
+					if (totals[v] > 0) expectedDates[from + v] = weightedYears[v] / totals[v];
+					else expectedDates[from + v] = Double.NaN;
+				}
+			}
+		}
+	}
+
+	/** Infers the most likely date for a single volume. */
+	public int predictDate(double[] predictions) {
+		int[] predictedDate = new int[1];
+		inferDates(new double[][] {predictions}, 1, predictedDate, null);
+		return predictedDate[0];
+	}
+
+	/** Infers the expected date for a single volume. */
+	public double expectedDate(double[] predictions) {
+		int[] predictedDate = new int[1];
+		double[] expectedDate = new double[1];
+		inferDates(new double[][] {predictions}, 1, predictedDate, expectedDate);
+		return expectedDate[0];
+	}
+}
@@ -16,7 +16,6 @@ public class DatePredictor {
 	static int endDate;
 	static int binRadius;
 	static int SMOOTHSPAN = 12;
-	static int VOLUMESPERCLASSFORLEXICON = 20;
 
 	/**
 	 * @author tunderwood
@@ -35,8 +34,38 @@ public class DatePredictor {
 		int maxVolsToRead = Integer.parseInt(args[4]);
 		String ridgeParameter = args[5];
 		String outputFolder = args[6];
+		HashMap<String, String> options = parseOptions(args, 7);
+		// Anything after the seven positional arguments is an optional name=value pair.
+		// E.g. "trainer=sgd passes=3" streams the whole collection past AdaGrad
+		// models instead of sampling a training set for Weka.
+		String trainer = getOption(options, "trainer", "weka");
+		// "hashbits=k" replaces the vocabulary with 2^k hashed features, so there's
+		// no vocabulary pass and no dictionary in memory. Only SGD can train on them.
+		// "precision=float32" or "precision=int8" scores with a compact copy of the
+		// models, after checking it against the full models on the first
+		// "validate" volumes.
+		// Prediction reads volumes in chunks sized to "heapbudget" megabytes (a
+		// whole number, and never less than 1), by default half the free heap;
+		// maxVolsToRead only limits training sets.
+		String precision = getOption(options, "precision", "double");
+		int validationVolumes = Integer.parseInt(getOption(options, "validate", "1000"));
+		String hashBits = getOption(options, "hashbits", null);
+		FeatureHasher hasher = null;
+		if (hashBits != null) {
+			hasher = new FeatureHasher(Integer.parseInt(hashBits), 0);
+			if (!trainer.equals("sgd")) {
+				System.out.println("Hashed features need trainer=sgd; using it.");
+				trainer = "sgd";
+			}
+		}
 		
 		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+		// "metrics=path" writes counters, latencies and an ETA to path every
+		// "metricsperiod" seconds: Prometheus text if path ends in .prom, else JSON.
+		String metricsPath = getOption(options, "metrics", null);
+		if (metricsPath != null) {
+			Metrics.startExporter(metricsPath, Long.parseLong(getOption(options, "metricsperiod", "10")));
+		}
 		
 		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
 		
@@ -71,6 +100,9 @@ public class DatePredictor {
 		classMap = new DateClassMap(firstBinMidpoint, endDate, binRadius,
 			binSpacing, metadata, "date");
 		classMap.mapVolsByMetadata(1800, 1899);
+		long seed = Long.parseLong(getOption(options, "seed", "1"));
+		classMap.setSeed(seed);
+		// Samples drawn from the classMap are reproducible for a given seed.
 		
 		System.out.println("Done constructing classMap.");
 		
@@ -84,108 +116,125 @@ public class DatePredictor {
 		}
 		
 		PairtreeReader dataReader = new PairtreeReader(dataFolder);
-		ArrayList<String> orderedVocabulary = buildVocabulary(classLabels, vocabularySize, dataReader);
+		ArrayList<String> orderedVocabulary = new ArrayList<String>();
+		if (hasher == null) {
+			orderedVocabulary = buildVocabulary(classMap, classLabels, vocabularySize, dataReader);
+			System.out.println("Built vocabulary.");
+		}
+		else {
+			System.out.println("Hashing features into " + hasher.numFeatures() + " positions.");
+		}
 		HashSet<String> vocabulary = new HashSet<String>(orderedVocabulary);
-		System.out.println("Built vocabulary.");
 		
 		// Now we're going to build a model for each class in the classMap, and save it.
-		int maxSetSize = maxVolsToRead / 2;
-		int setSize;
-		ArrayList<LogisticClassifier> models = new ArrayList<LogisticClassifier>(classCount);
+		ArrayList<SupervisedLearner> models = trainModels(classMap, classLabels, dataReader, orderedVocabulary, hasher,
+				trainer, ridgeParameter, maxVolsToRead, seed, options);
+		for (int i = 0; i < classCount; ++i) {
+			// We serialize each model so we can reconstruct this process if needed.
+			serializeModel(models.get(i), outputFolder + classLabels.get(i) + ".classifier");
+		}
 		
-		for (String label : classLabels) {
-			System.out.println("Building a model for class: " + label);
-			int thisSize = classMap.getClassSize(label);
-			if (thisSize > maxSetSize) setSize = maxSetSize;
-			else setSize = thisSize;
-			ArrayList<Volume> positiveVols = classMap.takeRandomSample(label, setSize);
-			ArrayList<Volume> negativeVols = classMap.stratifiedSampleExcept(label, setSize);
-			ArrayList<Document> positiveDocs = dataReader.getMultipleDocs(positiveVols, vocabulary);
-			ArrayList<Document> negativeDocs = dataReader.getMultipleDocs(negativeVols, vocabulary);
-			ArrayList<Document> allDocs = new ArrayList<Document>(positiveDocs);
-			allDocs.addAll(negativeDocs);
-			ArrayList<Double> classValues = new ArrayList<Double>();
-			int sizeOfWholeSet = allDocs.size();
-			int numPositives = positiveDocs.size();
-			for (int i = 0; i < sizeOfWholeSet; ++ i) {
-				if (i < numPositives) classValues.add(1d);
-				else classValues.add(0d);
-			}
-			// We now have a list of positive and negative examples, and a list of
-			// classValues indexed to it, containing 1 for positive examples and 0d for
-			// negative ones.
-			LogisticClassifier thisClassifier = new LogisticClassifier(label, orderedVocabulary, allDocs, classValues, ridgeParameter);
-			models.add(thisClassifier);
-			// We have added the classifier to a collection of models. Now we serialize it and
-			// write it to file so we can reconstruct this process if needed.
+		CompactEnsemble compact = null;
+		if (!precision.equals("double")) {
 			try {
-				FileOutputStream fileout = new FileOutputStream(outputFolder + label + ".classifier");
-				ObjectOutputStream serializer = new ObjectOutputStream(fileout);
-				serializer.writeObject(thisClassifier);
-				serializer.close();
-				fileout.close();
+				compact = CompactEnsemble.fromModels(models, classLabels, precision.equals("int8"));
+				compact.save(outputFolder + "ensemble." + precision);
+				System.out.println("Scoring with " + precision + " coefficients: " + compact.coefficientBytes() + " bytes.");
+			}
+			catch (IllegalArgumentException e) {
+				System.out.println("Can't export models to " + precision + " (" + e.getMessage() + "); scoring in double precision.");
 			}
 			catch (IOException e) {
-				e.printStackTrace();
+				System.out.println("Could not save compact ensemble: " + e);
+			}
+			if (compact != null) {
+				// The same models, laid out to be memory-mapped by scoring processes.
+				String registryFile = outputFolder + "models.registry";
+				try {
+					ModelRegistry.write(compact, registryFile);
+				}
+				catch (IllegalArgumentException e) {
+					// Don't leave an earlier run's registry for a service to pick up.
+					new File(registryFile).delete();
+					System.out.println("Not writing a model registry: " + e.getMessage() + ".");
+				}
+				catch (IOException e) {
+					System.out.println("Could not write model registry: " + e);
+				}
 			}
 		}
-		
 		// Now we actually classify the volumes using our model.
-		// We read files in chunks to avoid maxing out memory.
+		// We read files in chunks to avoid maxing out memory. Chunks are sized to
+		// a heap budget, not a count, since volumes vary so much in length; and
+		// the pipeline that reads them holds no more than the budget at once.
 		
 		ArrayList<Volume> volumes = metadata.getVolumes();
 		int numVolumes = metadata.getSize();
-		int numChunks = (int) Math.ceil(numVolumes / (double) maxVolsToRead);
+		String heapBudget = getOption(options, "heapbudget", null);
+		long budget = (heapBudget != null) ? Long.parseLong(heapBudget) << 20 : ChunkPlanner.defaultBudget();
+		// Besides its Document, each volume in a chunk holds a row of predictions
+		// and a line of output.
+		long bytesPerVolume = 64 + (8L * classCount) + 2 * (64 + 24L * classCount);
+		ChunkPlanner planner = new ChunkPlanner(dataReader, budget, bytesPerVolume);
+		System.out.println("Predicting in chunks of up to " + (planner.getBudget() >> 20) + " MB.");
 		
 		// We store predictions in a collection, but also write them to file when
 		// each chunk is completed.
 		LineWriter progressiveWriter = new LineWriter(outputFolder + "cumulativePredictions.tsv", true);
 		// The boolean flag sets this so that each write will append rather than overwrite the file.
 		
+		// Now we need to infer estimated dates from the maximum prediction. But since
+		// predictions may be noisy, we want to do this with some smoothing. The
+		// smoothing kernel is the same for every volume, so we build it once.
+		DateInference inference = DateInference.forLabels(classLabels, SMOOTHSPAN, startDate, endDate);
+		
 		ArrayList<ArrayList<Double>> predictAllVols = new ArrayList<ArrayList<Double>>();
-		for (int i = 0; i < numChunks; ++i) {
-			int floor = i * maxVolsToRead;
-			int ceiling = (i + 1) * maxVolsToRead;
-			if (ceiling > numVolumes) ceiling = numVolumes;
-			String[] outputChunk = new String[ceiling-floor];
-			int counter = 0;
-			for (int j = floor; j < ceiling; ++j) {
-				Volume vol = volumes.get(j);
-				Document doc = dataReader.getDocument(vol, vocabulary);
-				// Now, it's possible that the doc was actually not found by the
-				// dataReader. Thus the if-then-else statement inside the loop below.
-				
-				ArrayList<Double> predictionVector = new ArrayList<Double>();
-				for (LogisticClassifier model : models) {
-					if (doc.fileNotFound) {
-						predictionVector.add(0d);
-					}
-					else {
-						predictionVector.add(model.predictDocument(doc));
-					}
-				}
-				predictAllVols.add(predictionVector);
-				outputChunk[counter] = outputLine(doc, predictionVector, classLabels, SMOOTHSPAN);
-				counter += 1;
+		ArrayList<String> attestedDates = new ArrayList<String>();
+		ArrayList<Integer> predictedDates = new ArrayList<Integer>();
+		ArrayList<Double> expectedDates = new ArrayList<Double>();
+		// Within each chunk, volumes flow through a pipeline: reader threads,
+		// scorer threads, and an ordered writer, so reading and scoring overlap.
+		// The compact ensemble is thread-safe; full models (Weka's in particular)
+		// aren't, so they get a single scorer.
+		int readers = Integer.parseInt(getOption(options, "readers", "4"));
+		int scorers = (compact != null) ? Integer.parseInt(getOption(options, "scorers",
+				Integer.toString(Runtime.getRuntime().availableProcessors()))) : 1;
+		int queueSize = Integer.parseInt(getOption(options, "queue", "64"));
+		PredictionPipeline pipeline = new PredictionPipeline(readers, scorers, queueSize);
+		PredictionStages stages = new PredictionStages(dataReader, vocabulary, hasher, models, classLabels, compact,
+				inference, planner, validationVolumes);
+		
+		Metrics.startPhase("prediction", numVolumes);
+		int ceiling = 0;
+		while (ceiling < numVolumes) {
+			int floor = ceiling;
+			ceiling = planner.nextChunk(volumes, floor);
+			stages.startChunk(ceiling - floor);
+			try {
+				pipeline.run(volumes, floor, ceiling, stages, planner.getBudget());
+			}
+			catch (InterruptedException e) {
+				System.out.println("Interrupted while predicting dates.");
+				System.exit(1);
+			}
+			
+			if (planner.afterChunk()) {
+				System.out.println("Heap is " + ((ChunkPlanner.liveHeapBytes() * 100) / Runtime.getRuntime().maxMemory())
+						+ "% full; chunk budget is now " + (planner.getBudget() >> 20) + " MB.");
 			}
-			progressiveWriter.send(outputChunk);
+			
+			predictAllVols.addAll(stages.predictionVectors);
+			predictedDates.addAll(stages.predictedDates);
+			expectedDates.addAll(stages.expectedDates);
+			attestedDates.addAll(stages.attestedDates);
+			progressiveWriter.send(stages.outputLines.toArray(new String[0]));
+			System.out.println("Predicted dates for volumes " + floor + " to " + (ceiling - 1) + ".");
 		}
+		System.out.println(pipeline.report());
 		
 		// The lines that follow actually duplicate the output produced by progressiveWriter,
 		// but they do so with some valuable niceties, like a header.
 		
-		ArrayList<String> attestedDates = new ArrayList<String>();
-		ArrayList<Integer> predictedDates = new ArrayList<Integer>();
-		// Now we need to infer estimated dates from the maximum prediction. But since
-		// predictions may be noisy, we want to do this with some smoothing.
-		for (int i = 0; i < numVolumes; ++i) {
-			int predictedDate = predictDate(predictAllVols.get(i), classLabels, SMOOTHSPAN);
-			String attestedDate = volumes.get(i).getValue("date");
-			predictedDates.add(predictedDate);
-			attestedDates.add(attestedDate);
-			System.out.println(predictedDate);
-		}
-		
 		ArrayWriter volumePredictions = new ArrayWriter("\t");
 		ArrayList<String> htids = new ArrayList<String>();
 		for (Volume vol : volumes) {
@@ -194,64 +243,109 @@ public class DatePredictor {
 		volumePredictions.addStringColumn(htids, "volume");
 		volumePredictions.addStringColumn(attestedDates, "attested");
 		volumePredictions.addIntegerColumn(predictedDates, "predicted");
+		volumePredictions.addDoubleColumn(expectedDates, "expected");
 		volumePredictions.addDoubleArray(predictAllVols, classLabels);
 		volumePredictions.writeToFile(outputFolder + "volumePredictions.tsv");
 		
+		if (compact != null && stages.validated > 0) {
+			writeDriftReport(outputFolder + "precisionDrift.tsv", classLabels, stages.maxDrift, stages.totalDrift,
+					stages.validated);
+		}
+		
 		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+		if (metricsPath != null) Metrics.stopExporter(metricsPath);
 	}
 	
-	private static int predictDate(ArrayList<Double> predictionVector, ArrayList<String> classLabels, int span) {
-		int predictedDate = 0;
-		double maxPrediction = 0;
-		
-		// This is basically a smoothing problem. We have predictions located at bin midpoints, and we want to
-		// infer smoothed predictions for specific years.
+	/**
+	 * Trains a model for each class, the way a DatePredictor run does, so that
+	 * DateEvaluator measures the same training. With the sgd trainer, the options
+	 * passes, batchsize and learningrate apply; the weka trainer samples up to
+	 * maxVolsToRead / 2 members of each class, and as many nonmembers.
+	 * @param orderedVocabulary The features, unless hasher is not null.
+	 * @param seed Seeds the stochastic trainer; the classMap's own seed governs
+	 * the weka trainer's samples.
+	 * @return The models, in the order of classLabels.
+	 */
+	static ArrayList<SupervisedLearner> trainModels(DateClassMap classMap, ArrayList<String> classLabels,
+			PairtreeReader dataReader, ArrayList<String> orderedVocabulary, FeatureHasher hasher, String trainer,
+			String ridgeParameter, int maxVolsToRead, long seed, HashMap<String, String> options) {
+		int classCount = classLabels.size();
+		HashSet<String> vocabulary = new HashSet<String>(orderedVocabulary);
+		int maxSetSize = maxVolsToRead / 2;
+		int setSize;
+		ArrayList<SupervisedLearner> models = new ArrayList<SupervisedLearner>(classCount);
 		
-		for (int date = startDate; date <= endDate; ++date) {
-			ArrayList<Double> relevanceVector = new ArrayList<Double>();
-			for (String label : classLabels) {
-				int year = Integer.parseInt(label);
-				double relevance;
-				if ((year + span) < date | (year - span) > date) relevance = 0d;
-				else relevance = (double) (span) - Math.abs(year - date);
-				// If you imagine a line from the edge of the span to the date,
-				// bisected by the year of this class, this is the far section of
-				// the line. So, it's bigger the closer year is to date.
-				relevanceVector.add(relevance);
+		if (trainer.equals("sgd")) {
+			// The stochastic trainer makes sequential passes over every volume in the
+			// classMap, so it isn't limited to maxSetSize volumes per class.
+			int passes = Integer.parseInt(getOption(options, "passes", "1"));
+			int batchSize = Integer.parseInt(getOption(options, "batchsize", "256"));
+			double learningRate = Double.parseDouble(getOption(options, "learningrate", "0.1"));
+			StochasticTrainer sgd;
+			if (hasher != null) {
+				sgd = new StochasticTrainer(classMap, dataReader, hasher,
+						Double.parseDouble(ridgeParameter), passes, batchSize, learningRate, seed);
 			}
-			
-			// we normalize the relevanceVector to unit length
-			double vectorSum = 0;
-			for (Double value : relevanceVector) {
-				vectorSum += value;
-			}
-			for (int i = 0; i < relevanceVector.size(); ++ i) {
-				relevanceVector.set(i, relevanceVector.get(i) / vectorSum);
-			}
-			
-			double thisPrediction = 0;
-			for (int i = 0; i < predictionVector.size(); ++i) {
-				thisPrediction += predictionVector.get(i) * relevanceVector.get(i);
+			else {
+				sgd = new StochasticTrainer(classMap, dataReader, orderedVocabulary,
+						Double.parseDouble(ridgeParameter), passes, batchSize, learningRate, seed);
 			}
-			if (thisPrediction > maxPrediction) {
-				maxPrediction = thisPrediction;
-				predictedDate = date;
+			models = sgd.trainAllClasses();
+		}
+		else {
+			Metrics.startPhase("training", classCount);
+			for (String label : classLabels) {
+				System.out.println("Building a model for class: " + label);
+				long started = System.nanoTime();
+				int thisSize = classMap.getClassSize(label);
+				if (thisSize > maxSetSize) setSize = maxSetSize;
+				else setSize = thisSize;
+				ArrayList<Volume> positiveVols = classMap.takeRandomSample(label, setSize);
+				ArrayList<Volume> negativeVols = classMap.stratifiedSampleExcept(label, setSize);
+				ArrayList<Document> positiveDocs = dataReader.getMultipleDocs(positiveVols, vocabulary);
+				ArrayList<Document> negativeDocs = dataReader.getMultipleDocs(negativeVols, vocabulary);
+				ArrayList<Document> allDocs = new ArrayList<Document>(positiveDocs);
+				allDocs.addAll(negativeDocs);
+				ArrayList<Double> classValues = new ArrayList<Double>();
+				int sizeOfWholeSet = allDocs.size();
+				int numPositives = positiveDocs.size();
+				for (int i = 0; i < sizeOfWholeSet; ++ i) {
+					if (i < numPositives) classValues.add(1d);
+					else classValues.add(0d);
+				}
+				// We now have a list of positive and negative examples, and a list of
+				// classValues indexed to it, containing 1 for positive examples and 0d for
+				// negative ones.
+				LogisticClassifier thisClassifier = new LogisticClassifier(label, orderedVocabulary, allDocs, classValues, ridgeParameter);
+				models.add(thisClassifier);
+				Metrics.counter("training.nanos", "class", label).add(System.nanoTime() - started);
+				Metrics.counter("training.instances", "class", label).add(sizeOfWholeSet);
+				Metrics.advance(1);
 			}
 		}
-		
-		return predictedDate;
+		return models;
 	}
 	
-	private static String outputLine(Document doc, ArrayList<Double> predictionVector, ArrayList<String> classLabels, int span) {
-		String predictedDate;
-		if (doc.fileNotFound) {
-			predictedDate = "0";
-		}
-		else {
-			predictedDate = Integer.toString(predictDate(predictionVector, classLabels, span));
+	/**
+	 * Reports, for each model, how far compact scoring moved its probabilities
+	 * from the full-precision model's.
+	 */
+	private static void writeDriftReport(String path, ArrayList<String> classLabels, double[] maxDrift,
+			double[] totalDrift, int validated) {
+		String[] lines = new String[classLabels.size() + 1];
+		lines[0] = "class\tmaxdrift\tmeandrift";
+		double overall = 0d;
+		for (int m = 0; m < classLabels.size(); ++m) {
+			lines[m + 1] = classLabels.get(m) + "\t" + maxDrift[m] + "\t" + (totalDrift[m] / validated);
+			overall = Math.max(overall, maxDrift[m]);
 		}
-		String attestedDate = doc.getVolume().getValue("date");
-		String htid = doc.getVolume().htid;
+		new LineWriter(path, false).send(lines);
+		System.out.println("Largest probability drift over " + validated + " volumes: " + overall);
+	}
+	
+	static String outputLine(Volume vol, int predictedDate, double expectedDate, ArrayList<Double> predictionVector) {
+		String attestedDate = vol.getValue("date");
+		String htid = vol.htid;
 		String allPredictions = "";
 		int columns = predictionVector.size();
 		for (int j = 0; j < columns; ++ j) {
@@ -260,68 +354,90 @@ public class DatePredictor {
 				allPredictions = allPredictions + "\t";
 			}
 		}
-		String outLine = htid + "\t" + attestedDate + "\t" + predictedDate + "\t" + allPredictions;
+		String outLine = htid + "\t" + attestedDate + "\t" + predictedDate + "\t" + expectedDate + "\t" + allPredictions;
 		return outLine;	
 	}
 	
+	static void serializeModel(SupervisedLearner model, String path) {
+		try {
+			FileOutputStream fileout = new FileOutputStream(path);
+			ObjectOutputStream serializer = new ObjectOutputStream(fileout);
+			serializer.writeObject(model);
+			serializer.close();
+			fileout.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Collects optional command-line arguments of the form name=value.
+	 * @param args The whole argument array.
+	 * @param firstOptional Index of the first argument that isn't positional.
+	 * @return A map from option names to their (String) values.
+	 */
+	public static HashMap<String, String> parseOptions(String[] args, int firstOptional) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		for (int i = firstOptional; i < args.length; ++i) {
+			int equalsIndex = args[i].indexOf("=");
+			if (equalsIndex < 1) {
+				System.out.println("Ignoring argument " + args[i] + "; options should be name=value.");
+				continue;
+			}
+			options.put(args[i].substring(0, equalsIndex).toLowerCase(), args[i].substring(equalsIndex + 1));
+		}
+		return options;
+	}
+	
+	public static String getOption(HashMap<String, String> options, String name, String defaultValue) {
+		String value = options.get(name);
+		if (value == null) return defaultValue;
+		else return value;
+	}
+	
 	private static String stacktraceToString(InputFileException e) {
 	    return Arrays.toString(e.getStackTrace());
 	}
 	
-	private static ArrayList<String> buildVocabulary(ArrayList<String> classLabels, int vocabularySize, PairtreeReader dataReader) {
-		// Let's build a vocabulary
-		HashSet<String> featuresToLoad = new HashSet<String>();
-		// We leave this empty, which ensures loading all features.
-		HashMap<String, Integer> wordcounts = new HashMap<String, Integer>();
-		
-		System.out.println("Building vocabulary.");
-		for (String label : classLabels) {
-			System.out.println("Getting class " + label + ".");
-			int volumesToGet;
-			int thisSize = classMap.getClassSize(label);
-			if (thisSize < VOLUMESPERCLASSFORLEXICON) volumesToGet = thisSize;
-			else {
-				volumesToGet = VOLUMESPERCLASSFORLEXICON;
-			}
-			ArrayList<Volume> selectedVols = classMap.takeRandomSample(label, volumesToGet);
-			System.out.println("Contains " + Integer.toString(selectedVols.size()) + " volumes.");
-			ArrayList<Document> selectedDocs = dataReader.getMultipleDocs(selectedVols, featuresToLoad);
-			for (Document doc : selectedDocs) {
-				HashMap<String, Double> features = doc.getFeatures();
-				for (String key : features.keySet()) {
-					int newCount = features.get(key).intValue();
-					
-					if (wordcounts.containsKey(key)) {
-						int existingCount = wordcounts.get(key);
-						wordcounts.put(key, existingCount + newCount);
-					}
-					else {
-						wordcounts.put(key, newCount);
+	/**
+	 * Builds a vocabulary from every volume in a known date class, reading each
+	 * volume once even where bins overlap.
+	 * @return The vocabularySize most frequent words, most frequent first.
+	 */
+	static ArrayList<String> buildVocabulary(ClassMap classMap, ArrayList<String> classLabels, int vocabularySize, PairtreeReader dataReader) {
+		ArrayList<ClassMap> classMaps = new ArrayList<ClassMap>();
+		classMaps.add(classMap);
+		ArrayList<ArrayList<String>> labelsPerMap = new ArrayList<ArrayList<String>>();
+		labelsPerMap.add(classLabels);
+		return buildVocabulary(classMaps, labelsPerMap, vocabularySize, dataReader);
+	}
+	
+	/**
+	 * Builds a vocabulary from every volume in a known class of any of several
+	 * class maps, reading each volume once. The maps must all have been made from
+	 * the same Metadata, so that their volume indices agree.
+	 */
+	static ArrayList<String> buildVocabulary(ArrayList<ClassMap> classMaps, ArrayList<ArrayList<String>> labelsPerMap,
+			int vocabularySize, PairtreeReader dataReader) {
+		boolean[] alreadySeen = new boolean[classMaps.get(0).getNumVolumes()];
+		ArrayList<Volume> volumes = new ArrayList<Volume>();
+		for (int m = 0; m < classMaps.size(); ++m) {
+			ClassMap classMap = classMaps.get(m);
+			for (String label : labelsPerMap.get(m)) {
+				for (int v : classMap.getMemberIndices(label)) {
+					if (!alreadySeen[v]) {
+						alreadySeen[v] = true;
+						volumes.add(classMap.getVolume(v));
 					}
 				}
 			}
 		}
-			
-		// now we have a HashMap that maps each word to its count
-		ValueComparator inValueOrder = new ValueComparator(wordcounts);
-		int mapSize = wordcounts.size();
-		System.out.println("Total dictionary size: " + Integer.toString(mapSize));
-		String[] allTheKeys = new String[mapSize];
-		int idx = 0;
-		for (String aWord : wordcounts.keySet()) {
-			allTheKeys[idx] = aWord;
-			idx += 1;
-		}
-		System.out.println("Sorting vocabulary.");
-		Arrays.sort(allTheKeys, inValueOrder);
-		
-		ArrayList<String> orderedVocabulary = new ArrayList<String>();
-		
-		for (int i = 0; i < vocabularySize; ++i) {
-			orderedVocabulary.add(allTheKeys[i]);
-		}
-
-		return orderedVocabulary;
+		System.out.println("Building vocabulary from " + volumes.size() + " volumes.");
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		VocabularyBuilder builder = new VocabularyBuilder(dataReader, numThreads,
+				VocabularyBuilder.tableSizeForHeap(numThreads, vocabularySize));
+		return builder.topWords(volumes, vocabularySize);
 	}
 
 }
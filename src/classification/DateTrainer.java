@@ -47,8 +47,8 @@ public class DateTrainer extends Trainer {
 			allFeatures.add(aFeature);
 		}
 		MannWhitneySorter sorter = new MannWhitneySorter(corpus);
-		int[] featureOrder = sorter.rankTermsByMW(allFeatures);
-		for (int i = 0; i < numToTest; ++i) {
+		int[] featureOrder = sorter.topTermsByMW(allFeatures, numToTest);
+		for (int i = 0; i < featureOrder.length; ++i) {
 			features.add(allFeatures.get(featureOrder[i]));
 		}
 		return features;
@@ -1,94 +1,247 @@
 package classification;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 import datasets.Volume;
 
 /**
+ * A wordcount object. Counts are stored as two parallel primitive arrays: term
+ * ids from the Lexicon, in ascending order, and float counts. That costs eight
+ * bytes per term, where a HashMap&lt;String, Double&gt; cost eighty or more, and
+ * it lets model loops visit a document's nonzero terms without boxing:
+ * <pre>
+ * for (int k = 0; k &lt; doc.numNonzeros(); ++k) {
+ *     int feature = index.get(doc.termIdAt(k));
+ *     ...doc.countAt(k)...
+ * }
+ * </pre>
+ * Floats represent integer counts exactly up to about sixteen million, which is
+ * more than any single term will reach in a volume.
+ *
  * @author tunderwood
  *
  */
 public class Document {
+	static final int OVERHEADBYTES = 112;
+
 	double probBelongsToClass;
 	Volume vol;
 	int page = -1;
-	HashMap<String, Double> features;
+	int[] termIds;
+	float[] counts;
+	int numTerms;
 	int numPages;
 	double numWords;
+	double inverseNumWords;
+	/** True if term ids are FeatureHasher positions rather than Lexicon ids. */
+	boolean hashed;
 	public boolean fileNotFound;
-	
+
 	/**
 	 * Creates a Document (wordcount object), while explicitly flagging whether this Document is based on
 	 * actual file data. There are cases where you want to put document in a list of docs,
 	 * even if you couldn't actually find any data for it. In this case the fileNotFound
 	 * flag becomes important. You could infer this from numWords == 0, but that's a
 	 * workaround that could also break.
-	 * 
-	 * @param features A HashMap of Strings pointing to double feature counts. Would be
-	 * more efficient, but less flexible, to store integers.
+	 *
+	 * @param features A HashMap of Strings pointing to double feature counts. It's
+	 * copied into primitive arrays, so the caller can discard it.
 	 * @param vol The Volume (metadata record) associated with this Document.
 	 * @param fileFound boolean flag.
-	 * 
+	 *
 	 */
 	public Document(HashMap<String, Double> features, Volume vol, boolean fileFound) {
+		int n = features.size();
+		int[] ids = new int[n];
+		float[] values = new float[n];
+		int i = 0;
+		for (Map.Entry<String, Double> entry : features.entrySet()) {
+			ids[i] = Lexicon.getId(entry.getKey());
+			values[i] = entry.getValue().floatValue();
+			i += 1;
+		}
+		initialize(ids, values, n, vol, fileFound, false);
+	}
+
+	public Document(HashMap<String, Double> features, Volume vol) {
+		this(features, vol, true);
+		// This constructor simply assumes the data is based on successful file access.
+		// Deprecated.
+	}
+
+	/**
+	 * Creates a Document from parallel arrays of term ids and counts, in any order.
+	 * If a term id occurs more than once, the last count wins, as it would if the
+	 * counts had been put into a HashMap. The arrays are not retained.
+	 *
+	 * @param ids Lexicon ids of the terms.
+	 * @param values Counts of the terms.
+	 * @param n Number of valid entries in the arrays.
+	 */
+	public Document(int[] ids, float[] values, int n, Volume vol, boolean fileFound) {
+		initialize(ids, values, n, vol, fileFound, false);
+	}
+
+	/**
+	 * Creates a Document of hashed features. Ids are FeatureHasher positions and
+	 * values are signed counts; where words collide on a position their values
+	 * are summed. Signed values don't add up to the number of words, so the
+	 * reader counts that separately and passes it in.
+	 *
+	 * @param positions Hashed positions of the words.
+	 * @param values Signed counts of the words.
+	 * @param n Number of valid entries in the arrays.
+	 * @param numWords Total count of all words read.
+	 */
+	public Document(int[] positions, float[] values, int n, Volume vol, double numWords) {
+		initialize(positions, values, n, vol, true, true);
+		hashed = true;
+		this.numWords = numWords;
+		if (numWords > 0) inverseNumWords = 1d / numWords;
+		else inverseNumWords = 0d;
+	}
+
+	/**
+	 * Creates a Document for a single page of a volume, from parallel arrays as
+	 * above. A page is its own unit, so it counts as one page whatever the
+	 * length of the volume.
+	 *
+	 * @param page The page's sequence number within the volume.
+	 */
+	public Document(int[] ids, float[] values, int n, Volume vol, int page) {
+		initialize(ids, values, n, vol, true, false);
+		this.page = page;
+		numPages = 1;
+	}
+
+	/**
+	 * @param sumDuplicates If true, counts for the same id are summed; otherwise
+	 * the last one wins.
+	 */
+	private void initialize(int[] ids, float[] values, int n, Volume vol, boolean fileFound, boolean sumDuplicates) {
 		this.vol = vol;
-		this.features = features;
 		numPages = vol.getNumPages();
+
+		// Sort by term id, keeping each entry's original position in the low bits
+		// of a long so that we can tell which duplicate came last.
+		long[] order = new long[n];
+		for (int i = 0; i < n; ++i) {
+			order[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int distinct = 0;
+		for (int i = 0; i < n; ++i) {
+			if (i + 1 < n && (order[i + 1] >>> 32) == (order[i] >>> 32)) continue;
+			distinct += 1;
+		}
+		termIds = new int[distinct];
+		counts = new float[distinct];
+		int k = 0;
+		float sum = 0f;
+		for (int i = 0; i < n; ++i) {
+			sum += values[(int) order[i]];
+			if (i + 1 < n && (order[i + 1] >>> 32) == (order[i] >>> 32)) continue;
+			termIds[k] = (int) (order[i] >>> 32);
+			if (sumDuplicates) counts[k] = sum;
+			else counts[k] = values[(int) order[i]];
+			sum = 0f;
+			k += 1;
+		}
+		numTerms = distinct;
+
 		numWords = 0d;
 		// we add up all the word frequencies to produce a total number of words
 		// this is only meaningful if the values of the feature map are unnormalized counts
 		// but then again, we're only going to need/use numWords for normalization
 		// in that case
 		if (fileFound) {
-			for (Double value : features.values()) {
-				numWords += value;		
+			for (int i = 0; i < numTerms; ++i) {
+				numWords += counts[i];
 			}
 			fileNotFound = false;
 		}
 		else {
 			fileNotFound = true;
 		}
+		if (numWords > 0) inverseNumWords = 1d / numWords;
+		else inverseNumWords = 0d;
 	}
-	
-	public Document(HashMap<String, Double> features, Volume vol) {
-		this.vol = vol;
-		this.features = features;
-		numPages = vol.getNumPages();
-		numWords = 0d;
-		// we add up all the word frequencies to produce a total number of words
-		// this is only meaningful if the values of the feature map are unnormalized counts
-		// but then again, we're only going to need/use numWords for normalization
-		// in that case
-		for (Double value : features.values()) {
-			numWords += value;		
-		}
-		fileNotFound = false;
-		// This constructor simply assumes the data is based on successful file access.
-		// Deprecated.
+
+	/** @return True if term ids are FeatureHasher positions rather than Lexicon ids. */
+	public boolean isHashed() {
+		return hashed;
+	}
+
+	/** @return The page's sequence number, or -1 if this Document is a whole volume. */
+	public int getPage() {
+		return page;
 	}
-	
+
 	public void setClassProb(double probBelongsToClass) {
 		this.probBelongsToClass = probBelongsToClass;
 	}
-	
+
 	public double getClassProb(){
 		return probBelongsToClass;
 	}
-	
+
+	/** @return The number of distinct terms with stored counts. */
+	public int numNonzeros() {
+		return numTerms;
+	}
+
+	/**
+	 * @return Roughly how many bytes of heap this Document holds: its two arrays,
+	 * plus the object and array headers.
+	 */
+	public long estimatedBytes() {
+		return OVERHEADBYTES + 8L * termIds.length;
+	}
+
+	/** @return The Lexicon id of the k-th stored term; ids ascend with k. */
+	public int termIdAt(int k) {
+		return termIds[k];
+	}
+
+	/** @return The count of the k-th stored term. */
+	public double countAt(int k) {
+		return counts[k];
+	}
+
+	/**
+	 * @param termId A Lexicon id.
+	 * @return The term's count in this document, or zero if it's absent.
+	 */
+	public double countOf(int termId) {
+		int position = Arrays.binarySearch(termIds, 0, numTerms, termId);
+		if (position < 0) return 0d;
+		return counts[position];
+	}
+
+	/**
+	 * @param term
+	 * @return The term's count in this document, or zero if it's absent.
+	 */
 	public double getRawTermFreq(String term) {
-		return features.get(term);
+		int termId = Lexicon.lookup(term);
+		if (termId < 0) return 0d;
+		return countOf(termId);
 	}
-	
+
 	public double getNumWords() {
 		return numWords;
 	}
-	
+
+	/** @return 1 / numWords, or zero for an empty document. */
+	public double getInverseNumWords() {
+		return inverseNumWords;
+	}
+
 	public double termNormalizedByWordcount(String term) {
-		if (numWords > 0 & features.containsKey(term)) {
-			return (features.get(term) / numWords);
-		}
-		else return 0;
+		return getRawTermFreq(term) * inverseNumWords;
 	}
-	
+
 	/**
 	 * This method is deprecated, but I'm leaving it here for now because I don't
 	 * know what weird function it plays in the "deduplication" package. Why would you
@@ -98,13 +251,22 @@ public class Document {
 	 * @return
 	 */
 	public double getNormalizedTermFreq(String term) {
-		return (features.get(term) / numPages);
+		return (getRawTermFreq(term) / numPages);
 	}
-	
+
+	/**
+	 * Builds a map from terms to counts. This is a fresh copy each time, and costs
+	 * what the old representation did, so loops over many documents should use
+	 * <code>numNonzeros</code>, <code>termIdAt</code> and <code>countAt</code> instead.
+	 */
 	public HashMap<String, Double> getFeatures(){
+		HashMap<String, Double> features = new HashMap<String, Double>(numTerms * 2);
+		for (int i = 0; i < numTerms; ++i) {
+			features.put(Lexicon.getTerm(termIds[i]), (double) counts[i]);
+		}
 		return features;
 	}
-	
+
 	public Volume getVolume() {
 		return vol;
 	}
@@ -0,0 +1,360 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import datasets.*;
+
+/**
+ * Semi-supervised expectation-maximization over date bins. We begin with
+ * BayesianClassifiers trained only on volumes whose dates we trust. Each E-step
+ * then re-estimates soft bin memberships for the volumes whose dates are suspect
+ * or unknown, by normalizing the calibrated predictions of all bin models; each
+ * M-step retrains every bin model on all volumes, labeled and unlabeled, weighted
+ * by those memberships.
+ * <p>
+ * All models in an iteration are trained as parallel fork-join tasks. They share
+ * one immutable list of Documents; each task gets its own MembershipCorpus, so
+ * the only per-class state is a vector of membership degrees.
+ *
+ * @author tunderwood
+ *
+ */
+public class ExpectationMaximizer {
+
+	/** Every document, labeled first and then unlabeled. Never modified. */
+	ArrayList<Document> documents;
+	/** The labeled documents alone, used for the first M-step. Never modified. */
+	ArrayList<Document> labeledDocuments;
+	ArrayList<String> features;
+	ArrayList<String> classLabels;
+	int numClasses;
+	int numLabeled;
+	int numDocs;
+	boolean isotonic;
+	ForkJoinPool pool;
+
+	/** Degree of membership in each class, indexed [class][document]. */
+	double[][] memberships;
+	/** The model for each class from the latest M-step. */
+	ArrayList<BayesianClassifier> models;
+
+	/**
+	 * @param labeled Documents whose class memberships are fixed.
+	 * @param labeledMemberships Membership of each labeled document in each class,
+	 * indexed [class][document].
+	 * @param unlabeled Documents whose memberships are to be estimated.
+	 * @param features Features used by the Bayesian models.
+	 * @param classLabels One label per class.
+	 * @param isotonic Calibrate the models by isotonic regression rather than Platt scaling.
+	 * @param numThreads Parallelism of the fork-join pool.
+	 */
+	public ExpectationMaximizer(ArrayList<Document> labeled, double[][] labeledMemberships,
+			ArrayList<Document> unlabeled, ArrayList<String> features, ArrayList<String> classLabels,
+			boolean isotonic, int numThreads) {
+		this.features = features;
+		this.classLabels = classLabels;
+		this.isotonic = isotonic;
+		numClasses = classLabels.size();
+		numLabeled = labeled.size();
+		numDocs = numLabeled + unlabeled.size();
+
+		ArrayList<Document> allDocs = new ArrayList<Document>(numDocs);
+		allDocs.addAll(labeled);
+		allDocs.addAll(unlabeled);
+		documents = allDocs;
+		labeledDocuments = new ArrayList<Document>(labeled);
+
+		// Unlabeled documents start out spread evenly across classes. They play
+		// no part in the first M-step, so this only matters if no iterations run.
+		memberships = new double[numClasses][numDocs];
+		for (int c = 0; c < numClasses; ++c) {
+			System.arraycopy(labeledMemberships[c], 0, memberships[c], 0, numLabeled);
+			Arrays.fill(memberships[c], numLabeled, numDocs, 1d / numClasses);
+		}
+		pool = new ForkJoinPool(Math.max(1, numThreads));
+	}
+
+	/**
+	 * Runs EM until no unlabeled membership changes by more than tolerance, or
+	 * until maxIterations E-steps have been made.
+	 * @return The number of E-steps made.
+	 */
+	public int run(int maxIterations, double tolerance) {
+		// Iteration zero: labeled documents only.
+		models = trainModels(labeledDocuments, numLabeled);
+		System.out.println("Trained initial models on " + numLabeled + " labeled documents.");
+
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			iteration += 1;
+			double change = expectation();
+			models = trainModels(documents, numDocs);
+			System.out.println("EM iteration " + iteration + ": largest change in membership " + change);
+			if (change < tolerance) break;
+		}
+		return iteration;
+	}
+
+	/**
+	 * E-step. Scores every unlabeled document with every class model in parallel,
+	 * then normalizes each document's predictions to sum to one.
+	 * @return The largest absolute change in any membership.
+	 */
+	private double expectation() {
+		final double[][] predictions = new double[numClasses][];
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numClasses);
+		for (int c = 0; c < numClasses; ++c) {
+			final int thisClass = c;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					BayesianClassifier model = models.get(thisClass);
+					double[] classPredictions = new double[numDocs];
+					for (int d = numLabeled; d < numDocs; ++d) {
+						classPredictions[d] = model.predictDocument(documents.get(d));
+					}
+					predictions[thisClass] = classPredictions;
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		double largestChange = 0d;
+		for (int d = numLabeled; d < numDocs; ++d) {
+			double sum = 0d;
+			for (int c = 0; c < numClasses; ++c) {
+				sum += predictions[c][d];
+			}
+			for (int c = 0; c < numClasses; ++c) {
+				double updated;
+				if (sum > 0) updated = predictions[c][d] / sum;
+				else updated = 1d / numClasses;
+				// If every model rejects the document, we have no evidence either way.
+				double change = Math.abs(updated - memberships[c][d]);
+				if (change > largestChange) largestChange = change;
+				memberships[c][d] = updated;
+			}
+		}
+		return largestChange;
+	}
+
+	/**
+	 * M-step. Trains one model per class, in parallel, on the first n documents
+	 * of the given list.
+	 */
+	private ArrayList<BayesianClassifier> trainModels(final ArrayList<Document> docs, final int n) {
+		final BayesianClassifier[] trained = new BayesianClassifier[numClasses];
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numClasses);
+		for (int c = 0; c < numClasses; ++c) {
+			final int thisClass = c;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					ArrayList<Double> degrees = new ArrayList<Double>(n);
+					for (int d = 0; d < n; ++d) {
+						degrees.add(memberships[thisClass][d]);
+					}
+					MembershipCorpus corpus = new MembershipCorpus(docs, degrees, classLabels.get(thisClass));
+					trained[thisClass] = new BayesianClassifier(features, corpus, isotonic);
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		ArrayList<BayesianClassifier> newModels = new ArrayList<BayesianClassifier>(numClasses);
+		for (BayesianClassifier model : trained) {
+			newModels.add(model);
+		}
+		return newModels;
+	}
+
+	private void invokeAll(ArrayList<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public ArrayList<BayesianClassifier> getModels() {
+		return models;
+	}
+
+	/** @return Membership of document d in class c. */
+	public double getMembership(int c, int d) {
+		return memberships[c][d];
+	}
+
+	/**
+	 * Arguments: metadataFile dataFolder binRadius vocabularySize maxVolsToRead
+	 * iterations outputFolder. Optional name=value arguments: threads, tolerance
+	 * (default 0.001), isotonic (true or false), seed.
+	 * <p>
+	 * Half of maxVolsToRead is a labeled sample spread evenly across date bins; the
+	 * other half is drawn from volumes whose dates are suspect (we could read only
+	 * the first four characters, as in "1850?" or "1850-1855") or unreadable. Writes
+	 * each volume's final memberships and expected date to emMemberships.tsv.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		String[] fieldList = {"date"};
+		int binRadius = Integer.parseInt(args[2]);
+		int vocabularySize = Integer.parseInt(args[3]);
+		int maxVolsToRead = Integer.parseInt(args[4]);
+		int iterations = Integer.parseInt(args[5]);
+		String outputFolder = args[6];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 7);
+		int numThreads = Integer.parseInt(DatePredictor.getOption(options, "threads",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		double tolerance = Double.parseDouble(DatePredictor.getOption(options, "tolerance", "0.001"));
+		boolean isotonic = Boolean.parseBoolean(DatePredictor.getOption(options, "isotonic", "false"));
+		long seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+
+		Metadata metadata = null;
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+		int startDate = 1800;
+		int endDate = 1899;
+		int firstBinMidpoint = startDate + binRadius;
+		int binSpacing = (binRadius * 2) + 1;
+		DateClassMap classMap = new DateClassMap(firstBinMidpoint, endDate, binRadius,
+			binSpacing, metadata, "date");
+		classMap.mapVolsByMetadata(startDate, endDate);
+		classMap.setSeed(seed);
+		ArrayList<String> classLabels = classMap.getKnownClasses();
+		int numClasses = classLabels.size();
+		int[] midpoints = new int[numClasses];
+		for (int c = 0; c < numClasses; ++c) {
+			midpoints[c] = Integer.parseInt(classLabels.get(c));
+		}
+
+		PairtreeReader dataReader = new PairtreeReader(dataFolder);
+		ArrayList<String> orderedVocabulary = DatePredictor.buildVocabulary(classMap, classLabels, vocabularySize, dataReader);
+		HashSet<String> vocabulary = new HashSet<String>(orderedVocabulary);
+		System.out.println("Built vocabulary.");
+
+		// Volumes in the date bins whose dates were rescued from a longer string
+		// are suspect. Together with volumes whose dates are unreadable, they make
+		// up the pool of unlabeled candidates. Dates that were read cleanly but
+		// fall outside the range are left out: we know they belong to no bin.
+		HashSet<Volume> suspect = new HashSet<Volume>();
+		ArrayList<Volume> candidates = new ArrayList<Volume>();
+		for (String label : classLabels) {
+			for (Volume vol : classMap.getMembers(label)) {
+				if (!DateClassMap.isInteger(vol.getValue("date")) && suspect.add(vol)) candidates.add(vol);
+			}
+		}
+		for (Volume vol : classMap.getMembers(classMap.getUnknownClass())) {
+			String value = vol.getValue("date");
+			if (value != null && DateClassMap.parseDate(value) < 0) candidates.add(vol);
+		}
+		Collections.shuffle(candidates, new Random(seed));
+		int maxUnlabeled = Math.min(candidates.size(), maxVolsToRead / 2);
+		ArrayList<Volume> unlabeledSample = new ArrayList<Volume>(candidates.subList(0, maxUnlabeled));
+
+		// The labeled sample is spread evenly across bins. Bins can overlap, so we
+		// make sure not to read the same volume twice.
+		int perClass = Math.max(1, maxVolsToRead / (2 * numClasses));
+		HashSet<Volume> alreadySampled = new HashSet<Volume>();
+		ArrayList<Volume> labeledSample = new ArrayList<Volume>();
+		for (String label : classLabels) {
+			for (Volume vol : classMap.takeRandomSample(label, perClass)) {
+				if (!suspect.contains(vol) && alreadySampled.add(vol)) labeledSample.add(vol);
+			}
+		}
+
+		ArrayList<Document> labeled = dataReader.getMultipleDocs(labeledSample, vocabulary);
+		ArrayList<Document> unlabeled = dataReader.getMultipleDocs(unlabeledSample, vocabulary);
+		System.out.println("Loaded " + labeled.size() + " labeled and " + unlabeled.size() + " unlabeled documents.");
+
+		double[][] labeledMemberships = new double[numClasses][labeled.size()];
+		for (int d = 0; d < labeled.size(); ++d) {
+			int date = DateClassMap.parseDate(labeled.get(d).getVolume().getValue("date"));
+			for (int c = 0; c < numClasses; ++c) {
+				if (Math.abs(date - midpoints[c]) <= binRadius) labeledMemberships[c][d] = 1d;
+			}
+		}
+
+		ExpectationMaximizer em = new ExpectationMaximizer(labeled, labeledMemberships, unlabeled,
+				orderedVocabulary, classLabels, isotonic, numThreads);
+		em.run(iterations, tolerance);
+		em.shutdown();
+
+		ArrayList<BayesianClassifier> models = em.getModels();
+		for (int c = 0; c < numClasses; ++c) {
+			DatePredictor.serializeModel(models.get(c), outputFolder + classLabels.get(c) + ".classifier");
+		}
+		em.writeMemberships(outputFolder + "emMemberships.tsv", midpoints, suspect);
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+
+	/**
+	 * Writes one line per document: htid, the date in metadata, whether the
+	 * document was labeled, suspect, or unknown, its expected date (the
+	 * membership-weighted mean of bin midpoints), and its membership in each bin.
+	 */
+	private void writeMemberships(String path, int[] midpoints, HashSet<Volume> suspect) {
+		String[] lines = new String[numDocs + 1];
+		StringBuilder header = new StringBuilder("htid\tdate\tstatus\texpected");
+		for (String label : classLabels) {
+			header.append("\t" + label);
+		}
+		lines[0] = header.toString();
+
+		for (int d = 0; d < numDocs; ++d) {
+			Volume vol = documents.get(d).getVolume();
+			String status;
+			if (d < numLabeled) status = "labeled";
+			else if (suspect.contains(vol)) status = "suspect";
+			else status = "unknown";
+
+			double total = 0d;
+			double weightedDates = 0d;
+			for (int c = 0; c < numClasses; ++c) {
+				total += memberships[c][d];
+				weightedDates += memberships[c][d] * midpoints[c];
+			}
+			String expected;
+			if (total > 0) expected = String.format("%.1f", weightedDates / total);
+			else expected = "NA";
+
+			StringBuilder line = new StringBuilder(vol.htid + "\t" + vol.getValue("date") + "\t" + status + "\t" + expected);
+			for (int c = 0; c < numClasses; ++c) {
+				line.append("\t" + String.format("%.4f", memberships[c][d]));
+			}
+			lines[d + 1] = line.toString();
+		}
+		LineWriter writer = new LineWriter(path, false);
+		writer.send(lines);
+	}
+}
@@ -0,0 +1,96 @@
+package classification;
+
+/**
+ * Maps words straight to one of 2^bits feature positions by hashing, so that
+ * no vocabulary has to be built, stored, or looked up (the "hashing trick" of
+ * Weinberger et al. 2009). Memory is fixed by <code>bits</code>, whatever the
+ * size of the collection's dictionary.
+ * <p>
+ * Each word also hashes to a sign, and its count is added to its position with
+ * that sign. Two words that collide are then as likely to cancel as to
+ * reinforce, so collisions add noise rather than bias to a linear model.
+ * <p>
+ * The hash is MurmurHash3 (x86, 32-bit) over the word's UTF-16 code units. It
+ * depends only on the word and the seed, so a hashed model means the same
+ * thing in every JVM, unlike Lexicon ids.
+ *
+ * @author tunderwood
+ *
+ */
+public class FeatureHasher implements java.io.Serializable {
+	static final long serialVersionUID = 927333933L;
+	static final int MAXBITS = 30;
+
+	int bits;
+	int mask;
+	int seed;
+
+	/**
+	 * @param bits Log2 of the number of positions, from 1 to 30.
+	 * @param seed Different seeds give independent hash functions.
+	 */
+	public FeatureHasher(int bits, int seed) {
+		if (bits < 1 || bits > MAXBITS) {
+			throw new IllegalArgumentException("FeatureHasher needs between 1 and " + MAXBITS + " bits, not " + bits);
+		}
+		this.bits = bits;
+		this.seed = seed;
+		mask = (1 << bits) - 1;
+	}
+
+	public int numFeatures() {
+		return mask + 1;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return The word's position in the low bits, and its sign in the top bit:
+	 * use <code>position</code> and <code>sign</code> to take them apart. We
+	 * hash once for both, and since bits never exceeds 30 they don't overlap.
+	 */
+	public int hash(String word) {
+		return murmur3(word, seed);
+	}
+
+	public int position(int hash) {
+		return hash & mask;
+	}
+
+	public float sign(int hash) {
+		return (hash < 0) ? -1f : 1f;
+	}
+
+	static int murmur3(String word, int seed) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		int h = seed;
+		int length = word.length();
+		int pairs = length & ~1;
+		for (int i = 0; i < pairs; i += 2) {
+			int k = word.charAt(i) | (word.charAt(i + 1) << 16);
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+		if (pairs < length) {
+			int k = word.charAt(pairs);
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			h ^= k;
+		}
+		h ^= length * 2;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,127 @@
+package classification;
+
+import java.util.ArrayList;
+
+/**
+ * A sparse representation of a Document, restricted to an ordered list of
+ * features. Only nonzero values are stored, as parallel arrays of feature
+ * indexes and values. Values are normalized by the Document's wordcount,
+ * which is the same normalization <code>LogisticClassifier</code> applies
+ * through <code>termNormalizedByWordcount</code>.
+ *
+ * @author tunderwood
+ *
+ */
+public class FeatureVector {
+	int[] indices;
+	double[] values;
+	int size;
+
+	public FeatureVector(int[] indices, double[] values, int size) {
+		this.indices = indices;
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * Extracts the nonzero features of a document. We iterate over the document's
+	 * own features rather than over the feature list, because documents are usually
+	 * much sparser than the vocabulary.
+	 *
+	 * @param doc The Document to convert.
+	 * @param featureIndex Maps the id of each feature to its position in the feature list.
+	 * @return A sparse vector of normalized frequencies.
+	 */
+	public static FeatureVector fromDocument(Document doc, TermIndex featureIndex) {
+		int nonzeros = doc.numNonzeros();
+		int[] indices = new int[nonzeros];
+		double[] values = new double[nonzeros];
+		int size = 0;
+		double inverseNumWords = doc.getInverseNumWords();
+		if (inverseNumWords > 0) {
+			for (int k = 0; k < nonzeros; ++k) {
+				int index = featureIndex.get(doc.termIdAt(k));
+				if (index < 0) continue;
+				indices[size] = index;
+				values[size] = doc.countAt(k) * inverseNumWords;
+				size += 1;
+			}
+		}
+		return new FeatureVector(indices, values, size);
+	}
+
+	/**
+	 * Converts a Document read with a FeatureHasher. Its term ids are already
+	 * feature positions, so no index is needed.
+	 */
+	public static FeatureVector fromHashedDocument(Document doc) {
+		assert (doc.isHashed());
+		int nonzeros = doc.numNonzeros();
+		int[] indices = new int[nonzeros];
+		double[] values = new double[nonzeros];
+		double inverseNumWords = doc.getInverseNumWords();
+		for (int k = 0; k < nonzeros; ++k) {
+			indices[k] = doc.termIdAt(k);
+			values[k] = doc.countAt(k) * inverseNumWords;
+		}
+		return new FeatureVector(indices, values, nonzeros);
+	}
+
+	public static TermIndex indexFeatures(ArrayList<String> features) {
+		return TermIndex.forFeatures(features);
+	}
+
+	/**
+	 * Estimates the standard deviation of each feature across a set of vectors, and
+	 * returns its inverse, for use as <code>scales</code> in a logistic model. Features
+	 * that never vary in the sample get the largest scale observed, on the theory that
+	 * they're at least as rare as the rarest feature we did see.
+	 */
+	public static double[] inverseStandardDeviations(ArrayList<FeatureVector> sample, int numFeatures) {
+		double[] sums = new double[numFeatures];
+		double[] sumsOfSquares = new double[numFeatures];
+		for (FeatureVector vector : sample) {
+			for (int k = 0; k < vector.size; ++k) {
+				double value = vector.values[k];
+				sums[vector.indices[k]] += value;
+				sumsOfSquares[vector.indices[k]] += value * value;
+			}
+		}
+		int sampled = sample.size();
+		double[] scales = new double[numFeatures];
+		double maxScale = 1d;
+		for (int j = 0; j < numFeatures; ++j) {
+			if (sampled < 2) break;
+			double mean = sums[j] / sampled;
+			double variance = (sumsOfSquares[j] / sampled) - (mean * mean);
+			if (variance > 0) {
+				scales[j] = 1d / Math.sqrt(variance);
+				if (scales[j] > maxScale) maxScale = scales[j];
+			}
+		}
+		for (int j = 0; j < numFeatures; ++j) {
+			if (scales[j] == 0d) scales[j] = maxScale;
+		}
+		return scales;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int indexAt(int position) {
+		return indices[position];
+	}
+
+	public double valueAt(int position) {
+		return values[position];
+	}
+
+	public double dot(double[] weights) {
+		double sum = 0d;
+		for (int i = 0; i < size; ++i) {
+			sum += weights[indices[i]] * values[i];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,103 @@
+package classification;
+
+/**
+ * Isotonic calibration: fits the best nondecreasing step function from scores to
+ * probabilities by pool-adjacent-violators, and interpolates linearly between
+ * the centers of the pooled blocks. Unlike Platt scaling this assumes nothing
+ * about the shape of the mapping, but it needs more training instances to be
+ * reliable.
+ *
+ * @author tunderwood
+ *
+ */
+public class IsotonicCalibrator extends Calibrator {
+	static final long serialVersionUID = 927333931L;
+
+	/** Mean score of each pooled block, ascending. */
+	double[] blockScores;
+	/** Calibrated probability of each block, nondecreasing. */
+	double[] blockValues;
+
+	/**
+	 * @param scores Raw classifier scores.
+	 * @param targets Probability that each instance belongs to the class; can be
+	 * fractional.
+	 */
+	public IsotonicCalibrator(double[] scores, double[] targets) {
+		int n = scores.length;
+		assert (targets.length == n);
+
+		// Sort instances by score. We sort indices with a primitive merge sort
+		// so that ties keep their original order.
+		int[] order = new int[n];
+		for (int i = 0; i < n; ++i) {
+			order[i] = i;
+		}
+		mergeSort(order, new int[n], scores, 0, n);
+
+		// Pool adjacent violators. Each block keeps its total weight, mean target
+		// and mean score; blocks live in a stack of parallel arrays.
+		double[] weights = new double[n];
+		double[] values = new double[n];
+		double[] means = new double[n];
+		int blocks = 0;
+		for (int k = 0; k < n; ++k) {
+			int i = order[k];
+			weights[blocks] = 1d;
+			values[blocks] = targets[i];
+			means[blocks] = scores[i];
+			blocks += 1;
+			while (blocks > 1 && values[blocks - 2] >= values[blocks - 1]) {
+				int last = blocks - 1;
+				int previous = blocks - 2;
+				// Equal values are merged too, so each block has a distinct value.
+				double total = weights[previous] + weights[last];
+				values[previous] = ((values[previous] * weights[previous]) + (values[last] * weights[last])) / total;
+				means[previous] = ((means[previous] * weights[previous]) + (means[last] * weights[last])) / total;
+				weights[previous] = total;
+				blocks -= 1;
+			}
+		}
+		blockScores = new double[blocks];
+		blockValues = new double[blocks];
+		System.arraycopy(means, 0, blockScores, 0, blocks);
+		System.arraycopy(values, 0, blockValues, 0, blocks);
+	}
+
+	public double calibrate(double score) {
+		int blocks = blockScores.length;
+		if (blocks == 0) return 0.5;
+		if (score <= blockScores[0]) return blockValues[0];
+		if (score >= blockScores[blocks - 1]) return blockValues[blocks - 1];
+
+		// Binary search for the last block center at or below the score.
+		int low = 0;
+		int high = blocks - 1;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (blockScores[middle] <= score) low = middle;
+			else high = middle;
+		}
+		double span = blockScores[high] - blockScores[low];
+		if (span <= 0) return blockValues[high];
+		double fraction = (score - blockScores[low]) / span;
+		return blockValues[low] + (fraction * (blockValues[high] - blockValues[low]));
+	}
+
+	private static void mergeSort(int[] order, int[] buffer, double[] keys, int from, int to) {
+		if (to - from < 2) return;
+		int middle = (from + to) >>> 1;
+		mergeSort(order, buffer, keys, from, middle);
+		mergeSort(order, buffer, keys, middle, to);
+		int i = from;
+		int j = middle;
+		int k = from;
+		while (i < middle && j < to) {
+			if (keys[order[j]] < keys[order[i]]) buffer[k++] = order[j++];
+			else buffer[k++] = order[i++];
+		}
+		while (i < middle) buffer[k++] = order[i++];
+		while (j < to) buffer[k++] = order[j++];
+		System.arraycopy(buffer, from, order, from, to - from);
+	}
+}
@@ -0,0 +1,679 @@
+package classification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import datasets.*;
+
+/**
+ * Predicts a continuous date as the similarity-weighted mean date of a volume's
+ * k nearest neighbours among training volumes. Unlike the bin models, this needs
+ * no smoothing or interpolation.
+ * <p>
+ * Documents become vectors of relative frequencies over a feature list, scaled by
+ * each feature's inverse standard deviation so that common words don't dominate.
+ * A signed hash projection (each feature adds +/- its value to one of d
+ * dimensions) reduces them to d dense floats, which are normalized to unit length;
+ * similarity is then a dot product.
+ * <p>
+ * Neighbours are found approximately, with a forest of random-projection trees
+ * (as in Bernhardsson's Annoy). Each internal node splits its volumes by the
+ * hyperplane equidistant from two of them. A query descends all trees at once,
+ * always expanding the node whose margin is widest, until it has collected
+ * <code>searchBudget</code> candidates; only those are compared exactly.
+ * <p>
+ * The index can be saved and loaded, so it needn't be rebuilt on every run.
+ *
+ * @author tunderwood
+ *
+ */
+public class KNNDateRegressor extends SupervisedLearner {
+	static final int MAGIC = 0x4B4E4E31;
+	static final int SPLITATTEMPTS = 5;
+
+	ArrayList<String> features;
+	double[] scales;
+	int dimensions;
+	long seed;
+	int[] buckets;
+	float[] signs;
+	transient TermIndex featureIndex;
+
+	int numItems;
+	/** Unit-length projected vectors, row-major. */
+	float[] vectors;
+	int[] dates;
+
+	int numTrees;
+	int leafSize;
+	int[] roots;
+	int numNodes;
+	/** For internal nodes, the children. For leaves, left is -1 - start and right
+	 * is end, delimiting a range of leafItems. */
+	int[] left;
+	int[] right;
+	/** For internal nodes, the position of the split's normal in normals, and its offset. */
+	int[] normalIndex;
+	float[] offsets;
+	float[] normals;
+	int numNormals;
+	int[] leafItems;
+
+	int k = 10;
+	int searchBudget = 400;
+
+	/**
+	 * Builds the index.
+	 * @param features Features used to describe documents.
+	 * @param documents Training documents.
+	 * @param documentDates The date of each training document.
+	 * @param dimensions Number of dimensions to project onto.
+	 * @param numTrees Number of trees in the forest. More trees make search more accurate and the index larger.
+	 * @param leafSize Largest number of volumes a leaf can hold.
+	 * @param seed Seeds both the projection and the splits.
+	 */
+	public KNNDateRegressor(ArrayList<String> features, ArrayList<Document> documents, int[] documentDates,
+			int dimensions, int numTrees, int leafSize, long seed) {
+		this.features = features;
+		this.dimensions = dimensions;
+		this.numTrees = numTrees;
+		this.leafSize = Math.max(1, leafSize);
+		this.seed = seed;
+		makeProjection();
+		featureIndex = FeatureVector.indexFeatures(features);
+
+		ArrayList<FeatureVector> sparse = new ArrayList<FeatureVector>(documents.size());
+		for (Document doc : documents) {
+			sparse.add(FeatureVector.fromDocument(doc, featureIndex));
+		}
+		scales = FeatureVector.inverseStandardDeviations(sparse, features.size());
+
+		numItems = documents.size();
+		vectors = new float[numItems * dimensions];
+		dates = Arrays.copyOf(documentDates, numItems);
+		float[] projected = new float[dimensions];
+		for (int i = 0; i < numItems; ++i) {
+			project(sparse.get(i), projected);
+			System.arraycopy(projected, 0, vectors, i * dimensions, dimensions);
+		}
+
+		buildForest(new Random(seed));
+	}
+
+	private KNNDateRegressor() {
+	}
+
+	public void setK(int k) {
+		this.k = Math.max(1, k);
+	}
+
+	/**
+	 * @param searchBudget Number of candidates to compare exactly. Larger budgets
+	 * find true neighbours more often, at proportional cost.
+	 */
+	public void setSearchBudget(int searchBudget) {
+		this.searchBudget = Math.max(1, searchBudget);
+	}
+
+	public int size() {
+		return numItems;
+	}
+
+	public ArrayList<String> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return The predicted date, or NaN if the document has no features.
+	 */
+	public double predictDocument(Document instance) {
+		if (featureIndex == null) {
+			featureIndex = FeatureVector.indexFeatures(features);
+		}
+		float[] query = new float[dimensions];
+		if (!project(FeatureVector.fromDocument(instance, featureIndex), query)) return Double.NaN;
+		return predictVector(query);
+	}
+
+	/**
+	 * @param query A unit-length projected vector.
+	 * @return The similarity-weighted mean date of its neighbours.
+	 */
+	public double predictVector(float[] query) {
+		int[] neighbours = new int[k];
+		float[] similarities = new float[k];
+		int found = nearestNeighbours(query, k, neighbours, similarities);
+		if (found == 0) return Double.NaN;
+		double weightedDates = 0d;
+		double totalWeight = 0d;
+		for (int i = 0; i < found; ++i) {
+			double weight = Math.max(similarities[i], 0f);
+			weightedDates += weight * dates[neighbours[i]];
+			totalWeight += weight;
+		}
+		if (totalWeight > 0) return weightedDates / totalWeight;
+		// No neighbour is similar at all; fall back to a plain mean.
+		for (int i = 0; i < found; ++i) {
+			weightedDates += dates[neighbours[i]];
+		}
+		return weightedDates / found;
+	}
+
+	/**
+	 * Approximate k-nearest-neighbour search.
+	 * @param query A unit-length projected vector.
+	 * @param neighbours Receives the indices of the neighbours, most similar first.
+	 * @param similarities Receives their similarities to the query.
+	 * @return The number of neighbours found, which is less than k only if the
+	 * index holds fewer than k volumes.
+	 */
+	public int nearestNeighbours(float[] query, int k, int[] neighbours, float[] similarities) {
+		// A max-heap of nodes to expand, keyed by the smallest margin on the path
+		// from the root. Every root goes in before the heap can grow, so there
+		// must be room for them all.
+		int heapCapacity = Math.max(64, 2 * roots.length);
+		double[] heapPriority = new double[heapCapacity];
+		int[] heapNode = new int[heapCapacity];
+		int heapSize = 0;
+		for (int root : roots) {
+			heapPriority[heapSize] = Double.POSITIVE_INFINITY;
+			heapNode[heapSize] = root;
+			heapSize += 1;
+		}
+
+		int budget = Math.max(searchBudget, k);
+		int[] candidates = new int[budget + leafSize];
+		int numCandidates = 0;
+		while (heapSize > 0 && numCandidates < budget) {
+			double priority = heapPriority[0];
+			int node = heapNode[0];
+			heapSize -= 1;
+			heapPriority[0] = heapPriority[heapSize];
+			heapNode[0] = heapNode[heapSize];
+			siftDown(heapPriority, heapNode, 0, heapSize);
+
+			if (left[node] < 0) {
+				int end = right[node];
+				for (int i = -1 - left[node]; i < end && numCandidates < candidates.length; ++i) {
+					candidates[numCandidates] = leafItems[i];
+					numCandidates += 1;
+				}
+				continue;
+			}
+			double margin = margin(node, query);
+			if (heapSize + 2 > heapCapacity) {
+				heapCapacity *= 2;
+				heapPriority = Arrays.copyOf(heapPriority, heapCapacity);
+				heapNode = Arrays.copyOf(heapNode, heapCapacity);
+			}
+			heapPriority[heapSize] = Math.min(priority, margin);
+			heapNode[heapSize] = right[node];
+			siftUp(heapPriority, heapNode, heapSize);
+			heapSize += 1;
+			heapPriority[heapSize] = Math.min(priority, -margin);
+			heapNode[heapSize] = left[node];
+			siftUp(heapPriority, heapNode, heapSize);
+			heapSize += 1;
+		}
+
+		// The same volume can turn up in several trees.
+		Arrays.sort(candidates, 0, numCandidates);
+		int found = 0;
+		int previous = -1;
+		for (int c = 0; c < numCandidates; ++c) {
+			int item = candidates[c];
+			if (item == previous) continue;
+			previous = item;
+			float similarity = similarity(item, query);
+			// Keep the k best in descending order, by insertion.
+			if (found < k) found += 1;
+			else if (similarity <= similarities[found - 1]) continue;
+			int position = found - 1;
+			while (position > 0 && similarities[position - 1] < similarity) {
+				similarities[position] = similarities[position - 1];
+				neighbours[position] = neighbours[position - 1];
+				position -= 1;
+			}
+			similarities[position] = similarity;
+			neighbours[position] = item;
+		}
+		return found;
+	}
+
+	/**
+	 * Projects a sparse vector and normalizes it to unit length.
+	 * @return False if the projection is zero.
+	 */
+	boolean project(FeatureVector vector, float[] projected) {
+		Arrays.fill(projected, 0f);
+		for (int i = 0; i < vector.size(); ++i) {
+			int j = vector.indexAt(i);
+			projected[buckets[j]] += signs[j] * (float) (vector.valueAt(i) * scales[j]);
+		}
+		double norm = 0d;
+		for (float value : projected) {
+			norm += value * value;
+		}
+		if (norm <= 0) return false;
+		float inverse = (float) (1 / Math.sqrt(norm));
+		for (int d = 0; d < dimensions; ++d) {
+			projected[d] *= inverse;
+		}
+		return true;
+	}
+
+	/** Assigns each feature a dimension and a sign, by hashing its position with the seed. */
+	private void makeProjection() {
+		int numFeatures = features.size();
+		buckets = new int[numFeatures];
+		signs = new float[numFeatures];
+		for (int j = 0; j < numFeatures; ++j) {
+			long h = mix(seed + (j * 0x9E3779B97F4A7C15L));
+			buckets[j] = (int) ((h >>> 1) % dimensions);
+			signs[j] = ((h & 1L) == 0) ? 1f : -1f;
+		}
+	}
+
+	private static long mix(long z) {
+		// The finalizer of SplitMix64.
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private float similarity(int item, float[] query) {
+		return VectorKernels.get().dot(vectors, item * dimensions, query, 0, dimensions);
+	}
+
+	private double margin(int node, float[] query) {
+		return VectorKernels.get().dot(normals, normalIndex[node], query, 0, dimensions) - offsets[node];
+	}
+
+	private void buildForest(Random random) {
+		int capacity = Math.max(16, 4 * numTrees * (numItems / leafSize + 1));
+		left = new int[capacity];
+		right = new int[capacity];
+		normalIndex = new int[capacity];
+		offsets = new float[capacity];
+		normals = new float[Math.max(dimensions, capacity / 2 * dimensions)];
+		leafItems = new int[numTrees * numItems];
+		roots = new int[numTrees];
+		for (int t = 0; t < numTrees; ++t) {
+			int base = t * numItems;
+			for (int i = 0; i < numItems; ++i) {
+				leafItems[base + i] = i;
+			}
+			roots[t] = buildNode(base, base + numItems, random);
+		}
+		// Trim the arrays to the nodes actually built.
+		left = Arrays.copyOf(left, numNodes);
+		right = Arrays.copyOf(right, numNodes);
+		normalIndex = Arrays.copyOf(normalIndex, numNodes);
+		offsets = Arrays.copyOf(offsets, numNodes);
+		normals = Arrays.copyOf(normals, numNormals);
+	}
+
+	/** Builds a subtree over leafItems[from, to), partitioning it in place. */
+	private int buildNode(int from, int to, Random random) {
+		int node = newNode();
+		if (to - from <= leafSize) {
+			makeLeaf(node, from, to);
+			return node;
+		}
+		float[] normal = new float[dimensions];
+		float offset = 0f;
+		int split = -1;
+		for (int attempt = 0; attempt < SPLITATTEMPTS && split < 0; ++attempt) {
+			int a = leafItems[from + random.nextInt(to - from)];
+			int b = leafItems[from + random.nextInt(to - from)];
+			double dot = 0d;
+			double norm = 0d;
+			for (int d = 0; d < dimensions; ++d) {
+				float va = vectors[a * dimensions + d];
+				float vb = vectors[b * dimensions + d];
+				normal[d] = va - vb;
+				dot += normal[d] * (va + vb) / 2;
+				norm += normal[d] * normal[d];
+			}
+			if (norm <= 0) continue;
+			offset = (float) dot;
+			split = partition(from, to, normal, offset);
+			if (split == from || split == to) split = -1;
+		}
+		if (split < 0) {
+			// Every split put everything on one side: the volumes are identical,
+			// or nearly so. There's nothing to gain from dividing them.
+			makeLeaf(node, from, to);
+			return node;
+		}
+		int position = numNormals;
+		if (numNormals + dimensions > normals.length) {
+			normals = Arrays.copyOf(normals, Math.max(normals.length * 2, numNormals + dimensions));
+		}
+		System.arraycopy(normal, 0, normals, position, dimensions);
+		numNormals += dimensions;
+		normalIndex[node] = position;
+		offsets[node] = offset;
+		int leftChild = buildNode(from, split, random);
+		int rightChild = buildNode(split, to, random);
+		left[node] = leftChild;
+		right[node] = rightChild;
+		return node;
+	}
+
+	/**
+	 * Moves items on the negative side of the hyperplane to the front.
+	 * @return The index of the first item on the positive side.
+	 */
+	private int partition(int from, int to, float[] normal, float offset) {
+		int i = from;
+		int j = to - 1;
+		while (i <= j) {
+			if (side(leafItems[i], normal, offset) <= 0) {
+				i += 1;
+			}
+			else {
+				int swap = leafItems[i];
+				leafItems[i] = leafItems[j];
+				leafItems[j] = swap;
+				j -= 1;
+			}
+		}
+		return i;
+	}
+
+	private double side(int item, float[] normal, float offset) {
+		int base = item * dimensions;
+		double sum = 0d;
+		for (int d = 0; d < dimensions; ++d) {
+			sum += normal[d] * vectors[base + d];
+		}
+		return sum - offset;
+	}
+
+	private int newNode() {
+		if (numNodes == left.length) {
+			int capacity = left.length * 2;
+			left = Arrays.copyOf(left, capacity);
+			right = Arrays.copyOf(right, capacity);
+			normalIndex = Arrays.copyOf(normalIndex, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+		}
+		numNodes += 1;
+		return numNodes - 1;
+	}
+
+	private void makeLeaf(int node, int from, int to) {
+		left[node] = -1 - from;
+		right[node] = to;
+	}
+
+	private static void siftUp(double[] priority, int[] nodes, int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (priority[parent] >= priority[position]) break;
+			swap(priority, nodes, parent, position);
+			position = parent;
+		}
+	}
+
+	private static void siftDown(double[] priority, int[] nodes, int position, int heapSize) {
+		while (true) {
+			int child = (2 * position) + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && priority[child + 1] > priority[child]) child += 1;
+			if (priority[position] >= priority[child]) break;
+			swap(priority, nodes, position, child);
+			position = child;
+		}
+	}
+
+	private static void swap(double[] priority, int[] nodes, int a, int b) {
+		double swapPriority = priority[a];
+		priority[a] = priority[b];
+		priority[b] = swapPriority;
+		int swapNode = nodes[a];
+		nodes[a] = nodes[b];
+		nodes[b] = swapNode;
+	}
+
+	/**
+	 * Writes the index in a compact binary format: a header, the features and
+	 * their scales, the projected vectors and dates, and the forest.
+	 */
+	public void save(String path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(dimensions);
+			out.writeLong(seed);
+			out.writeInt(k);
+			out.writeInt(searchBudget);
+			out.writeInt(features.size());
+			for (int j = 0; j < features.size(); ++j) {
+				out.writeUTF(features.get(j));
+				out.writeDouble(scales[j]);
+			}
+			out.writeInt(numItems);
+			for (int i = 0; i < numItems; ++i) {
+				out.writeInt(dates[i]);
+			}
+			for (float value : vectors) {
+				out.writeFloat(value);
+			}
+			out.writeInt(numTrees);
+			out.writeInt(leafSize);
+			for (int root : roots) {
+				out.writeInt(root);
+			}
+			out.writeInt(numNodes);
+			for (int n = 0; n < numNodes; ++n) {
+				out.writeInt(left[n]);
+				out.writeInt(right[n]);
+				out.writeInt(normalIndex[n]);
+				out.writeFloat(offsets[n]);
+			}
+			out.writeInt(numNormals);
+			for (int i = 0; i < numNormals; ++i) {
+				out.writeFloat(normals[i]);
+			}
+			out.writeInt(leafItems.length);
+			for (int item : leafItems) {
+				out.writeInt(item);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	public static KNNDateRegressor load(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		KNNDateRegressor model = new KNNDateRegressor();
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("Not a kNN index: " + path);
+			model.dimensions = in.readInt();
+			model.seed = in.readLong();
+			model.k = in.readInt();
+			model.searchBudget = in.readInt();
+			int numFeatures = in.readInt();
+			model.features = new ArrayList<String>(numFeatures);
+			model.scales = new double[numFeatures];
+			for (int j = 0; j < numFeatures; ++j) {
+				model.features.add(in.readUTF());
+				model.scales[j] = in.readDouble();
+			}
+			model.makeProjection();
+			model.numItems = in.readInt();
+			model.dates = new int[model.numItems];
+			for (int i = 0; i < model.numItems; ++i) {
+				model.dates[i] = in.readInt();
+			}
+			model.vectors = new float[model.numItems * model.dimensions];
+			for (int i = 0; i < model.vectors.length; ++i) {
+				model.vectors[i] = in.readFloat();
+			}
+			model.numTrees = in.readInt();
+			model.leafSize = in.readInt();
+			model.roots = new int[model.numTrees];
+			for (int t = 0; t < model.numTrees; ++t) {
+				model.roots[t] = in.readInt();
+			}
+			model.numNodes = in.readInt();
+			model.left = new int[model.numNodes];
+			model.right = new int[model.numNodes];
+			model.normalIndex = new int[model.numNodes];
+			model.offsets = new float[model.numNodes];
+			for (int n = 0; n < model.numNodes; ++n) {
+				model.left[n] = in.readInt();
+				model.right[n] = in.readInt();
+				model.normalIndex[n] = in.readInt();
+				model.offsets[n] = in.readFloat();
+			}
+			model.numNormals = in.readInt();
+			model.normals = new float[model.numNormals];
+			for (int i = 0; i < model.numNormals; ++i) {
+				model.normals[i] = in.readFloat();
+			}
+			model.leafItems = new int[in.readInt()];
+			for (int i = 0; i < model.leafItems.length; ++i) {
+				model.leafItems[i] = in.readInt();
+			}
+		}
+		finally {
+			in.close();
+		}
+		return model;
+	}
+
+	/**
+	 * Arguments: metadataFile dataFolder vocabularySize maxVolsToRead indexFile
+	 * outputFolder. Optional name=value arguments: k (default 10), trees (10),
+	 * dimensions (128), leafsize (32), budget (400), seed, rebuild (true to
+	 * ignore an existing index).
+	 * <p>
+	 * If indexFile exists, the index is loaded from it. Otherwise it's built from
+	 * up to maxVolsToRead volumes dated 1800-1899, and saved there. Then every
+	 * volume in the metadata is read, maxVolsToRead at a time, and its date
+	 * predicted into knnPredictions.tsv.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		String[] fieldList = {"date"};
+		int vocabularySize = Integer.parseInt(args[2]);
+		int maxVolsToRead = Integer.parseInt(args[3]);
+		String indexFile = args[4];
+		String outputFolder = args[5];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 6);
+		int k = Integer.parseInt(DatePredictor.getOption(options, "k", "10"));
+		int numTrees = Integer.parseInt(DatePredictor.getOption(options, "trees", "10"));
+		int dimensions = Integer.parseInt(DatePredictor.getOption(options, "dimensions", "128"));
+		int leafSize = Integer.parseInt(DatePredictor.getOption(options, "leafsize", "32"));
+		int budget = Integer.parseInt(DatePredictor.getOption(options, "budget", "400"));
+		long seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+		boolean rebuild = Boolean.parseBoolean(DatePredictor.getOption(options, "rebuild", "false"));
+		int startDate = 1800;
+		int endDate = 1899;
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+
+		Metadata metadata = null;
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+		PairtreeReader dataReader = new PairtreeReader(dataFolder);
+
+		KNNDateRegressor model = null;
+		if (!rebuild && new File(indexFile).exists()) {
+			try {
+				model = load(indexFile);
+				System.out.println("Loaded an index of " + model.size() + " volumes.");
+			}
+			catch (IOException e) {
+				System.out.println("Could not load " + indexFile + ": " + e);
+				System.exit(1);
+			}
+		}
+		else {
+			ArrayList<Volume> dated = new ArrayList<Volume>();
+			for (Volume vol : metadata.getVolumes()) {
+				int date = DateClassMap.parseDate(vol.getValue("date"));
+				if (date >= startDate && date <= endDate) dated.add(vol);
+			}
+			Sampler sampler = new Sampler(seed);
+			ArrayList<Volume> sample = new ArrayList<Volume>();
+			for (int i : sampler.sampleIndices(dated.size(), maxVolsToRead)) {
+				sample.add(dated.get(i));
+			}
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			VocabularyBuilder vocabularyBuilder = new VocabularyBuilder(dataReader, numThreads,
+					VocabularyBuilder.tableSizeForHeap(numThreads, vocabularySize));
+			ArrayList<String> vocabulary = vocabularyBuilder.topWords(sample, vocabularySize);
+			ArrayList<Document> documents = dataReader.getMultipleDocs(sample, new HashSet<String>(vocabulary));
+			int[] documentDates = new int[documents.size()];
+			for (int i = 0; i < documents.size(); ++i) {
+				documentDates[i] = DateClassMap.parseDate(documents.get(i).getVolume().getValue("date"));
+			}
+			long start = System.currentTimeMillis();
+			model = new KNNDateRegressor(vocabulary, documents, documentDates, dimensions, numTrees, leafSize, seed);
+			System.out.println("Indexed " + model.size() + " volumes in " + (System.currentTimeMillis() - start) + " ms.");
+			try {
+				model.save(indexFile);
+			}
+			catch (IOException e) {
+				System.out.println("Could not save " + indexFile + ": " + e);
+			}
+		}
+		model.setK(k);
+		model.setSearchBudget(budget);
+
+		HashSet<String> vocabulary = new HashSet<String>(model.features);
+		ArrayList<Volume> volumes = metadata.getVolumes();
+		LineWriter writer = new LineWriter(outputFolder + "knnPredictions.tsv", false);
+		writer.print("volume\tattested\tpredicted");
+		LineWriter appender = new LineWriter(outputFolder + "knnPredictions.tsv", true);
+		long searchNanos = 0;
+		int searched = 0;
+		for (int floor = 0; floor < volumes.size(); floor += maxVolsToRead) {
+			int ceiling = Math.min(volumes.size(), floor + maxVolsToRead);
+			String[] lines = new String[ceiling - floor];
+			for (int i = floor; i < ceiling; ++i) {
+				Volume vol = volumes.get(i);
+				Document doc = dataReader.getDocument(vol, vocabulary);
+				String predicted = "NA";
+				if (!doc.fileNotFound) {
+					long start = System.nanoTime();
+					double date = model.predictDocument(doc);
+					searchNanos += System.nanoTime() - start;
+					searched += 1;
+					if (!Double.isNaN(date)) predicted = String.format("%.1f", date);
+				}
+				lines[i - floor] = vol.htid + "\t" + vol.getValue("date") + "\t" + predicted;
+			}
+			appender.send(lines);
+		}
+		if (searched > 0) {
+			System.out.println("Mean prediction time: " + (searchNanos / 1000d / searched) + " microseconds per volume.");
+		}
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+}
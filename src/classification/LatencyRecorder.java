@@ -0,0 +1,63 @@
+package classification;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies in a ring buffer and reports percentiles over
+ * them. Memory is fixed by the window, however long the process runs; the
+ * percentiles describe recent behaviour, which is what a long-running service
+ * wants to know. Safe to share across threads.
+ *
+ * @author tunderwood
+ *
+ */
+public class LatencyRecorder {
+	long[] window;
+	int next = 0;
+	int filled = 0;
+	long count = 0;
+	long totalNanos = 0;
+
+	/**
+	 * @param windowSize How many of the most recent latencies percentiles are taken over.
+	 */
+	public LatencyRecorder(int windowSize) {
+		window = new long[windowSize];
+	}
+
+	public synchronized void record(long nanos) {
+		window[next] = nanos;
+		next = (next + 1) % window.length;
+		if (filled < window.length) filled += 1;
+		count += 1;
+		totalNanos += nanos;
+	}
+
+	/** @return Latencies recorded since the recorder was created. */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/** @return Mean latency since the recorder was created, in milliseconds. */
+	public synchronized double meanMillis() {
+		if (count == 0) return 0d;
+		return totalNanos / (count * 1e6);
+	}
+
+	/**
+	 * @param fraction E.g. 0.5 for the median, 0.99 for the 99th percentile.
+	 * @return The latency, in milliseconds, that this fraction of the window falls
+	 * at or below; 0 if nothing has been recorded.
+	 */
+	public double percentileMillis(double fraction) {
+		long[] sorted;
+		synchronized (this) {
+			if (filled == 0) return 0d;
+			sorted = Arrays.copyOf(window, filled);
+		}
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+		rank = Math.max(0, Math.min(sorted.length - 1, rank));
+		return sorted[rank] / 1e6;
+	}
+}
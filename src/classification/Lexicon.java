@@ -0,0 +1,67 @@
+package classification;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global, thread-safe mapping between terms and small integer ids. Documents
+ * store term ids rather than Strings, so each distinct term is held in memory
+ * once, however many documents contain it.
+ * <p>
+ * Ids are assigned in order of first appearance and are never reused, so they
+ * are stable for the life of the JVM -- but not across runs. Anything that is
+ * serialized should store terms, not ids.
+ *
+ * @author tunderwood
+ *
+ */
+public class Lexicon {
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] terms = new String[1024];
+	private static int size = 0;
+
+	/**
+	 * @return The id of term, assigning a new one if the term hasn't been seen.
+	 */
+	public static int getId(String term) {
+		Integer id = ids.get(term);
+		if (id != null) return id;
+		return addTerm(term);
+	}
+
+	/**
+	 * @return The id of term, or -1 if it has never been seen. Never adds the term,
+	 * so it's the right choice for lookups that would otherwise fill the lexicon
+	 * with terms no document contains.
+	 */
+	public static int lookup(String term) {
+		Integer id = ids.get(term);
+		if (id == null) return -1;
+		return id;
+	}
+
+	public static String getTerm(int id) {
+		return terms[id];
+	}
+
+	public static synchronized int size() {
+		return size;
+	}
+
+	private static synchronized int addTerm(String term) {
+		// Another thread may have added the term since we looked.
+		Integer existing = ids.get(term);
+		if (existing != null) return existing;
+		if (size == terms.length) {
+			String[] grown = new String[size * 2];
+			System.arraycopy(terms, 0, grown, 0, size);
+			terms = grown;
+		}
+		int id = size;
+		terms[id] = term;
+		size += 1;
+		// The term is written before the id is published, so any thread that
+		// can see the id can also see the term.
+		ids.put(term, id);
+		return id;
+	}
+}
@@ -3,14 +3,17 @@ package classification;
 import java.util.ArrayList;
 
 import weka.classifiers.Classifier;
+import weka.classifiers.functions.Logistic;
 // import weka.classifiers.Evaluation;
 import weka.core.Attribute;
 import weka.core.FastVector;
 import weka.core.Instances;
 import weka.core.Instance;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.RemoveUseless;
 
 
-public class LogisticClassifier implements java.io.Serializable {
+public class LogisticClassifier extends SupervisedLearner implements java.io.Serializable {
 	
 	Classifier logistic;
 	Instances trainingSet;
@@ -135,6 +138,10 @@ public class LogisticClassifier implements java.io.Serializable {
 		return testProbs;
 	}
 	
+	public ArrayList<String> getFeatures() {
+		return features;
+	}
+	
 	public double predictDocument(Document instance) {
 		ArrayList<Double> vector = new ArrayList<Double>();
 		for (String term : features) {
@@ -167,6 +174,40 @@ public class LogisticClassifier implements java.io.Serializable {
 		return test;
 	}
 	
+	/**
+	 * Weka's Logistic is linear in the log-odds, and after training it converts
+	 * its coefficients back to the units of the original attributes, so we can
+	 * read them directly. The first row of its parameters is the intercept, and
+	 * each later row belongs to an attribute that survived its RemoveUseless
+	 * filter. We rerun that filter on the training set to learn which those
+	 * were; features it dropped never affect a prediction, and get zero.
+	 * Parameters are per class, relative to the last; "positive" is the first.
+	 */
+	public double linearCoefficients(double[] coefficients) {
+		if (!(logistic instanceof Logistic)) return Double.NaN;
+		double[][] parameters = ((Logistic) logistic).coefficients();
+		Instances kept;
+		try {
+			RemoveUseless filter = new RemoveUseless();
+			filter.setInputFormat(trainingSet);
+			kept = Filter.useFilter(trainingSet, filter);
+		}
+		catch (Exception e) {
+			WarningLogger.logWarning("Could not recover the attributes of " + trainingSet.relationName() + ": " + e);
+			return Double.NaN;
+		}
+		for (int i = 0; i < numFeatures; ++i) {
+			coefficients[i] = 0d;
+		}
+		int row = 1;
+		for (int a = 0; a < kept.numAttributes(); ++a) {
+			if (a == kept.classIndex()) continue;
+			coefficients[trainingSet.attribute(kept.attribute(a).name()).index()] = parameters[row][0];
+			row += 1;
+		}
+		return parameters[0][0];
+	}
+	
 	public double predictScalar(double value) {
 		assert (numFeatures == 1);
 		
@@ -1,203 +1,322 @@
 package classification;
-import java.util.Arrays;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Ranks terms by the Mann-Whitney rho statistic, adapted for degrees of class
+ * membership between 0 and 1.
+ * <p>
+ * Most terms are absent from most documents, so we never build a distribution
+ * over all D documents. Instead we make one pass over the corpus to collect each
+ * candidate term's nonzero values, and rank only those. The zeros form a single
+ * tied block at the bottom of the ranking; their average rank, and their
+ * contribution to the in-class rank sum, can be computed directly. Terms are
+ * ranked in parallel.
+ */
 public class MannWhitneySorter {
 	Corpus corpus;
 	int D;
-	
+	int numThreads;
+
+	static final int TERMSPERTASK = 256;
+	static final int INSERTIONSORT = 16;
+
 	public MannWhitneySorter(Corpus corpus) {
+		this(corpus, Runtime.getRuntime().availableProcessors());
+	}
+
+	public MannWhitneySorter(Corpus corpus, int numThreads) {
 		this.corpus = corpus;
 		D = corpus.numDocuments;
+		this.numThreads = Math.max(1, numThreads);
 	}
-	
+
+	/**
+	 * @param terms Candidate terms.
+	 * @return Indexes into <code>terms</code>, in descending order of rho.
+	 */
 	public int[] rankTermsByMW(ArrayList<String> terms) {
-		int V = terms.size();
-		double[] rhoValues = new double[V];
-		
+		return topTermsByMW(terms, terms.size());
+	}
+
+	/**
+	 * Returns the k terms with the highest rho, without sorting the rest.
+	 * @param terms Candidate terms.
+	 * @param k Number of terms to return.
+	 * @return Indexes into <code>terms</code>, in descending order of rho.
+	 */
+	public int[] topTermsByMW(ArrayList<String> terms, int k) {
+		double[] rhoValues = rhoValues(terms);
+		int V = rhoValues.length;
+		if (k > V) k = V;
+		if (k <= 0) return new int[0];
+
+		// A min-heap of the k best terms seen so far; the root is the weakest.
+		int[] heap = new int[k];
+		int heapSize = 0;
+		for (int i = 0; i < V; ++i) {
+			if (heapSize < k) {
+				heap[heapSize] = i;
+				siftUp(heap, heapSize, rhoValues);
+				heapSize += 1;
+			}
+			else if (ranksHigher(i, heap[0], rhoValues)) {
+				heap[0] = i;
+				siftDown(heap, 0, heapSize, rhoValues);
+			}
+		}
+
+		// Pop the heap from weakest to strongest, filling the result from the end.
+		int[] sortedTermIndices = new int[k];
+		for (int j = k - 1; j >= 0; --j) {
+			sortedTermIndices[j] = heap[0];
+			heapSize -= 1;
+			heap[0] = heap[heapSize];
+			siftDown(heap, 0, heapSize, rhoValues);
+		}
+		return sortedTermIndices;
+	}
+
+	/**
+	 * @param terms Candidate terms.
+	 * @return The rho value for each term, in the order of <code>terms</code>.
+	 */
+	public double[] rhoValues(ArrayList<String> terms) {
+		final int V = terms.size();
+		final double[] rhoValues = new double[V];
+
 		ArrayList<Double> memberProbs = corpus.getMembershipProbs();
 		assert (D == memberProbs.size());
-		
-		// Following code is a kloodge because this class was originally written to use
-		// arrays rather than ArrayLists.
-		
-		double[] memberDegrees = new double[D];
+		final double[] memberDegrees = new double[D];
+		double n1 = 0d;
 		for (int i = 0; i < D; ++i) {
 			memberDegrees[i] = memberProbs.get(i);
+			n1 += memberDegrees[i];
 		}
-		
-		for (int i = 0; i < V; ++ i) {
-			String thisterm = terms.get(i);
-			ArrayList<Double> distributionOverDocs = corpus.normalizedFreqOverDocs(thisterm);
-			
-			// Again, a kloodge because this class was originally written to use arrays.
-			double[] distribution = new double[D];
-			for (int j = 0; j < D; ++j) {
-				distribution[j] = distributionOverDocs.get(j);
+		final double sumDegrees = n1;
+
+		// First pass over the corpus: count each term's nonzero documents, so
+		// the inverted lists can be allocated at their exact size.
+		TermIndex termIndex = FeatureVector.indexFeatures(terms);
+		ArrayList<Document> documents = corpus.getAllInstances();
+		final int[] nonzeroCounts = new int[V];
+		for (Document doc : documents) {
+			for (int k = 0; k < doc.numNonzeros(); ++k) {
+				int t = termIndex.get(doc.termIdAt(k));
+				if (t >= 0 && doc.countAt(k) > 0) nonzeroCounts[t] += 1;
 			}
-			rhoValues[i] = mannWhitney(memberDegrees, distribution);	
 		}
-		
-		IntDoublePair[] termRanks = new IntDoublePair[V];
-		for (int i = 0; i < V; i ++) {
-			termRanks[i] = new IntDoublePair(rhoValues[i], i);
+		final int[][] postingDocs = new int[V][];
+		final double[][] postingValues = new double[V][];
+		int maxNonzeros = 0;
+		for (int t = 0; t < V; ++t) {
+			postingDocs[t] = new int[nonzeroCounts[t]];
+			postingValues[t] = new double[nonzeroCounts[t]];
+			if (nonzeroCounts[t] > maxNonzeros) maxNonzeros = nonzeroCounts[t];
+			nonzeroCounts[t] = 0;
 		}
-		
-		Arrays.sort(termRanks);
-		// At this point termRanks is an array of IntDoublePairs, 
-		// sorted by the Double part (the rho value). The int part
-		// contains the original position of that rho value in the
-		// term array, so if you peel off the int part you get
-		// an array of indexes to the termtype array, sorted in rho
-		// order. Note that since Arrays.sort produces ascending
-		// order, we need to reverse the loop.
-		
-		int[] sortedTermIndices = new int[V];
-		for (int i = termRanks.length - 1, j = 0; i > -1; i--, j++) {
-			sortedTermIndices[j] = termRanks[i].getPosition();
+		// Second pass: fill the lists. Frequencies are normalized by page count,
+		// as in Corpus.normalizedFreqOverDocs.
+		for (int d = 0; d < D; ++d) {
+			Document doc = documents.get(d);
+			for (int k = 0; k < doc.numNonzeros(); ++k) {
+				int t = termIndex.get(doc.termIdAt(k));
+				if (t < 0 || doc.countAt(k) <= 0) continue;
+				int position = nonzeroCounts[t];
+				postingDocs[t][position] = d;
+				postingValues[t][position] = doc.countAt(k) / doc.numPages;
+				nonzeroCounts[t] = position + 1;
+			}
 		}
-		return sortedTermIndices;
+
+		final int scratchSize = maxNonzeros;
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < V; start += TERMSPERTASK) {
+			final int from = start;
+			final int to = Math.min(V, start + TERMSPERTASK);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					double[] values = new double[scratchSize];
+					double[] degrees = new double[scratchSize];
+					for (int t = from; t < to; ++t) {
+						int nnz = nonzeroCounts[t];
+						for (int j = 0; j < nnz; ++j) {
+							values[j] = postingValues[t][j];
+							degrees[j] = memberDegrees[postingDocs[t][j]];
+						}
+						rhoValues[t] = sparseMannWhitney(values, degrees, nnz, sumDegrees);
+					}
+					return null;
+				}
+			});
+		}
+
+		if (numThreads == 1 || tasks.size() == 1) {
+			try {
+				for (Callable<Object> task : tasks) {
+					task.call();
+				}
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				for (Future<Object> future : executor.invokeAll(tasks)) {
+					future.get();
+				}
+			}
+			catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		return rhoValues;
 	}
-	
-	private double mannWhitney(double[] degreeInClass, double[] termFreq) {
-		assert (degreeInClass.length == D);
-		assert (termFreq.length == D);
-		
-		// Array recording initial positions of data to be ranked.
-        IntDoublePair[] ranks = new IntDoublePair[D];
-        for (int i = 0; i < D; i++) {
-            ranks[i] = new IntDoublePair(termFreq[i], i);
-        }
- 
-		// Sort the array.
-        Arrays.sort(ranks);
-        
-        // Walk the sorted array, filling output array using sorted positions,
-        // resolving ties as we go
-        double[] out = new double[D];
-        int pos = 1;  // position in sorted array
-        out[ranks[0].getPosition()] = pos;
-        List<Integer> tiesTrace = new ArrayList<Integer>();
-        tiesTrace.add(ranks[0].getPosition());
-        for (int i = 1; i < D; i++) {
-            if (Double.compare(ranks[i].getValue(), ranks[i - 1].getValue()) > 0) {
-                // tie sequence has ended (or had length 1)
-                pos = i + 1;
-                if (tiesTrace.size() > 1) {  // if seq is nontrivial, resolve
-                    resolveTie(out, tiesTrace);
-                }
-                tiesTrace = new ArrayList<Integer>();
-                tiesTrace.add(ranks[i].getPosition());
-            } else {
-                // tie sequence continues
-                tiesTrace.add(ranks[i].getPosition());
-            }
-            out[ranks[i].getPosition()] = pos;
-        }
-        if (tiesTrace.size() > 1) {  // handle tie sequence at end
-            resolveTie(out, tiesTrace);
-        }
-        
-        // Now out contains an array of integers whose position corresponds to the
-        // position of the original termFreq, but which contains, instead of termFreq,
-        // the rank of each termFreq in the original array, beginning at 1, and with
-        // tied values averaged.
-        // If class membership were a binary proposition we might now compute U by
-        // summing the ranks of in-class and out-class samples. But it may not be 
-        // a binary proposition, so we multiply by a real number 0-1 that represents
-        // degree of class membership.
-        
-        double inSum = 0d;
-        double n1 = 0d;
-        
-        for (int i = 0; i < D; ++i) {
-        	inSum += out[i] * degreeInClass[i];
-        	n1 += degreeInClass[i];			
-        }
-        
-        // Now, normally Mann-Whitney rho is the sum of ranks in a class, divided
-        // by the product of the sample sizes in both classes. Here, we adapt this
-        // for continuous rather than disjoint classes. We know that the out-of-class
-        // membership degree is 1 - degreeInClass, so multiplying for a vector of length
-        // D, we have
-        
-        double n2 = D - n1;
-        double rho = inSum / (n1 * n2);
-        return rho;
+
+	/**
+	 * Computes rho for one term from its nonzero values alone. The arrays are
+	 * sorted in place.
+	 *
+	 * @param values Nonzero (normalized) frequencies of the term.
+	 * @param degrees Degree of class membership of the document behind each value.
+	 * @param nnz Number of valid entries in the arrays.
+	 * @param n1 Sum of class membership over all D documents.
+	 */
+	private double sparseMannWhitney(double[] values, double[] degrees, int nnz, double n1) {
+		int zeros = D - nnz;
+
+		sortByValue(values, degrees, 0, nnz - 1);
+
+		// Walk the nonzero values, resolving ties as we go. Ranks begin at 1 and
+		// the zeros occupy ranks 1 to zeros.
+		double inSum = 0d;
+		double nonzeroDegrees = 0d;
+		int i = 0;
+		while (i < nnz) {
+			int j = i + 1;
+			while (j < nnz && values[j] == values[i]) j += 1;
+			// Entries i to j-1 are tied; they share the average of their ranks.
+			double averageRank = zeros + ((i + 1) + j) / 2d;
+			double tiedDegrees = 0d;
+			for (int h = i; h < j; ++h) {
+				tiedDegrees += degrees[h];
+			}
+			inSum += averageRank * tiedDegrees;
+			nonzeroDegrees += tiedDegrees;
+			i = j;
+		}
+
+		// Now the zeros: one tied block whose average rank is (1 + zeros) / 2.
+		if (zeros > 0) {
+			inSum += ((1 + zeros) / 2d) * (n1 - nonzeroDegrees);
+		}
+
+		// Normally Mann-Whitney rho is the sum of ranks in a class, divided
+		// by the product of the sample sizes in both classes. Here, we adapt this
+		// for continuous rather than disjoint classes. We know that the out-of-class
+		// membership degree is 1 - degreeInClass, so for a vector of length D, we have
+		double n2 = D - n1;
+		return inSum / (n1 * n2);
 	}
-	
-	 /**
-     * Resolve a sequence of ties, by averaging their ranks
-     * The input <code>ranks</code> array is expected to take the same value
-     * for all indices in <code>tiesTrace</code>.
-     *
-     * @param ranks array of ranks
-     * @param tiesTrace list of indices where <code>ranks</code> is constant
-     * -- that is, for any i and j in TiesTrace, <code> ranks[i] == ranks[j]
-     * </code>
-     */
-	private void resolveTie(double[] newranks, List<Integer> tiesTrace) {
-        // constant value of ranks over tiesTrace
-        final double c = newranks[tiesTrace.get(0)];
-
-        // length of sequence of tied ranks
-        final int length = tiesTrace.size();
-        Iterator<Integer> iterator = tiesTrace.iterator();
-        double averageValue = (2 * c + length - 1) / 2d;
-        while (iterator.hasNext()) {
-        	newranks[iterator.next()] = averageValue;
-        }
-    }
-
-	
-    private static class IntDoublePair implements Comparable<IntDoublePair>  {
-
-        /** Value of the pair */
-        private final double value;
-
-        /** Original position of the pair */
-        private final int position;
-
-        /**
-         * Construct an IntDoublePair with the given value and position.
-         * @param value the value of the pair
-         * @param position the original position
-         */
-        public IntDoublePair(double value, int position) {
-            this.value = value;
-            this.position = position;
-        }
-
-        /**
-         * Compare this IntDoublePair to another pair.
-         * Only the <strong>values</strong> are compared.
-         *
-         * @param other the other pair to compare this to
-         * @return result of <code>Double.compare(value, other.value)</code>
-         */
-        public int compareTo(IntDoublePair other) {
-            return Double.compare(value, other.value);
-        }
-
-        // N.B. equals() and hashCode() are not implemented; see MATH-610 for discussion.
-
-        /**
-         * Returns the value of the pair.
-         * @return value
-         */
-        public double getValue() {
-            return value;
-        }
-
-        /**
-         * Returns the original position of the pair.
-         * @return position
-         */
-        public int getPosition() {
-            return position;
-        }
-    }
-    
+
+	/**
+	 * Sorts values ascending, carrying the parallel array along. Quicksort with a
+	 * median-of-three pivot, finishing small ranges by insertion sort.
+	 */
+	private static void sortByValue(double[] values, double[] carried, int low, int high) {
+		while (high - low > INSERTIONSORT) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < values[low]) swap(values, carried, middle, low);
+			if (values[high] < values[low]) swap(values, carried, high, low);
+			if (values[high] < values[middle]) swap(values, carried, high, middle);
+			double pivot = values[middle];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (values[i] < pivot) i += 1;
+				while (values[j] > pivot) j -= 1;
+				if (i <= j) {
+					swap(values, carried, i, j);
+					i += 1;
+					j -= 1;
+				}
+			}
+			// Recurse into the smaller side and loop on the larger, to bound the stack.
+			if (j - low < high - i) {
+				sortByValue(values, carried, low, j);
+				low = i;
+			}
+			else {
+				sortByValue(values, carried, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; ++i) {
+			double value = values[i];
+			double carry = carried[i];
+			int j = i - 1;
+			while (j >= low && values[j] > value) {
+				values[j + 1] = values[j];
+				carried[j + 1] = carried[j];
+				j -= 1;
+			}
+			values[j + 1] = value;
+			carried[j + 1] = carry;
+		}
+	}
+
+	private static void swap(double[] values, double[] carried, int a, int b) {
+		double swapValue = values[a];
+		values[a] = values[b];
+		values[b] = swapValue;
+		double swapCarried = carried[a];
+		carried[a] = carried[b];
+		carried[b] = swapCarried;
+	}
+
+	/** True if term a should be ranked ahead of term b: higher rho, then lower index. */
+	private static boolean ranksHigher(int a, int b, double[] rhoValues) {
+		int comparison = Double.compare(rhoValues[a], rhoValues[b]);
+		if (comparison != 0) return comparison > 0;
+		return a < b;
+	}
+
+	private static void siftUp(int[] heap, int position, double[] rhoValues) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!ranksHigher(heap[parent], heap[position], rhoValues)) break;
+			int swap = heap[parent];
+			heap[parent] = heap[position];
+			heap[position] = swap;
+			position = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int position, int heapSize, double[] rhoValues) {
+		while (true) {
+			int left = (2 * position) + 1;
+			if (left >= heapSize) break;
+			int weakest = left;
+			int right = left + 1;
+			if (right < heapSize && ranksHigher(heap[left], heap[right], rhoValues)) weakest = right;
+			if (!ranksHigher(heap[position], heap[weakest], rhoValues)) break;
+			int swap = heap[position];
+			heap[position] = heap[weakest];
+			heap[weakest] = swap;
+			position = weakest;
+		}
+	}
+
 }
@@ -0,0 +1,53 @@
+package classification;
+import java.util.ArrayList;
+
+/**
+ * A view of a shared list of Documents, paired with one class's degrees of
+ * membership. Many MembershipCorpora can wrap the same list, so training a model
+ * for every class doesn't copy any documents. The documents themselves are never
+ * modified; in particular we don't touch their <code>probBelongsToClass</code>,
+ * since that would be shared by every view.
+ *
+ * @author tunderwood
+ *
+ */
+public class MembershipCorpus extends Corpus {
+
+	/**
+	 * @param documents Shared, read-only list of documents.
+	 * @param classMembership Degree to which each document belongs to the class,
+	 * in the same order as documents.
+	 * @param classLabel The class this view describes.
+	 */
+	public MembershipCorpus(ArrayList<Document> documents, ArrayList<Double> classMembership, String classLabel) {
+		assert (documents.size() == classMembership.size());
+		this.documents = documents;
+		this.classMembership = classMembership;
+		this.classLabel = classLabel;
+		numDocuments = documents.size();
+	}
+
+	public ArrayList<Document> getAllInstances() {
+		return documents;
+	}
+
+	public ArrayList<Double> getMembershipProbs() {
+		return classMembership;
+	}
+
+	public ArrayList<Double> normalizedFreqOverDocs(String term) {
+		ArrayList<Double> distribution = new ArrayList<Double>(numDocuments);
+		for (Document thisInstance : documents) {
+			distribution.add(thisInstance.getNormalizedTermFreq(term));
+		}
+		return distribution;
+	}
+
+	public ArrayList<Double> rawFreqOverDocs(String term) {
+		ArrayList<Double> distribution = new ArrayList<Double>(numDocuments);
+		for (Document thisInstance : documents) {
+			distribution.add(thisInstance.getRawTermFreq(term));
+		}
+		return distribution;
+	}
+}
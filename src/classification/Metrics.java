@@ -0,0 +1,315 @@
+package classification;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A global registry of run-time metrics: counters, latency histograms, and the
+ * progress of the current phase of a run. Like the WarningLogger, it's static,
+ * so any class can record to it without having a registry passed in; and like
+ * the Lexicon, it's safe to use from many threads at once.
+ * <p>
+ * Names are dotted, e.g. <code>reader.files</code>. A metric can carry one
+ * label, e.g. the class of a model, which becomes a Prometheus label.
+ * <p>
+ * <code>startExporter</code> writes a snapshot of every metric to a file
+ * periodically, and once more when the run ends; as JSON, or in Prometheus'
+ * text format if the file name ends in <code>.prom</code>. Each snapshot
+ * replaces the last in one rename, so a reader never sees half a file. The
+ * snapshot includes the current phase's rate and an ETA for it.
+ *
+ * @author tunderwood
+ *
+ */
+public class Metrics {
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private static final long started = System.nanoTime();
+	private static volatile Progress progress;
+	private static Thread exporter;
+
+	public static class Counter {
+		AtomicLong value = new AtomicLong();
+
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		public void add(long n) {
+			value.addAndGet(n);
+		}
+
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * A histogram of durations, with buckets that double in width: bucket b
+	 * counts durations of less than 2^b nanoseconds (and at least half that).
+	 * Quantiles are reported as the upper bound of their bucket, so they're
+	 * within a factor of two, which is what a latency dashboard needs; and
+	 * recording costs a few atomic adds, with no locking.
+	 */
+	public static class Histogram {
+		static final int BUCKETS = 48;
+		AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		AtomicLong count = new AtomicLong();
+		AtomicLong totalNanos = new AtomicLong();
+
+		public void record(long nanos) {
+			int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos));
+			buckets.incrementAndGet(Math.min(BUCKETS - 1, bucket));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+		}
+
+		/** Records the time since start, a System.nanoTime reading. */
+		public void recordSince(long start) {
+			record(System.nanoTime() - start);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		/** @return Upper bound, in seconds, of the bucket where this fraction of durations falls. */
+		public double quantileSeconds(double fraction) {
+			long total = count.get();
+			if (total == 0) return 0d;
+			long rank = (long) Math.ceil(fraction * total);
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; ++b) {
+				seen += buckets.get(b);
+				if (seen >= rank) return upperBoundSeconds(b);
+			}
+			return upperBoundSeconds(BUCKETS - 1);
+		}
+
+		static double upperBoundSeconds(int bucket) {
+			return Math.pow(2, bucket) / 1e9;
+		}
+	}
+
+	/** How far the current phase has got, out of how much. */
+	static class Progress {
+		String phase;
+		long total;
+		AtomicLong done = new AtomicLong();
+		long started = System.nanoTime();
+
+		double ratePerSecond() {
+			double seconds = (System.nanoTime() - started) / 1e9;
+			return (seconds > 0) ? done.get() / seconds : 0d;
+		}
+
+		/** @return Seconds to finish at the rate so far, or -1 if there's no rate yet. */
+		double etaSeconds() {
+			double rate = ratePerSecond();
+			if (rate <= 0) return -1d;
+			return Math.max(0, total - done.get()) / rate;
+		}
+	}
+
+	public static Counter counter(String name) {
+		return counter(name, null, null);
+	}
+
+	public static Counter counter(String name, String label, String value) {
+		String key = key(name, label, value);
+		Counter counter = counters.get(key);
+		if (counter == null) {
+			counters.putIfAbsent(key, new Counter());
+			counter = counters.get(key);
+		}
+		return counter;
+	}
+
+	public static Histogram histogram(String name) {
+		return histogram(name, null, null);
+	}
+
+	public static Histogram histogram(String name, String label, String value) {
+		String key = key(name, label, value);
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histograms.putIfAbsent(key, new Histogram());
+			histogram = histograms.get(key);
+		}
+		return histogram;
+	}
+
+	private static String key(String name, String label, String value) {
+		if (label == null) return name;
+		return name + "{" + label + "=\"" + value + "\"}";
+	}
+
+	/**
+	 * Starts a new phase of the run, e.g. "prediction", with a known amount of
+	 * work to do, in whatever unit <code>advance</code> will be called with.
+	 */
+	public static void startPhase(String phase, long total) {
+		Progress next = new Progress();
+		next.phase = phase;
+		next.total = total;
+		progress = next;
+	}
+
+	public static void advance(long n) {
+		Progress current = progress;
+		if (current != null) current.done.addAndGet(n);
+	}
+
+	/**
+	 * Writes a snapshot to path every periodSeconds, on a daemon thread, until
+	 * <code>stopExporter</code> is called.
+	 */
+	public static synchronized void startExporter(final String path, final long periodSeconds) {
+		if (exporter != null) return;
+		exporter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(periodSeconds * 1000);
+						writeSnapshot(path);
+					}
+				}
+				catch (InterruptedException e) {
+					// Stopped; stopExporter writes the final snapshot.
+				}
+			}
+		}, "metrics-exporter");
+		exporter.setDaemon(true);
+		exporter.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				stopExporter(path);
+			}
+		}));
+	}
+
+	/** Stops the exporter, if it's running, and writes a final snapshot. */
+	public static synchronized void stopExporter(String path) {
+		if (exporter == null) return;
+		exporter.interrupt();
+		exporter = null;
+		writeSnapshot(path);
+	}
+
+	/**
+	 * Writes every metric to path, by way of a temporary file that replaces it.
+	 */
+	public static void writeSnapshot(String path) {
+		String snapshot = path.endsWith(".prom") ? toPrometheus() : toJSON();
+		File target = new File(path);
+		File temporary = new File(path + ".tmp");
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(temporary));
+			try {
+				out.write(snapshot);
+			}
+			finally {
+				out.close();
+			}
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			WarningLogger.logWarning("Could not write metrics to " + path + ": " + e);
+		}
+	}
+
+	public static String toJSON() {
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"uptime_seconds\": ").append((System.nanoTime() - started) / 1e9).append(",\n");
+		Progress current = progress;
+		if (current != null) {
+			json.append("  \"progress\": {\"phase\": \"").append(current.phase)
+				.append("\", \"done\": ").append(current.done.get())
+				.append(", \"total\": ").append(current.total)
+				.append(", \"rate_per_second\": ").append(current.ratePerSecond())
+				.append(", \"eta_seconds\": ").append(current.etaSeconds()).append("},\n");
+		}
+		json.append("  \"counters\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+			json.append(separator).append("    \"").append(escape(entry.getKey())).append("\": ").append(entry.getValue().get());
+			separator = ",\n";
+		}
+		json.append("\n  },\n  \"histograms\": {");
+		separator = "\n";
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+			Histogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			json.append(separator).append("    \"").append(escape(entry.getKey())).append("\": {\"count\": ").append(count)
+				.append(", \"mean_seconds\": ").append((count > 0) ? histogram.totalNanos.get() / (count * 1e9) : 0d)
+				.append(", \"p50_seconds\": ").append(histogram.quantileSeconds(0.5))
+				.append(", \"p99_seconds\": ").append(histogram.quantileSeconds(0.99)).append("}");
+			separator = ",\n";
+		}
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	public static String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		text.append("uptime_seconds ").append((System.nanoTime() - started) / 1e9).append('\n');
+		Progress current = progress;
+		if (current != null) {
+			String phase = "{phase=\"" + current.phase + "\"}";
+			text.append("progress_done").append(phase).append(' ').append(current.done.get()).append('\n');
+			text.append("progress_total").append(phase).append(' ').append(current.total).append('\n');
+			text.append("progress_rate_per_second").append(phase).append(' ').append(current.ratePerSecond()).append('\n');
+			text.append("progress_eta_seconds").append(phase).append(' ').append(current.etaSeconds()).append('\n');
+		}
+		for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+			text.append(prometheusName(entry.getKey(), "_total", null)).append(' ').append(entry.getValue().get()).append('\n');
+		}
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+			Histogram histogram = entry.getValue();
+			long cumulative = 0;
+			// Every bucket, empty or not, so the series are the same in every snapshot.
+			for (int b = 0; b < Histogram.BUCKETS; ++b) {
+				cumulative += histogram.buckets.get(b);
+				String le = "le=\"" + Histogram.upperBoundSeconds(b) + "\"";
+				text.append(prometheusName(entry.getKey(), "_seconds_bucket", le)).append(' ').append(cumulative).append('\n');
+			}
+			text.append(prometheusName(entry.getKey(), "_seconds_bucket", "le=\"+Inf\"")).append(' ').append(histogram.getCount()).append('\n');
+			text.append(prometheusName(entry.getKey(), "_seconds_sum", null)).append(' ').append(histogram.totalNanos.get() / 1e9).append('\n');
+			text.append(prometheusName(entry.getKey(), "_seconds_count", null)).append(' ').append(histogram.getCount()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Turns a dotted key, with or without a label, into a Prometheus series name:
+	 * dots become underscores, the suffix goes before the label, and an extra
+	 * label is merged in.
+	 */
+	private static String prometheusName(String key, String suffix, String extraLabel) {
+		String name = key;
+		String labels = "";
+		int brace = key.indexOf('{');
+		if (brace >= 0) {
+			name = key.substring(0, brace);
+			labels = key.substring(brace + 1, key.length() - 1);
+		}
+		if (extraLabel != null) labels = (labels.length() > 0) ? labels + "," + extraLabel : extraLabel;
+		name = name.replace('.', '_') + suffix;
+		if (labels.length() > 0) return name + "{" + labels + "}";
+		return name;
+	}
+
+	private static String escape(String key) {
+		return key.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
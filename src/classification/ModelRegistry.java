@@ -0,0 +1,303 @@
+package classification;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A file format for a compact ensemble that is laid out to be memory-mapped
+ * rather than deserialized. Class labels, vocabulary, intercepts, scales and
+ * coefficients each sit in one contiguous, 64-byte-aligned section, in
+ * little-endian order, behind a fixed header of section offsets.
+ * <p>
+ * <code>open</code> maps the file read-only and scores straight from the
+ * mapping, so the coefficients are never copied onto the heap. Every process
+ * that opens the same file shares one copy of it in the page cache, and
+ * opening costs an mmap plus decoding the labels and vocabulary, which are
+ * small next to the coefficients.
+ * <p>
+ * Layout (all offsets in bytes from the start of the file):
+ * <pre>
+ *   0  int magic, int version, int numModels, int numFeatures,
+ *  16  int flags (1 = int8, 2 = hashed), int hashBits, int hashSeed, int unused,
+ *  32  long labels, long vocabulary (0 if hashed), long intercepts,
+ *  56  long scales (0 unless int8), long weights, long weightBytes, long fileLength
+ * 128  sections
+ * </pre>
+ * A string section is an int count, count + 1 int offsets into the UTF-8
+ * bytes that follow, then the bytes. Weights are feature-major, as in
+ * CompactEnsemble.
+ *
+ * @author tunderwood
+ *
+ */
+public class ModelRegistry {
+	static final int MAGIC = 0x4D524731;
+	static final int VERSION = 1;
+	static final int HEADERSIZE = 128;
+	static final int ALIGNMENT = 64;
+	static final int QUANTIZED = 1;
+	static final int HASHED = 2;
+
+	/**
+	 * Writes an ensemble as a registry file. Processes may have the file mapped
+	 * while it's replaced, so it's written in full under a temporary name and
+	 * renamed over the old one in one step; an existing mapping keeps the old
+	 * file, and never sees a half-written or truncated one.
+	 * @throws IllegalArgumentException If the file would be too large to map;
+	 * a mapping, like an array, is indexed by int.
+	 */
+	public static void write(CompactEnsemble ensemble, String path) throws IOException {
+		int numModels = ensemble.numModels;
+		int numFeatures = ensemble.numFeatures;
+		int size = CompactEnsemble.tableSize(numFeatures, numModels);
+		boolean hashed = ensemble.hasher != null;
+		ByteBuffer labels = encodeStrings(ensemble.classLabels);
+		ByteBuffer vocabulary = hashed ? null : encodeStrings(ensemble.features);
+		long weightBytes = (long) size * (ensemble.quantized ? 1 : 4);
+
+		long labelsOffset = HEADERSIZE;
+		long vocabularyOffset = hashed ? 0 : align(labelsOffset + labels.remaining());
+		long interceptsOffset = align(hashed ? labelsOffset + labels.remaining() : vocabularyOffset + vocabulary.remaining());
+		long scalesOffset = ensemble.quantized ? align(interceptsOffset + 4L * numModels) : 0;
+		long weightsOffset = align(ensemble.quantized ? scalesOffset + 4L * numFeatures : interceptsOffset + 4L * numModels);
+		long fileLength = weightsOffset + weightBytes;
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("a registry of " + fileLength + " bytes is too large to map; use int8, fewer hash bits or wider date bins");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADERSIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(numModels).putInt(numFeatures);
+		header.putInt((ensemble.quantized ? QUANTIZED : 0) | (hashed ? HASHED : 0));
+		header.putInt(hashed ? ensemble.hasher.bits : 0).putInt(hashed ? ensemble.hasher.seed : 0).putInt(0);
+		header.putLong(labelsOffset).putLong(vocabularyOffset).putLong(interceptsOffset);
+		header.putLong(scalesOffset).putLong(weightsOffset).putLong(weightBytes).putLong(fileLength);
+		header.rewind();
+
+		ByteBuffer intercepts = ByteBuffer.allocate(4 * numModels).order(ByteOrder.LITTLE_ENDIAN);
+		for (int m = 0; m < numModels; ++m) {
+			intercepts.putFloat(ensemble.intercepts[m]);
+		}
+		intercepts.flip();
+
+		Path target = Paths.get(path);
+		Path temporary = Paths.get(path + ".tmp");
+		FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		boolean written = false;
+		try {
+			writeAt(channel, header, 0);
+			writeAt(channel, labels, labelsOffset);
+			if (!hashed) writeAt(channel, vocabulary, vocabularyOffset);
+			writeAt(channel, intercepts, interceptsOffset);
+			if (ensemble.quantized) {
+				ByteBuffer scales = ByteBuffer.allocate(4 * numFeatures).order(ByteOrder.LITTLE_ENDIAN);
+				for (int j = 0; j < numFeatures; ++j) {
+					scales.putFloat(ensemble.scaleAt(j));
+				}
+				scales.flip();
+				writeAt(channel, scales, scalesOffset);
+			}
+			// Coefficients go out a block at a time, so writing doesn't double their memory.
+			ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			long position = weightsOffset;
+			for (int i = 0; i < size; ++i) {
+				if (block.remaining() < 4) {
+					block.flip();
+					position += writeAt(channel, block, position);
+					block.clear();
+				}
+				if (ensemble.quantized) block.put(ensemble.quantizedWeightAt(i));
+				else block.putFloat(ensemble.weightAt(i));
+			}
+			block.flip();
+			writeAt(channel, block, position);
+			channel.force(true);
+			written = true;
+		}
+		finally {
+			channel.close();
+			if (!written) Files.deleteIfExists(temporary);
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps a registry file read-only.
+	 * @return An ensemble whose coefficients stay in the mapped file.
+	 * @throws IOException If the file can't be read, or isn't a registry.
+	 */
+	public static CompactEnsemble open(String path) throws IOException {
+		MappedByteBuffer mapped;
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADERSIZE) throw new IOException("Not a model registry: " + path);
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Model registry too large to map: " + path);
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			// The mapping stays valid after the channel is closed.
+			channel.close();
+		}
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		if (mapped.getInt(0) != MAGIC) throw new IOException("Not a model registry: " + path);
+		if (mapped.getInt(4) != VERSION) throw new IOException("Unknown model registry version " + mapped.getInt(4) + ": " + path);
+		int numModels = mapped.getInt(8);
+		int numFeatures = mapped.getInt(12);
+		int flags = mapped.getInt(16);
+		long labelsOffset = mapped.getLong(32);
+		long vocabularyOffset = mapped.getLong(40);
+		long interceptsOffset = mapped.getLong(48);
+		long scalesOffset = mapped.getLong(56);
+		long weightsOffset = mapped.getLong(64);
+		long weightBytes = mapped.getLong(72);
+		if (mapped.getLong(80) != mapped.capacity() || weightsOffset + weightBytes != mapped.capacity()) {
+			throw new IOException("Model registry is truncated: " + path);
+		}
+		// Files were sized to be mapped when they were written, so this only
+		// catches a damaged header; but then it stops the kernels' int offsets
+		// from running past the mapping.
+		long expectedBytes = (long) numFeatures * numModels * (((flags & QUANTIZED) != 0) ? 1 : 4);
+		if (numFeatures < 0 || numModels < 0 || weightBytes != expectedBytes) {
+			throw new IOException("Model registry header doesn't match its coefficients: " + path);
+		}
+
+		CompactEnsemble ensemble = new CompactEnsemble();
+		ensemble.numModels = numModels;
+		ensemble.numFeatures = numFeatures;
+		ensemble.quantized = (flags & QUANTIZED) != 0;
+		ensemble.classLabels = decodeStrings(mapped, (int) labelsOffset);
+		if ((flags & HASHED) != 0) {
+			ensemble.hasher = new FeatureHasher(mapped.getInt(20), mapped.getInt(24));
+		}
+		else {
+			ensemble.features = decodeStrings(mapped, (int) vocabularyOffset);
+			ensemble.indexFeatures();
+		}
+		ensemble.intercepts = new float[numModels];
+		for (int m = 0; m < numModels; ++m) {
+			ensemble.intercepts[m] = mapped.getFloat((int) interceptsOffset + 4 * m);
+		}
+		if (ensemble.quantized) ensemble.mappedScales = section(mapped, scalesOffset, 4L * numFeatures);
+		ensemble.mappedWeights = section(mapped, weightsOffset, weightBytes);
+		return ensemble;
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static int writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+
+	private static ByteBuffer section(ByteBuffer mapped, long offset, long length) {
+		ByteBuffer view = mapped.duplicate();
+		view.position((int) offset);
+		view.limit((int) (offset + length));
+		// Slices start out big-endian, whatever the parent's order.
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer encodeStrings(ArrayList<String> strings) {
+		ArrayList<byte[]> encoded = new ArrayList<byte[]>(strings.size());
+		int totalBytes = 0;
+		for (String string : strings) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			encoded.add(bytes);
+			totalBytes += bytes.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4 * (strings.size() + 2) + totalBytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(strings.size());
+		int offset = 0;
+		buffer.putInt(offset);
+		for (byte[] bytes : encoded) {
+			offset += bytes.length;
+			buffer.putInt(offset);
+		}
+		for (byte[] bytes : encoded) {
+			buffer.put(bytes);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static ArrayList<String> decodeStrings(ByteBuffer mapped, int offset) {
+		int count = mapped.getInt(offset);
+		int bytesStart = offset + 4 * (count + 2);
+		ArrayList<String> strings = new ArrayList<String>(count);
+		byte[] bytes = new byte[0];
+		for (int i = 0; i < count; ++i) {
+			int start = mapped.getInt(offset + 4 * (i + 1));
+			int end = mapped.getInt(offset + 4 * (i + 2));
+			if (bytes.length < end - start) bytes = new byte[end - start];
+			ByteBuffer view = mapped.duplicate();
+			view.position(bytesStart + start);
+			view.get(bytes, 0, end - start);
+			strings.add(new String(bytes, 0, end - start, StandardCharsets.UTF_8));
+		}
+		return strings;
+	}
+
+	/**
+	 * Arguments: modelFolder registryFile. Converts the models in a folder --
+	 * an <code>ensemble.float32</code> or <code>ensemble.int8</code> file, or
+	 * linear <code>label.classifier</code> files -- into a registry file. Option:
+	 * precision (float32 or int8, default float32), used for classifier files.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String modelFolder = args[0];
+		String registryFile = args[1];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 2);
+		String precision = DatePredictor.getOption(options, "precision", "float32");
+
+		CompactEnsemble ensemble = null;
+		try {
+			for (String name : new String[] {"ensemble.float32", "ensemble.int8"}) {
+				File file = new File(modelFolder, name);
+				if (file.exists()) {
+					ensemble = CompactEnsemble.load(file.getPath());
+					break;
+				}
+			}
+			if (ensemble == null) {
+				ArrayList<String> classLabels = new ArrayList<String>();
+				ArrayList<SupervisedLearner> models = PagePredictor.loadModels(modelFolder, classLabels);
+				if (models.size() < 1) {
+					System.out.println("No models found in " + modelFolder);
+					System.exit(1);
+				}
+				ensemble = CompactEnsemble.fromModels(models, classLabels, precision.equals("int8"));
+			}
+			write(ensemble, registryFile);
+			CompactEnsemble mapped = open(registryFile);
+			System.out.println("Wrote " + mapped.numModels() + " models, " + mapped.coefficientBytes()
+					+ " coefficient bytes" + (mapped.isQuantized() ? " (int8)" : " (float32)") + ", to " + registryFile);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println("Can't export these models: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (IOException e) {
+			System.out.println("Could not write model registry: " + e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import datasets.*;
+
+/**
+ * Predicts several metadata fields in one pass over the collection: date, as in
+ * DatePredictor, plus any number of categorical fields such as language. Each
+ * field is a task with its own ClassMap and ensemble of models, but every
+ * volume's wordcounts are read once and scored against all the ensembles, so
+ * an extra task costs model evaluations rather than I/O.
+ * <p>
+ * Tasks share one vocabulary, drawn from the volumes in any task's known
+ * classes. When training with Weka, the documents sampled for all tasks are
+ * read once into a cache keyed by volume id, since the same volume is often
+ * sampled for several classes and tasks.
+ *
+ * @author tunderwood
+ *
+ */
+public class MultiTaskPredictor {
+	static int SMOOTHSPAN = 12;
+	static int MINCLASSSIZE = 20;
+
+	/**
+	 * One field to predict. Date tasks have an inference step that turns bin
+	 * predictions into a date; nominal tasks predict the class with the highest
+	 * model output.
+	 */
+	static class Task {
+		String field;
+		ClassMap classMap;
+		ArrayList<String> classLabels;
+		ArrayList<SupervisedLearner> models;
+		DateInference inference;
+
+		Task(String field, ClassMap classMap, DateInference inference) {
+			this.field = field;
+			this.classMap = classMap;
+			this.inference = inference;
+			classLabels = classMap.getKnownClasses();
+		}
+
+		int numClasses() {
+			return classLabels.size();
+		}
+	}
+
+	/**
+	 * Arguments are those of DatePredictor: metadataFile dataFolder binRadius
+	 * vocabularySize maxVolsToRead ridgeParameter outputFolder. Options, as
+	 * name=value pairs: fields (comma-separated categorical fields to predict
+	 * alongside date, default "language"), mincount (smallest category that gets
+	 * a model, default 20), seed, and trainer, passes, batchsize and
+	 * learningrate as in DatePredictor.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		int binRadius = Integer.parseInt(args[2]);
+		int vocabularySize = Integer.parseInt(args[3]);
+		int maxVolsToRead = Integer.parseInt(args[4]);
+		String ridgeParameter = args[5];
+		String outputFolder = args[6];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 7);
+		String[] nominalFields = DatePredictor.getOption(options, "fields", "language").split(",");
+		int minClassSize = Integer.parseInt(DatePredictor.getOption(options, "mincount", Integer.toString(MINCLASSSIZE)));
+		String trainer = DatePredictor.getOption(options, "trainer", "weka");
+		long seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+		int startDate = 1800;
+		int endDate = 1899;
+
+		String[] fieldList = new String[nominalFields.length + 1];
+		fieldList[0] = "date";
+		System.arraycopy(nominalFields, 0, fieldList, 1, nominalFields.length);
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+
+		Metadata metadata = null;
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+		System.out.println("Done reading metadata.");
+
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		int firstBinMidpoint = startDate + binRadius;
+		int binSpacing = (binRadius * 2) + 1;
+		DateClassMap dateMap = new DateClassMap(firstBinMidpoint, endDate, binRadius, binSpacing, metadata, "date");
+		dateMap.mapVolsByMetadata(startDate, endDate);
+		dateMap.setSeed(seed);
+		tasks.add(new Task("date", dateMap,
+				DateInference.forLabels(dateMap.getKnownClasses(), SMOOTHSPAN, startDate, endDate)));
+		for (int f = 0; f < nominalFields.length; ++f) {
+			NominalClassMap nominalMap = new NominalClassMap(metadata, nominalFields[f], minClassSize);
+			nominalMap.mapVolsByMetadata();
+			// Each task samples from its own stream, derived from the seed.
+			nominalMap.setSeed(seed + f + 1);
+			Task task = new Task(nominalFields[f], nominalMap, null);
+			if (task.numClasses() < 2) {
+				System.out.println("Skipping " + nominalFields[f] + ": fewer than two categories have " + minClassSize + " volumes.");
+				continue;
+			}
+			tasks.add(task);
+		}
+		for (Task task : tasks) {
+			System.out.println("Task " + task.field + ": " + task.numClasses() + " classes.");
+		}
+
+		PairtreeReader dataReader = new PairtreeReader(dataFolder);
+		ArrayList<ClassMap> classMaps = new ArrayList<ClassMap>();
+		ArrayList<ArrayList<String>> labelsPerMap = new ArrayList<ArrayList<String>>();
+		for (Task task : tasks) {
+			classMaps.add(task.classMap);
+			labelsPerMap.add(task.classLabels);
+		}
+		ArrayList<String> orderedVocabulary = DatePredictor.buildVocabulary(classMaps, labelsPerMap, vocabularySize, dataReader);
+		HashSet<String> vocabulary = new HashSet<String>(orderedVocabulary);
+		System.out.println("Built vocabulary.");
+
+		if (trainer.equals("sgd")) {
+			int passes = Integer.parseInt(DatePredictor.getOption(options, "passes", "1"));
+			int batchSize = Integer.parseInt(DatePredictor.getOption(options, "batchsize", "256"));
+			double learningRate = Double.parseDouble(DatePredictor.getOption(options, "learningrate", "0.1"));
+			for (Task task : tasks) {
+				StochasticTrainer sgd = new StochasticTrainer(task.classMap, dataReader, orderedVocabulary,
+						Double.parseDouble(ridgeParameter), passes, batchSize, learningRate, seed);
+				task.models = sgd.trainAllClasses();
+			}
+		}
+		else {
+			trainWithWeka(tasks, dataReader, orderedVocabulary, vocabulary, maxVolsToRead / 2, ridgeParameter);
+		}
+		for (Task task : tasks) {
+			for (int c = 0; c < task.numClasses(); ++c) {
+				DatePredictor.serializeModel(task.models.get(c), outputFolder + task.field + "_" + task.classLabels.get(c) + ".classifier");
+			}
+		}
+
+		// The single pass: read each volume once, and score it for every task.
+		String header = "volume";
+		for (Task task : tasks) {
+			header = header + "\t" + task.field + "\t" + task.field + "_predicted";
+			if (task.inference != null) header = header + "\t" + task.field + "_expected";
+			for (String label : task.classLabels) {
+				header = header + "\t" + task.field + "_" + label;
+			}
+		}
+		LineWriter headerWriter = new LineWriter(outputFolder + "multiTaskPredictions.tsv", false);
+		headerWriter.print(header);
+		LineWriter progressiveWriter = new LineWriter(outputFolder + "multiTaskPredictions.tsv", true);
+
+		ArrayList<Volume> volumes = metadata.getVolumes();
+		int numVolumes = volumes.size();
+		int numTasks = tasks.size();
+		for (int floor = 0; floor < numVolumes; floor += maxVolsToRead) {
+			int ceiling = Math.min(numVolumes, floor + maxVolsToRead);
+			int chunkSize = ceiling - floor;
+			double[][][] predictions = new double[numTasks][chunkSize][];
+			for (int t = 0; t < numTasks; ++t) {
+				for (int j = 0; j < chunkSize; ++j) {
+					predictions[t][j] = new double[tasks.get(t).numClasses()];
+				}
+			}
+			boolean[] found = new boolean[chunkSize];
+			for (int j = 0; j < chunkSize; ++j) {
+				Document doc = dataReader.getDocument(volumes.get(floor + j), vocabulary);
+				if (doc.fileNotFound) continue;
+				found[j] = true;
+				for (int t = 0; t < numTasks; ++t) {
+					ArrayList<SupervisedLearner> models = tasks.get(t).models;
+					for (int m = 0; m < models.size(); ++m) {
+						predictions[t][j][m] = models.get(m).predictDocument(doc);
+					}
+				}
+			}
+
+			String[] lines = new String[chunkSize];
+			for (int j = 0; j < chunkSize; ++j) {
+				lines[j] = volumes.get(floor + j).htid;
+			}
+			for (int t = 0; t < numTasks; ++t) {
+				Task task = tasks.get(t);
+				String[] predicted = new String[chunkSize];
+				String[] expected = new String[chunkSize];
+				if (task.inference != null) {
+					int[] dates = new int[chunkSize];
+					double[] expectedDates = new double[chunkSize];
+					task.inference.inferDates(predictions[t], chunkSize, dates, expectedDates);
+					for (int j = 0; j < chunkSize; ++j) {
+						predicted[j] = Integer.toString(dates[j]);
+						expected[j] = Double.toString(expectedDates[j]);
+					}
+				}
+				else {
+					for (int j = 0; j < chunkSize; ++j) {
+						predicted[j] = found[j] ? task.classLabels.get(argmax(predictions[t][j])) : "NA";
+					}
+				}
+				for (int j = 0; j < chunkSize; ++j) {
+					StringBuilder line = new StringBuilder(lines[j]);
+					line.append('\t').append(volumes.get(floor + j).getValue(task.field));
+					line.append('\t').append(predicted[j]);
+					if (task.inference != null) line.append('\t').append(expected[j]);
+					for (double prediction : predictions[t][j]) {
+						line.append('\t').append(prediction);
+					}
+					lines[j] = line.toString();
+				}
+			}
+			progressiveWriter.send(lines);
+			System.out.println("Predicted " + numTasks + " fields for volumes " + floor + " to " + (ceiling - 1) + ".");
+		}
+
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+
+	/**
+	 * Trains a LogisticClassifier for every class of every task, on balanced
+	 * samples as in DatePredictor. All the samples are drawn first, so that the
+	 * union of sampled volumes can be read once.
+	 */
+	private static void trainWithWeka(ArrayList<Task> tasks, PairtreeReader dataReader, ArrayList<String> orderedVocabulary,
+			HashSet<String> vocabulary, int maxSetSize, String ridgeParameter) {
+		ArrayList<ArrayList<Volume>> positiveSamples = new ArrayList<ArrayList<Volume>>();
+		ArrayList<ArrayList<Volume>> negativeSamples = new ArrayList<ArrayList<Volume>>();
+		HashMap<String, Document> cache = new HashMap<String, Document>();
+		ArrayList<Volume> toRead = new ArrayList<Volume>();
+		for (Task task : tasks) {
+			for (String label : task.classLabels) {
+				int setSize = Math.min(maxSetSize, task.classMap.getClassSize(label));
+				ArrayList<Volume> positiveVols = task.classMap.takeRandomSample(label, setSize);
+				ArrayList<Volume> negativeVols = task.classMap.stratifiedSampleExcept(label, setSize);
+				positiveSamples.add(positiveVols);
+				negativeSamples.add(negativeVols);
+				for (Volume vol : positiveVols) {
+					if (!cache.containsKey(vol.htid)) {
+						cache.put(vol.htid, null);
+						toRead.add(vol);
+					}
+				}
+				for (Volume vol : negativeVols) {
+					if (!cache.containsKey(vol.htid)) {
+						cache.put(vol.htid, null);
+						toRead.add(vol);
+					}
+				}
+			}
+		}
+		System.out.println("Reading " + toRead.size() + " distinct training volumes for all tasks.");
+		for (Document doc : dataReader.getMultipleDocs(toRead, vocabulary)) {
+			cache.put(doc.getVolume().htid, doc);
+		}
+
+		int sample = 0;
+		for (Task task : tasks) {
+			task.models = new ArrayList<SupervisedLearner>(task.numClasses());
+			for (String label : task.classLabels) {
+				System.out.println("Building a model for " + task.field + " class: " + label);
+				ArrayList<Document> allDocs = new ArrayList<Document>();
+				ArrayList<Double> classValues = new ArrayList<Double>();
+				for (Volume vol : positiveSamples.get(sample)) {
+					Document doc = cache.get(vol.htid);
+					if (doc == null) continue;
+					allDocs.add(doc);
+					classValues.add(1d);
+				}
+				for (Volume vol : negativeSamples.get(sample)) {
+					Document doc = cache.get(vol.htid);
+					if (doc == null) continue;
+					allDocs.add(doc);
+					classValues.add(0d);
+				}
+				task.models.add(new LogisticClassifier(label, orderedVocabulary, allDocs, classValues, ridgeParameter));
+				sample += 1;
+			}
+		}
+	}
+
+	private static int argmax(double[] values) {
+		int best = 0;
+		for (int i = 1; i < values.length; ++i) {
+			if (values[i] > values[best]) best = i;
+		}
+		return best;
+	}
+}
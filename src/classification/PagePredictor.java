@@ -0,0 +1,207 @@
+package classification;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import datasets.*;
+
+/**
+ * Applies date models to individual pages, and aggregates page predictions into
+ * a prediction for each volume. Pages are streamed from each volume's
+ * <code>.pg.tsv</code> file in batches, so memory is bounded by one batch of
+ * pages however long the volumes are.
+ * <p>
+ * A volume's aggregate prediction for each class is the mean of its pages'
+ * predictions, weighted by the number of vocabulary words on each page, so
+ * that blank and near-blank pages don't count as much as full ones.
+ *
+ * @author tunderwood
+ *
+ */
+public class PagePredictor {
+	static int SMOOTHSPAN = 12;
+	static int PAGEBATCH = 256;
+
+	/**
+	 * Arguments: metadataFile dataFolder modelFolder outputFolder. The model
+	 * folder holds the <code>label.classifier</code> files written by
+	 * DatePredictor. Options, as name=value pairs: batch (pages scored at a
+	 * time, default 256) and pages (false to skip the page-level output).
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		String modelFolder = args[2];
+		String outputFolder = args[3];
+		String[] fieldList = {"date"};
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 4);
+		int batchSize = Integer.parseInt(DatePredictor.getOption(options, "batch", Integer.toString(PAGEBATCH)));
+		boolean writePages = Boolean.parseBoolean(DatePredictor.getOption(options, "pages", "true"));
+		int startDate = 1800;
+		int endDate = 1899;
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+
+		Metadata metadata = null;
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+
+		ArrayList<String> classLabels = new ArrayList<String>();
+		ArrayList<SupervisedLearner> models = loadModels(modelFolder, classLabels);
+		if (models.size() < 1) {
+			System.out.println("No models found in " + modelFolder);
+			System.exit(1);
+		}
+		int classCount = models.size();
+		HashSet<String> vocabulary = new HashSet<String>();
+		for (SupervisedLearner model : models) {
+			if (model.getFeatures() == null) {
+				System.out.println("Page streams read vocabulary features; models trained with hashbits aren't supported.");
+				System.exit(1);
+			}
+			vocabulary.addAll(model.getFeatures());
+		}
+		System.out.println("Loaded " + classCount + " models reading " + vocabulary.size() + " words.");
+		DateInference inference = DateInference.forLabels(classLabels, SMOOTHSPAN, startDate, endDate);
+
+		String header = "volume\tattested\tpages\tpredicted\texpected";
+		for (String label : classLabels) {
+			header = header + "\t" + label;
+		}
+		new LineWriter(outputFolder + "pageVolumePredictions.tsv", false).print(header);
+		LineWriter volumeWriter = new LineWriter(outputFolder + "pageVolumePredictions.tsv", true);
+		LineWriter pageWriter = null;
+		if (writePages) {
+			new LineWriter(outputFolder + "pagePredictions.tsv", false).print("volume\tpage\twords\tpredicted\texpected");
+			pageWriter = new LineWriter(outputFolder + "pagePredictions.tsv", true);
+		}
+
+		PairtreeReader dataReader = new PairtreeReader(dataFolder);
+		Document[] batch = new Document[batchSize];
+		double[][] batchPredictions = new double[batchSize][classCount];
+		int[] batchDates = new int[batchSize];
+		double[] batchExpected = new double[batchSize];
+		long totalPages = 0;
+		int volumesRead = 0;
+
+		for (Volume vol : metadata.getVolumes()) {
+			PageStream pages = dataReader.getPageStream(vol, vocabulary);
+			if (pages == null) {
+				volumeWriter.print(vol.htid + "\t" + vol.getValue("date") + "\t0\tNA\tNA");
+				continue;
+			}
+			double[] weightedSums = new double[classCount];
+			double totalWeight = 0d;
+			while (true) {
+				int n = 0;
+				Document page;
+				while (n < batchSize && (page = pages.nextPage()) != null) {
+					batch[n] = page;
+					n += 1;
+				}
+				if (n == 0) break;
+				for (int j = 0; j < n; ++j) {
+					double weight = batch[j].getNumWords();
+					for (int m = 0; m < classCount; ++m) {
+						double prediction = 0d;
+						if (weight > 0) prediction = models.get(m).predictDocument(batch[j]);
+						batchPredictions[j][m] = prediction;
+						weightedSums[m] += weight * prediction;
+					}
+					totalWeight += weight;
+				}
+				if (pageWriter != null) {
+					inference.inferDates(batchPredictions, n, batchDates, batchExpected);
+					String[] lines = new String[n];
+					for (int j = 0; j < n; ++j) {
+						lines[j] = vol.htid + "\t" + batch[j].getPage() + "\t" + (int) batch[j].getNumWords() + "\t" +
+								batchDates[j] + "\t" + batchExpected[j];
+					}
+					pageWriter.send(lines);
+				}
+				// Let the batch's pages be collected before we read the next one.
+				Arrays.fill(batch, 0, n, null);
+				if (n < batchSize) break;
+			}
+			pages.close();
+
+			if (totalWeight > 0) {
+				for (int m = 0; m < classCount; ++m) {
+					weightedSums[m] = weightedSums[m] / totalWeight;
+				}
+			}
+			int[] date = new int[1];
+			double[] expected = new double[1];
+			inference.inferDates(new double[][] {weightedSums}, 1, date, expected);
+			StringBuilder line = new StringBuilder(vol.htid);
+			line.append('\t').append(vol.getValue("date")).append('\t').append(pages.getPagesRead());
+			line.append('\t').append(date[0]).append('\t').append(expected[0]);
+			for (double prediction : weightedSums) {
+				line.append('\t').append(prediction);
+			}
+			volumeWriter.print(line.toString());
+			totalPages += pages.getPagesRead();
+			volumesRead += 1;
+			if (volumesRead % 1000 == 0) {
+				System.out.println(volumesRead + " volumes, " + totalPages + " pages.");
+			}
+		}
+		System.out.println("Predicted " + totalPages + " pages in " + volumesRead + " volumes.");
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+
+	/**
+	 * Deserializes every model in a folder whose name is a date label followed by
+	 * ".classifier", in order of label.
+	 * @param classLabels Receives the labels, in the order of the models returned.
+	 */
+	static ArrayList<SupervisedLearner> loadModels(String modelFolder, ArrayList<String> classLabels) {
+		File[] files = new File(modelFolder).listFiles();
+		ArrayList<Integer> labels = new ArrayList<Integer>();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(".classifier")) continue;
+				String label = name.substring(0, name.length() - ".classifier".length());
+				if (DateClassMap.isInteger(label)) labels.add(Integer.parseInt(label));
+			}
+		}
+		Collections.sort(labels);
+		ArrayList<SupervisedLearner> models = new ArrayList<SupervisedLearner>(labels.size());
+		for (int label : labels) {
+			String path = new File(modelFolder, label + ".classifier").getPath();
+			try {
+				ObjectInputStream deserializer = new ObjectInputStream(new FileInputStream(path));
+				try {
+					models.add((SupervisedLearner) deserializer.readObject());
+				}
+				finally {
+					deserializer.close();
+				}
+				classLabels.add(Integer.toString(label));
+			}
+			catch (IOException e) {
+				WarningLogger.logWarning("Could not read model " + path + ": " + e);
+			}
+			catch (ClassNotFoundException e) {
+				WarningLogger.logWarning("Could not read model " + path + ": " + e);
+			}
+		}
+		return models;
+	}
+}
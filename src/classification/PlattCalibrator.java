@@ -0,0 +1,117 @@
+package classification;
+
+/**
+ * Platt scaling: fits p = 1 / (1 + exp(-(a * score + b))) by maximum likelihood.
+ * This is the same one-feature logistic regression BayesianClassifier used to
+ * build with Weka, but fitted directly by Newton's method on two parameters.
+ * <p>
+ * Following Platt, targets are pulled slightly away from 0 and 1, in proportion
+ * to the number of positive and negative instances, so that a separable training
+ * set doesn't send the slope to infinity. The Newton iteration uses a backtracking
+ * line search, as recommended by Lin, Lin and Weng (2007).
+ *
+ * @author tunderwood
+ *
+ */
+public class PlattCalibrator extends Calibrator {
+	static final long serialVersionUID = 927333930L;
+	static final int MAXITERATIONS = 100;
+	static final double MINSTEP = 1e-10;
+	static final double SIGMA = 1e-12;
+	static final double TOLERANCE = 1e-5;
+
+	double a;
+	double b;
+
+	/**
+	 * @param scores Raw classifier scores.
+	 * @param targets Probability that each instance belongs to the class; can be
+	 * fractional.
+	 */
+	public PlattCalibrator(double[] scores, double[] targets) {
+		int n = scores.length;
+		assert (targets.length == n);
+
+		double positives = 0d;
+		for (double t : targets) {
+			positives += t;
+		}
+		double negatives = n - positives;
+		double high = (positives + 1) / (positives + 2);
+		double low = 1 / (negatives + 2);
+		double[] smoothed = new double[n];
+		for (int i = 0; i < n; ++i) {
+			smoothed[i] = (targets[i] * high) + ((1 - targets[i]) * low);
+		}
+
+		// Start from a flat slope and the prior log-odds.
+		a = 0d;
+		b = Math.log((positives + 1) / (negatives + 1));
+		double value = negativeLogLikelihood(scores, smoothed, a, b);
+
+		for (int iteration = 0; iteration < MAXITERATIONS; ++iteration) {
+			// Gradient and Hessian of the negative log likelihood.
+			double gradA = 0d;
+			double gradB = 0d;
+			double h11 = SIGMA;
+			double h22 = SIGMA;
+			double h21 = 0d;
+			for (int i = 0; i < n; ++i) {
+				double p = probability(a, b, scores[i]);
+				double d1 = p - smoothed[i];
+				double d2 = p * (1 - p);
+				gradA += scores[i] * d1;
+				gradB += d1;
+				h11 += scores[i] * scores[i] * d2;
+				h22 += d2;
+				h21 += scores[i] * d2;
+			}
+			if (Math.abs(gradA) < TOLERANCE && Math.abs(gradB) < TOLERANCE) break;
+
+			double determinant = (h11 * h22) - (h21 * h21);
+			double stepA = -((h22 * gradA) - (h21 * gradB)) / determinant;
+			double stepB = -((-h21 * gradA) + (h11 * gradB)) / determinant;
+			double slope = (gradA * stepA) + (gradB * stepB);
+
+			double stepSize = 1d;
+			boolean improved = false;
+			while (stepSize >= MINSTEP) {
+				double newA = a + (stepSize * stepA);
+				double newB = b + (stepSize * stepB);
+				double newValue = negativeLogLikelihood(scores, smoothed, newA, newB);
+				if (newValue < value + (0.0001 * stepSize * slope)) {
+					a = newA;
+					b = newB;
+					value = newValue;
+					improved = true;
+					break;
+				}
+				stepSize /= 2;
+			}
+			if (!improved) break;
+		}
+	}
+
+	public double calibrate(double score) {
+		return probability(a, b, score);
+	}
+
+	private static double probability(double a, double b, double score) {
+		double z = (a * score) + b;
+		// Written so that exp never overflows.
+		if (z >= 0) return 1 / (1 + Math.exp(-z));
+		double e = Math.exp(z);
+		return e / (1 + e);
+	}
+
+	private static double negativeLogLikelihood(double[] scores, double[] targets, double a, double b) {
+		double sum = 0d;
+		for (int i = 0; i < scores.length; ++i) {
+			double z = (a * scores[i]) + b;
+			// log(1 + exp(z)) - t * z, computed stably.
+			if (z >= 0) sum += z + Math.log1p(Math.exp(-z)) - (targets[i] * z);
+			else sum += Math.log1p(Math.exp(z)) - (targets[i] * z);
+		}
+		return sum;
+	}
+}
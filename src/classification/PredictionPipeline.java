@@ -0,0 +1,323 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import datasets.Volume;
+
+/**
+ * Runs a range of volumes through three stages at once -- reading, scoring, and
+ * writing -- so that disk and cores are busy at the same time, rather than in
+ * turn.
+ * <ul>
+ * <li>Reader threads read volumes into Documents. They're I/O bound, so there
+ * can be more of them than cores.</li>
+ * <li>Scorer threads score Documents, in parallel if the scoring is
+ * thread-safe.</li>
+ * <li>The writer, on the calling thread, receives volumes in their original
+ * order, whatever order they were scored in.</li>
+ * </ul>
+ * Stages are joined by bounded queues, so a fast stage blocks rather than
+ * running ahead of a slow one. The writer's reorder buffer is bounded too:
+ * a reader takes a permit before it starts a volume, and the writer returns it
+ * when the volume has been written, so no more than <code>window</code>
+ * volumes are ever in memory.
+ * <p>
+ * Volumes vary so much in length that a count alone doesn't bound memory, so
+ * a run also has a heap budget. Before a volume is read, its reader takes
+ * permits for the bytes <code>Stages.estimateBytes</code> expects it to hold,
+ * in kilobytes, and the writer returns them when it's written; a volume larger
+ * than the whole budget takes all of it, and so goes through alone. Readers
+ * take volumes and their byte permits in volume order, so the oldest unwritten
+ * volume always holds its permits, and the pipeline can't deadlock.
+ * <p>
+ * A volume that can't be read or scored is logged and written without
+ * predictions. Anything worse, such as running out of memory, stops the run:
+ * the writer abandons the other threads and <code>run</code> rethrows it,
+ * rather than waiting for volumes that will never come.
+ * <p>
+ * Each stage's occupancy -- how full its queue was, and how busy its threads
+ * were -- is measured as the pipeline runs, and <code>report</code> summarizes
+ * it, which shows which stage is the bottleneck.
+ *
+ * @author tunderwood
+ *
+ */
+public class PredictionPipeline {
+	static final Item END = new Item(-1, null);
+
+	int numReaders;
+	int numScorers;
+	int capacity;
+	int window;
+	ArrayBlockingQueue<Item> readQueue;
+	ArrayBlockingQueue<Item> scoreQueue;
+	AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	AtomicLong readNanos = new AtomicLong();
+	AtomicLong scoreNanos = new AtomicLong();
+	long writeNanos;
+	long wallNanos;
+	long readQueueTotal;
+	long scoreQueueTotal;
+	long samples;
+	int volumes;
+
+	/**
+	 * What the pipeline does to each volume. <code>read</code> and
+	 * <code>score</code> are called from several threads at once, unless the
+	 * pipeline has only one thread for that stage; <code>write</code> is only
+	 * called from the thread running the pipeline, in order.
+	 */
+	public abstract static class Stages {
+		public abstract Document read(Volume vol);
+
+		/**
+		 * @return The heap a volume will hold from when it's read until it's
+		 * written, estimated before it's read; 0 if it needn't be budgeted.
+		 */
+		public long estimateBytes(Volume vol) {
+			return 0;
+		}
+
+		/** Fills in the item's predictions. Items whose Document is null or wasn't found aren't scored. */
+		public abstract void score(Item item);
+
+		public abstract void write(Item item);
+	}
+
+	/** One volume on its way through the pipeline. */
+	public static class Item {
+		public int index;
+		public Volume vol;
+		public Document doc;
+		public double[] predictions;
+		public int predictedDate;
+		public double expectedDate = Double.NaN;
+		/** Kilobytes of the heap budget this volume holds. */
+		int budgetUnits;
+
+		Item(int index, Volume vol) {
+			this.index = index;
+			this.vol = vol;
+		}
+
+		/** @return True if the volume was read, so it has been scored. */
+		public boolean wasRead() {
+			return doc != null && !doc.fileNotFound;
+		}
+	}
+
+	/**
+	 * @param numReaders Threads reading volumes.
+	 * @param numScorers Threads scoring them; 1 unless scoring is thread-safe.
+	 * @param capacity Size of each queue between stages.
+	 */
+	public PredictionPipeline(int numReaders, int numScorers, int capacity) {
+		this.numReaders = Math.max(1, numReaders);
+		this.numScorers = Math.max(1, numScorers);
+		this.capacity = Math.max(1, capacity);
+		// Room for both queues to be full while every thread holds a volume.
+		window = (2 * this.capacity) + this.numReaders + this.numScorers;
+	}
+
+	/**
+	 * Runs volumes from (inclusive) to to (exclusive) through the stages, and
+	 * returns once the last has been written.
+	 * @param budget Bytes of heap the volumes in the pipeline may hold at once,
+	 * by their estimates.
+	 */
+	public void run(final ArrayList<Volume> volumeList, final int from, final int to, final Stages stages,
+			long budget) throws InterruptedException {
+		final Semaphore permits = new Semaphore(window);
+		final int budgetUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget >> 10));
+		final Semaphore budgetPermits = new Semaphore(budgetUnits);
+		final Object readOrder = new Object();
+		final AtomicInteger next = new AtomicInteger(from);
+		final AtomicInteger readersLeft = new AtomicInteger(numReaders);
+		final AtomicInteger scorersLeft = new AtomicInteger(numScorers);
+		failure.set(null);
+		readQueue = new ArrayBlockingQueue<Item>(capacity);
+		scoreQueue = new ArrayBlockingQueue<Item>(capacity);
+		long start = System.nanoTime();
+		long written = 0;
+
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int r = 0; r < numReaders; ++r) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							permits.acquire();
+							Item item;
+							// Volumes take their share of the budget in order; a later one
+							// never holds bytes that an earlier one is waiting for.
+							synchronized (readOrder) {
+								int i = next.getAndIncrement();
+								if (i >= to) {
+									permits.release();
+									break;
+								}
+								item = new Item(i, volumeList.get(i));
+								long units = (stages.estimateBytes(item.vol) + 1023) >> 10;
+								item.budgetUnits = (int) Math.max(0, Math.min(budgetUnits, units));
+								budgetPermits.acquire(item.budgetUnits);
+							}
+							long started = System.nanoTime();
+							try {
+								item.doc = stages.read(item.vol);
+							}
+							catch (RuntimeException e) {
+								WarningLogger.logWarning("Could not read " + item.vol.htid + ": " + e);
+							}
+							catch (Throwable e) {
+								fail(e);
+							}
+							readNanos.addAndGet(System.nanoTime() - started);
+							readQueue.put(item);
+						}
+					}
+					catch (InterruptedException e) {
+						// The pipeline is being abandoned; nothing is waiting for END.
+						return;
+					}
+					catch (Throwable e) {
+						fail(e);
+					}
+					try {
+						if (readersLeft.decrementAndGet() == 0) {
+							for (int s = 0; s < numScorers; ++s) {
+								readQueue.put(END);
+							}
+						}
+					}
+					catch (InterruptedException e) {
+						// The pipeline is being abandoned.
+					}
+				}
+			}, "reader-" + r));
+		}
+		for (int s = 0; s < numScorers; ++s) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							Item item = readQueue.take();
+							if (item == END) break;
+							long started = System.nanoTime();
+							if (item.wasRead()) {
+								try {
+									stages.score(item);
+								}
+								catch (RuntimeException e) {
+									WarningLogger.logWarning("Could not score " + item.vol.htid + ": " + e);
+								}
+								catch (Throwable e) {
+									fail(e);
+								}
+							}
+							scoreNanos.addAndGet(System.nanoTime() - started);
+							scoreQueue.put(item);
+						}
+					}
+					catch (InterruptedException e) {
+						// The pipeline is being abandoned; nothing is waiting for END.
+						return;
+					}
+					catch (Throwable e) {
+						fail(e);
+					}
+					try {
+						if (scorersLeft.decrementAndGet() == 0) {
+							scoreQueue.put(END);
+						}
+					}
+					catch (InterruptedException e) {
+						// The pipeline is being abandoned.
+					}
+				}
+			}, "scorer-" + s));
+		}
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// The writer: park items in a ring until their turn comes.
+		Item[] waiting = new Item[window];
+		int expected = from;
+		try {
+			while (expected < to && failure.get() == null) {
+				Item item = scoreQueue.take();
+				if (item == END) break;
+				readQueueTotal += readQueue.size();
+				scoreQueueTotal += scoreQueue.size();
+				samples += 1;
+				waiting[(item.index - from) % window] = item;
+				while (expected < to) {
+					int slot = (expected - from) % window;
+					Item ready = waiting[slot];
+					if (ready == null) break;
+					waiting[slot] = null;
+					long started = System.nanoTime();
+					stages.write(ready);
+					written += System.nanoTime() - started;
+					budgetPermits.release(ready.budgetUnits);
+					permits.release();
+					expected += 1;
+				}
+			}
+		}
+		finally {
+			for (Thread thread : threads) {
+				if (expected < to) thread.interrupt();
+				thread.join();
+			}
+		}
+		Throwable cause = failure.get();
+		if (cause instanceof Error) throw (Error) cause;
+		if (cause != null) throw new RuntimeException("Prediction pipeline failed", cause);
+		if (expected < to) throw new IllegalStateException("Prediction pipeline stopped at volume " + expected + " of " + to);
+		writeNanos += written;
+		wallNanos += System.nanoTime() - start;
+		volumes += to - from;
+	}
+
+	/**
+	 * Records the first failure that isn't just one unreadable volume, e.g. an
+	 * OutOfMemoryError, and wakes the writer, which stops the run and rethrows it.
+	 * The queue can only be full while the writer is busy, and then it checks
+	 * for a failure before it waits again.
+	 */
+	private void fail(Throwable e) {
+		failure.compareAndSet(null, e);
+		scoreQueue.offer(END);
+	}
+
+	/** @return Current queue lengths, for a progress line. */
+	public String occupancy() {
+		ArrayBlockingQueue<Item> reading = readQueue;
+		ArrayBlockingQueue<Item> scoring = scoreQueue;
+		if (reading == null) return "idle";
+		return "read queue " + reading.size() + "/" + capacity + ", score queue " + scoring.size() + "/" + capacity;
+	}
+
+	/**
+	 * @return Each stage's average occupancy over every run so far: mean queue
+	 * length, and the fraction of its threads' time spent working.
+	 */
+	public String report() {
+		if (wallNanos == 0) return "Pipeline hasn't run.";
+		double wall = wallNanos;
+		return String.format("Pipeline: %d readers %.0f%% busy, read queue %.1f/%d; %d scorers %.0f%% busy, score queue %.1f/%d; writer %.0f%% busy; %.0f volumes/s.",
+				numReaders, 100 * readNanos.get() / (wall * numReaders),
+				(samples > 0) ? (double) readQueueTotal / samples : 0d, capacity,
+				numScorers, 100 * scoreNanos.get() / (wall * numScorers),
+				(samples > 0) ? (double) scoreQueueTotal / samples : 0d, capacity,
+				100 * writeNanos / wall, volumes / (wall / 1e9));
+	}
+}
@@ -0,0 +1,564 @@
+package classification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * A long-running local service that predicts dates for volumes on request, so
+ * that a lookup doesn't pay for a JVM start, model deserialization, and a
+ * metadata read each time. Models and vocabulary are loaded once.
+ * <p>
+ * Endpoints, on the loopback interface by default:
+ * <ul>
+ * <li><code>GET /predict?htid=a&amp;htid=b</code>, or <code>POST /predict</code>
+ * with one htid per line, returns a TSV line per volume: htid, predicted date,
+ * expected date, and the generation of the models that scored it. Volumes
+ * whose files can't be found get NA. If scoring fails, or takes longer than
+ * the timeout, the request gets a 500 rather than a made-up prediction.</li>
+ * <li><code>GET /stats</code> returns latency percentiles and batching counts as JSON.</li>
+ * <li><code>POST /reload</code>, optionally with <code>?folder=path</code>,
+ * loads a new model set and swaps it in.</li>
+ * </ul>
+ * <p>
+ * Request threads read volumes through the PairtreeReader, in parallel, and
+ * queue the Documents. A single scoring thread drains the queue into
+ * micro-batches -- as many volumes as arrive within a few milliseconds of the
+ * first, up to a limit -- and scores each batch with one pass of the fused
+ * ensemble and one call to DateInference.
+ * <p>
+ * Each queued volume carries the model set it was read with, since the
+ * vocabulary determines what was read. A reload builds the new set on the
+ * requesting thread and swaps a single reference; volumes already queued are
+ * still scored by their own set, and new ones go to the new set, so no request
+ * is dropped or scored with the wrong vocabulary.
+ *
+ * @author tunderwood
+ *
+ */
+public class PredictionService {
+	static int SMOOTHSPAN = 12;
+	static int LATENCYWINDOW = 10000;
+
+	PairtreeReader dataReader;
+	volatile String modelFolder;
+	int startDate;
+	int endDate;
+	int maxBatch;
+	long maxWaitNanos;
+	long timeoutMillis;
+	AtomicReference<ModelSet> current = new AtomicReference<ModelSet>();
+	LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+	LatencyRecorder latencies = new LatencyRecorder(LATENCYWINDOW);
+	Object reloadLock = new Object();
+	int generations = 0;
+	long batches = 0;
+	long volumesScored = 0;
+	long volumesFailed = 0;
+	long volumesDropped = 0;
+	long requestsFailed = 0;
+
+	/**
+	 * The models, vocabulary, and inference for one generation of models.
+	 * Immutable once loaded, except for scoring scratch used only by the
+	 * scoring thread.
+	 */
+	static class ModelSet {
+		int generation;
+		String folder;
+		ArrayList<String> classLabels;
+		ArrayList<SupervisedLearner> models;
+		CompactEnsemble ensemble;
+		FeatureHasher hasher;
+		HashSet<String> vocabulary = new HashSet<String>();
+		DateInference inference;
+
+		/**
+		 * Maps a <code>models.registry</code> file if the folder has one; failing
+		 * that, loads a compact ensemble file, and failing that, the
+		 * <code>label.classifier</code> files, which are fused into a float32
+		 * ensemble if they're linear.
+		 */
+		static ModelSet load(String folder, int generation, int startDate, int endDate) throws IOException {
+			ModelSet set = new ModelSet();
+			set.generation = generation;
+			set.folder = folder;
+			File registry = new File(folder, "models.registry");
+			if (registry.exists()) set.ensemble = ModelRegistry.open(registry.getPath());
+			for (String name : new String[] {"ensemble.float32", "ensemble.int8"}) {
+				File file = new File(folder, name);
+				if (set.ensemble == null && file.exists()) {
+					set.ensemble = CompactEnsemble.load(file.getPath());
+				}
+			}
+			if (set.ensemble != null) {
+				set.classLabels = set.ensemble.getClassLabels();
+				set.hasher = set.ensemble.getHasher();
+				if (set.hasher == null) set.vocabulary.addAll(set.ensemble.getFeatures());
+			}
+			else {
+				set.classLabels = new ArrayList<String>();
+				set.models = PagePredictor.loadModels(folder, set.classLabels);
+				if (set.models.size() < 1) throw new IOException("No models found in " + folder);
+				SupervisedLearner first = set.models.get(0);
+				if (first instanceof StochasticLogisticClassifier) {
+					set.hasher = ((StochasticLogisticClassifier) first).getHasher();
+				}
+				if (set.hasher == null) {
+					for (SupervisedLearner model : set.models) {
+						set.vocabulary.addAll(model.getFeatures());
+					}
+				}
+				try {
+					set.ensemble = CompactEnsemble.fromModels(set.models, set.classLabels, false);
+				}
+				catch (IllegalArgumentException e) {
+					System.out.println("Models can't be fused (" + e.getMessage() + "); scoring them one at a time.");
+				}
+			}
+			set.inference = DateInference.forLabels(set.classLabels, SMOOTHSPAN, startDate, endDate);
+			return set;
+		}
+
+		Document read(PairtreeReader reader, Volume vol) {
+			if (hasher != null) return reader.getHashedDocument(vol, hasher);
+			return reader.getDocument(vol, vocabulary);
+		}
+
+		void score(Document doc, double[] predictions) {
+			if (ensemble != null) {
+				ensemble.predictDocument(doc, predictions);
+			}
+			else {
+				for (int m = 0; m < models.size(); ++m) {
+					predictions[m] = models.get(m).predictDocument(doc);
+				}
+			}
+		}
+	}
+
+	/** One volume waiting to be scored. */
+	static class Pending {
+		String htid;
+		Document doc;
+		ModelSet models;
+		CountDownLatch done;
+		int predictedDate;
+		double expectedDate = Double.NaN;
+		/** Set by the scorer once the prediction is in place. */
+		volatile boolean scored;
+		volatile boolean failed;
+	}
+
+	public PredictionService(String modelFolder, String dataFolder, int startDate, int endDate,
+			int maxBatch, long maxWaitMicros, long timeoutMillis) throws IOException {
+		this.modelFolder = modelFolder;
+		this.dataReader = new PairtreeReader(dataFolder);
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.maxBatch = maxBatch;
+		this.maxWaitNanos = maxWaitMicros * 1000;
+		this.timeoutMillis = timeoutMillis;
+		reload(modelFolder);
+	}
+
+	/**
+	 * Loads the models in folder and makes them current. If loading fails, the
+	 * current models stay in place.
+	 * @return The new model set.
+	 */
+	public ModelSet reload(String folder) throws IOException {
+		ModelSet set;
+		// Reloads queue behind each other, but never block scoring or stats.
+		synchronized (reloadLock) {
+			set = ModelSet.load(folder, generations + 1, startDate, endDate);
+			generations += 1;
+			modelFolder = folder;
+			current.set(set);
+		}
+		System.out.println("Loaded model generation " + set.generation + " from " + folder + ": "
+				+ set.classLabels.size() + " classes" + ((set.ensemble != null) ? ", fused" : "")
+				+ ((set.ensemble != null && set.ensemble.isMapped()) ? ", mapped." : "."));
+		return set;
+	}
+
+	/**
+	 * Reads the volumes on the calling thread, queues them for scoring, and waits
+	 * until all have been scored. Every volume is read before any is queued, so
+	 * a request's volumes arrive together and are scored in one batch, instead
+	 * of one at a time as the reads finish. Volumes that haven't been scored by
+	 * the timeout are marked as failed.
+	 */
+	public ArrayList<Pending> predict(ArrayList<String> htids) throws InterruptedException {
+		ModelSet models = current.get();
+		CountDownLatch done = new CountDownLatch(htids.size());
+		ArrayList<Pending> results = new ArrayList<Pending>(htids.size());
+		for (String htid : htids) {
+			Pending pending = new Pending();
+			pending.htid = htid;
+			pending.models = models;
+			pending.done = done;
+			pending.doc = models.read(dataReader, new Volume(htid, new HashMap<String, String>()));
+			results.add(pending);
+		}
+		// The scorer lets go of each Document once it's scored, so note now which were found.
+		boolean[] queued = new boolean[results.size()];
+		for (int i = 0; i < results.size(); ++i) {
+			Pending pending = results.get(i);
+			queued[i] = !pending.doc.fileNotFound;
+			if (queued[i]) queue.put(pending);
+			else done.countDown();
+		}
+		if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+			int late = 0;
+			for (int i = 0; i < results.size(); ++i) {
+				Pending pending = results.get(i);
+				if (queued[i] && !pending.scored) {
+					pending.failed = true;
+					late += 1;
+				}
+			}
+			WarningLogger.logWarning("Timed out after " + timeoutMillis + " ms waiting for " + late + " volumes to be scored.");
+		}
+		return results;
+	}
+
+	/**
+	 * The scoring thread: waits for a volume, gathers whatever else arrives within
+	 * the batching window, and scores them together. Volumes whose requests have
+	 * already timed out are dropped from the queue unscored, so a backlog doesn't
+	 * grow with work nobody is waiting for.
+	 */
+	void scoreBatches() {
+		ArrayList<Pending> batch = new ArrayList<Pending>(maxBatch);
+		try {
+			while (true) {
+				batch.clear();
+				Pending first = queue.take();
+				if (drop(first)) continue;
+				batch.add(first);
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while (batch.size() < maxBatch) {
+					Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) break;
+					if (drop(next)) continue;
+					batch.add(next);
+				}
+				// Anything thrown, even an Error, fails this batch's requests rather
+				// than the thread, which every later request depends on.
+				try {
+					scoreBatch(batch);
+				}
+				catch (Throwable e) {
+					WarningLogger.logWarning("Scoring failed for a batch of " + batch.size() + " volumes: " + e);
+					for (Pending pending : batch) {
+						pending.failed = true;
+					}
+					synchronized (this) {
+						volumesFailed += batch.size();
+					}
+				}
+				finally {
+					for (Pending pending : batch) {
+						pending.doc = null;
+						pending.done.countDown();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// The service is shutting down.
+		}
+	}
+
+	/**
+	 * @return True if the volume's request has given up on it, in which case
+	 * its Document is released.
+	 */
+	private boolean drop(Pending pending) {
+		if (!pending.failed) return false;
+		pending.doc = null;
+		synchronized (this) {
+			volumesDropped += 1;
+		}
+		return true;
+	}
+
+	/**
+	 * Scores a batch in runs of volumes that share a model set; ordinarily the
+	 * whole batch is one run.
+	 */
+	private void scoreBatch(ArrayList<Pending> batch) {
+		int from = 0;
+		while (from < batch.size()) {
+			ModelSet models = batch.get(from).models;
+			int to = from + 1;
+			while (to < batch.size() && batch.get(to).models == models) to += 1;
+			int n = to - from;
+			int classCount = models.classLabels.size();
+			double[][] predictions = new double[n][classCount];
+			for (int i = 0; i < n; ++i) {
+				models.score(batch.get(from + i).doc, predictions[i]);
+			}
+			int[] dates = new int[n];
+			double[] expected = new double[n];
+			models.inference.inferDates(predictions, n, dates, expected);
+			for (int i = 0; i < n; ++i) {
+				Pending pending = batch.get(from + i);
+				pending.predictedDate = dates[i];
+				pending.expectedDate = expected[i];
+				pending.scored = true;
+			}
+			from = to;
+		}
+		synchronized (this) {
+			batches += 1;
+			volumesScored += batch.size();
+		}
+	}
+
+	synchronized String statsJSON() {
+		ModelSet models = current.get();
+		return "{\"requests\": " + latencies.getCount()
+				+ ", \"requests_failed\": " + requestsFailed
+				+ ", \"p50_ms\": " + latencies.percentileMillis(0.5)
+				+ ", \"p99_ms\": " + latencies.percentileMillis(0.99)
+				+ ", \"mean_ms\": " + latencies.meanMillis()
+				+ ", \"batches\": " + batches
+				+ ", \"volumes_scored\": " + volumesScored
+				+ ", \"volumes_failed\": " + volumesFailed
+				+ ", \"volumes_dropped\": " + volumesDropped
+				+ ", \"mean_batch\": " + ((batches > 0) ? (double) volumesScored / batches : 0d)
+				+ ", \"queued\": " + queue.size()
+				+ ", \"generation\": " + models.generation
+				+ ", \"classes\": " + models.classLabels.size()
+				+ ", \"fused\": " + (models.ensemble != null)
+				+ ", \"mapped\": " + (models.ensemble != null && models.ensemble.isMapped()) + "}\n";
+	}
+
+	private static String outputLine(Pending pending) {
+		if (pending.doc != null && pending.doc.fileNotFound) {
+			return pending.htid + "\tNA\tNA\t" + pending.models.generation;
+		}
+		return pending.htid + "\t" + pending.predictedDate + "\t" + pending.expectedDate + "\t" + pending.models.generation;
+	}
+
+	/**
+	 * @return The values of a parameter in a query string, decoded.
+	 */
+	static ArrayList<String> queryValues(String query, String name) {
+		ArrayList<String> values = new ArrayList<String>();
+		if (query == null) return values;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals < 0 || !pair.substring(0, equals).equals(name)) continue;
+			try {
+				values.add(URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+			catch (UnsupportedEncodingException e) {
+				// UTF-8 is always supported.
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * A volume id is usable if it names a file inside the pairtree: it needs a
+	 * prefix and a period, and mustn't climb out of the data folder.
+	 */
+	static boolean isValidId(String htid) {
+		return htid.indexOf('.') > 0 && htid.indexOf('/') < 0 && htid.indexOf('\\') < 0 && !htid.contains("..");
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		byte[] buffer = new byte[8192];
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		return body.toString("UTF-8");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	class PredictHandler implements HttpHandler {
+		/**
+		 * Every request's latency is recorded, whatever its outcome, so that
+		 * slow failures -- timeouts above all -- show up in the percentiles.
+		 * Requests that don't succeed are also counted separately.
+		 */
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			boolean succeeded = false;
+			try {
+				succeeded = answer(exchange);
+			}
+			finally {
+				latencies.record(System.nanoTime() - start);
+				if (!succeeded) {
+					synchronized (PredictionService.this) {
+						requestsFailed += 1;
+					}
+				}
+			}
+		}
+
+		/** @return True if the request got its predictions. */
+		private boolean answer(HttpExchange exchange) throws IOException {
+			ArrayList<String> htids = queryValues(exchange.getRequestURI().getRawQuery(), "htid");
+			if (exchange.getRequestMethod().equals("POST")) {
+				for (String line : readBody(exchange).split("\n")) {
+					String htid = line.trim();
+					if (htid.length() > 0) htids.add(htid);
+				}
+			}
+			if (htids.size() < 1) {
+				respond(exchange, 400, "text/plain", "No htid given.\n");
+				return false;
+			}
+			for (String htid : htids) {
+				if (!isValidId(htid)) {
+					respond(exchange, 400, "text/plain", "Not a volume id: " + htid + "\n");
+					return false;
+				}
+			}
+			ArrayList<Pending> results;
+			try {
+				results = predict(htids);
+			}
+			catch (InterruptedException e) {
+				respond(exchange, 503, "text/plain", "Interrupted.\n");
+				return false;
+			}
+			int failures = 0;
+			for (Pending pending : results) {
+				if (pending.failed) failures += 1;
+			}
+			if (failures > 0) {
+				respond(exchange, 500, "text/plain", "Scoring failed for " + failures + " of " + results.size()
+						+ " volumes; see the error log.\n");
+				return false;
+			}
+			StringBuilder body = new StringBuilder("volume\tpredicted\texpected\tgeneration\n");
+			for (Pending pending : results) {
+				body.append(outputLine(pending)).append('\n');
+			}
+			respond(exchange, 200, "text/tab-separated-values", body.toString());
+			return true;
+		}
+	}
+
+	class StatsHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			respond(exchange, 200, "application/json", statsJSON());
+		}
+	}
+
+	class ReloadHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "text/plain", "Reload with POST.\n");
+				return;
+			}
+			ArrayList<String> folders = queryValues(exchange.getRequestURI().getRawQuery(), "folder");
+			String folder = (folders.size() > 0) ? folders.get(0) : modelFolder;
+			try {
+				ModelSet set = reload(folder);
+				respond(exchange, 200, "application/json", "{\"generation\": " + set.generation
+						+ ", \"classes\": " + set.classLabels.size() + "}\n");
+			}
+			catch (IOException e) {
+				respond(exchange, 500, "text/plain", "Reload failed; keeping the current models: " + e.getMessage() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Arguments: modelFolder dataFolder. The model folder holds the
+	 * <code>label.classifier</code> files written by DatePredictor, or an
+	 * <code>ensemble.float32</code> or <code>ensemble.int8</code> file, or a
+	 * <code>models.registry</code> file, which is memory-mapped. Options, as
+	 * name=value pairs: port (8080), host (loopback), threads for reading volumes
+	 * (4), batch (most volumes scored at once, 64), wait (microseconds to wait
+	 * for a batch to fill, 2000), and timeout (milliseconds a request waits for
+	 * scoring before it fails, 60000).
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String modelFolder = args[0];
+		String dataFolder = args[1];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 2);
+		int port = Integer.parseInt(DatePredictor.getOption(options, "port", "8080"));
+		String host = DatePredictor.getOption(options, "host", null);
+		int threads = Integer.parseInt(DatePredictor.getOption(options, "threads", "4"));
+		int maxBatch = Integer.parseInt(DatePredictor.getOption(options, "batch", "64"));
+		long maxWait = Long.parseLong(DatePredictor.getOption(options, "wait", "2000"));
+		long timeout = Long.parseLong(DatePredictor.getOption(options, "timeout", "60000"));
+		int startDate = 1800;
+		int endDate = 1899;
+
+		WarningLogger.initializeLogger(false, null);
+
+		final PredictionService service;
+		HttpServer server;
+		try {
+			service = new PredictionService(modelFolder, dataFolder, startDate, endDate, maxBatch, maxWait, timeout);
+			InetAddress address = (host == null) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+			server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		}
+		catch (IOException e) {
+			System.out.println("Could not start the prediction service: " + e);
+			System.exit(1);
+			return;
+		}
+
+		Thread scorer = new Thread(new Runnable() {
+			public void run() {
+				service.scoreBatches();
+			}
+		}, "scorer");
+		scorer.setDaemon(true);
+		scorer.start();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		server.setExecutor(pool);
+		server.createContext("/predict", service.new PredictHandler());
+		server.createContext("/stats", service.new StatsHandler());
+		server.createContext("/reload", service.new ReloadHandler());
+		server.start();
+		System.out.println("Serving date predictions on " + server.getAddress());
+	}
+}
@@ -0,0 +1,137 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * DatePredictor's work on each volume, divided into pipeline stages. Reading
+ * and scoring may run on several threads; writing runs in volume order on one,
+ * so everything that isn't thread-safe happens there: the chunk planner's
+ * observations, checking the compact ensemble against the full models, and
+ * collecting output for the chunk.
+ *
+ * @author tunderwood
+ *
+ */
+class PredictionStages extends PredictionPipeline.Stages {
+	PairtreeReader dataReader;
+	HashSet<String> vocabulary;
+	FeatureHasher hasher;
+	ArrayList<SupervisedLearner> models;
+	CompactEnsemble compact;
+	DateInference inference;
+	ChunkPlanner planner;
+	int classCount;
+	int validationVolumes;
+
+	Metrics.Histogram[] modelLatency;
+
+	double[] maxDrift;
+	double[] totalDrift;
+	int validated = 0;
+
+	ArrayList<ArrayList<Double>> predictionVectors;
+	ArrayList<Integer> predictedDates;
+	ArrayList<Double> expectedDates;
+	ArrayList<String> attestedDates;
+	ArrayList<String> outputLines;
+
+	/**
+	 * @param compact Scores volumes if not null; the full models are then only
+	 * used to validate it, on the first validationVolumes volumes read.
+	 * @param classLabels The label of each model, for its latency histogram.
+	 */
+	PredictionStages(PairtreeReader dataReader, HashSet<String> vocabulary, FeatureHasher hasher,
+			ArrayList<SupervisedLearner> models, ArrayList<String> classLabels, CompactEnsemble compact, DateInference inference,
+			ChunkPlanner planner, int validationVolumes) {
+		this.dataReader = dataReader;
+		this.vocabulary = vocabulary;
+		this.hasher = hasher;
+		this.models = models;
+		this.compact = compact;
+		this.inference = inference;
+		this.planner = planner;
+		this.validationVolumes = validationVolumes;
+		classCount = models.size();
+		maxDrift = new double[classCount];
+		totalDrift = new double[classCount];
+		if (compact == null) {
+			modelLatency = new Metrics.Histogram[classCount];
+			for (int m = 0; m < classCount; ++m) {
+				modelLatency[m] = Metrics.histogram("scoring.model", "class", classLabels.get(m));
+			}
+		}
+	}
+
+	/** Clears the output collected for the previous chunk. */
+	void startChunk(int chunkSize) {
+		predictionVectors = new ArrayList<ArrayList<Double>>(chunkSize);
+		predictedDates = new ArrayList<Integer>(chunkSize);
+		expectedDates = new ArrayList<Double>(chunkSize);
+		attestedDates = new ArrayList<String>(chunkSize);
+		outputLines = new ArrayList<String>(chunkSize);
+	}
+
+	public Document read(Volume vol) {
+		if (hasher != null) return dataReader.getHashedDocument(vol, hasher);
+		return dataReader.getDocument(vol, vocabulary);
+	}
+
+	/** A volume holds its Document, and a row of predictions and a line of output. */
+	public long estimateBytes(Volume vol) {
+		return planner.estimateBytes(vol);
+	}
+
+	public void score(PredictionPipeline.Item item) {
+		double[] predictions = new double[classCount];
+		if (compact != null) {
+			long started = System.nanoTime();
+			compact.predictDocument(item.doc, predictions);
+			Metrics.histogram("scoring.ensemble").recordSince(started);
+		}
+		else {
+			for (int m = 0; m < classCount; ++m) {
+				long started = System.nanoTime();
+				predictions[m] = models.get(m).predictDocument(item.doc);
+				modelLatency[m].recordSince(started);
+			}
+		}
+		Metrics.counter("scoring.volumes").increment();
+		item.predictions = predictions;
+		int[] date = new int[1];
+		double[] expected = new double[1];
+		inference.inferDates(new double[][] {predictions}, 1, date, expected);
+		item.predictedDate = date[0];
+		item.expectedDate = expected[0];
+	}
+
+	public void write(PredictionPipeline.Item item) {
+		// A volume that wasn't found keeps zero predictions, and so its predicted
+		// date stays at zero, and its expected date at NaN.
+		if (item.predictions == null) item.predictions = new double[classCount];
+		if (item.doc != null) {
+			planner.observe(item.vol, item.doc);
+			if (compact != null && item.wasRead() && validated < validationVolumes) {
+				for (int m = 0; m < classCount; ++m) {
+					double drift = Math.abs(models.get(m).predictDocument(item.doc) - item.predictions[m]);
+					if (drift > maxDrift[m]) maxDrift[m] = drift;
+					totalDrift[m] += drift;
+				}
+				validated += 1;
+			}
+		}
+		ArrayList<Double> predictionVector = new ArrayList<Double>(classCount);
+		for (int m = 0; m < classCount; ++m) {
+			predictionVector.add(item.predictions[m]);
+		}
+		predictionVectors.add(predictionVector);
+		predictedDates.add(item.predictedDate);
+		expectedDates.add(item.expectedDate);
+		attestedDates.add(item.vol.getValue("date"));
+		outputLines.add(DatePredictor.outputLine(item.vol, item.predictedDate, item.expectedDate, predictionVector));
+		Metrics.advance(1);
+	}
+}
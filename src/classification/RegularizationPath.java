@@ -0,0 +1,232 @@
+package classification;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import datasets.*;
+
+/**
+ * Trains date-bin models along a path of ridge parameters in a single run.
+ * For each class we read a training set once, hold it in memory as sparse
+ * vectors, and fit a <code>StochasticLogisticClassifier</code> for every ridge
+ * value in turn. We move from the strongest penalty to the weakest, and each
+ * fit starts from the previous solution, which is usually close.
+ * <p>
+ * A fraction of each class's training set is held out, and we report held-out
+ * log loss for each class and ridge value. One complete model set is written
+ * per ridge value, in a subfolder of the output folder, so the best one can be
+ * picked up by DatePredictor-style scoring without retraining.
+ *
+ * @author tunderwood
+ *
+ */
+public class RegularizationPath {
+
+	static Metadata metadata;
+	static DateClassMap classMap;
+	static int startDate = 1800;
+	static int endDate = 1899;
+
+	/**
+	 * Arguments are the same as DatePredictor's, except that the ridge parameter
+	 * is replaced by a comma-separated list of ridge values. Optional name=value
+	 * arguments: heldout (fraction, default 0.2), epochs (maximum per ridge value,
+	 * default 30), tolerance (default 0.0001), batchsize, learningrate, seed.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String metadataFile = args[0];
+		String dataFolder = args[1];
+		String[] fieldList = {"date"};
+		int binRadius = Integer.parseInt(args[2]);
+		int vocabularySize = Integer.parseInt(args[3]);
+		int maxVolsToRead = Integer.parseInt(args[4]);
+		String[] ridgeStrings = args[5].split(",");
+		String outputFolder = args[6];
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 7);
+		double heldoutFraction = Double.parseDouble(DatePredictor.getOption(options, "heldout", "0.2"));
+		int maxEpochs = Integer.parseInt(DatePredictor.getOption(options, "epochs", "30"));
+		double tolerance = Double.parseDouble(DatePredictor.getOption(options, "tolerance", "0.0001"));
+		int batchSize = Integer.parseInt(DatePredictor.getOption(options, "batchsize", "64"));
+		double learningRate = Double.parseDouble(DatePredictor.getOption(options, "learningrate", "0.1"));
+		long seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+
+		// We warm-start from strong penalties toward weak ones. A value listed
+		// twice would write its models over the first set, so it's dropped.
+		double[] parsed = new double[ridgeStrings.length];
+		for (int i = 0; i < ridgeStrings.length; ++i) {
+			parsed[i] = Double.parseDouble(ridgeStrings[i].trim());
+		}
+		Arrays.sort(parsed);
+		double[] descending = new double[parsed.length];
+		int distinct = 0;
+		for (int i = parsed.length - 1; i >= 0; --i) {
+			if (distinct == 0 || parsed[i] != descending[distinct - 1]) {
+				descending[distinct] = parsed[i];
+				++distinct;
+			}
+		}
+		double[] ridges = Arrays.copyOf(descending, distinct);
+
+		WarningLogger.initializeLogger(true, outputFolder + "errorlog.txt");
+
+		MetadataReader metadataReader = new TaubMetadataReader(metadataFile);
+		try {
+			metadata = metadataReader.readTSV(fieldList);
+		}
+		catch (InputFileException e) {
+			System.out.println("Exception in metadataReader\n" + Arrays.toString(e.getStackTrace()));
+			System.exit(0);
+		}
+		System.out.println("Done reading metadata.");
+
+		int firstBinMidpoint = startDate + binRadius;
+		int binSpacing = (binRadius * 2) + 1;
+		classMap = new DateClassMap(firstBinMidpoint, endDate, binRadius,
+			binSpacing, metadata, "date");
+		classMap.mapVolsByMetadata(startDate, endDate);
+		classMap.setSeed(seed);
+		System.out.println("Done constructing classMap.");
+
+		ArrayList<String> classLabels = classMap.getKnownClasses();
+		PairtreeReader dataReader = new PairtreeReader(dataFolder);
+		ArrayList<String> orderedVocabulary = DatePredictor.buildVocabulary(classMap, classLabels, vocabularySize, dataReader);
+		HashSet<String> vocabulary = new HashSet<String>(orderedVocabulary);
+		TermIndex featureIndex = FeatureVector.indexFeatures(orderedVocabulary);
+		System.out.println("Built vocabulary.");
+
+		String[] modelFolders = new String[ridges.length];
+		for (int r = 0; r < ridges.length; ++r) {
+			modelFolders[r] = outputFolder + "ridge" + Double.toString(ridges[r]) + "/";
+			new File(modelFolders[r]).mkdirs();
+		}
+
+		Random randomGenerator = new Random(seed);
+		int maxSetSize = maxVolsToRead / 2;
+		double[] sumHeldoutLoss = new double[ridges.length];
+		int classesScored = 0;
+		ArrayList<String> outLines = new ArrayList<String>();
+		outLines.add("class\tridge\ttrainingObjective\theldoutLoss\ttrainingSize\theldoutSize");
+
+		for (String label : classLabels) {
+			System.out.println("Loading training data for class: " + label);
+			int setSize = Math.min(classMap.getClassSize(label), maxSetSize);
+			ArrayList<Volume> positiveVols = classMap.takeRandomSample(label, setSize);
+			ArrayList<Volume> negativeVols = classMap.stratifiedSampleExcept(label, setSize);
+			ArrayList<Document> positiveDocs = dataReader.getMultipleDocs(positiveVols, vocabulary);
+			ArrayList<Document> negativeDocs = dataReader.getMultipleDocs(negativeVols, vocabulary);
+
+			// We keep sparse vectors rather than Documents, which are much larger.
+			ArrayList<FeatureVector> allVectors = new ArrayList<FeatureVector>();
+			ArrayList<Double> allTargets = new ArrayList<Double>();
+			for (Document doc : positiveDocs) {
+				allVectors.add(FeatureVector.fromDocument(doc, featureIndex));
+				allTargets.add(1d);
+			}
+			for (Document doc : negativeDocs) {
+				allVectors.add(FeatureVector.fromDocument(doc, featureIndex));
+				allTargets.add(0d);
+			}
+			positiveDocs = null;
+			negativeDocs = null;
+
+			// Split into training and held-out sets.
+			int total = allVectors.size();
+			int[] order = new int[total];
+			for (int i = 0; i < total; ++i) {
+				order[i] = i;
+			}
+			for (int i = total - 1; i > 0; --i) {
+				int j = randomGenerator.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			int heldoutSize = (int) Math.round(total * heldoutFraction);
+			if (total - heldoutSize < 1) {
+				// Every folder still needs a model for every bin, or DateInference
+				// would load a set with one missing and shift the dates it infers.
+				WarningLogger.logWarning("RegularizationPath: class " + label + ", which has " + total +
+						" volumes, has none left to train on; writing a constant model.");
+				System.out.println("  no training volumes; writing a constant model.");
+				for (int r = 0; r < ridges.length; ++r) {
+					StochasticLogisticClassifier constant = constantModel(label, orderedVocabulary, ridges[r], learningRate);
+					outLines.add(label + "\t" + ridges[r] + "\t" + Double.NaN + "\t" + Double.NaN + "\t0\t" + heldoutSize);
+					DatePredictor.serializeModel(constant, modelFolders[r] + label + ".classifier");
+				}
+				continue;
+			}
+			// Without a held-out set the models are still written, but the class
+			// can't count toward the mean loss that picks a ridge value.
+			boolean scored = heldoutSize > 0;
+			if (scored) ++classesScored;
+			else WarningLogger.logWarning("RegularizationPath: class " + label + " has no held-out volumes.");
+			ArrayList<FeatureVector> training = new ArrayList<FeatureVector>(total - heldoutSize);
+			ArrayList<FeatureVector> heldout = new ArrayList<FeatureVector>(heldoutSize);
+			double[] trainingTargets = new double[total - heldoutSize];
+			double[] heldoutTargets = new double[heldoutSize];
+			for (int i = 0; i < total; ++i) {
+				FeatureVector vector = allVectors.get(order[i]);
+				double target = allTargets.get(order[i]);
+				if (i < heldoutSize) {
+					heldoutTargets[heldout.size()] = target;
+					heldout.add(vector);
+				}
+				else {
+					trainingTargets[training.size()] = target;
+					training.add(vector);
+				}
+			}
+			double[] trainingWeights = new double[training.size()];
+			Arrays.fill(trainingWeights, 1d);
+			double[] heldoutWeights = new double[heldout.size()];
+			Arrays.fill(heldoutWeights, 1d);
+
+			double[] scales = FeatureVector.inverseStandardDeviations(training, orderedVocabulary.size());
+			StochasticLogisticClassifier model = new StochasticLogisticClassifier(label, orderedVocabulary, scales, ridges[0], learningRate);
+
+			for (int r = 0; r < ridges.length; ++r) {
+				model.setRidge(ridges[r]);
+				double trainingObjective = model.fit(training, trainingTargets, trainingWeights,
+						batchSize, maxEpochs, tolerance, randomGenerator);
+				double heldoutLoss = scored ? model.logLoss(heldout, heldoutTargets, heldoutWeights) : Double.NaN;
+				if (scored) sumHeldoutLoss[r] += heldoutLoss;
+				System.out.println("  ridge " + ridges[r] + ": held-out loss " + heldoutLoss);
+				outLines.add(label + "\t" + ridges[r] + "\t" + trainingObjective + "\t" + heldoutLoss +
+						"\t" + training.size() + "\t" + heldout.size());
+				DatePredictor.serializeModel(model.copy(), modelFolders[r] + label + ".classifier");
+			}
+		}
+
+		int best = 0;
+		for (int r = 0; r < ridges.length; ++r) {
+			double meanLoss = sumHeldoutLoss[r] / Math.max(1, classesScored);
+			outLines.add("__mean__\t" + ridges[r] + "\t\t" + meanLoss + "\t\t");
+			if (sumHeldoutLoss[r] < sumHeldoutLoss[best]) best = r;
+		}
+		System.out.println("Lowest mean held-out loss at ridge " + ridges[best] + ".");
+
+		LineWriter pathWriter = new LineWriter(outputFolder + "regularizationPath.tsv", false);
+		pathWriter.send(outLines.toArray(new String[outLines.size()]));
+		WarningLogger.writeFilesNotFound(outputFolder + "filesNotFound.txt");
+	}
+
+	/**
+	 * @return A model for a class with no volumes to train on. It ignores the
+	 * features, and gives every volume the smoothed estimate of membership in a
+	 * class with no members: one in the size of the collection, plus two.
+	 */
+	static StochasticLogisticClassifier constantModel(String label, ArrayList<String> features, double ridge, double learningRate) {
+		double[] scales = new double[features.size()];
+		Arrays.fill(scales, 1d);
+		StochasticLogisticClassifier model = new StochasticLogisticClassifier(label, features, scales, ridge, learningRate);
+		model.setIntercept(-Math.log(metadata.getSize() + 1));
+		return model;
+	}
+
+}
@@ -0,0 +1,113 @@
+package classification;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plain Java kernels, used wherever the Vector API isn't available.
+ *
+ * @author tunderwood
+ *
+ */
+class ScalarKernels extends VectorKernels {
+
+	public String getName() {
+		return "scalar";
+	}
+
+	public double dot(double[] a, double[] b) {
+		double sum = 0d;
+		for (int i = 0; i < a.length; ++i) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	public void dotAndSquaredNorms(double[] a, double[] b, double[] result) {
+		double dot = 0d;
+		double aa = 0d;
+		double bb = 0d;
+		for (int i = 0; i < a.length; ++i) {
+			dot += a[i] * b[i];
+			aa += a[i] * a[i];
+			bb += b[i] * b[i];
+		}
+		result[0] = dot;
+		result[1] = aa;
+		result[2] = bb;
+	}
+
+	public double cosineSimilarity(double[] a, double[] b, double minimumMagnitude) {
+		double dot = 0d;
+		double aa = 0d;
+		double bb = 0d;
+		for (int i = 0; i < a.length; ++i) {
+			dot += a[i] * b[i];
+			aa += a[i] * a[i];
+			bb += b[i] * b[i];
+		}
+		return cosine(dot, aa, bb, minimumMagnitude);
+	}
+
+	static double cosine(double dot, double aa, double bb, double minimumMagnitude) {
+		double magnitude = Math.sqrt(aa) * Math.sqrt(bb);
+		if (magnitude < minimumMagnitude) return 0d;
+		return dot / magnitude;
+	}
+
+	public double squaredDistance(double[] a, double[] b) {
+		double sum = 0d;
+		for (int i = 0; i < a.length; ++i) {
+			double difference = a[i] - b[i];
+			sum += difference * difference;
+		}
+		return sum;
+	}
+
+	public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		float sum = 0f;
+		for (int i = 0; i < length; ++i) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public void sparseDot(int[] rows, float[] values, int n, float[] table, int width, float[] out) {
+		for (int k = 0; k < n; ++k) {
+			int row = rows[k] * width;
+			float value = values[k];
+			for (int m = 0; m < width; ++m) {
+				out[m] += table[row + m] * value;
+			}
+		}
+	}
+
+	public void sparseDot(int[] rows, float[] values, int n, byte[] table, int width, float[] out) {
+		for (int k = 0; k < n; ++k) {
+			int row = rows[k] * width;
+			float value = values[k];
+			for (int m = 0; m < width; ++m) {
+				out[m] += table[row + m] * value;
+			}
+		}
+	}
+
+	public void sparseDotFloat32(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out) {
+		for (int k = 0; k < n; ++k) {
+			int row = rows[k] * width;
+			float value = values[k];
+			for (int m = 0; m < width; ++m) {
+				out[m] += table.getFloat((row + m) * 4) * value;
+			}
+		}
+	}
+
+	public void sparseDotInt8(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out) {
+		for (int k = 0; k < n; ++k) {
+			int row = rows[k] * width;
+			float value = values[k];
+			for (int m = 0; m < width; ++m) {
+				out[m] += table.get(row + m) * value;
+			}
+		}
+	}
+}
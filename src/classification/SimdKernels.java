@@ -0,0 +1,231 @@
+package classification;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on the Java Vector API, using the machine's preferred vector width.
+ * Each loop runs whole vectors with fused multiply-adds into vector
+ * accumulators, reduces them once at the end, and finishes the leftover
+ * elements in scalar code.
+ * <p>
+ * Loaded reflectively by <code>VectorKernels.get</code>, so nothing else refers
+ * to this class, and the code base still runs where the incubator module is
+ * absent.
+ *
+ * @author tunderwood
+ *
+ */
+class SimdKernels extends VectorKernels {
+	static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	/**
+	 * Bytes to widen into FLOATS. With eight or more float lanes this is the
+	 * same number of lanes; but no vector is narrower than 64 bits, so with
+	 * 128-bit floats (SSE, NEON) it holds two float vectors' worth, and each
+	 * is converted from its own part of the bytes.
+	 */
+	static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+			VectorShape.forBitSize(Math.max(64, FLOATS.length() * 8)));
+
+	public String getName() {
+		return "simd (" + FLOATS.length() + " floats)";
+	}
+
+	public double dot(double[] a, double[] b) {
+		int upper = DOUBLES.loopBound(a.length);
+		DoubleVector sum = DoubleVector.zero(DOUBLES);
+		int i = 0;
+		for (; i < upper; i += DOUBLES.length()) {
+			DoubleVector va = DoubleVector.fromArray(DOUBLES, a, i);
+			DoubleVector vb = DoubleVector.fromArray(DOUBLES, b, i);
+			sum = va.fma(vb, sum);
+		}
+		double result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; ++i) {
+			result += a[i] * b[i];
+		}
+		return result;
+	}
+
+	public void dotAndSquaredNorms(double[] a, double[] b, double[] result) {
+		int upper = DOUBLES.loopBound(a.length);
+		DoubleVector dot = DoubleVector.zero(DOUBLES);
+		DoubleVector aa = DoubleVector.zero(DOUBLES);
+		DoubleVector bb = DoubleVector.zero(DOUBLES);
+		int i = 0;
+		for (; i < upper; i += DOUBLES.length()) {
+			DoubleVector va = DoubleVector.fromArray(DOUBLES, a, i);
+			DoubleVector vb = DoubleVector.fromArray(DOUBLES, b, i);
+			dot = va.fma(vb, dot);
+			aa = va.fma(va, aa);
+			bb = vb.fma(vb, bb);
+		}
+		double dotSum = dot.reduceLanes(VectorOperators.ADD);
+		double aaSum = aa.reduceLanes(VectorOperators.ADD);
+		double bbSum = bb.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; ++i) {
+			dotSum += a[i] * b[i];
+			aaSum += a[i] * a[i];
+			bbSum += b[i] * b[i];
+		}
+		result[0] = dotSum;
+		result[1] = aaSum;
+		result[2] = bbSum;
+	}
+
+	public double cosineSimilarity(double[] a, double[] b, double minimumMagnitude) {
+		int upper = DOUBLES.loopBound(a.length);
+		DoubleVector dot = DoubleVector.zero(DOUBLES);
+		DoubleVector aa = DoubleVector.zero(DOUBLES);
+		DoubleVector bb = DoubleVector.zero(DOUBLES);
+		int i = 0;
+		for (; i < upper; i += DOUBLES.length()) {
+			DoubleVector va = DoubleVector.fromArray(DOUBLES, a, i);
+			DoubleVector vb = DoubleVector.fromArray(DOUBLES, b, i);
+			dot = va.fma(vb, dot);
+			aa = va.fma(va, aa);
+			bb = vb.fma(vb, bb);
+		}
+		double dotSum = dot.reduceLanes(VectorOperators.ADD);
+		double aaSum = aa.reduceLanes(VectorOperators.ADD);
+		double bbSum = bb.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; ++i) {
+			dotSum += a[i] * b[i];
+			aaSum += a[i] * a[i];
+			bbSum += b[i] * b[i];
+		}
+		return ScalarKernels.cosine(dotSum, aaSum, bbSum, minimumMagnitude);
+	}
+
+	public double squaredDistance(double[] a, double[] b) {
+		int upper = DOUBLES.loopBound(a.length);
+		DoubleVector sum = DoubleVector.zero(DOUBLES);
+		int i = 0;
+		for (; i < upper; i += DOUBLES.length()) {
+			DoubleVector difference = DoubleVector.fromArray(DOUBLES, a, i).sub(DoubleVector.fromArray(DOUBLES, b, i));
+			sum = difference.fma(difference, sum);
+		}
+		double result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < a.length; ++i) {
+			double difference = a[i] - b[i];
+			result += difference * difference;
+		}
+		return result;
+	}
+
+	public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		int upper = FLOATS.loopBound(length);
+		FloatVector sum = FloatVector.zero(FLOATS);
+		int i = 0;
+		for (; i < upper; i += FLOATS.length()) {
+			FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+			FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+			sum = va.fma(vb, sum);
+		}
+		float result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; ++i) {
+			result += a[aOffset + i] * b[bOffset + i];
+		}
+		return result;
+	}
+
+	public void sparseDot(int[] rows, float[] values, int n, float[] table, int width, float[] out) {
+		int upper = FLOATS.loopBound(width);
+		// Each block of out is loaded once, updated by every row, and stored once.
+		for (int m = 0; m < upper; m += FLOATS.length()) {
+			FloatVector sum = FloatVector.fromArray(FLOATS, out, m);
+			for (int k = 0; k < n; ++k) {
+				FloatVector row = FloatVector.fromArray(FLOATS, table, rows[k] * width + m);
+				sum = row.fma(FloatVector.broadcast(FLOATS, values[k]), sum);
+			}
+			sum.intoArray(out, m);
+		}
+		if (upper < width) {
+			for (int k = 0; k < n; ++k) {
+				int row = rows[k] * width;
+				float value = values[k];
+				for (int m = upper; m < width; ++m) {
+					out[m] += table[row + m] * value;
+				}
+			}
+		}
+	}
+
+	public void sparseDot(int[] rows, float[] values, int n, byte[] table, int width, float[] out) {
+		// Whole byte vectors, so that no load runs past the end of a row.
+		int upper = BYTES.loopBound(width);
+		for (int m = 0; m < upper; m += FLOATS.length()) {
+			int block = m - (m % BYTES.length());
+			int part = (m - block) / FLOATS.length();
+			FloatVector sum = FloatVector.fromArray(FLOATS, out, m);
+			for (int k = 0; k < n; ++k) {
+				ByteVector packed = ByteVector.fromArray(BYTES, table, rows[k] * width + block);
+				FloatVector row = (FloatVector) packed.convertShape(VectorOperators.B2F, FLOATS, part);
+				sum = row.fma(FloatVector.broadcast(FLOATS, values[k]), sum);
+			}
+			sum.intoArray(out, m);
+		}
+		if (upper < width) {
+			for (int k = 0; k < n; ++k) {
+				int row = rows[k] * width;
+				float value = values[k];
+				for (int m = upper; m < width; ++m) {
+					out[m] += table[row + m] * value;
+				}
+			}
+		}
+	}
+
+	public void sparseDotFloat32(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out) {
+		int upper = FLOATS.loopBound(width);
+		for (int m = 0; m < upper; m += FLOATS.length()) {
+			FloatVector sum = FloatVector.fromArray(FLOATS, out, m);
+			for (int k = 0; k < n; ++k) {
+				FloatVector row = FloatVector.fromByteBuffer(FLOATS, table, (rows[k] * width + m) * 4, ByteOrder.LITTLE_ENDIAN);
+				sum = row.fma(FloatVector.broadcast(FLOATS, values[k]), sum);
+			}
+			sum.intoArray(out, m);
+		}
+		if (upper < width) {
+			for (int k = 0; k < n; ++k) {
+				int row = rows[k] * width;
+				float value = values[k];
+				for (int m = upper; m < width; ++m) {
+					out[m] += table.getFloat((row + m) * 4) * value;
+				}
+			}
+		}
+	}
+
+	public void sparseDotInt8(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out) {
+		int upper = BYTES.loopBound(width);
+		for (int m = 0; m < upper; m += FLOATS.length()) {
+			int block = m - (m % BYTES.length());
+			int part = (m - block) / FLOATS.length();
+			FloatVector sum = FloatVector.fromArray(FLOATS, out, m);
+			for (int k = 0; k < n; ++k) {
+				ByteVector packed = ByteVector.fromByteBuffer(BYTES, table, rows[k] * width + block, ByteOrder.LITTLE_ENDIAN);
+				FloatVector row = (FloatVector) packed.convertShape(VectorOperators.B2F, FLOATS, part);
+				sum = row.fma(FloatVector.broadcast(FLOATS, values[k]), sum);
+			}
+			sum.intoArray(out, m);
+		}
+		if (upper < width) {
+			for (int k = 0; k < n; ++k) {
+				int row = rows[k] * width;
+				float value = values[k];
+				for (int m = upper; m < width; ++m) {
+					out[m] += table.get(row + m) * value;
+				}
+			}
+		}
+	}
+}
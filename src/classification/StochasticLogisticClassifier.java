@@ -0,0 +1,292 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A binary logistic model trained by mini-batch stochastic gradient descent
+ * with AdaGrad step sizes. Unlike <code>LogisticClassifier</code>, which hands a
+ * complete in-memory training set to Weka, this model is updated incrementally,
+ * so a trainer can stream documents past it and discard each one after use.
+ * <p>
+ * Features are standardized by a vector of <code>scales</code> (usually the inverse
+ * of each feature's standard deviation) before they meet the weights. That keeps
+ * the ridge penalty comparable to Weka's, since Weka also penalizes coefficients
+ * on standardized attributes.
+ *
+ * @author tunderwood
+ *
+ */
+public class StochasticLogisticClassifier extends SupervisedLearner implements java.io.Serializable {
+
+	String classLabel;
+	ArrayList<String> features;
+	/** Set instead of features when the model reads hashed Documents. */
+	FeatureHasher hasher;
+	int numFeatures;
+	double[] weights;
+	double intercept;
+	double[] scales;
+	double ridge;
+	double learningRate;
+	static final long serialVersionUID = 927333928L;
+	static final double EPSILON = 1e-8;
+
+	/** Maps features to positions; rebuilt after deserialization. */
+	transient TermIndex featureIndex;
+
+	// AdaGrad state. This is only needed during training, so it isn't serialized.
+	transient double[] gradient;
+	transient double interceptGradient;
+	transient double[] squaredGradients;
+	transient double squaredInterceptGradients;
+	transient int batchCount;
+
+	/**
+	 * Creates an untrained model with all weights at zero.
+	 *
+	 * @param classLabel The class this model learns to recognize.
+	 * @param features An ordered list of words to be used as features.
+	 * @param scales A multiplier applied to each feature before the weights;
+	 * must have the same length as features.
+	 * @param ridge L2 penalty on the (standardized) weights, expressed per training set,
+	 * as in Weka's <code>-R</code> option.
+	 * @param learningRate Base step size for AdaGrad.
+	 */
+	public StochasticLogisticClassifier(String classLabel, ArrayList<String> features, double[] scales, double ridge, double learningRate) {
+		this.classLabel = classLabel;
+		this.features = features;
+		this.scales = scales;
+		this.ridge = ridge;
+		this.learningRate = learningRate;
+		numFeatures = features.size();
+		assert (scales.length == numFeatures);
+		weights = new double[numFeatures];
+		intercept = 0d;
+	}
+
+	/**
+	 * Creates an untrained model over hashed features, one weight per position
+	 * of the hasher. It reads Documents from <code>PairtreeReader.getHashedDocument</code>.
+	 */
+	public StochasticLogisticClassifier(String classLabel, FeatureHasher hasher, double[] scales, double ridge, double learningRate) {
+		this.classLabel = classLabel;
+		this.hasher = hasher;
+		this.scales = scales;
+		this.ridge = ridge;
+		this.learningRate = learningRate;
+		numFeatures = hasher.numFeatures();
+		assert (scales.length == numFeatures);
+		weights = new double[numFeatures];
+		intercept = 0d;
+	}
+
+	/**
+	 * Returns an independent copy of the trained parameters (without training state).
+	 * Features and scales are shared, since they're never modified.
+	 */
+	public StochasticLogisticClassifier copy() {
+		StochasticLogisticClassifier duplicate;
+		if (hasher != null) duplicate = new StochasticLogisticClassifier(classLabel, hasher, scales, ridge, learningRate);
+		else duplicate = new StochasticLogisticClassifier(classLabel, features, scales, ridge, learningRate);
+		System.arraycopy(weights, 0, duplicate.weights, 0, numFeatures);
+		duplicate.intercept = intercept;
+		return duplicate;
+	}
+
+	public void setRidge(double ridge) {
+		this.ridge = ridge;
+	}
+
+	public double getRidge() {
+		return ridge;
+	}
+
+	/**
+	 * Sets the intercept, e.g. to give a class with nothing to train on a
+	 * constant prior.
+	 */
+	public void setIntercept(double intercept) {
+		this.intercept = intercept;
+	}
+
+	/**
+	 * Trains on a set of instances held in memory, making repeated passes until the
+	 * penalized objective stops improving by more than <code>tolerance</code> (relative),
+	 * or <code>maxEpochs</code> is reached. Whatever weights the model already has are
+	 * the starting point, so calling this again after <code>setRidge</code> warm-starts
+	 * the fit from the previous solution.
+	 *
+	 * @return The final value of the penalized objective.
+	 */
+	public double fit(ArrayList<FeatureVector> vectors, double[] targets, double[] instanceWeights,
+			int batchSize, int maxEpochs, double tolerance, Random randomGenerator) {
+		int numInstances = vectors.size();
+		int[] order = new int[numInstances];
+		for (int i = 0; i < numInstances; ++i) {
+			order[i] = i;
+		}
+		resetTrainingState();
+		double previous = objective(vectors, targets, instanceWeights);
+		for (int epoch = 0; epoch < maxEpochs; ++epoch) {
+			for (int i = numInstances - 1; i > 0; --i) {
+				int j = randomGenerator.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			for (int i = 0; i < numInstances; ++i) {
+				int h = order[i];
+				accumulate(vectors.get(h), targets[h], instanceWeights[h]);
+				if (batchCount >= batchSize) step(numInstances);
+			}
+			step(numInstances);
+			double current = objective(vectors, targets, instanceWeights);
+			if (Math.abs(previous - current) <= tolerance * Math.abs(previous)) {
+				previous = current;
+				break;
+			}
+			previous = current;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return Weighted mean log loss over the instances, plus this model's share of
+	 * the ridge penalty.
+	 */
+	public double objective(ArrayList<FeatureVector> vectors, double[] targets, double[] instanceWeights) {
+		double sumOfSquares = 0d;
+		for (double w : weights) {
+			sumOfSquares += w * w;
+		}
+		// An empty set has no loss, and the penalty is still per instance.
+		return logLoss(vectors, targets, instanceWeights) + (ridge * sumOfSquares / Math.max(1, vectors.size()));
+	}
+
+	/**
+	 * @return Weighted mean log loss over the instances. Probabilities are clipped
+	 * so that a confident mistake costs a lot, but not infinitely much.
+	 */
+	public double logLoss(ArrayList<FeatureVector> vectors, double[] targets, double[] instanceWeights) {
+		double loss = 0d;
+		double totalWeight = 0d;
+		for (int i = 0; i < vectors.size(); ++i) {
+			double p = predictVector(vectors.get(i));
+			if (p < 1e-15) p = 1e-15;
+			if (p > 1 - 1e-15) p = 1 - 1e-15;
+			loss -= instanceWeights[i] * ((targets[i] * Math.log(p)) + ((1 - targets[i]) * Math.log(1 - p)));
+			totalWeight += instanceWeights[i];
+		}
+		if (totalWeight == 0d) return 0d;
+		return loss / totalWeight;
+	}
+
+	public String getClassLabel() {
+		return classLabel;
+	}
+
+	public ArrayList<String> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * The scales fold into the weights, so this is exact.
+	 */
+	public double linearCoefficients(double[] coefficients) {
+		for (int j = 0; j < numFeatures; ++j) {
+			coefficients[j] = weights[j] * scales[j];
+		}
+		return intercept;
+	}
+
+	public FeatureHasher getHasher() {
+		return hasher;
+	}
+
+	public double predictDocument(Document instance) {
+		if (hasher != null) {
+			return predictVector(FeatureVector.fromHashedDocument(instance));
+		}
+		if (featureIndex == null) {
+			featureIndex = FeatureVector.indexFeatures(features);
+		}
+		return predictVector(FeatureVector.fromDocument(instance, featureIndex));
+	}
+
+	public double predictVector(FeatureVector vector) {
+		return logistic(linearPredictor(vector));
+	}
+
+	public double linearPredictor(FeatureVector vector) {
+		double sum = intercept;
+		int size = vector.size;
+		for (int i = 0; i < size; ++i) {
+			int index = vector.indices[i];
+			sum += weights[index] * scales[index] * vector.values[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds one instance's contribution to the gradient of the current mini-batch.
+	 * Nothing changes in the model until <code>step</code> is called.
+	 *
+	 * @param vector The instance.
+	 * @param target Probability that the instance belongs to the class (usually 0 or 1).
+	 * @param instanceWeight Importance weight for this instance, used to balance classes.
+	 */
+	public void accumulate(FeatureVector vector, double target, double instanceWeight) {
+		if (gradient == null) resetTrainingState();
+		double error = instanceWeight * (logistic(linearPredictor(vector)) - target);
+		int size = vector.size;
+		for (int i = 0; i < size; ++i) {
+			int index = vector.indices[i];
+			gradient[index] += error * scales[index] * vector.values[i];
+		}
+		interceptGradient += error;
+		batchCount += 1;
+	}
+
+	/**
+	 * Applies the accumulated mini-batch gradient, plus the gradient of the ridge
+	 * penalty, and clears the batch.
+	 *
+	 * @param trainingSetSize Number of instances in the whole training set. The ridge
+	 * penalty is spread across instances, so each batch carries its share of it.
+	 */
+	public void step(int trainingSetSize) {
+		if (gradient == null || batchCount == 0) return;
+		double penalty = 2 * ridge / trainingSetSize;
+		for (int j = 0; j < numFeatures; ++j) {
+			double g = (gradient[j] / batchCount) + (penalty * weights[j]);
+			gradient[j] = 0d;
+			if (g == 0d) continue;
+			squaredGradients[j] += g * g;
+			weights[j] -= learningRate * g / (Math.sqrt(squaredGradients[j]) + EPSILON);
+		}
+		double g = interceptGradient / batchCount;
+		squaredInterceptGradients += g * g;
+		intercept -= learningRate * g / (Math.sqrt(squaredInterceptGradients) + EPSILON);
+		interceptGradient = 0d;
+		batchCount = 0;
+	}
+
+	/**
+	 * Clears the AdaGrad history without touching the weights. Useful when a model
+	 * is warm-started under a new objective.
+	 */
+	public void resetTrainingState() {
+		gradient = new double[numFeatures];
+		squaredGradients = new double[numFeatures];
+		interceptGradient = 0d;
+		squaredInterceptGradients = 0d;
+		batchCount = 0;
+	}
+
+	static double logistic(double z) {
+		if (z > 35) return 1d;
+		if (z < -35) return 0d;
+		return 1d / (1d + Math.exp(-z));
+	}
+}
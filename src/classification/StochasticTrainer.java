@@ -0,0 +1,253 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import datasets.ClassMap;
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * Trains one <code>StochasticLogisticClassifier</code> per class by streaming
+ * the whole training collection past all the models at once. Only one document
+ * is held in memory at a time, so the size of the training set is limited by
+ * time rather than heap. Each document is read once per pass and used to update
+ * every class model; it's a positive instance for the classes it belongs to
+ * and a negative instance for the rest.
+ * <p>
+ * Because each model sees the whole collection, negatives vastly outnumber
+ * positives. We reweight instances so that positives and negatives carry equal
+ * total weight, which reproduces the balanced training sets DatePredictor
+ * samples for Weka.
+ *
+ * @author tunderwood
+ *
+ */
+public class StochasticTrainer {
+	ClassMap classMap;
+	PairtreeReader dataReader;
+	ArrayList<String> features;
+	HashSet<String> vocabulary;
+	TermIndex featureIndex;
+	/** Set instead of features to train on hashed features. */
+	FeatureHasher hasher;
+	double ridge;
+	int passes;
+	int batchSize;
+	double learningRate;
+	Random randomGenerator;
+
+	static final int SCALINGSAMPLE = 500;
+	static final int REPORTINTERVAL = 10000;
+
+	/**
+	 * @param classMap Maps volumes to the classes we're training.
+	 * @param dataReader Reads wordcounts for volumes.
+	 * @param features Ordered list of features shared by all models.
+	 * @param ridge Ridge parameter, on the same scale as Weka's.
+	 * @param passes Number of sequential passes over the collection.
+	 * @param batchSize Number of documents per mini-batch.
+	 * @param learningRate Base step size for AdaGrad.
+	 * @param seed Seeds the shuffling of the collection, so runs can be reproduced.
+	 */
+	public StochasticTrainer(ClassMap classMap, PairtreeReader dataReader, ArrayList<String> features,
+			double ridge, int passes, int batchSize, double learningRate, long seed) {
+		this.classMap = classMap;
+		this.dataReader = dataReader;
+		this.features = features;
+		this.ridge = ridge;
+		this.passes = passes;
+		this.batchSize = batchSize;
+		this.learningRate = learningRate;
+		vocabulary = new HashSet<String>(features);
+		featureIndex = FeatureVector.indexFeatures(features);
+		randomGenerator = new Random(seed);
+	}
+
+	/**
+	 * Trains on hashed features instead of a vocabulary, so no vocabulary needs
+	 * to be built first, and the models' size is fixed by the hasher.
+	 */
+	public StochasticTrainer(ClassMap classMap, PairtreeReader dataReader, FeatureHasher hasher,
+			double ridge, int passes, int batchSize, double learningRate, long seed) {
+		this.classMap = classMap;
+		this.dataReader = dataReader;
+		this.hasher = hasher;
+		this.ridge = ridge;
+		this.passes = passes;
+		this.batchSize = batchSize;
+		this.learningRate = learningRate;
+		randomGenerator = new Random(seed);
+	}
+
+	public ArrayList<SupervisedLearner> trainAllClasses() {
+		ArrayList<String> classLabels = classMap.getKnownClasses();
+		int numClasses = classLabels.size();
+
+		// We need to know, for each training volume, the classes it belongs to.
+		// Volumes can belong to more than one class, so we count each volume's
+		// classes and then lay them out contiguously: the classes of training
+		// volume t are classList[classStart[t]] to classList[classStart[t + 1] - 1].
+		int collectionSize = classMap.getNumVolumes();
+		int[] classCounts = new int[collectionSize];
+		int[] positiveCounts = new int[numClasses];
+		for (int c = 0; c < numClasses; ++c) {
+			for (int v : classMap.getMemberIndices(classLabels.get(c))) {
+				classCounts[v] += 1;
+				positiveCounts[c] += 1;
+			}
+		}
+		ArrayList<Volume> trainingVolumes = new ArrayList<Volume>();
+		int[] trainingIndex = new int[collectionSize];
+		int totalMemberships = 0;
+		for (int v = 0; v < collectionSize; ++v) {
+			if (classCounts[v] > 0) {
+				trainingIndex[v] = trainingVolumes.size();
+				trainingVolumes.add(classMap.getVolume(v));
+				totalMemberships += classCounts[v];
+			}
+		}
+		int numVolumes = trainingVolumes.size();
+		int[] classStart = new int[numVolumes + 1];
+		for (int v = 0, t = 0; v < collectionSize; ++v) {
+			if (classCounts[v] > 0) {
+				classStart[t + 1] = classStart[t] + classCounts[v];
+				t += 1;
+			}
+		}
+		int[] classList = new int[totalMemberships];
+		int[] filled = new int[numVolumes];
+		for (int c = 0; c < numClasses; ++c) {
+			for (int v : classMap.getMemberIndices(classLabels.get(c))) {
+				int t = trainingIndex[v];
+				classList[classStart[t] + filled[t]] = c;
+				filled[t] += 1;
+			}
+		}
+		System.out.println("Streaming " + numVolumes + " training volumes past " + numClasses + " models.");
+
+		double[] positiveWeights = new double[numClasses];
+		double[] negativeWeights = new double[numClasses];
+		for (int c = 0; c < numClasses; ++c) {
+			int positives = positiveCounts[c];
+			int negatives = numVolumes - positives;
+			// Each side of the class boundary gets half the total weight.
+			if (positives > 0) positiveWeights[c] = numVolumes / (2d * positives);
+			if (negatives > 0) negativeWeights[c] = numVolumes / (2d * negatives);
+		}
+
+		int[] order = new int[numVolumes];
+		for (int i = 0; i < numVolumes; ++i) {
+			order[i] = i;
+		}
+		shuffle(order);
+
+		double[] scales = estimateScales(trainingVolumes, order);
+		ArrayList<StochasticLogisticClassifier> models = new ArrayList<StochasticLogisticClassifier>(numClasses);
+		for (String label : classLabels) {
+			if (hasher != null) models.add(new StochasticLogisticClassifier(label, hasher, scales, ridge, learningRate));
+			else models.add(new StochasticLogisticClassifier(label, features, scales, ridge, learningRate));
+		}
+
+		boolean[] isMember = new boolean[numClasses];
+		// Time spent updating each class's model, and the instances it has seen.
+		long[] classNanos = new long[numClasses];
+		long[] classInstances = new long[numClasses];
+		Metrics.startPhase("training", (long) passes * numVolumes);
+		for (int pass = 0; pass < passes; ++pass) {
+			System.out.println("Training pass " + (pass + 1) + " of " + passes + ".");
+			if (pass > 0) shuffle(order);
+			int inBatch = 0;
+			int missing = 0;
+			for (int i = 0; i < numVolumes; ++i) {
+				int t = order[i];
+				FeatureVector vector = readVector(trainingVolumes.get(t));
+				if (vector == null) {
+					missing += 1;
+					continue;
+				}
+				for (int k = classStart[t]; k < classStart[t + 1]; ++k) {
+					isMember[classList[k]] = true;
+				}
+				for (int c = 0; c < numClasses; ++c) {
+					long started = System.nanoTime();
+					if (isMember[c]) {
+						isMember[c] = false;
+						models.get(c).accumulate(vector, 1d, positiveWeights[c]);
+					}
+					else {
+						models.get(c).accumulate(vector, 0d, negativeWeights[c]);
+					}
+					classNanos[c] += System.nanoTime() - started;
+					classInstances[c] += 1;
+				}
+				Metrics.advance(1);
+				inBatch += 1;
+				if (inBatch >= batchSize) {
+					for (StochasticLogisticClassifier model : models) {
+						model.step(numVolumes);
+					}
+					inBatch = 0;
+				}
+				if (i % REPORTINTERVAL == REPORTINTERVAL - 1) {
+					System.out.println("  " + (i + 1) + " volumes.");
+				}
+			}
+			// Flush the last, partial batch.
+			for (StochasticLogisticClassifier model : models) {
+				model.step(numVolumes);
+			}
+			if (missing > 0) {
+				WarningLogger.logWarning("Pass " + (pass + 1) + ": " + missing + " training volumes not found.");
+			}
+			for (int c = 0; c < numClasses; ++c) {
+				Metrics.counter("training.nanos", "class", classLabels.get(c)).add(classNanos[c]);
+				Metrics.counter("training.instances", "class", classLabels.get(c)).add(classInstances[c]);
+				classNanos[c] = 0;
+				classInstances[c] = 0;
+			}
+		}
+
+		ArrayList<SupervisedLearner> ensemble = new ArrayList<SupervisedLearner>(numClasses);
+		ensemble.addAll(models);
+		return ensemble;
+	}
+
+	/**
+	 * Standardizes features using a sample from the head of the (shuffled)
+	 * training order.
+	 */
+	private double[] estimateScales(ArrayList<Volume> trainingVolumes, int[] order) {
+		ArrayList<FeatureVector> sample = new ArrayList<FeatureVector>(SCALINGSAMPLE);
+		for (int i = 0; i < order.length & sample.size() < SCALINGSAMPLE; ++i) {
+			FeatureVector vector = readVector(trainingVolumes.get(order[i]));
+			if (vector != null) sample.add(vector);
+		}
+		int numFeatures;
+		if (hasher != null) numFeatures = hasher.numFeatures();
+		else numFeatures = features.size();
+		return FeatureVector.inverseStandardDeviations(sample, numFeatures);
+	}
+
+	/** @return The volume's features, or null if its file wasn't found. */
+	private FeatureVector readVector(Volume vol) {
+		if (hasher != null) {
+			Document doc = dataReader.getHashedDocument(vol, hasher);
+			if (doc.fileNotFound) return null;
+			return FeatureVector.fromHashedDocument(doc);
+		}
+		Document doc = dataReader.getDocument(vol, vocabulary);
+		if (doc.fileNotFound) return null;
+		return FeatureVector.fromDocument(doc, featureIndex);
+	}
+
+	private void shuffle(int[] order) {
+		for (int i = order.length - 1; i > 0; --i) {
+			int j = randomGenerator.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+}
@@ -1,7 +1,28 @@
 package classification;
 
+import java.util.ArrayList;
+
 public abstract class SupervisedLearner {
 	
 	public abstract double predictDocument(Document instance);
+	
+	/**
+	 * @return The words this model reads. Words outside this list don't affect
+	 * its predictions, so readers needn't load them. Null if the model reads
+	 * hashed features, which have no word list.
+	 */
+	public abstract ArrayList<String> getFeatures();
+	
+	/**
+	 * Models whose prediction is the logistic function of a linear function of
+	 * their feature vector can describe themselves by their coefficients, so
+	 * that they can be exported to a compact form. Others can't, and return NaN.
+	 * @param coefficients Receives one coefficient per feature, applied to
+	 * frequencies normalized by wordcount.
+	 * @return The intercept, or NaN if the model isn't linear.
+	 */
+	public double linearCoefficients(double[] coefficients) {
+		return Double.NaN;
+	}
 
 }
@@ -0,0 +1,100 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Maps term ids to positions in a feature list, by open addressing with linear
+ * probing over primitive arrays. Looking up a Document's term ids here avoids
+ * both the boxing and the String hashing of a HashMap&lt;String, Integer&gt;.
+ * <p>
+ * Since term ids come from the Lexicon, a TermIndex is only meaningful within
+ * one JVM. Models that are serialized should mark it transient and rebuild it
+ * from their feature list.
+ *
+ * @author tunderwood
+ *
+ */
+public class TermIndex {
+	static final int EMPTY = -1;
+
+	int[] keys;
+	int[] values;
+	int mask;
+	int shift;
+	int size;
+
+	public TermIndex(int expectedSize) {
+		// Keep the table at most half full, so probe sequences stay short.
+		int capacity = 16;
+		while (capacity < expectedSize * 2) capacity *= 2;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		shift = 32 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * @return An index mapping the id of each feature to its position in the list.
+	 */
+	public static TermIndex forFeatures(ArrayList<String> features) {
+		TermIndex index = new TermIndex(features.size());
+		for (int i = 0; i < features.size(); ++i) {
+			index.put(Lexicon.getId(features.get(i)), i);
+		}
+		return index;
+	}
+
+	public void put(int key, int value) {
+		int slot = slot(key);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size += 1;
+		if (size * 2 > keys.length) grow();
+	}
+
+	/**
+	 * @return The value stored for key, or -1 if it's absent.
+	 */
+	public int get(int key) {
+		int slot = slot(key);
+		while (true) {
+			int found = keys[slot];
+			if (found == key) return values[slot];
+			if (found == EMPTY) return -1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int slot(int key) {
+		// Term ids are dense and sequential, so we scramble them by Fibonacci
+		// hashing and keep the high bits.
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		mask = keys.length - 1;
+		shift = 32 - Integer.numberOfTrailingZeros(keys.length);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package classification;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The arithmetic inner loops of deduplication and scoring: dense dot products,
+ * norms and distances, and sparse vectors against dense coefficient tables.
+ * <p>
+ * There are two implementations. <code>SimdKernels</code> uses the Java Vector
+ * API (<code>jdk.incubator.vector</code>), which compiles to the machine's
+ * widest SIMD instructions; it's only usable when the JVM is started with
+ * <code>--add-modules jdk.incubator.vector</code>. <code>ScalarKernels</code> is
+ * plain Java and always works. <code>get</code> returns the SIMD kernels when
+ * they load, and the scalar ones otherwise, so callers never need to know
+ * which they have. Setting the system property <code>kernels.simd=false</code>
+ * forces the scalar kernels, e.g. for comparison.
+ * <p>
+ * SIMD kernels add in a different order, so results can differ from the
+ * scalar kernels in the last bits.
+ *
+ * @author tunderwood
+ *
+ */
+public abstract class VectorKernels {
+	/**
+	 * Holds the choice, so that it's made on the first call to get rather than
+	 * when this class is initialized. SimdKernels is a subclass; if it were
+	 * initialized first, choosing here would find it half-initialized.
+	 */
+	private static class Chosen {
+		static final VectorKernels INSTANCE = choose();
+	}
+
+	public static VectorKernels get() {
+		return Chosen.INSTANCE;
+	}
+
+	/** @return The scalar kernels, whatever <code>get</code> chose; for benchmarks. */
+	public static VectorKernels scalar() {
+		return new ScalarKernels();
+	}
+
+	/**
+	 * Picks the implementation once, and says which it picked and why: on
+	 * standard output when we get the SIMD kernels or were asked for scalar
+	 * ones, and as a warning when the SIMD kernels were wanted but failed to load.
+	 */
+	private static VectorKernels choose() {
+		if ("false".equals(System.getProperty("kernels.simd"))) {
+			VectorKernels scalar = new ScalarKernels();
+			System.out.println("Using " + scalar.getName() + " kernels, because kernels.simd=false.");
+			return scalar;
+		}
+		Throwable failure;
+		try {
+			Class<?> simd = Class.forName("classification.SimdKernels");
+			VectorKernels kernels = (VectorKernels) simd.getDeclaredConstructor().newInstance();
+			System.out.println("Using " + kernels.getName() + " kernels.");
+			return kernels;
+		}
+		catch (Exception e) {
+			failure = e;
+		}
+		catch (LinkageError e) {
+			failure = e;
+		}
+		// Static initializers fail with their real cause wrapped.
+		if (failure instanceof ExceptionInInitializerError && failure.getCause() != null) {
+			failure = failure.getCause();
+		}
+		String reason = failure.toString();
+		if (failure instanceof NoClassDefFoundError && reason.contains("jdk/incubator/vector")) {
+			reason = "the JVM wasn't started with --add-modules jdk.incubator.vector";
+		}
+		VectorKernels scalar = new ScalarKernels();
+		WarningLogger.logWarning("SIMD kernels unavailable, using " + scalar.getName() + " kernels: " + reason);
+		return scalar;
+	}
+
+	/** @return A name for the implementation, for logs. */
+	public abstract String getName();
+
+	public abstract double dot(double[] a, double[] b);
+
+	/**
+	 * Computes a dot product and both squared norms in one pass over the arrays,
+	 * which is all a cosine similarity needs.
+	 * @param result Receives a &middot; b, a &middot; a, and b &middot; b, in that order.
+	 */
+	public abstract void dotAndSquaredNorms(double[] a, double[] b, double[] result);
+
+	/**
+	 * The same pass, reduced to a cosine similarity without a result array,
+	 * for loops that compare billions of pairs.
+	 * @return a &middot; b over the product of their norms, or 0 if that product
+	 * is less than minimumMagnitude.
+	 */
+	public abstract double cosineSimilarity(double[] a, double[] b, double minimumMagnitude);
+
+	/** @return The squared Euclidean distance between a and b. */
+	public abstract double squaredDistance(double[] a, double[] b);
+
+	/** @return The dot product of a[aOffset, aOffset + length) and b[bOffset, bOffset + length). */
+	public abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+	/**
+	 * Multiplies a sparse vector by a dense table with one row per feature,
+	 * adding the result to out. That is, for each m below width,
+	 * out[m] += sum over k of values[k] * table[rows[k] * width + m].
+	 * Scoring a document against a feature-major ensemble is one call.
+	 * Offsets are ints, so the whole table, in bytes for a buffer, must be
+	 * indexable by one; CompactEnsemble.tableSize and ModelRegistry.write
+	 * refuse tables that aren't.
+	 */
+	public abstract void sparseDot(int[] rows, float[] values, int n, float[] table, int width, float[] out);
+
+	/** As above, for a table of int8 values. */
+	public abstract void sparseDot(int[] rows, float[] values, int n, byte[] table, int width, float[] out);
+
+	/**
+	 * As above, for a table of float32 values in a little-endian ordered buffer,
+	 * e.g. a memory-mapped file. Indices are in floats from the buffer's start,
+	 * and the buffer's position is never moved, so threads may share it.
+	 */
+	public abstract void sparseDotFloat32(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out);
+
+	/** As above, for a table of int8 values held in a buffer. */
+	public abstract void sparseDotInt8(int[] rows, float[] values, int n, ByteBuffer table, int width, float[] out);
+}
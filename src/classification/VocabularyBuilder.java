@@ -0,0 +1,371 @@
+package classification;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * Finds the most frequent words in a collection by reading every volume, in
+ * parallel. Each thread counts into its own table, so threads never contend.
+ * <p>
+ * A table counts exactly until it holds <code>maxTableSize</code> distinct words.
+ * After that it becomes a Space-Saving summary (Metwally, Agrawal and El Abbadi
+ * 2005) of the same size: a word that isn't being tracked replaces the word with
+ * the smallest count and inherits that count. Any word whose true frequency
+ * exceeds total / maxTableSize is guaranteed to be kept, and no count is
+ * overestimated by more than the smallest count in the table.
+ * <p>
+ * The tables are merged into one more table of the same kind and size, so memory
+ * is bounded by (numThreads + 1) * maxTableSize entries, however many volumes we
+ * read. <code>tableSizeForHeap</code> picks a size that keeps that within a
+ * share of the heap. The top k words are selected with a bounded heap. Ties are
+ * broken alphabetically, so the vocabulary doesn't depend on the order in which
+ * threads finish.
+ *
+ * @author tunderwood
+ *
+ */
+public class VocabularyBuilder {
+	static final int DEFAULTTABLESIZE = 2000000;
+	/**
+	 * A generous estimate of the heap one entry costs, counting the word, its
+	 * count, and the hash map or heap that holds them, with room for the moment
+	 * when a full table is copied into its sketch.
+	 */
+	static final long BYTESPERENTRY = 256;
+	/** The share of the heap all the tables together may use. */
+	static final int HEAPFRACTION = 4;
+
+	PairtreeReader reader;
+	int numThreads;
+	int maxTableSize;
+	int approximateTables;
+
+	public VocabularyBuilder(PairtreeReader reader, int numThreads, int maxTableSize) {
+		this.reader = reader;
+		this.numThreads = Math.max(1, numThreads);
+		this.maxTableSize = maxTableSize;
+	}
+
+	/**
+	 * @return A table size that keeps numThreads tables, and the table they're
+	 * merged into, within a quarter of the maximum heap; but no more than
+	 * DEFAULTTABLESIZE, and no less than twice the number of words wanted, or
+	 * the counts near the bottom of the vocabulary would be mostly guesswork.
+	 */
+	public static int tableSizeForHeap(int numThreads, int k) {
+		long budget = Runtime.getRuntime().maxMemory() / HEAPFRACTION;
+		long perTable = budget / ((Math.max(1, numThreads) + 1L) * BYTESPERENTRY);
+		long floor = Math.min(2L * k, DEFAULTTABLESIZE);
+		return (int) Math.max(floor, Math.min(perTable, DEFAULTTABLESIZE));
+	}
+
+	/**
+	 * @param volumes Volumes to count. Volumes whose files can't be read are skipped.
+	 * @param k Number of words to return.
+	 * @return Up to k words, in descending order of frequency.
+	 */
+	public ArrayList<String> topWords(final ArrayList<Volume> volumes, int k) {
+		ArrayList<Callable<CountTable>> tasks = new ArrayList<Callable<CountTable>>(numThreads);
+		for (int t = 0; t < numThreads; ++t) {
+			final int first = t;
+			tasks.add(new Callable<CountTable>() {
+				public CountTable call() {
+					CountTable table = new CountTable(maxTableSize);
+					for (int i = first; i < volumes.size(); i += numThreads) {
+						String[] lines = reader.getLines(volumes.get(i));
+						if (lines == null) continue;
+						for (String line : lines) {
+							int tab = line.indexOf('\t');
+							if (tab < 0) continue;
+							String word = line.substring(0, tab);
+							long count = (long) Double.parseDouble(line.substring(tab + 1));
+							table.add(word, count);
+						}
+					}
+					return table;
+				}
+			});
+		}
+
+		ArrayList<CountTable> tables = new ArrayList<CountTable>(numThreads);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (Future<CountTable> future : executor.invokeAll(tasks)) {
+				tables.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// Each table is let go as soon as it's merged.
+		CountTable merged = new CountTable(maxTableSize);
+		approximateTables = 0;
+		for (int t = 0; t < tables.size(); ++t) {
+			CountTable table = tables.get(t);
+			if (table.isApproximate()) approximateTables += 1;
+			table.addTo(merged);
+			tables.set(t, null);
+		}
+		System.out.println("Total dictionary size: " + merged.size());
+		if (approximateTables > 0 || merged.isApproximate()) {
+			System.out.println("Counts are approximate: " + approximateTables + " of " + numThreads +
+					" tables, and " + (merged.isApproximate() ? "" : "not ") + "the merged table, exceeded " +
+					maxTableSize + " words.");
+		}
+		return selectTop(merged, k);
+	}
+
+	/** @return The number of tables that fell back to Space-Saving in the last call to topWords. */
+	public int getApproximateTables() {
+		return approximateTables;
+	}
+
+	private static ArrayList<String> selectTop(CountTable table, int k) {
+		int numWords = table.size();
+		String[] words = new String[numWords];
+		long[] counts = new long[numWords];
+		table.copyTo(words, counts);
+		if (k > numWords) k = numWords;
+		String[] heapWords = new String[k];
+		long[] heapCounts = new long[k];
+		int heapSize = 0;
+		if (k > 0) {
+			for (int i = 0; i < numWords; ++i) {
+				String word = words[i];
+				long count = counts[i];
+				if (heapSize < k) {
+					heapWords[heapSize] = word;
+					heapCounts[heapSize] = count;
+					siftUp(heapWords, heapCounts, heapSize);
+					heapSize += 1;
+				}
+				else if (ranksHigher(word, count, heapWords[0], heapCounts[0])) {
+					heapWords[0] = word;
+					heapCounts[0] = count;
+					siftDown(heapWords, heapCounts, 0, heapSize);
+				}
+			}
+		}
+		// Pop from weakest to strongest, filling the result from the end.
+		String[] ordered = new String[k];
+		for (int j = k - 1; j >= 0; --j) {
+			ordered[j] = heapWords[0];
+			heapSize -= 1;
+			heapWords[0] = heapWords[heapSize];
+			heapCounts[0] = heapCounts[heapSize];
+			siftDown(heapWords, heapCounts, 0, heapSize);
+		}
+		ArrayList<String> topWords = new ArrayList<String>(k);
+		for (String word : ordered) {
+			topWords.add(word);
+		}
+		return topWords;
+	}
+
+	/** True if word a should be ranked ahead of word b: higher count, then alphabetical. */
+	private static boolean ranksHigher(String a, long countA, String b, long countB) {
+		if (countA != countB) return countA > countB;
+		return a.compareTo(b) < 0;
+	}
+
+	private static void siftUp(String[] words, long[] counts, int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!ranksHigher(words[parent], counts[parent], words[position], counts[position])) break;
+			swap(words, counts, parent, position);
+			position = parent;
+		}
+	}
+
+	private static void siftDown(String[] words, long[] counts, int position, int heapSize) {
+		while (true) {
+			int left = (2 * position) + 1;
+			if (left >= heapSize) break;
+			int weakest = left;
+			int right = left + 1;
+			if (right < heapSize && ranksHigher(words[left], counts[left], words[right], counts[right])) weakest = right;
+			if (!ranksHigher(words[position], counts[position], words[weakest], counts[weakest])) break;
+			swap(words, counts, position, weakest);
+			position = weakest;
+		}
+	}
+
+	private static void swap(String[] words, long[] counts, int a, int b) {
+		String swapWord = words[a];
+		words[a] = words[b];
+		words[b] = swapWord;
+		long swapCount = counts[a];
+		counts[a] = counts[b];
+		counts[b] = swapCount;
+	}
+
+	/**
+	 * One thread's counts: exact until they outgrow maxTableSize, then a
+	 * Space-Saving summary.
+	 */
+	static class CountTable {
+		int maxTableSize;
+		HashMap<String, long[]> exact;
+		SpaceSaving sketch;
+
+		CountTable(int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+			exact = new HashMap<String, long[]>();
+		}
+
+		void add(String word, long count) {
+			if (sketch != null) {
+				sketch.add(word, count);
+				return;
+			}
+			long[] existing = exact.get(word);
+			if (existing != null) {
+				existing[0] += count;
+			}
+			else if (exact.size() < maxTableSize) {
+				exact.put(word, new long[] {count});
+			}
+			else {
+				// The table is full; every word in it moves into the sketch, which
+				// has room for exactly that many.
+				sketch = new SpaceSaving(maxTableSize);
+				for (Map.Entry<String, long[]> entry : exact.entrySet()) {
+					sketch.add(entry.getKey(), entry.getValue()[0]);
+				}
+				exact = null;
+				sketch.add(word, count);
+			}
+		}
+
+		boolean isApproximate() {
+			return sketch != null;
+		}
+
+		int size() {
+			return (sketch != null) ? sketch.size : exact.size();
+		}
+
+		/**
+		 * Adds these counts to another table, which is bounded in the same way;
+		 * Space-Saving summaries can be merged like this and keep their guarantee.
+		 */
+		void addTo(CountTable merged) {
+			if (sketch != null) {
+				for (int i = 0; i < sketch.size; ++i) {
+					merged.add(sketch.words[i], sketch.counts[i]);
+				}
+			}
+			else {
+				for (Map.Entry<String, long[]> entry : exact.entrySet()) {
+					merged.add(entry.getKey(), entry.getValue()[0]);
+				}
+			}
+		}
+
+		/** Copies words and counts into arrays of at least size() elements. */
+		void copyTo(String[] words, long[] counts) {
+			if (sketch != null) {
+				System.arraycopy(sketch.words, 0, words, 0, sketch.size);
+				System.arraycopy(sketch.counts, 0, counts, 0, sketch.size);
+				return;
+			}
+			int i = 0;
+			for (Map.Entry<String, long[]> entry : exact.entrySet()) {
+				words[i] = entry.getKey();
+				counts[i] = entry.getValue()[0];
+				++i;
+			}
+		}
+	}
+
+	/**
+	 * A Space-Saving summary. Counters live in a min-heap on count, and a map
+	 * from each word to its position in the heap lets us find and update a
+	 * word's counter without searching.
+	 */
+	static class SpaceSaving {
+		String[] words;
+		long[] counts;
+		int size;
+		HashMap<String, Integer> positions;
+
+		SpaceSaving(int capacity) {
+			words = new String[capacity];
+			counts = new long[capacity];
+			positions = new HashMap<String, Integer>(capacity * 2);
+		}
+
+		void add(String word, long count) {
+			Integer position = positions.get(word);
+			if (position != null) {
+				counts[position] += count;
+				siftDown(position);
+			}
+			else if (size < words.length) {
+				words[size] = word;
+				counts[size] = count;
+				positions.put(word, size);
+				size += 1;
+				siftUp(size - 1);
+			}
+			else {
+				// Replace the smallest counter. The newcomer inherits its count,
+				// which bounds how far it could have been undercounted.
+				positions.remove(words[0]);
+				words[0] = word;
+				counts[0] += count;
+				positions.put(word, 0);
+				siftDown(0);
+			}
+		}
+
+		private void siftUp(int position) {
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (counts[parent] <= counts[position]) break;
+				exchange(parent, position);
+				position = parent;
+			}
+		}
+
+		private void siftDown(int position) {
+			while (true) {
+				int left = (2 * position) + 1;
+				if (left >= size) break;
+				int smallest = left;
+				int right = left + 1;
+				if (right < size && counts[right] < counts[left]) smallest = right;
+				if (counts[position] <= counts[smallest]) break;
+				exchange(position, smallest);
+				position = smallest;
+			}
+		}
+
+		private void exchange(int a, int b) {
+			String swapWord = words[a];
+			words[a] = words[b];
+			words[b] = swapWord;
+			long swapCount = counts[a];
+			counts[a] = counts[b];
+			counts[b] = swapCount;
+			positions.put(words[a], a);
+			positions.put(words[b], b);
+		}
+	}
+}
@@ -18,14 +18,11 @@ import datasets.Volume;
  * @param documents A list of all the instances included in the corpus.
  */
 public class VolumeCorpus extends Corpus {
-	String classLabel = "__blank__";
-	ArrayList<Volume> volumes;
-	HashSet<String> featuresToLoad;
-	ArrayList<Document> documents;
-	ArrayList<Double> classMembership;
+	// classLabel, volumes, documents, classMembership and numDocuments are
+	// inherited from Corpus. Redeclaring them here used to shadow the fields
+	// that classifiers read through a Corpus reference.
 	ArrayList<Document> positiveInstances;
 	ArrayList<Document> negativeInstances;
-	public int numDocuments;
 	
 	static final int ALLOWEDERRORS = 10;
 	
@@ -47,6 +44,10 @@ public class VolumeCorpus extends Corpus {
 		this.classLabel = classLabel;
 		VolumeReader reader = new VolumeReader(dataPath);
 		classMembership = new ArrayList<Double>();
+		volumes = new ArrayList<Volume>();
+		documents = new ArrayList<Document>();
+		positiveInstances = new ArrayList<Document>();
+		negativeInstances = new ArrayList<Document>();
 		
 		int numberOfErrors = 0;
 		
@@ -29,11 +29,11 @@ public final class WarningLogger {
 		}
 	}
 	
-	public static void addFileNotFound(String file) {
+	public static synchronized void addFileNotFound(String file) {
 		notFound.add(file);
 	}
 	
-	public static void writeFilesNotFound(String path) {
+	public static synchronized void writeFilesNotFound(String path) {
 		LineWriter outFile = new LineWriter(path, false);
 		String[] outLines = new String[notFound.size()];
 		int counter = 0;
@@ -41,5 +41,42 @@ public abstract class ClassMap {
 	 * @return A random selection of n volumes not in aClass.
 	 */
 	public abstract ArrayList<Volume> getSelectedNonmembers(String aClass, int n);
+
+	/**
+	 * @return The label of the special class holding volumes with bad,
+	 * missing, or excluded metadata.
+	 */
+	public String getUnknownClass() {
+		return UNKNOWN;
+	}
+	
+	/**
+	 * @param aClass
+	 * @return The indices of the class's members in the collection, ascending.
+	 * The array is shared, not copied, so callers mustn't modify it.
+	 */
+	public abstract int[] getMemberIndices(String aClass);
+	
+	public abstract int getClassSize(String aClass);
+	
+	/** @return The number of volumes in the collection that was mapped. */
+	public abstract int getNumVolumes();
 	
+	/** @return The volume at a given index, as returned by getMemberIndices. */
+	public abstract Volume getVolume(int index);
+	
+	/** Reseeds the sampler behind takeRandomSample and the nonmember samples. */
+	public abstract void setSeed(long seed);
+	
+	/**
+	 * @return n members of aClass, or all of them if there are no more than n.
+	 */
+	public abstract ArrayList<Volume> takeRandomSample(String aClass, int n);
+	
+	/**
+	 * @return A sample of about n volumes distributed proportionally across all
+	 * classes except aClass, including UNKNOWN.
+	 */
+	public abstract ArrayList<Volume> stratifiedSampleExcept(String aClass, int n);
+
 }
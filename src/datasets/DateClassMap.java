@@ -2,8 +2,7 @@ package datasets;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Random;
-import java.util.Collections;
+import java.util.Arrays;
 import java.lang.Math;
 
 import classification.WarningLogger;
@@ -29,12 +28,25 @@ public class DateClassMap extends ClassMap {
 	Metadata collection;
 	final String UNKNOWN = "__unknown__";
 	public ArrayList<Integer> classLabels;
-	HashMap<String, ArrayList<Volume>> classMembers;
 	String fieldToCheck;
 	int numBins;
 	int binRadius;
-	private Random randomGenerator;
-	ArrayList<Integer> classSizes;
+	int startBinDate;
+	int binSpacing;
+	static final long DEFAULTSEED = 1L;
+	private Sampler sampler;
+	
+	/** The volumes of the collection, as of the last call to mapVolsByMetadata. */
+	ArrayList<Volume> volumes;
+	/** The parsed date of each volume, or -1 where it couldn't be read. */
+	int[] dates;
+	/** For each class, the indices (into volumes) of its members, ascending. The
+	 * UNKNOWN class comes last, after the date bins. */
+	int[][] members;
+	/** Size of each class, in the order of getAllClasses. */
+	int[] classSizes;
+	/** Maps each class label, including UNKNOWN, to its position in members. */
+	HashMap<String, Integer> labelIndex;
 	int totalVolumes;
 
 	/**
@@ -58,6 +70,8 @@ public class DateClassMap extends ClassMap {
 		this.collection = collection;
 		this.fieldToCheck = fieldToCheck;
 		this.binRadius = binRadius;
+		this.startBinDate = startBinDate;
+		this.binSpacing = binSpacing;
 		
 		classLabels = new ArrayList<Integer>();
 		for (int i = startBinDate; i <= endBinDate; i = i + binSpacing) {
@@ -65,7 +79,13 @@ public class DateClassMap extends ClassMap {
 		}
 		numBins = classLabels.size();
 		
-		randomGenerator = new Random();
+		labelIndex = new HashMap<String, Integer>(numBins * 2 + 2);
+		for (int b = 0; b < numBins; ++b) {
+			labelIndex.put(Integer.toString(classLabels.get(b)), b);
+		}
+		labelIndex.put(UNKNOWN, numBins);
+		
+		sampler = new Sampler(DEFAULTSEED);
 	}
 	
 	/**
@@ -73,73 +93,73 @@ public class DateClassMap extends ClassMap {
 	 * to initialize a map of ClassMembers and populate it with
 	 * <code>Volumes</code> matching the criteria for each class. Note that
 	 * volumes can belong to more than one class.
-	 * 
+	 * <p>
+	 * Midpoints are evenly spaced, so the bins containing a date form a range
+	 * we can compute directly. We make two passes: the first counts each class,
+	 * so that the second can fill exactly-sized arrays of volume indices.
 	 */
 	public void mapVolsByMetadata(int allowableStartDate, int allowableEndDate) {
-		// First we initialize the map
-		classMembers = new HashMap<String, ArrayList<Volume>>();
-		for (int midpoint : classLabels) {
-			String label = Integer.toString(midpoint);
-			ArrayList<Volume> emptyList = new ArrayList<Volume>();
-			classMembers.put(label, emptyList);
-		}
-		ArrayList<Volume> emptyList = new ArrayList<Volume>();
-		classMembers.put(UNKNOWN, emptyList);
-		
-		ArrayList<Volume> volumes = collection.getVolumes();
+		volumes = collection.getVolumes();
+		int n = volumes.size();
+		dates = new int[n];
+		int[] firstBins = new int[n];
+		int[] lastBins = new int[n];
+		int[] counts = new int[numBins + 1];
 		
-		for (Volume vol: volumes) {
+		for (int v = 0; v < n; ++v) {
+			Volume vol = volumes.get(v);
 			String value = vol.getValue(fieldToCheck);
+			firstBins[v] = 0;
+			lastBins[v] = -1;
 			if (value == null) {
 				WarningLogger.logWarning("Field " + fieldToCheck + " not found in " + vol.htid);
+				dates[v] = -1;
+				continue;
 			}
 			// Maybe I should actually throw an Exception here.
 			
+			int thisdate = parseDate(value);
+			dates[v] = thisdate;
+			if (thisdate < 0 || thisdate < allowableStartDate || thisdate > allowableEndDate) {
+				// Dates that don't convert to integers, or that fall outside the
+				// allowed range, put their volume in the UNKNOWN class.
+				firstBins[v] = numBins;
+				lastBins[v] = numBins;
+			}
 			else {
-				String firstfour;
-				if (value.length() >= 4) firstfour = value.substring(0, 4);
-				else firstfour = "abcd";
-				
-				if (!isInteger(value) & !isInteger(firstfour)) {
-					classMembers.get(UNKNOWN).add(vol);
-				}
-				// Dates that don't convert to integers put their volume in
-				// the UNKNOWN class.
-				
-				else {
-					int thisdate;
-					if (isInteger(value)) thisdate = Integer.parseInt(value);
-					else thisdate = Integer.parseInt(firstfour);
-					// Convert to integer so you can check < >.
-					
-					// if the date is outside allowed parameters, it's an unknown
-					if (thisdate < allowableStartDate | thisdate > allowableEndDate) {
-						classMembers.get(UNKNOWN).add(vol);
-					}
-					// otherwise, finally, we have an allowable date
-					else {
-						for (int midpoint : classLabels) {
-							if (thisdate >= (midpoint - binRadius) & 
-									thisdate <= (midpoint + binRadius)) {
-								classMembers.get(Integer.toString(midpoint)).add(vol);
-							}
-							// Note that it's entirely possible for a Volume to be a
-							// member of more than one class, since binRadius can exceed
-							// binSpacing / 2.
-						}
-					}
-					
-				}
+				// Bin b contains thisdate when |startBinDate + b * binSpacing - thisdate| <= binRadius.
+				// Note that it's entirely possible for a Volume to be a member of more
+				// than one class, since binRadius can exceed binSpacing / 2.
+				int first = -Math.floorDiv(startBinDate - thisdate + binRadius, binSpacing);
+				int last = Math.floorDiv(thisdate + binRadius - startBinDate, binSpacing);
+				if (first < 0) first = 0;
+				if (last > numBins - 1) last = numBins - 1;
+				firstBins[v] = first;
+				lastBins[v] = last;
+			}
+			for (int b = firstBins[v]; b <= lastBins[v]; ++b) {
+				counts[b] += 1;
 			}
 		}
+		
+		members = new int[numBins + 1][];
+		for (int b = 0; b <= numBins; ++b) {
+			members[b] = new int[counts[b]];
+			counts[b] = 0;
+		}
+		for (int v = 0; v < n; ++v) {
+			for (int b = firstBins[v]; b <= lastBins[v]; ++b) {
+				members[b][counts[b]] = v;
+				counts[b] += 1;
+			}
+		}
+		
 		// Now we create a vector of class sizes reliably mapped to the label
 		// sequence returned by getAllClasses.
-		ArrayList<String> allLabels = getAllClasses();
-		classSizes = new ArrayList<Integer>();
+		classSizes = counts;
 		totalVolumes = 0;
-		for (String label: allLabels) {
-			classSizes.add(getClassSize(label));
-			totalVolumes += getClassSize(label);
+		for (int size : classSizes) {
+			totalVolumes += size;
 		}
 	}
 	
@@ -159,95 +179,234 @@ public class DateClassMap extends ClassMap {
 	}
 	
 	public ArrayList<Volume> getMembers(String aClass) {
-		ArrayList<Volume> members = classMembers.get(aClass);
-		if (members == null) {
+		int[] indices = getMemberIndices(aClass);
+		if (indices == null) return null;
+		ArrayList<Volume> classMembers = new ArrayList<Volume>(indices.length);
+		for (int v : indices) {
+			classMembers.add(volumes.get(v));
+		}
+		return classMembers;
+	}
+	
+	/**
+	 * @param aClass
+	 * @return The indices of the class's members in the collection, ascending.
+	 * The array is shared, not copied, so callers mustn't modify it.
+	 */
+	public int[] getMemberIndices(String aClass) {
+		Integer index = labelIndex.get(aClass);
+		if (index == null) {
 			WarningLogger.logWarning("Class " + aClass + " was not found.");
+			return null;
 		}
-		return members;
+		return members[index];
 	}
 	
 	public int getClassSize(String aClass) {
-		return classMembers.get(aClass).size();
+		Integer index = labelIndex.get(aClass);
+		if (index == null) {
+			WarningLogger.logWarning("Class " + aClass + " was not found.");
+			return 0;
+		}
+		return classSizes[index];
+	}
+	
+	/** @return The number of volumes in the collection that was mapped. */
+	public int getNumVolumes() {
+		return volumes.size();
+	}
+	
+	/** @return The volume at a given index, as returned by getMemberIndices. */
+	public Volume getVolume(int index) {
+		return volumes.get(index);
+	}
+	
+	/** @return The parsed date of the volume at a given index, or -1 if unreadable. */
+	public int getDate(int index) {
+		return dates[index];
+	}
+	
+	/**
+	 * Reseeds the sampler used by takeRandomSample, stratifiedSampleExcept, and
+	 * getSelectedNonmembers. Until this is called the seed is DEFAULTSEED, so
+	 * samples are reproducible either way.
+	 */
+	public void setSeed(long seed) {
+		sampler = new Sampler(seed);
+	}
+	
+	/**
+	 * @return An independent sampling stream, for threads that need to draw
+	 * samples concurrently. Streams are split off in call order, so they're
+	 * deterministic as long as the calls are.
+	 */
+	public Sampler splitSampler() {
+		return sampler.split();
 	}
 	
 	public ArrayList<Volume> takeRandomSample(String aClass, int n) {
-		int classSize = getClassSize(aClass);
-		ArrayList<Volume> members = new ArrayList<Volume>(classMembers.get(aClass));
-		// make a shallow copy to avoid shuffling the underlying list in classMembers
-		
-		if (n >= classSize) return members;
-		else {
-			Collections.shuffle(members);
-			// We're going to sample without replacement. Easiest way to do that
-			// is just to shuffle the list and take the first n items.
-			ArrayList<Volume> selectedMembers = new ArrayList<Volume>();
-			for (int i = 0; i < n; ++i) {
-				selectedMembers.add(members.get(i));
-			}
-			return selectedMembers;
-		}
-		
+		return takeRandomSample(aClass, n, sampler);
+	}
+	
+	/**
+	 * Samples without replacement, at a cost proportional to n rather than to
+	 * the size of the class.
+	 * @return n members of aClass, or all of them if there are no more than n.
+	 */
+	public ArrayList<Volume> takeRandomSample(String aClass, int n, Sampler sampler) {
+		int[] indices = getMemberIndices(aClass);
+		if (indices == null) return new ArrayList<Volume>();
+		if (n >= indices.length) return getMembers(aClass);
+		return volumesAt(sampler.sample(indices, n), -1);
+	}
+	
+	public ArrayList<Volume> stratifiedSampleExcept(String aClass, int n) {
+		return stratifiedSampleExcept(aClass, n, sampler);
 	}
 	
 	/**
 	 * Returns a sample of n volumes distributed proportionally across
 	 * all classes in the dataset except the one specified.
+	 * Bins can overlap, so volumes drawn from other classes that also belong to
+	 * aClass are dropped; in that case the sample can fall slightly short of n.
 	 * @param aClass The class not to include in this sample.
 	 * @param n The total number of volumes to return.
 	 * @return a sample of n volumes distributed proportionally across
 	 * all classes in the dataset except aClass.
 	 */
-	public ArrayList<Volume> stratifiedSampleExcept(String aClass, int n) {
+	public ArrayList<Volume> stratifiedSampleExcept(String aClass, int n, Sampler sampler) {
+		Integer excluded = labelIndex.get(aClass);
 		int excludedVolumes = getClassSize(aClass);
 		int sizeOfClassesSampled = totalVolumes - excludedVolumes;
 		ArrayList<Volume> sample = new ArrayList<Volume>();
-		ArrayList<String> allClasses = getAllClasses();
-		for (String classLabel : allClasses) {
-			int takeFromThisClass = (int) Math.round( n * (getClassSize(classLabel) / (double) sizeOfClassesSampled));
+		if (sizeOfClassesSampled <= 0) return sample;
+		for (int c = 0; c < members.length; ++c) {
+			if (excluded != null && c == excluded) continue;
+			int takeFromThisClass = (int) Math.round( n * (classSizes[c] / (double) sizeOfClassesSampled));
 			// We're getting a stratified sample, so each class should contribute a number of volumes
 			// proportional to its fraction of the total field being sampled.
-			sample.addAll(takeRandomSample(classLabel, takeFromThisClass));
+			if (takeFromThisClass > classSizes[c]) takeFromThisClass = classSizes[c];
+			int[] drawn = sampler.sample(members[c], takeFromThisClass);
+			int exclude = -1;
+			if (excluded != null) exclude = excluded;
+			sample.addAll(volumesAt(drawn, exclude));
 		}
 		return sample;
 	}
 	
-	// following method deprecated -- I believe it uses replacement
+	/**
+	 * Returns n volumes drawn from the date bins other than excludedClass. We
+	 * treat the bins as one population laid end to end, and find each draw's
+	 * bin by binary search over cumulative sizes, so members are never copied.
+	 * Draws are without replacement, except that a volume belonging to two
+	 * bins can be drawn once from each. Volumes that also belong to
+	 * excludedClass are dropped.
+	 */
 	public ArrayList<Volume> getSelectedNonmembers(String excludedClass, int n) {
-		ArrayList<Volume> nonmembers = new ArrayList<Volume>();
-		for (int midpoint : classLabels) {
-			String thisClass = Integer.toString(midpoint);
-			if (thisClass != excludedClass){
-				nonmembers.addAll(getMembers(thisClass));
-			}
+		int[] cumulative = new int[numBins + 1];
+		for (int b = 0; b < numBins; ++b) {
+			int size = members[b].length;
+			if (Integer.toString(classLabels.get(b)).equals(excludedClass)) size = 0;
+			cumulative[b + 1] = cumulative[b] + size;
 		}
+		int total = cumulative[numBins];
 		
-		if (n > nonmembers.size()) {
-			n = nonmembers.size();
+		if (n > total) {
+			n = total;
 			WarningLogger.logWarning("Fewer nonmembers than members in class " + excludedClass);
 		}
 		
-		ArrayList<Volume> selectedMembers = new ArrayList<Volume>();
-		while (selectedMembers.size() < n) {
-			int index = randomGenerator.nextInt(nonmembers.size());
-			selectedMembers.add(nonmembers.get(index));
+		int[] positions = sampler.sampleIndices(total, n);
+		int[] drawn = new int[positions.length];
+		for (int i = 0; i < positions.length; ++i) {
+			// The last bin whose cumulative start is at or below the position.
+			int found = Arrays.binarySearch(cumulative, positions[i]);
+			int bin;
+			if (found >= 0) {
+				// Empty bins share a start with the next bin, so skip forward.
+				bin = found;
+				while (cumulative[bin + 1] == cumulative[bin]) bin += 1;
+			}
+			else bin = -found - 2;
+			drawn[i] = members[bin][positions[i] - cumulative[bin]];
 		}
-		return selectedMembers;
+		Integer excluded = labelIndex.get(excludedClass);
+		int exclude = -1;
+		if (excluded != null) exclude = excluded;
+		return volumesAt(drawn, exclude);
 	}
 	
 	/**
-	 * Very simple static method to test whether a string can be converted
-	 * to an Integer. Borrowed from corsiKlause on StackOverflow.
+	 * @param indices Volume indices.
+	 * @param excludedClass Index of a class whose members should be skipped, or -1.
+	 */
+	private ArrayList<Volume> volumesAt(int[] indices, int excludedClass) {
+		ArrayList<Volume> selected = new ArrayList<Volume>(indices.length);
+		for (int v : indices) {
+			// Member arrays are sorted, so membership is a binary search.
+			if (excludedClass >= 0 && Arrays.binarySearch(members[excludedClass], v) >= 0) continue;
+			selected.add(volumes.get(v));
+		}
+		return selected;
+	}
+	
+	/**
+	 * Converts a date field to an integer. If the whole string isn't an integer,
+	 * we try its first four characters, which rescues values like "1850-1855"
+	 * or "1850?". Parsing never throws, so unreadable dates cost no more than
+	 * readable ones.
+	 * @param value The contents of a date field.
+	 * @return The date, or -1 if neither the string nor its first four characters
+	 * can be read as an integer.
+	 */
+	public static int parseDate(String value) {
+		if (value == null) return -1;
+		long whole = parseInteger(value, 0, value.length());
+		if (whole != NOTANINTEGER) return (int) whole;
+		if (value.length() >= 4) {
+			long firstfour = parseInteger(value, 0, 4);
+			if (firstfour != NOTANINTEGER) return (int) firstfour;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Tests whether a string can be converted to an Integer, accepting exactly
+	 * what Integer.parseInt accepts, but without throwing an exception.
 	 * @param s
 	 * @return boolean value
 	 */
 	public static boolean isInteger(String s) {
-	    try { 
-	        Integer.parseInt(s); 
-	    } catch(NumberFormatException e) { 
-	        return false; 
-	    }
-	    // only got here if we didn't return false
-	    return true;
+		if (s == null) return false;
+		return parseInteger(s, 0, s.length()) != NOTANINTEGER;
+	}
+	
+	private static final long NOTANINTEGER = Long.MIN_VALUE;
+	
+	/**
+	 * Parses characters from (inclusive) to to (exclusive) as a decimal int, with
+	 * an optional sign.
+	 * @return The value, or NOTANINTEGER if the characters aren't an int.
+	 */
+	private static long parseInteger(String s, int from, int to) {
+		if (from >= to) return NOTANINTEGER;
+		boolean negative = false;
+		char first = s.charAt(from);
+		if (first == '-' || first == '+') {
+			negative = (first == '-');
+			from += 1;
+			if (from == to) return NOTANINTEGER;
+		}
+		long value = 0;
+		for (int i = from; i < to; ++i) {
+			int digit = Character.digit(s.charAt(i), 10);
+			if (digit < 0) return NOTANINTEGER;
+			value = (value * 10) + digit;
+			if (value > (long) Integer.MAX_VALUE + 1) return NOTANINTEGER;
+		}
+		if (negative) value = -value;
+		if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) return NOTANINTEGER;
+		return value;
 	}
 
 }
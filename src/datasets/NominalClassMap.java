@@ -0,0 +1,227 @@
+package datasets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import classification.WarningLogger;
+
+/**
+ * Maps a categorical metadata field, such as language, onto classes: one class
+ * for each value that occurs often enough to train a model. Rarer values, and
+ * volumes where the field is missing or empty, go to the UNKNOWN class.
+ * <p>
+ * Unlike date bins, nominal classes never overlap, so every volume belongs to
+ * exactly one class. Membership is stored the same way as in DateClassMap,
+ * as sorted arrays of indices into the collection.
+ *
+ * @author tunderwood
+ *
+ */
+public class NominalClassMap extends ClassMap {
+	static final long DEFAULTSEED = 1L;
+
+	String fieldToCheck;
+	int minClassSize;
+	ArrayList<String> classLabels;
+	int numClasses;
+	private Sampler sampler;
+
+	ArrayList<Volume> volumes;
+	/** The class of each volume; numClasses stands for UNKNOWN. */
+	int[] classOf;
+	/** For each class, the indices of its members, ascending. UNKNOWN comes last. */
+	int[][] members;
+	int[] classSizes;
+	HashMap<String, Integer> labelIndex;
+
+	/**
+	 * @param collection The Metadata to map.
+	 * @param fieldToCheck The field holding category values.
+	 * @param minClassSize Values held by fewer volumes than this are treated
+	 * as UNKNOWN.
+	 */
+	public NominalClassMap(Metadata collection, String fieldToCheck, int minClassSize) {
+		this.collection = collection;
+		this.fieldToCheck = fieldToCheck;
+		this.minClassSize = minClassSize;
+		sampler = new Sampler(DEFAULTSEED);
+	}
+
+	/**
+	 * Assigns every volume in the collection to a class. Classes are the values
+	 * of the field, trimmed, in alphabetical order, so the order doesn't depend
+	 * on the order of the metadata.
+	 */
+	public void mapVolsByMetadata() {
+		volumes = collection.getVolumes();
+		int n = volumes.size();
+		String[] values = new String[n];
+		HashMap<String, int[]> valueCounts = new HashMap<String, int[]>();
+		for (int v = 0; v < n; ++v) {
+			Volume vol = volumes.get(v);
+			String value = vol.getValue(fieldToCheck);
+			if (value == null) {
+				WarningLogger.logWarning("Field " + fieldToCheck + " not found in " + vol.htid);
+				continue;
+			}
+			value = value.trim();
+			if (value.length() == 0) continue;
+			values[v] = value;
+			int[] count = valueCounts.get(value);
+			if (count == null) valueCounts.put(value, new int[] {1});
+			else count[0] += 1;
+		}
+
+		classLabels = new ArrayList<String>();
+		for (String value : valueCounts.keySet()) {
+			if (valueCounts.get(value)[0] >= minClassSize && !value.equals(UNKNOWN)) classLabels.add(value);
+		}
+		Collections.sort(classLabels);
+		numClasses = classLabels.size();
+		labelIndex = new HashMap<String, Integer>(numClasses * 2 + 2);
+		for (int c = 0; c < numClasses; ++c) {
+			labelIndex.put(classLabels.get(c), c);
+		}
+		labelIndex.put(UNKNOWN, numClasses);
+
+		classOf = new int[n];
+		classSizes = new int[numClasses + 1];
+		for (int v = 0; v < n; ++v) {
+			Integer index = null;
+			if (values[v] != null) index = labelIndex.get(values[v]);
+			if (index == null) classOf[v] = numClasses;
+			else classOf[v] = index;
+			classSizes[classOf[v]] += 1;
+		}
+		members = new int[numClasses + 1][];
+		int[] filled = new int[numClasses + 1];
+		for (int c = 0; c <= numClasses; ++c) {
+			members[c] = new int[classSizes[c]];
+		}
+		for (int v = 0; v < n; ++v) {
+			int c = classOf[v];
+			members[c][filled[c]] = v;
+			filled[c] += 1;
+		}
+	}
+
+	@Override
+	public ArrayList<String> getKnownClasses() {
+		return new ArrayList<String>(classLabels);
+	}
+
+	public ArrayList<String> getAllClasses() {
+		ArrayList<String> classes = getKnownClasses();
+		classes.add(UNKNOWN);
+		return classes;
+	}
+
+	public ArrayList<Volume> getMembers(String aClass) {
+		int[] indices = getMemberIndices(aClass);
+		if (indices == null) return null;
+		return volumesAt(indices);
+	}
+
+	public int[] getMemberIndices(String aClass) {
+		Integer index = labelIndex.get(aClass);
+		if (index == null) {
+			WarningLogger.logWarning("Class " + aClass + " was not found.");
+			return null;
+		}
+		return members[index];
+	}
+
+	public int getClassSize(String aClass) {
+		Integer index = labelIndex.get(aClass);
+		if (index == null) {
+			WarningLogger.logWarning("Class " + aClass + " was not found.");
+			return 0;
+		}
+		return classSizes[index];
+	}
+
+	public int getNumVolumes() {
+		return volumes.size();
+	}
+
+	public Volume getVolume(int index) {
+		return volumes.get(index);
+	}
+
+	/** @return The class of the volume at a given index, or UNKNOWN. */
+	public String getClassOf(int index) {
+		if (classOf[index] == numClasses) return UNKNOWN;
+		return classLabels.get(classOf[index]);
+	}
+
+	public void setSeed(long seed) {
+		sampler = new Sampler(seed);
+	}
+
+	public ArrayList<Volume> takeRandomSample(String aClass, int n) {
+		int[] indices = getMemberIndices(aClass);
+		if (indices == null) return new ArrayList<Volume>();
+		if (n >= indices.length) return volumesAt(indices);
+		return volumesAt(sampler.sample(indices, n));
+	}
+
+	/**
+	 * Classes don't overlap, so the sample is never short of n for that reason;
+	 * it can still differ from n by rounding.
+	 */
+	public ArrayList<Volume> stratifiedSampleExcept(String aClass, int n) {
+		Integer excluded = labelIndex.get(aClass);
+		int sizeOfClassesSampled = volumes.size() - getClassSize(aClass);
+		ArrayList<Volume> sample = new ArrayList<Volume>();
+		if (sizeOfClassesSampled <= 0) return sample;
+		for (int c = 0; c <= numClasses; ++c) {
+			if (excluded != null && c == excluded) continue;
+			int takeFromThisClass = (int) Math.round(n * (classSizes[c] / (double) sizeOfClassesSampled));
+			if (takeFromThisClass > classSizes[c]) takeFromThisClass = classSizes[c];
+			sample.addAll(volumesAt(sampler.sample(members[c], takeFromThisClass)));
+		}
+		return sample;
+	}
+
+	/**
+	 * @return n volumes drawn uniformly, without replacement, from the known
+	 * classes other than excludedClass.
+	 */
+	public ArrayList<Volume> getSelectedNonmembers(String excludedClass, int n) {
+		int[] cumulative = new int[numClasses + 1];
+		for (int c = 0; c < numClasses; ++c) {
+			int size = members[c].length;
+			if (classLabels.get(c).equals(excludedClass)) size = 0;
+			cumulative[c + 1] = cumulative[c] + size;
+		}
+		int total = cumulative[numClasses];
+		if (n > total) {
+			n = total;
+			WarningLogger.logWarning("Fewer nonmembers than members in class " + excludedClass);
+		}
+		int[] positions = sampler.sampleIndices(total, n);
+		int[] drawn = new int[positions.length];
+		for (int i = 0; i < positions.length; ++i) {
+			int found = Arrays.binarySearch(cumulative, positions[i]);
+			int c;
+			if (found >= 0) {
+				// Empty classes share a start with the next class, so skip forward.
+				c = found;
+				while (cumulative[c + 1] == cumulative[c]) c += 1;
+			}
+			else c = -found - 2;
+			drawn[i] = members[c][positions[i] - cumulative[c]];
+		}
+		return volumesAt(drawn);
+	}
+
+	private ArrayList<Volume> volumesAt(int[] indices) {
+		ArrayList<Volume> selected = new ArrayList<Volume>(indices.length);
+		for (int v : indices) {
+			selected.add(volumes.get(v));
+		}
+		return selected;
+	}
+}
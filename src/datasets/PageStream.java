@@ -0,0 +1,131 @@
+package datasets;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import classification.Document;
+import classification.Lexicon;
+import classification.WarningLogger;
+
+/**
+ * Reads a volume's page-level wordcounts one page at a time. The file has three
+ * tab-separated columns, page number, word, and count, with each page's lines
+ * contiguous. Only the current page is held in memory, so a volume of any
+ * length can be processed in the space of its longest page.
+ * <p>
+ * A page whose lines aren't contiguous comes back as more than one Document;
+ * we log a warning when page numbers go backwards.
+ *
+ * @author tunderwood
+ *
+ */
+public class PageStream {
+	Volume vol;
+	HashSet<String> featuresToLoad;
+	boolean loadAll;
+	String path;
+	BufferedReader reader;
+	/** The first line of the next page, read while finishing the last one. */
+	String pendingLine;
+	int lastPage = Integer.MIN_VALUE;
+	int pagesRead;
+	int[] termIds = new int[256];
+	float[] counts = new float[256];
+
+	PageStream(String path, Volume vol, HashSet<String> featuresToLoad) throws InputFileException {
+		this.path = path;
+		this.vol = vol;
+		this.featuresToLoad = featuresToLoad;
+		loadAll = (featuresToLoad.size() < 1);
+		try {
+			reader = new BufferedReader(new FileReader(path));
+		}
+		catch (FileNotFoundException e) {
+			throw new InputFileException("PageStream cannot open " + path, e);
+		}
+	}
+
+	/**
+	 * @return The next page, or null when the volume is exhausted. A page whose
+	 * words are all outside the feature set still comes back, with no terms.
+	 */
+	public Document nextPage() {
+		if (reader == null) return null;
+		int page = 0;
+		int numTerms = 0;
+		boolean started = false;
+		try {
+			while (true) {
+				String line = pendingLine;
+				pendingLine = null;
+				if (line == null) line = reader.readLine();
+				if (line == null) {
+					close();
+					break;
+				}
+				int firstTab = line.indexOf('\t');
+				int secondTab = line.indexOf('\t', firstTab + 1);
+				if (firstTab < 0 || secondTab < 0) {
+					WarningLogger.logWarning("Malformed line in " + path + ": " + line);
+					continue;
+				}
+				int thisPage = Integer.parseInt(line.substring(0, firstTab));
+				if (!started) {
+					started = true;
+					page = thisPage;
+					if (page < lastPage) WarningLogger.logWarning("Pages out of order in " + path + " at page " + page);
+				}
+				else if (thisPage != page) {
+					pendingLine = line;
+					break;
+				}
+				String word = line.substring(firstTab + 1, secondTab);
+				if (!loadAll && !featuresToLoad.contains(word)) continue;
+				if (numTerms == termIds.length) {
+					termIds = Arrays.copyOf(termIds, numTerms * 2);
+					counts = Arrays.copyOf(counts, numTerms * 2);
+				}
+				termIds[numTerms] = Lexicon.getId(word);
+				counts[numTerms] = Float.parseFloat(line.substring(secondTab + 1));
+				numTerms += 1;
+			}
+		}
+		catch (IOException e) {
+			WarningLogger.logWarning("Error reading " + path + ": " + e);
+			close();
+		}
+		catch (NumberFormatException e) {
+			WarningLogger.logWarning("Bad number in " + path + ": " + e.getMessage());
+			close();
+		}
+		if (!started) return null;
+		lastPage = page;
+		pagesRead += 1;
+		// The Document copies the arrays, so we can reuse them for the next page.
+		return new Document(termIds, counts, numTerms, vol, page);
+	}
+
+	/** @return The number of pages returned so far. */
+	public int getPagesRead() {
+		return pagesRead;
+	}
+
+	public Volume getVolume() {
+		return vol;
+	}
+
+	public void close() {
+		if (reader == null) return;
+		try {
+			reader.close();
+		}
+		catch (IOException e) {
+			WarningLogger.logWarning("Error closing " + path + ": " + e);
+		}
+		reader = null;
+	}
+}
@@ -7,6 +7,9 @@ import java.util.ArrayList;
 import java.io.File;
 
 import classification.Document;
+import classification.FeatureHasher;
+import classification.Lexicon;
+import classification.Metrics;
 import classification.Pairtree;
 import classification.WarningLogger;
 
@@ -24,6 +27,13 @@ public class PairtreeReader {
 	}
 	
 	private String getPairtreePath(Volume vol) {
+		return getPairtreePath(vol, ".vol.tsv");
+	}
+	
+	/**
+	 * @param suffix ".vol.tsv" for volume wordcounts, ".pg.tsv" for page wordcounts.
+	 */
+	private String getPairtreePath(Volume vol, String suffix) {
 		String dirtyID = vol.htid;
 		int periodIndex = dirtyID.indexOf(".");
 		String prefix = dirtyID.substring(0, periodIndex);
@@ -33,10 +43,59 @@ public class PairtreeReader {
 		String ppath = pairtree.mapToPPath(pathPart);
 		String encapsulatingDirectory = pairtree.cleanId(pathPart);
 		String wholePath = dataPath + prefix + "/pairtree_root/" + ppath + "/"+ encapsulatingDirectory + 
-				"/" + encapsulatingDirectory + ".vol.tsv";
+				"/" + encapsulatingDirectory + suffix;
 		return wholePath;
 	}
 	
+	/**
+	 * Reads the raw lines (word, tab, count) of a volume's wordcount file, without
+	 * building a Document. Safe to call from several threads at once.
+	 * @param vol
+	 * @return The lines of the file, or null if it couldn't be read.
+	 */
+	public String[] getLines(Volume vol) {
+		String path = getPairtreePath(vol);
+		LineReader reader = new LineReader(path);
+		long started = System.nanoTime();
+		try {
+			String[] filelines = reader.readlines();
+			recordRead(filelines, started);
+			return filelines;
+		}
+		catch (InputFileException e) {
+			recordMiss();
+			WarningLogger.addFileNotFound(path);
+			System.out.println("File not found: " + path);
+			return null;
+		}
+	}
+	
+	/**
+	 * Counts a file read, and the time taken to read and parse it, in the
+	 * metrics registry. Bytes are counted as characters plus line ends, which is
+	 * close enough for throughput without asking the file system again.
+	 */
+	private static void recordRead(String[] filelines, long started) {
+		long bytes = 0;
+		for (String line : filelines) {
+			bytes += line.length() + 1;
+		}
+		Metrics.counter("reader.files").increment();
+		Metrics.counter("reader.bytes").add(bytes);
+		Metrics.histogram("reader.parse").recordSince(started);
+	}
+	
+	private static void recordMiss() {
+		Metrics.counter("reader.misses").increment();
+	}
+	
+	/**
+	 * @return The size of a volume's wordcount file in bytes, or 0 if it doesn't exist.
+	 */
+	public long getFileLength(Volume vol) {
+		return new File(getPairtreePath(vol)).length();
+	}
+	
 	public Document getDocument(Volume vol, HashSet<String> featuresToLoad) {
 		String path = getPairtreePath(vol);
 		LineReader reader = new LineReader(path);
@@ -47,31 +106,90 @@ public class PairtreeReader {
 			loadAll = true;
 		}
 		
-		HashMap<String, Double> wordcounts = new HashMap<String, Double>();
+		int[] termIds = new int[0];
+		float[] counts = new float[0];
+		int numTerms = 0;
 		boolean fileFound = false;
+		long started = System.nanoTime();
 		
 		try {
 			String filelines[] = reader.readlines();
+			termIds = new int[filelines.length];
+			counts = new float[filelines.length];
 
 			for (String line : filelines){
 				String[] tokens = line.split("\t");
 				String word = tokens[0];
 				if (featuresToLoad.contains(word) | loadAll) {
-					Double count = Double.parseDouble(tokens[1]);
-					wordcounts.put(word, count);
+					termIds[numTerms] = Lexicon.getId(word);
+					counts[numTerms] = Float.parseFloat(tokens[1]);
+					numTerms += 1;
 				}
 			}
 			fileFound = true;	
+			recordRead(filelines, started);
 		}
 		catch (InputFileException e) {
+			recordMiss();
 			WarningLogger.addFileNotFound(path);
 			System.out.println("File not found: " + path);
 			fileFound = false;
 		}
-		Document newInstance = new Document(wordcounts, vol, fileFound);
+		Document newInstance = new Document(termIds, counts, numTerms, vol, fileFound);
 		return newInstance;
 	}
 	
+	/**
+	 * Reads a volume with hashed features: every word is mapped to a position by
+	 * the hasher as it's read, so no vocabulary is consulted and the Lexicon
+	 * doesn't grow. The Document's word count includes every word in the file.
+	 * @param vol
+	 * @param hasher Maps words to signed positions.
+	 * @return A hashed Document, flagged fileNotFound if the file couldn't be read.
+	 */
+	public Document getHashedDocument(Volume vol, FeatureHasher hasher) {
+		String[] filelines = getLines(vol);
+		if (filelines == null) return new Document(new int[0], new float[0], 0, vol, false);
+		int[] positions = new int[filelines.length];
+		float[] values = new float[filelines.length];
+		int numTerms = 0;
+		double numWords = 0d;
+		for (String line : filelines) {
+			int tab = line.indexOf('\t');
+			if (tab < 0) continue;
+			float count = Float.parseFloat(line.substring(tab + 1));
+			int hash = hasher.hash(line.substring(0, tab));
+			positions[numTerms] = hasher.position(hash);
+			values[numTerms] = hasher.sign(hash) * count;
+			numTerms += 1;
+			numWords += count;
+		}
+		return new Document(positions, values, numTerms, vol, numWords);
+	}
+	
+	/**
+	 * Opens a volume's page-level wordcounts for streaming. Pages are read one at
+	 * a time, so memory doesn't grow with the length of the volume. The caller
+	 * must close the stream.
+	 * @param vol
+	 * @param featuresToLoad Words to keep; if empty, all words are kept.
+	 * @return A stream of page Documents, or null if the file can't be opened.
+	 */
+	public PageStream getPageStream(Volume vol, HashSet<String> featuresToLoad) {
+		String path = getPairtreePath(vol, ".pg.tsv");
+		try {
+			PageStream stream = new PageStream(path, vol, featuresToLoad);
+			Metrics.counter("reader.files").increment();
+			return stream;
+		}
+		catch (InputFileException e) {
+			recordMiss();
+			WarningLogger.addFileNotFound(path);
+			System.out.println("File not found: " + path);
+			return null;
+		}
+	}
+	
 	/**
 	 * This method gets a list of Document objects using the pairtree paths implied by volume IDs in
 	 * a list of Volume objects. It stores wordcounts in the Documents as a map of words -> double 
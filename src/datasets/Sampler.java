@@ -0,0 +1,128 @@
+package datasets;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draws samples without replacement, at a cost proportional to the size of the
+ * sample rather than the population. Small samples use Floyd's algorithm with a
+ * primitive hash set; samples that approach the size of the population use a
+ * partial Fisher-Yates shuffle.
+ * <p>
+ * A Sampler is seeded, so runs can be reproduced. It isn't threadsafe; give each
+ * thread its own stream with <code>split</code>. Streams split in the same order
+ * from the same seed produce the same samples, however threads are scheduled.
+ *
+ * @author tunderwood
+ *
+ */
+public class Sampler {
+	SplittableRandom random;
+
+	public Sampler(long seed) {
+		random = new SplittableRandom(seed);
+	}
+
+	private Sampler(SplittableRandom random) {
+		this.random = random;
+	}
+
+	/**
+	 * @return A new Sampler whose stream is independent of this one's.
+	 */
+	public Sampler split() {
+		return new Sampler(random.split());
+	}
+
+	public int nextInt(int bound) {
+		return random.nextInt(bound);
+	}
+
+	/**
+	 * @param n Size of the population.
+	 * @param k Size of the sample; if it exceeds n, the whole population is returned.
+	 * @return k distinct integers from 0 to n - 1, in random order.
+	 */
+	public int[] sampleIndices(int n, int k) {
+		if (k > n) k = n;
+		if (k <= 0) return new int[0];
+		int[] sample = new int[k];
+
+		if (k * 2 >= n) {
+			// Most of the population is wanted anyway, so shuffle the first k
+			// positions of an identity array.
+			int[] population = new int[n];
+			for (int i = 0; i < n; ++i) {
+				population[i] = i;
+			}
+			for (int i = 0; i < k; ++i) {
+				int j = i + random.nextInt(n - i);
+				int swap = population[i];
+				population[i] = population[j];
+				population[j] = swap;
+			}
+			System.arraycopy(population, 0, sample, 0, k);
+			return sample;
+		}
+
+		// Floyd's algorithm: for j from n - k to n - 1, choose t in [0, j]; take t
+		// unless we already have it, in which case take j, which we can't have.
+		IntSet chosen = new IntSet(k);
+		int count = 0;
+		for (int j = n - k; j < n; ++j) {
+			int t = random.nextInt(j + 1);
+			if (chosen.add(t)) sample[count] = t;
+			else {
+				chosen.add(j);
+				sample[count] = j;
+			}
+			count += 1;
+		}
+		// Floyd's selects a uniform set, but not in uniform order.
+		for (int i = k - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int swap = sample[i];
+			sample[i] = sample[j];
+			sample[j] = swap;
+		}
+		return sample;
+	}
+
+	/**
+	 * @return k distinct elements of population, in random order.
+	 */
+	public int[] sample(int[] population, int k) {
+		int[] positions = sampleIndices(population.length, k);
+		for (int i = 0; i < positions.length; ++i) {
+			positions[i] = population[positions[i]];
+		}
+		return positions;
+	}
+
+	/**
+	 * A set of non-negative ints, by open addressing with linear probing.
+	 */
+	private static class IntSet {
+		int[] slots;
+		int mask;
+
+		IntSet(int expectedSize) {
+			int capacity = 16;
+			while (capacity < expectedSize * 2) capacity *= 2;
+			slots = new int[capacity];
+			Arrays.fill(slots, -1);
+			mask = capacity - 1;
+		}
+
+		/** @return True if value wasn't already in the set. */
+		boolean add(int value) {
+			int slot = (value * 0x9E3779B9) & mask;
+			while (slots[slot] != -1) {
+				if (slots[slot] == value) return false;
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = value;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package datasets;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import classification.DatePredictor;
+import classification.Metrics;
+import classification.Pairtree;
+
+/**
+ * Writes a synthetic collection in the same formats as the real one, for
+ * benchmarks and scaling tests that can't use HathiTrust data: volume
+ * wordcounts in a pairtree, a Taub metadata table, and the sparse tables and
+ * feature list that Deduplicate reads.
+ * <p>
+ * Word frequencies follow Zipf's law over a vocabulary of function words and
+ * pronounceable nonsense, and drift with date: apart from the commonest words,
+ * each word has a slope that makes it rise or fall across the period, so date
+ * can be predicted from the text, as it can from real books. Volume length is
+ * log-normal.
+ * <p>
+ * The mess in real collections is planted deliberately, at configurable rates:
+ * <ul>
+ * <li>Dirty dates, e.g. "1850?", "[1850]", "185-", "18--", "1850-1855", "n.d.".
+ * The clean date is kept in a <code>truedate</code> column, for evaluation.</li>
+ * <li>Multi-volume records, whose volumes share a record ID, author and title.</li>
+ * <li>Reprints, which copy an earlier volume's text with a little noise under a
+ * new record, and collected editions, which put a whole multi-volume record in
+ * one volume. Both are listed in <code>duplicates.tsv</code>.</li>
+ * <li>Volumes that are in the metadata but whose wordcount file is missing.
+ * They're still in the dedup tables, which are extracted separately.</li>
+ * </ul>
+ * Output is the same for a given seed, however many threads write it. Memory
+ * doesn't grow with the number of volumes: a duplicate regenerates its source's
+ * text from a seed rather than keeping it, so 10 million volumes are limited
+ * only by disk.
+ *
+ * @author tunderwood
+ *
+ */
+public class SyntheticCorpus {
+	static final String[] FUNCTIONWORDS = {"the", "of", "and", "to", "a", "in", "that", "he", "was", "it",
+		"his", "is", "with", "as", "i", "had", "for", "her", "not", "be", "but", "at", "on", "by", "she",
+		"which", "you", "have", "all", "from", "this", "him", "they", "were", "so", "my", "said", "one",
+		"or", "me", "their", "would", "there", "an", "no", "been", "when", "we", "what", "if"};
+	static final String[] ONSETS = {"b", "c", "d", "f", "g", "h", "l", "m", "n", "p", "r", "s", "t", "v",
+		"w", "br", "ch", "cl", "dr", "gr", "pl", "pr", "sh", "st", "th", "tr"};
+	static final String[] VOWELS = {"a", "e", "i", "o", "u", "ea", "ou", "ai"};
+	static final String[] CODAS = {"", "", "", "n", "r", "s", "t", "l", "nd", "st", "ck", "ng"};
+
+	/** Words this common get an expected count of their own in every volume; rarer words are sampled. */
+	static final int HEAD = 2000;
+	/** The commonest words don't drift. */
+	static final int STABLE = 100;
+	static final double DRIFT = 0.8;
+	/**
+	 * Each text's own use of the common words, as a log-normal factor on each.
+	 * Without it every book would have the same profile of function words, and
+	 * deduplication would find them all alike.
+	 */
+	static final double STYLE = 0.4;
+	static final double LENGTHSPREAD = 0.6;
+	static final int MINWORDS = 2000;
+	/** Reprints differ from their source by this much noise in each count. */
+	static final double REPRINTNOISE = 0.03;
+	static final int BATCH = 1000;
+	/** How far back a reprint or collected edition can reach for its source. */
+	static final int RECENT = 5000;
+
+	String outputFolder;
+	int numVolumes;
+	int vocabularySize;
+	int medianWords;
+	double missingFraction;
+	double dirtyFraction;
+	double duplicateFraction;
+	double multiVolumeFraction;
+	int numDedupFeatures;
+	int volumesPerTable;
+	String prefix;
+	long seed;
+	int startDate;
+	int endDate;
+	int numThreads;
+
+	ArrayList<String> vocabulary;
+	/** For each decade, the probability of each of the HEAD commonest words. */
+	double[][] headProbabilities;
+	/**
+	 * For each decade, an alias table for the rest (Walker's method, which
+	 * samples in constant time, where a binary search of 50,000 cumulative
+	 * probabilities misses cache at every step), and their share of all words.
+	 */
+	double[][] tailThresholds;
+	int[][] tailAliases;
+	double[] tailMass;
+	Pairtree pairtree = new Pairtree();
+
+	/** A run of text: everything needed to regenerate its wordcounts. */
+	static class Text {
+		long seed;
+		int date;
+		int words;
+
+		Text(long seed, int date, int words) {
+			this.seed = seed;
+			this.date = date;
+			this.words = words;
+		}
+	}
+
+	/** A volume, planned before its wordcounts are generated. */
+	static class Plan {
+		String htid;
+		String recordID;
+		String author;
+		String title;
+		int trueDate;
+		String date;
+		boolean missing;
+		ArrayList<Text> texts = new ArrayList<Text>(1);
+		/** Nonzero for a reprint, whose counts get noise. */
+		long noiseSeed;
+		String kind;
+		String source;
+	}
+
+	/** What generating a volume produces for the tables written in order. */
+	static class Generated {
+		long totalWords;
+		String sparseLines;
+	}
+
+	public SyntheticCorpus(String outputFolder, int numVolumes, HashMap<String, String> options) {
+		this.outputFolder = outputFolder;
+		this.numVolumes = numVolumes;
+		vocabularySize = Integer.parseInt(DatePredictor.getOption(options, "vocabulary", "50000"));
+		medianWords = Integer.parseInt(DatePredictor.getOption(options, "words", "80000"));
+		missingFraction = Double.parseDouble(DatePredictor.getOption(options, "missing", "0.01"));
+		dirtyFraction = Double.parseDouble(DatePredictor.getOption(options, "dirtydates", "0.1"));
+		duplicateFraction = Double.parseDouble(DatePredictor.getOption(options, "duplicates", "0.02"));
+		multiVolumeFraction = Double.parseDouble(DatePredictor.getOption(options, "multivolume", "0.05"));
+		numDedupFeatures = Integer.parseInt(DatePredictor.getOption(options, "features", "105"));
+		volumesPerTable = Integer.parseInt(DatePredictor.getOption(options, "tablesize", "100000"));
+		prefix = DatePredictor.getOption(options, "prefix", "syn");
+		seed = Long.parseLong(DatePredictor.getOption(options, "seed", "1"));
+		startDate = Integer.parseInt(DatePredictor.getOption(options, "startdate", "1800"));
+		endDate = Integer.parseInt(DatePredictor.getOption(options, "enddate", "1899"));
+		numThreads = Integer.parseInt(DatePredictor.getOption(options, "threads",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		vocabularySize = Math.max(vocabularySize, Math.max(HEAD + 1, numDedupFeatures));
+		buildVocabulary();
+		buildDistributions();
+	}
+
+	/**
+	 * Function words first, then invented words, which get longer as they get
+	 * rarer, as real words do.
+	 */
+	void buildVocabulary() {
+		vocabulary = new ArrayList<String>(vocabularySize);
+		HashSet<String> seen = new HashSet<String>();
+		for (String word : FUNCTIONWORDS) {
+			if (vocabulary.size() < vocabularySize && seen.add(word)) vocabulary.add(word);
+		}
+		Random random = new Random(seed);
+		while (vocabulary.size() < vocabularySize) {
+			int syllables = 1 + (int) (Math.log(vocabulary.size()) / Math.log(20)) + random.nextInt(2);
+			StringBuilder word = new StringBuilder();
+			for (int s = 0; s < syllables; ++s) {
+				word.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+			}
+			word.append(CODAS[random.nextInt(CODAS.length)]);
+			if (seen.add(word.toString())) vocabulary.add(word.toString());
+		}
+	}
+
+	/**
+	 * Word probabilities for each decade of the period: Zipf's law, tilted by
+	 * each word's drift toward the beginning or end of the period.
+	 */
+	void buildDistributions() {
+		Random random = new Random(seed + 1);
+		double[] slopes = new double[vocabularySize];
+		for (int r = STABLE; r < vocabularySize; ++r) {
+			slopes[r] = DRIFT * random.nextGaussian();
+		}
+		int numDecades = (endDate - startDate) / 10 + 1;
+		double middle = (startDate + endDate) / 2d;
+		double halfSpan = Math.max(1d, (endDate - startDate) / 2d);
+		headProbabilities = new double[numDecades][HEAD];
+		tailThresholds = new double[numDecades][];
+		tailAliases = new int[numDecades][];
+		tailMass = new double[numDecades];
+		for (int d = 0; d < numDecades; ++d) {
+			double position = (startDate + 10 * d + 5 - middle) / halfSpan;
+			double[] weights = new double[vocabularySize];
+			double total = 0d;
+			for (int r = 0; r < vocabularySize; ++r) {
+				weights[r] = Math.exp(slopes[r] * position) / (r + 1);
+				total += weights[r];
+			}
+			for (int r = 0; r < HEAD; ++r) {
+				headProbabilities[d][r] = weights[r] / total;
+			}
+			double tailTotal = 0d;
+			for (int r = HEAD; r < vocabularySize; ++r) {
+				tailTotal += weights[r];
+			}
+			tailMass[d] = tailTotal / total;
+			buildAliasTable(Arrays.copyOfRange(weights, HEAD, vocabularySize), tailTotal, d);
+		}
+	}
+
+	/**
+	 * Vose's construction: each slot holds one word's share, up to the average,
+	 * and is topped up by an alias taken from a word with more than its share.
+	 */
+	private void buildAliasTable(double[] weights, double total, int decade) {
+		int n = weights.length;
+		double[] thresholds = new double[n];
+		int[] aliases = new int[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int i = 0; i < n; ++i) {
+			thresholds[i] = weights[i] * n / total;
+			aliases[i] = i;
+			if (thresholds[i] < 1d) small[numSmall++] = i;
+			else large[numLarge++] = i;
+		}
+		while (numSmall > 0 && numLarge > 0) {
+			int less = small[--numSmall];
+			int more = large[--numLarge];
+			aliases[less] = more;
+			thresholds[more] -= 1d - thresholds[less];
+			if (thresholds[more] < 1d) small[numSmall++] = more;
+			else large[numLarge++] = more;
+		}
+		// Whatever is left over is a rounding error away from exactly 1.
+		while (numLarge > 0) thresholds[large[--numLarge]] = 1d;
+		while (numSmall > 0) thresholds[small[--numSmall]] = 1d;
+		tailThresholds[decade] = thresholds;
+		tailAliases[decade] = aliases;
+	}
+
+	/**
+	 * Writes the whole collection.
+	 */
+	public void generate() throws IOException, InterruptedException {
+		File dataFolder = new File(outputFolder, "data");
+		File tableFolder = new File(outputFolder, "dedup");
+		dataFolder.mkdirs();
+		tableFolder.mkdirs();
+
+		String[] featureLines = new String[numDedupFeatures];
+		for (int i = 0; i < numDedupFeatures; ++i) {
+			featureLines[i] = vocabulary.get(i);
+		}
+		BufferedWriter features = writer(new File(outputFolder, "dedupfeatures.txt"));
+		for (String line : featureLines) {
+			features.write(line + "\n");
+		}
+		features.close();
+
+		BufferedWriter metadata = writer(new File(outputFolder, "metadata.tsv"));
+		metadata.write("htid\trecordid\tauthor\ttitle\tdate\ttotalwords\ttruedate\n");
+		BufferedWriter duplicates = writer(new File(outputFolder, "duplicates.tsv"));
+		duplicates.write("htid\tkind\tsource\n");
+		BufferedWriter table = null;
+
+		Random random = new Random(seed + 2);
+		ArrayList<Plan> recentVolumes = new ArrayList<Plan>();
+		ArrayList<ArrayList<Plan>> recentRecords = new ArrayList<ArrayList<Plan>>();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		Metrics.startPhase("generation", numVolumes);
+		int written = 0;
+		int missing = 0;
+		int planted = 0;
+		int records = 0;
+		try {
+			while (written < numVolumes) {
+				// Planning is sequential, so it's reproducible; generating is parallel.
+				ArrayList<Plan> batch = new ArrayList<Plan>(BATCH + 4);
+				while (batch.size() < BATCH && written + batch.size() < numVolumes) {
+					planRecord(random, written + batch.size(), numVolumes - written - batch.size(),
+							records, batch, recentVolumes, recentRecords);
+					records += 1;
+				}
+				ArrayList<Future<Generated>> futures = new ArrayList<Future<Generated>>(batch.size());
+				for (final Plan plan : batch) {
+					futures.add(pool.submit(new Callable<Generated>() {
+						public Generated call() throws IOException {
+							return generateVolume(plan);
+						}
+					}));
+				}
+				for (int i = 0; i < batch.size(); ++i) {
+					Plan plan = batch.get(i);
+					Generated generated;
+					try {
+						generated = futures.get(i).get();
+					}
+					catch (ExecutionException e) {
+						throw new IOException("Could not write " + plan.htid, e.getCause());
+					}
+					if ((written + i) % volumesPerTable == 0) {
+						if (table != null) table.close();
+						table = writer(new File(tableFolder, String.format("table%05d.tsv", (written + i) / volumesPerTable)));
+					}
+					table.write(generated.sparseLines);
+					metadata.write(plan.htid + "\t" + plan.recordID + "\t" + plan.author + "\t" + plan.title + "\t"
+							+ plan.date + "\t" + generated.totalWords + "\t" + plan.trueDate + "\n");
+					if (plan.kind != null) {
+						duplicates.write(plan.htid + "\t" + plan.kind + "\t" + plan.source + "\n");
+						planted += 1;
+					}
+					if (plan.missing) missing += 1;
+				}
+				written += batch.size();
+				Metrics.advance(batch.size());
+				if (written % (100 * BATCH) == 0) System.out.println("Wrote " + written + " volumes.");
+			}
+		}
+		finally {
+			pool.shutdown();
+			metadata.close();
+			duplicates.close();
+			if (table != null) table.close();
+		}
+		System.out.println("Wrote " + written + " volumes in " + records + " records to " + outputFolder + ": "
+				+ missing + " without wordcount files, " + planted + " planted duplicates.");
+	}
+
+	/**
+	 * Plans the volumes of one record and adds them to the batch: a single
+	 * volume, a multi-volume set, a reprint of a recent volume, or a collected
+	 * edition of a recent multi-volume set.
+	 * @param first Index of the record's first volume.
+	 * @param room Volumes left to write; a set is cut short to fit.
+	 */
+	void planRecord(Random random, int first, int room, int recordIndex, ArrayList<Plan> batch,
+			ArrayList<Plan> recentVolumes, ArrayList<ArrayList<Plan>> recentRecords) {
+		String recordID = String.format("%09d", 100000000 + recordIndex);
+		double choice = random.nextDouble();
+		if (choice < duplicateFraction && recentVolumes.size() > 0) {
+			Plan source = recentVolumes.get(random.nextInt(recentVolumes.size()));
+			// Reprints come later, but keep the language of the first edition.
+			int date = Math.min(endDate, source.trueDate + random.nextInt(21));
+			Plan plan = newPlan(random, first, recordID, source.author, source.title, date);
+			plan.texts.addAll(source.texts);
+			plan.noiseSeed = random.nextLong() | 1L;
+			plan.kind = "reprint";
+			plan.source = source.htid;
+			batch.add(plan);
+			remember(random, plan, recentVolumes);
+			return;
+		}
+		if (choice < 1.25 * duplicateFraction && recentRecords.size() > 0) {
+			ArrayList<Plan> set = recentRecords.get(random.nextInt(recentRecords.size()));
+			Plan plan = newPlan(random, first, recordID, set.get(0).author, set.get(0).title,
+					Math.min(endDate, set.get(0).trueDate + random.nextInt(21)));
+			for (Plan member : set) {
+				plan.texts.addAll(member.texts);
+			}
+			plan.kind = "collected";
+			plan.source = set.get(0).recordID;
+			batch.add(plan);
+			return;
+		}
+
+		String author = randomAuthor(random);
+		String title = randomTitle(random);
+		int date = randomDate(random);
+		int numInRecord = 1;
+		if (choice > 1 - multiVolumeFraction) numInRecord = Math.min(room, 2 + random.nextInt(3));
+		ArrayList<Plan> set = new ArrayList<Plan>(numInRecord);
+		for (int v = 0; v < numInRecord; ++v) {
+			Plan plan = newPlan(random, first + v, recordID, author,
+					(numInRecord > 1) ? title + " v." + (v + 1) : title, date);
+			plan.texts.add(new Text(random.nextLong(), date, randomLength(random)));
+			set.add(plan);
+			batch.add(plan);
+			remember(random, plan, recentVolumes);
+		}
+		if (numInRecord > 1) {
+			if (recentRecords.size() < RECENT / 5) recentRecords.add(set);
+			else recentRecords.set(random.nextInt(recentRecords.size()), set);
+		}
+	}
+
+	Plan newPlan(Random random, int index, String recordID, String author, String title, int trueDate) {
+		Plan plan = new Plan();
+		plan.htid = prefix + "." + String.format("39015%09d", index);
+		plan.recordID = recordID;
+		plan.author = author;
+		plan.title = title;
+		plan.trueDate = trueDate;
+		plan.date = (random.nextDouble() < dirtyFraction) ? dirtyDate(random, trueDate) : Integer.toString(trueDate);
+		plan.missing = random.nextDouble() < missingFraction;
+		return plan;
+	}
+
+	/** Keeps a sample of recent volumes as sources for reprints. */
+	private static void remember(Random random, Plan plan, ArrayList<Plan> recentVolumes) {
+		if (recentVolumes.size() < RECENT) recentVolumes.add(plan);
+		else recentVolumes.set(random.nextInt(RECENT), plan);
+	}
+
+	/**
+	 * The forms of date that library catalogs actually contain. Some of them
+	 * DateClassMap can rescue from the first four characters; the rest it can't.
+	 */
+	static String dirtyDate(Random random, int date) {
+		switch (random.nextInt(8)) {
+		case 0: return date + "?";
+		case 1: return "[" + date + "]";
+		case 2: return "c" + date;
+		case 3: return (date / 10) + "-";
+		case 4: return (date / 100) + "--";
+		case 5: return date + "-" + (date + 1 + random.nextInt(10));
+		case 6: return (date / 10) + "u";
+		default: return "n.d.";
+		}
+	}
+
+	/** More books toward the end of the period, as in the real collection. */
+	int randomDate(Random random) {
+		int span = endDate - startDate;
+		// Density rising linearly to three times its starting value.
+		double u = random.nextDouble();
+		double x = (Math.sqrt(1 + 8 * u) - 1) / 2;
+		return startDate + Math.min(span, (int) (x * (span + 1)));
+	}
+
+	int randomLength(Random random) {
+		return Math.max(MINWORDS, (int) (medianWords * Math.exp(LENGTHSPREAD * random.nextGaussian())));
+	}
+
+	String randomAuthor(Random random) {
+		return capitalize(inventedName(random)) + ", " + capitalize(inventedName(random));
+	}
+
+	String randomTitle(Random random) {
+		int length = 2 + random.nextInt(4);
+		StringBuilder title = new StringBuilder();
+		for (int w = 0; w < length; ++w) {
+			if (w > 0) title.append(' ');
+			String word = vocabulary.get(STABLE + random.nextInt(Math.min(HEAD, vocabularySize) - STABLE));
+			title.append((w == 0) ? capitalize(word) : word);
+		}
+		return title.toString();
+	}
+
+	private static String inventedName(Random random) {
+		StringBuilder name = new StringBuilder();
+		int syllables = 1 + random.nextInt(3);
+		for (int s = 0; s < syllables; ++s) {
+			name.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+		}
+		name.append(CODAS[random.nextInt(CODAS.length)]);
+		return name.toString();
+	}
+
+	private static String capitalize(String word) {
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+	}
+
+	/**
+	 * Generates a volume's wordcounts, writes its file unless it's meant to be
+	 * missing, and returns its rows for the dedup tables.
+	 */
+	Generated generateVolume(Plan plan) throws IOException {
+		int[] counts = new int[vocabularySize];
+		for (Text text : plan.texts) {
+			addCounts(text, counts);
+		}
+		if (plan.noiseSeed != 0) {
+			Random noise = new Random(plan.noiseSeed);
+			for (int r = 0; r < vocabularySize; ++r) {
+				if (counts[r] > 0) counts[r] = Math.max(0, (int) Math.round(counts[r] * (1 + REPRINTNOISE * noise.nextGaussian())));
+			}
+		}
+
+		Generated generated = new Generated();
+		StringBuilder lines = new StringBuilder();
+		for (int r = 0; r < vocabularySize; ++r) {
+			if (counts[r] == 0) continue;
+			generated.totalWords += counts[r];
+			lines.append(vocabulary.get(r)).append('\t').append(counts[r]).append('\n');
+		}
+		if (!plan.missing) {
+			String id = plan.htid.substring(plan.htid.indexOf('.') + 1);
+			String encapsulating = pairtree.cleanId(id);
+			File folder = new File(outputFolder, "data/" + prefix + "/pairtree_root/" + pairtree.mapToPPath(id) + "/" + encapsulating);
+			folder.mkdirs();
+			BufferedWriter out = writer(new File(folder, encapsulating + ".vol.tsv"));
+			try {
+				out.write(lines.toString());
+			}
+			finally {
+				out.close();
+			}
+		}
+
+		StringBuilder sparse = new StringBuilder();
+		for (int r = 0; r < numDedupFeatures; ++r) {
+			if (counts[r] > 0) sparse.append(plan.htid).append('\t').append(vocabulary.get(r)).append('\t').append(counts[r]).append('\n');
+		}
+		generated.sparseLines = sparse.toString();
+		return generated;
+	}
+
+	/**
+	 * Adds a text's wordcounts: a Poisson count for each common word, scaled by
+	 * the text's style, and a sample from the distribution of the rest, for its
+	 * decade.
+	 */
+	void addCounts(Text text, int[] counts) {
+		SplittableRandom random = new SplittableRandom(text.seed);
+		int decade = Math.max(0, Math.min(headProbabilities.length - 1, (text.date - startDate) / 10));
+		double[] head = headProbabilities[decade];
+		double meanCorrection = -STYLE * STYLE / 2;
+		for (int r = 0; r < HEAD; ++r) {
+			double style = Math.exp(STYLE * random.nextGaussian() + meanCorrection);
+			counts[r] += poisson(random, text.words * head[r] * style);
+		}
+		double[] thresholds = tailThresholds[decade];
+		int[] aliases = tailAliases[decade];
+		int tailWords = poisson(random, text.words * tailMass[decade]);
+		for (int t = 0; t < tailWords; ++t) {
+			int slot = random.nextInt(thresholds.length);
+			int index = (random.nextDouble() < thresholds[slot]) ? slot : aliases[slot];
+			counts[HEAD + index] += 1;
+		}
+	}
+
+	/** Knuth's method for small means, and the normal approximation for large ones. */
+	static int poisson(SplittableRandom random, double mean) {
+		if (mean <= 0) return 0;
+		if (mean > 30) return Math.max(0, (int) Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+		double limit = Math.exp(-mean);
+		double product = random.nextDouble();
+		int count = 0;
+		while (product > limit) {
+			product *= random.nextDouble();
+			count += 1;
+		}
+		return count;
+	}
+
+	private static BufferedWriter writer(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * Arguments: outputFolder numVolumes, then optional name=value pairs:
+	 * vocabulary (50000), words (median volume length, 80000), missing (fraction
+	 * of wordcount files left out, 0.01), dirtydates (0.1), duplicates (fraction
+	 * of reprints, 0.02; collected editions are a quarter of that again),
+	 * multivolume (0.05), features (dedup features, 105), tablesize (volumes per
+	 * dedup table, 100000), prefix (syn), seed (1), startdate (1800), enddate
+	 * (1899), threads (one per core), and metrics (a path for progress snapshots).
+	 * <p>
+	 * Writes <code>data/</code>, a pairtree root for DatePredictor's dataFolder
+	 * argument; <code>metadata.tsv</code>; <code>dedup/</code> and
+	 * <code>dedupfeatures.txt</code>, for Deduplicate; and
+	 * <code>duplicates.tsv</code>, the planted duplicates.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String outputFolder = args[0];
+		int numVolumes = Integer.parseInt(args[1]);
+		HashMap<String, String> options = DatePredictor.parseOptions(args, 2);
+		String metricsPath = DatePredictor.getOption(options, "metrics", null);
+		if (metricsPath != null) Metrics.startExporter(metricsPath, 10);
+		SyntheticCorpus corpus = new SyntheticCorpus(outputFolder, numVolumes, options);
+		try {
+			corpus.generate();
+		}
+		catch (IOException e) {
+			System.out.println("Could not write synthetic corpus: " + e);
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.out.println("Interrupted while writing synthetic corpus.");
+			System.exit(1);
+		}
+		if (metricsPath != null) Metrics.stopExporter(metricsPath);
+	}
+}
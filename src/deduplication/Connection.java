@@ -1,5 +1,7 @@
 package deduplication;
 
+import classification.VectorKernels;
+
 public class Connection implements Comparable<Connection> {
 	Summary first;
 	Summary second;
@@ -56,41 +58,17 @@ public class Connection implements Comparable<Connection> {
 	}
 	
 	private static double cosineSimilarity(double[] first, double[] second) {
-		int vectorLength = first.length;
 		assert(first.length == second.length);
-		double dotProduct = 0d;
-		double firstMagnitude = 0d;
-		double secondMagnitude = 0d;
-		for (int i = 0; i < vectorLength; ++i){
-			dotProduct += first[i] * second[i];
-			firstMagnitude += first[i] * first[i];
-			secondMagnitude += second[i] * second[i];
-		}
-		firstMagnitude = Math.sqrt(firstMagnitude);
-		secondMagnitude = Math.sqrt(secondMagnitude);
-		double denominator = (firstMagnitude * secondMagnitude);
-		if (denominator < 0.1) {
-			return 0d;
-			// The logic here is twofold. A) We want to avoid division by zero.
-			// More importantly B) We want to ignore very short documents, or
-			// documents lacking English words.
-		}
-		else {
-			return dotProduct / denominator;
-		}
+		// Below a product of magnitudes of 0.1 we call the similarity zero. The
+		// logic here is twofold. A) We want to avoid division by zero.
+		// More importantly B) We want to ignore very short documents, or
+		// documents lacking English words.
+		return VectorKernels.get().cosineSimilarity(first, second, 0.1);
 	}
 	
 	private static double euclideanDistance(double[] first, double[] second) {
-		int vectorLength = first.length;
-		assert(second.length == vectorLength);
-		
-		double sumOfSquares = 0d;
-		
-		for (int i = 0; i < vectorLength; ++i) {
-			sumOfSquares += Math.pow((first[i] - second[i]), 2);
-		}
-		
-		return Math.sqrt(sumOfSquares);
+		assert(second.length == first.length);
+		return Math.sqrt(VectorKernels.get().squaredDistance(first, second));
 	}
 }
 
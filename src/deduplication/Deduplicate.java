@@ -4,6 +4,7 @@ import java.util.*;
 
 import classification.LineReader;
 import classification.LineWriter;
+import classification.Metrics;
 import classification.WarningLogger;
 import datasets.InputFileException;
 import datasets.TaubMetadataReader;
@@ -28,6 +29,9 @@ public class Deduplicate {
 		String dataSource = "/Users/tunderwood/deduplication/105wordtables";
 		String outputPath = "/Users/tunderwood/deduplication/connections.txt";
 		String clusterPath = "/Users/tunderwood/deduplication/clusters.txt";
+		String metricsPath = "/Users/tunderwood/deduplication/metrics.json";
+		Metrics.startExporter(metricsPath, 30);
+		// Pairs compared, candidates and connections so far, with an ETA, every 30 seconds.
 		
 		String[] features;
 		LineReader featureReader = new LineReader(featureSource);
@@ -111,6 +115,7 @@ public class Deduplicate {
 				counter += 1;
 			}
 		}
+		Metrics.stopExporter(metricsPath);
 	}
 	
 	private static String stacktraceToString(InputFileException e) {
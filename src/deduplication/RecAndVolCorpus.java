@@ -7,6 +7,8 @@ import java.util.HashSet;
 import java.util.HashMap;
 
 import classification.Document;
+import classification.Metrics;
+import classification.TermIndex;
 import classification.VolumeReader;
 import classification.WarningLogger;
 
@@ -186,6 +188,7 @@ public class RecAndVolCorpus {
 			featureSequence.add(feature);
 		}
 		int numFeatures = featureSequence.size();
+		TermIndex featureIndex = TermIndex.forFeatures(featureSequence);
 		summaries = new ArrayList<Summary>();
 		
 		int numberOfErrors = 0;
@@ -203,10 +206,10 @@ public class RecAndVolCorpus {
 				// Summary objects -- the main difference being that feature values are stored simply
 				// as an array rather than a HashMap. Optimization -- possibly premature optimization,
 				// but there you have it.
-				for (int i = 0; i < numFeatures; ++i) {
-					Double value = newInstance.getRawTermFreq(featureSequence.get(i));
-					if (value == null) vector[i] = 0;
-					else vector[i] = value; 
+				for (int k = 0; k < newInstance.numNonzeros(); ++k) {
+					int i = featureIndex.get(newInstance.termIdAt(k));
+					if (i >= 0) vector[i] = newInstance.countAt(k);
+					// Absent terms stay zero.
 				}
 				
 				Summary newSummary = new Summary(vol, vector);
@@ -334,6 +337,10 @@ public class RecAndVolCorpus {
 
 		HashSet<Summary> alreadyChecked = new HashSet<Summary>();
 		int counter = 0;
+		Metrics.Counter pairsCompared = Metrics.counter("dedup.pairs_compared");
+		Metrics.Counter candidates = Metrics.counter("dedup.candidates");
+		Metrics.Counter connectionsFound = Metrics.counter("dedup.connections");
+		Metrics.startPhase("deduplication", limit);
 		
 		for (int i = 0; i < limit; ++i) {
 			Summary firstDocument = summaries.get(i);
@@ -341,6 +348,7 @@ public class RecAndVolCorpus {
 			
 			if (counter % 100 == 1) System.out.println(counter);
 			counter += 1;
+			Metrics.advance(1);
 			
 			if (firstDocument.sumOfRawFeatures() < 1000) continue;
 			if (firstDocument.numWords < 10000) continue;
@@ -358,12 +366,15 @@ public class RecAndVolCorpus {
 					
 					Connection tentativeConnection = new Connection(firstDocument, secondDocument);
 					double cossim = tentativeConnection.cossim;
+					pairsCompared.increment();
 
 					if (cossim > FIRSTTHRESHOLD) {
 						double probability = tentativeConnection.calculateProbability();
+						candidates.increment();
 						
 						if (probability > HARDTHRESHOLD) {
 							connections.add(tentativeConnection);
+							connectionsFound.increment();
 						}
 					}
 				
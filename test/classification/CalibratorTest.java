@@ -0,0 +1,105 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Platt scaling must recover the sigmoid that generated the data and stay
+ * finite when the classes are separable; isotonic calibration must pool
+ * violators into a nondecreasing mapping.
+ *
+ * @author tunderwood
+ *
+ */
+public class CalibratorTest {
+
+	@Test
+	public void plattRecoversGeneratingSigmoid() {
+		Random random = new Random(31);
+		int n = 20000;
+		double[] scores = new double[n];
+		double[] targets = new double[n];
+		for (int i = 0; i < n; ++i) {
+			scores[i] = 4 * random.nextGaussian();
+			double p = 1 / (1 + Math.exp(-(0.8 * scores[i] - 0.5)));
+			targets[i] = (random.nextDouble() < p) ? 1d : 0d;
+		}
+		PlattCalibrator platt = new PlattCalibrator(scores, targets);
+		assertEquals(0.8, platt.a, 0.05);
+		assertEquals(-0.5, platt.b, 0.1);
+		assertEquals(1 / (1 + Math.exp(-(0.8 * 2 - 0.5))), platt.calibrate(2), 0.02);
+	}
+
+	@Test
+	public void plattAcceptsFractionalTargets() {
+		double[] scores = {-2, -1, 0, 1, 2};
+		double[] fractional = {0.1, 0.3, 0.5, 0.7, 0.9};
+		PlattCalibrator platt = new PlattCalibrator(scores, fractional);
+		assertTrue(platt.a > 0);
+		assertEquals(0.5, platt.calibrate(0), 1e-6);
+	}
+
+	@Test
+	public void plattStaysFiniteOnSeparableData() {
+		double[] scores = {-3, -2, -1, 1, 2, 3};
+		double[] targets = {0, 0, 0, 1, 1, 1};
+		PlattCalibrator platt = new PlattCalibrator(scores, targets);
+		assertTrue(platt.a > 0 && !Double.isInfinite(platt.a));
+		// Platt's smoothed targets keep the extremes away from 0 and 1.
+		assertTrue(platt.calibrate(3) < 1d);
+		assertTrue(platt.calibrate(-3) > 0d);
+		assertTrue(platt.calibrate(1000) <= 1d && platt.calibrate(-1000) >= 0d);
+	}
+
+	@Test
+	public void isotonicPoolsViolators() {
+		double[] scores = {4, 1, 3, 2};
+		double[] targets = {1, 0, 0, 1};
+		IsotonicCalibrator isotonic = new IsotonicCalibrator(scores, targets);
+		// In score order the targets are 0, 1, 0, 1; the middle two pool to 0.5.
+		assertEquals(3, isotonic.blockValues.length);
+		assertEquals(0d, isotonic.calibrate(1), 0d);
+		assertEquals(0.5, isotonic.calibrate(2.5), 1e-12);
+		assertEquals(0.25, isotonic.calibrate(1.75), 1e-12);
+		assertEquals(1d, isotonic.calibrate(4), 0d);
+		assertEquals(0d, isotonic.calibrate(-10), 0d);
+		assertEquals(1d, isotonic.calibrate(10), 0d);
+	}
+
+	@Test
+	public void isotonicIsNondecreasing() {
+		Random random = new Random(32);
+		int n = 2000;
+		double[] scores = new double[n];
+		double[] targets = new double[n];
+		for (int i = 0; i < n; ++i) {
+			scores[i] = random.nextInt(200) / 10d;
+			targets[i] = (random.nextDouble() < scores[i] / 20) ? random.nextDouble() : 0d;
+		}
+		IsotonicCalibrator isotonic = new IsotonicCalibrator(scores, targets);
+		double previous = -1d;
+		for (double score = -1; score <= 21; score += 0.01) {
+			double value = isotonic.calibrate(score);
+			assertTrue(value >= previous);
+			previous = value;
+		}
+		// Equal neighbours are pooled too, so block values strictly increase.
+		assertTrue(isotonic.blockValues.length > 1);
+		for (int b = 1; b < isotonic.blockValues.length; ++b) {
+			assertTrue(isotonic.blockValues[b] > isotonic.blockValues[b - 1]);
+			assertTrue(isotonic.blockScores[b] > isotonic.blockScores[b - 1]);
+		}
+		assertTrue(isotonic.blockValues[0] >= 0d);
+		assertTrue(isotonic.blockValues[isotonic.blockValues.length - 1] <= 1d);
+	}
+
+	@Test
+	public void isotonicWithoutInstancesIsUninformative() {
+		IsotonicCalibrator isotonic = new IsotonicCalibrator(new double[0], new double[0]);
+		assertEquals(0.5, isotonic.calibrate(3), 0d);
+	}
+}
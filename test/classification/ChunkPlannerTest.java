@@ -0,0 +1,167 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * Chunks must cover the volume list in order, each holding as many volumes as
+ * fit the budget, and at least one; estimates must come from word counts where
+ * the metadata has them and from file sizes where it doesn't, with ratios learned
+ * from the Documents read; and the budget must move with the heap without
+ * falling below the minimum or rising above the ceiling it started with.
+ *
+ * @author tunderwood
+ *
+ */
+public class ChunkPlannerTest {
+	static final long PERVOLUME = 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void chunksFillTheBudget() {
+		ChunkPlanner planner = new ChunkPlanner(reader(), 0, PERVOLUME);
+		assertEquals(ChunkPlanner.MINBUDGET, planner.getBudget());
+		Random random = new Random(46);
+		ArrayList<Volume> volumes = new ArrayList<Volume>();
+		for (int v = 0; v < 300; ++v) {
+			// One volume alone is over budget.
+			int words = (v == 150) ? 2000000 : 1000 + random.nextInt(200000);
+			volumes.add(volume("test.chunk" + v, words));
+		}
+
+		int from = 0;
+		int chunks = 0;
+		while (from < volumes.size()) {
+			int to = planner.nextChunk(volumes, from);
+			assertTrue(to > from);
+			long total = 0;
+			for (int v = from; v < to; ++v) {
+				total += planner.estimateBytes(volumes.get(v));
+			}
+			assertEquals(total, planner.plannedBytes);
+			if (to - from > 1) assertTrue(total <= planner.getBudget());
+			if (to < volumes.size()) {
+				assertTrue(planner.chunkFull);
+				assertTrue(total + planner.estimateBytes(volumes.get(to)) > planner.getBudget());
+			}
+			else {
+				assertFalse(planner.chunkFull);
+			}
+			from = to;
+			chunks += 1;
+		}
+		assertTrue(chunks > 20);
+		assertEquals(151, planner.nextChunk(volumes, 150));
+	}
+
+	@Test
+	public void estimatesUseWordCountsOrFileSizes() throws IOException {
+		String dataPath = folder.getRoot().getPath() + "/";
+		ChunkPlanner planner = new ChunkPlanner(new PairtreeReader(dataPath), 0, PERVOLUME);
+		ArrayList<String> features = TestModels.vocabulary(200);
+		Document doc = TestModels.documents(features, 1, 47).get(0);
+		TestModels.writeVolume(dataPath, "test.estimate", doc.getFeatures());
+
+		long fileLength = new PairtreeReader(dataPath).getFileLength(volume("test.estimate", 0));
+		assertTrue(fileLength > 0);
+		long fixed = PERVOLUME + Document.OVERHEADBYTES;
+		assertEquals(fixed + fileLength, planner.estimateBytes(volume("test.estimate", 0)));
+		// Word counts take precedence over the file.
+		assertEquals(fixed + 1000, planner.estimateBytes(volume("test.estimate", 500)));
+		assertEquals(fixed, planner.estimateBytes(volume("test.absent", 0)));
+	}
+
+	@Test
+	public void ratiosAreLearnedFromDocuments() throws IOException {
+		String dataPath = folder.getRoot().getPath() + "/";
+		PairtreeReader reader = new PairtreeReader(dataPath);
+		ChunkPlanner planner = new ChunkPlanner(reader, 0, PERVOLUME);
+		ArrayList<String> features = TestModels.vocabulary(200);
+		ArrayList<Document> documents = TestModels.documents(features, 3, 48);
+
+		// The first observation sets the ratio; later ones move it a step.
+		Volume first = volume("test.words1", 10);
+		double firstRatio = (documents.get(0).estimatedBytes() - Document.OVERHEADBYTES) / 10d;
+		planner.observe(first, documents.get(0));
+		assertEquals(firstRatio, planner.bytesPerWord, 1e-12);
+		Volume second = volume("test.words2", 1000);
+		double secondRatio = (documents.get(1).estimatedBytes() - Document.OVERHEADBYTES) / 1000d;
+		planner.observe(second, documents.get(1));
+		assertEquals(firstRatio + ChunkPlanner.LEARNINGRATE * (secondRatio - firstRatio), planner.bytesPerWord, 1e-12);
+		assertEquals(1d, planner.bytesPerFileByte, 0d);
+
+		Volume filed = volume("test.filed", 0);
+		TestModels.writeVolume(dataPath, filed.htid, documents.get(2).getFeatures());
+		Document read = reader.getDocument(filed, new HashSet<String>());
+		planner.observe(filed, read);
+		double fileRatio = (read.estimatedBytes() - Document.OVERHEADBYTES) / (double) reader.getFileLength(filed);
+		assertEquals(fileRatio, planner.bytesPerFileByte, 1e-12);
+		assertEquals(PERVOLUME + Document.OVERHEADBYTES + (long) (reader.getFileLength(filed) * fileRatio),
+				planner.estimateBytes(filed));
+
+		// Missing volumes teach nothing.
+		Volume absent = volume("test.absent", 0);
+		planner.observe(absent, reader.getDocument(absent, new HashSet<String>()));
+		assertEquals(fileRatio, planner.bytesPerFileByte, 1e-12);
+	}
+
+	@Test
+	public void budgetStaysWithinBounds() {
+		long max = 1L << 32;
+		ChunkPlanner planner = new ChunkPlanner(reader(), 10 * ChunkPlanner.MINBUDGET, PERVOLUME);
+		long ceiling = planner.getBudget();
+
+		// A full heap shrinks the budget, as far as the minimum.
+		long previous = planner.getBudget();
+		while (planner.afterChunk((long) (0.9 * max), max)) {
+			assertEquals(Math.max(ChunkPlanner.MINBUDGET, (long) (previous * ChunkPlanner.SHRINK)), planner.getBudget());
+			previous = planner.getBudget();
+		}
+		assertEquals(ChunkPlanner.MINBUDGET, planner.getBudget());
+
+		// Between the marks, or with chunks that aren't full, nothing changes.
+		planner.chunkFull = true;
+		assertFalse(planner.afterChunk((long) (0.6 * max), max));
+		planner.chunkFull = false;
+		assertFalse(planner.afterChunk((long) (0.1 * max), max));
+
+		// A quiet heap and full chunks grow it, as far as the ceiling.
+		planner.chunkFull = true;
+		previous = planner.getBudget();
+		while (planner.afterChunk((long) (0.1 * max), max)) {
+			assertEquals(Math.min(ceiling, (long) (previous * ChunkPlanner.GROW)), planner.getBudget());
+			previous = planner.getBudget();
+		}
+		assertEquals(ceiling, planner.getBudget());
+
+		// Checking the real heap keeps to the same bounds.
+		planner.afterChunk();
+		assertTrue(planner.getBudget() >= ChunkPlanner.MINBUDGET && planner.getBudget() <= ceiling);
+	}
+
+	private PairtreeReader reader() {
+		return new PairtreeReader(folder.getRoot().getPath() + "/");
+	}
+
+	private static Volume volume(String htid, int words) {
+		HashMap<String, String> values = new HashMap<String, String>();
+		if (words > 0) values.put("totalwords", Integer.toString(words));
+		return new Volume(htid, values);
+	}
+}
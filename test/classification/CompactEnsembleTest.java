@@ -0,0 +1,122 @@
+package classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Saving and loading a compact ensemble must leave its predictions unchanged,
+ * and float32 predictions must stay close to the full models'.
+ *
+ * @author tunderwood
+ *
+ */
+public class CompactEnsembleTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void float32RoundTrip() throws IOException {
+		roundTrip(false, false);
+	}
+
+	@Test
+	public void int8RoundTrip() throws IOException {
+		roundTrip(true, false);
+	}
+
+	@Test
+	public void hashedFloat32RoundTrip() throws IOException {
+		roundTrip(false, true);
+	}
+
+	@Test
+	public void hashedInt8RoundTrip() throws IOException {
+		roundTrip(true, true);
+	}
+
+	@Test
+	public void float32MatchesFullModels() {
+		ArrayList<String> features = TestModels.vocabulary(500);
+		ArrayList<SupervisedLearner> models = TestModels.models(features, null, 3);
+		CompactEnsemble ensemble = CompactEnsemble.fromModels(models, TestModels.labels(), false);
+		ArrayList<Document> documents = TestModels.documents(features, 100, 4);
+		double[][] predictions = TestModels.predict(ensemble, documents);
+		for (int d = 0; d < documents.size(); ++d) {
+			for (int m = 0; m < models.size(); ++m) {
+				assertEquals(models.get(m).predictDocument(documents.get(d)), predictions[d][m], 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void wekaCoefficientsReproduceItsPredictions() {
+		ArrayList<String> features = TestModels.vocabulary(40);
+		ArrayList<Document> documents = TestModels.documents(features, 200, 5);
+		ArrayList<Double> labels = new ArrayList<Double>();
+		for (Document doc : documents) {
+			// Membership depends on a few words, noisily.
+			double signal = doc.termNormalizedByWordcount("word0") - doc.termNormalizedByWordcount("word1") +
+					doc.termNormalizedByWordcount("word2") + 0.02 * Math.sin(labels.size());
+			labels.add((signal > 0.03) ? 1d : 0d);
+		}
+		// Words no document uses are dropped by Weka's RemoveUseless filter.
+		ArrayList<String> modelFeatures = new ArrayList<String>(features);
+		modelFeatures.add(5, "absent0");
+		modelFeatures.add("absent1");
+		LogisticClassifier model = new LogisticClassifier("1850", modelFeatures, documents, labels, "1.0");
+
+		double[] coefficients = new double[modelFeatures.size()];
+		double intercept = model.linearCoefficients(coefficients);
+		assertEquals(0d, coefficients[5], 0d);
+		assertEquals(0d, coefficients[modelFeatures.size() - 1], 0d);
+		assertTrue(coefficients[0] > 0 && coefficients[1] < 0);
+		for (Document doc : TestModels.documents(features, 50, 6)) {
+			double logOdds = intercept;
+			for (int j = 0; j < modelFeatures.size(); ++j) {
+				logOdds += coefficients[j] * doc.termNormalizedByWordcount(modelFeatures.get(j));
+			}
+			assertEquals(model.predictDocument(doc), 1 / (1 + Math.exp(-logOdds)), 1e-9);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTablesTooLargeForAnArray() {
+		CompactEnsemble.tableSize(1L << 26, 40);
+	}
+
+	private void roundTrip(boolean quantize, boolean hashed) throws IOException {
+		ArrayList<String> features = TestModels.vocabulary(500);
+		FeatureHasher hasher = hashed ? new FeatureHasher(10, 17) : null;
+		CompactEnsemble ensemble = CompactEnsemble.fromModels(TestModels.models(features, hasher, 1), TestModels.labels(), quantize);
+		ArrayList<Document> documents;
+		if (hashed) documents = TestModels.hashedDocuments(hasher, 100, 2);
+		else documents = TestModels.documents(features, 100, 2);
+
+		File file = folder.newFile();
+		ensemble.save(file.getPath());
+		CompactEnsemble loaded = CompactEnsemble.load(file.getPath());
+
+		assertEquals(quantize, loaded.isQuantized());
+		assertFalse(loaded.isMapped());
+		assertEquals(ensemble.getClassLabels(), loaded.getClassLabels());
+		assertEquals(ensemble.getFeatures(), loaded.getFeatures());
+		assertEquals(hashed, loaded.getHasher() != null);
+		assertEquals(ensemble.coefficientBytes(), loaded.coefficientBytes());
+		double[][] expected = TestModels.predict(ensemble, documents);
+		double[][] actual = TestModels.predict(loaded, documents);
+		for (int d = 0; d < documents.size(); ++d) {
+			assertArrayEquals(expected[d], actual[d], 0d);
+		}
+		assertTrue(expected.length > 0);
+	}
+}
@@ -0,0 +1,69 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import datasets.DateClassMap;
+import datasets.Metadata;
+import datasets.Volume;
+
+/**
+ * Folds must be stratified by date bin: every fold gets its share of every
+ * bin, and volumes without a usable date are never tested.
+ *
+ * @author tunderwood
+ *
+ */
+public class DateEvaluatorTest {
+
+	@Test
+	public void foldsAreStratifiedByBin() {
+		int k = 5;
+		Random random = new Random(28);
+		Metadata collection = new Metadata(new String[] {"date"});
+		for (int v = 0; v < 2000; ++v) {
+			HashMap<String, String> values = new HashMap<String, String>();
+			// Skewed toward the early bins, with some dates out of range.
+			int date = 1790 + (int) (120 * random.nextDouble() * random.nextDouble());
+			values.put("date", Integer.toString(date));
+			collection.addVolume(new Volume("test.volume" + v, values));
+		}
+		DateClassMap classMap = new DateClassMap(1804, 1899, 4, 9, collection, "date");
+		classMap.mapVolsByMetadata(1800, 1899);
+		ArrayList<String> labels = classMap.getKnownClasses();
+
+		int[] folds = DateEvaluator.stratifiedFolds(classMap, labels, k, new Random(1));
+
+		for (String label : labels) {
+			int[] perFold = new int[k];
+			for (int v : classMap.getMemberIndices(label)) {
+				perFold[folds[v]] += 1;
+			}
+			int smallest = Integer.MAX_VALUE;
+			int largest = 0;
+			for (int count : perFold) {
+				smallest = Math.min(smallest, count);
+				largest = Math.max(largest, count);
+			}
+			assertTrue("bin " + label + " is split unevenly", largest - smallest <= 1);
+		}
+		int[] unknown = classMap.getMemberIndices("__unknown__");
+		assertTrue(unknown.length > 0);
+		for (int v : unknown) {
+			assertEquals(-1, folds[v]);
+		}
+		int[] sizes = new int[k];
+		for (int fold : folds) {
+			if (fold >= 0) sizes[fold] += 1;
+		}
+		for (int size : sizes) {
+			assertTrue(Math.abs(size - sizes[0]) <= 1);
+		}
+	}
+}
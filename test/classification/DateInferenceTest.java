@@ -0,0 +1,117 @@
+package classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The precomputed kernel must infer the dates the original per-volume
+ * smoothing inferred, across chunk boundaries, with the same handling of
+ * ties, uncovered years, and volumes that score zero everywhere.
+ *
+ * @author tunderwood
+ *
+ */
+public class DateInferenceTest {
+	static final int SPAN = 12;
+	static final int START = 1800;
+	static final int END = 1899;
+
+	@Test
+	public void chunkedInferenceMatchesPerVolumeSmoothing() {
+		// Bins that leave the first and last years uncovered.
+		int[] midpoints = new int[11];
+		for (int c = 0; c < midpoints.length; ++c) {
+			midpoints[c] = 1804 + 9 * c;
+		}
+		DateInference inference = new DateInference(midpoints, SPAN, START, END);
+		Random random = new Random(34);
+		int count = 2 * DateInference.CHUNK + 37;
+		double[][] predictions = new double[count][midpoints.length];
+		for (int v = 0; v < count; ++v) {
+			for (int c = 0; c < midpoints.length; ++c) {
+				// Some volumes are sparse, some are all zero.
+				if (v % 50 != 0 && random.nextInt(3) > 0) predictions[v][c] = random.nextDouble();
+			}
+		}
+		int[] predicted = new int[count];
+		double[] expected = new double[count];
+		inference.inferDates(predictions, count, predicted, expected);
+
+		int[] reference = new int[count];
+		for (int v = 0; v < count; ++v) {
+			reference[v] = referenceDate(predictions[v], midpoints);
+			double referenceExpected = referenceExpectedDate(predictions[v], midpoints);
+			if (Double.isNaN(referenceExpected)) assertTrue(Double.isNaN(expected[v]));
+			else assertEquals(referenceExpected, expected[v], 1e-9);
+		}
+		assertArrayEquals(reference, predicted);
+		assertEquals(0, predicted[0]);
+		assertEquals(reference[count - 1], inference.predictDate(predictions[count - 1]));
+	}
+
+	@Test
+	public void tiesGoToTheEarlierYear() {
+		DateInference inference = new DateInference(new int[] {1820, 1840}, 5, START, END);
+		// The bins don't overlap, so every year within four of a midpoint gets
+		// that bin's whole prediction; equal predictions tie eighteen years.
+		assertEquals(1816, inference.predictDate(new double[] {0.5, 0.5}));
+		assertEquals(1830d, inference.expectedDate(new double[] {0.5, 0.5}), 1e-9);
+		assertEquals(1836, inference.predictDate(new double[] {0.4, 0.5}));
+	}
+
+	/** The date as DatePredictor.predictDate computed it before the kernel was precomputed. */
+	private static int referenceDate(double[] predictions, int[] midpoints) {
+		int predictedDate = 0;
+		double maxPrediction = 0;
+		for (int date = START; date <= END; ++date) {
+			double[] relevance = relevance(date, midpoints);
+			double thisPrediction = 0;
+			for (int i = 0; i < predictions.length; ++i) {
+				thisPrediction += predictions[i] * relevance[i];
+			}
+			if (thisPrediction > maxPrediction) {
+				maxPrediction = thisPrediction;
+				predictedDate = date;
+			}
+		}
+		return predictedDate;
+	}
+
+	private static double referenceExpectedDate(double[] predictions, int[] midpoints) {
+		double weightedYears = 0;
+		double total = 0;
+		for (int date = START; date <= END; ++date) {
+			double[] relevance = relevance(date, midpoints);
+			double thisPrediction = 0;
+			for (int i = 0; i < predictions.length; ++i) {
+				thisPrediction += predictions[i] * relevance[i];
+			}
+			// Years no bin covers have NaN relevance; they carry no weight.
+			if (thisPrediction > 0) {
+				weightedYears += thisPrediction * date;
+				total += thisPrediction;
+			}
+		}
+		return (total > 0) ? weightedYears / total : Double.NaN;
+	}
+
+	private static double[] relevance(int date, int[] midpoints) {
+		double[] relevance = new double[midpoints.length];
+		double vectorSum = 0;
+		for (int i = 0; i < midpoints.length; ++i) {
+			int year = midpoints[i];
+			if ((year + SPAN) < date | (year - SPAN) > date) relevance[i] = 0d;
+			else relevance[i] = (double) (SPAN) - Math.abs(year - date);
+			vectorSum += relevance[i];
+		}
+		for (int i = 0; i < relevance.length; ++i) {
+			relevance[i] = relevance[i] / vectorSum;
+		}
+		return relevance;
+	}
+}
@@ -0,0 +1,176 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import datasets.PairtreeReader;
+import datasets.Volume;
+
+/**
+ * The hash must be MurmurHash3 of the word's UTF-16 code units, so it's stable
+ * across JVMs; positions must fall in range with evenly split signs; and a
+ * hashed Document must sum colliding words so that a hashed model scores it as
+ * the equivalent vocabulary model scores the words themselves.
+ *
+ * @author tunderwood
+ *
+ */
+public class FeatureHasherTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void hashIsMurmur3OfUtf16() {
+		// Published values for the empty input.
+		assertEquals(0, FeatureHasher.murmur3("", 0));
+		assertEquals(0x514E28B7, FeatureHasher.murmur3("", 1));
+		Random random = new Random(41);
+		for (int i = 0; i < 2000; ++i) {
+			StringBuilder word = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int c = 0; c < length; ++c) {
+				// Mostly lower case, with accented and CJK characters.
+				int kind = random.nextInt(10);
+				if (kind == 0) word.append((char) (0xC0 + random.nextInt(64)));
+				else if (kind == 1) word.append((char) (0x4E00 + random.nextInt(2000)));
+				else word.append((char) ('a' + random.nextInt(26)));
+			}
+			int seed = random.nextInt();
+			String text = word.toString();
+			assertEquals(text, referenceMurmur3(text.getBytes(StandardCharsets.UTF_16LE), seed),
+					FeatureHasher.murmur3(text, seed));
+		}
+	}
+
+	@Test
+	public void positionsAreInRangeAndSignsBalanced() {
+		FeatureHasher hasher = new FeatureHasher(10, 7);
+		assertEquals(1024, hasher.numFeatures());
+		int[] hits = new int[hasher.numFeatures()];
+		int positive = 0;
+		int words = 100000;
+		for (int w = 0; w < words; ++w) {
+			int hash = hasher.hash("word" + w);
+			int position = hasher.position(hash);
+			assertTrue(position >= 0 && position < hasher.numFeatures());
+			float sign = hasher.sign(hash);
+			assertTrue(sign == 1f || sign == -1f);
+			if (sign > 0) positive += 1;
+			hits[position] += 1;
+			assertEquals(hash, new FeatureHasher(10, 7).hash("word" + w));
+		}
+		assertEquals(words / 2, positive, 800);
+		for (int count : hits) {
+			// Expected about 98 per position.
+			assertTrue(count > 50 && count < 150);
+		}
+		assertEquals(1 << 30, new FeatureHasher(30, 0).numFeatures());
+		for (int bits : new int[] {0, 31}) {
+			try {
+				new FeatureHasher(bits, 0);
+				fail("accepted " + bits + " bits");
+			}
+			catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void hashedModelScoresLikeItsVocabularyEquivalent() throws Exception {
+		// Few enough bits that many words collide.
+		FeatureHasher hasher = new FeatureHasher(6, 3);
+		Random random = new Random(42);
+		HashMap<String, Double> counts = new HashMap<String, Double>();
+		for (int w = 0; w < 300; ++w) {
+			if (random.nextInt(3) == 0) counts.put("hashword" + w, (double) (1 + random.nextInt(9)));
+		}
+		Volume vol = new Volume("test.hashed", new HashMap<String, String>());
+		String dataPath = folder.getRoot().getPath() + "/";
+		TestModels.writeVolume(dataPath, vol.htid, counts);
+		Document hashed = new PairtreeReader(dataPath).getHashedDocument(vol, hasher);
+		assertTrue(hashed.isHashed());
+
+		double numWords = 0d;
+		double[] expected = new double[hasher.numFeatures()];
+		for (Map.Entry<String, Double> entry : counts.entrySet()) {
+			int hash = hasher.hash(entry.getKey());
+			expected[hasher.position(hash)] += hasher.sign(hash) * entry.getValue();
+			numWords += entry.getValue();
+		}
+		assertEquals(numWords, hashed.getNumWords(), 0d);
+		for (int p = 0; p < expected.length; ++p) {
+			assertEquals(expected[p], hashed.countOf(p), 0d);
+		}
+
+		// A vocabulary model giving each word its position's weight, with its sign.
+		double[] hashedScales = new double[hasher.numFeatures()];
+		for (int p = 0; p < hashedScales.length; ++p) {
+			hashedScales[p] = 0.5 + random.nextDouble();
+		}
+		StochasticLogisticClassifier hashedModel = new StochasticLogisticClassifier("1850", hasher, hashedScales, 1d, 0.1);
+		for (int p = 0; p < hashedScales.length; ++p) {
+			hashedModel.weights[p] = random.nextGaussian();
+		}
+		hashedModel.intercept = -0.3;
+		ArrayList<String> features = new ArrayList<String>(counts.keySet());
+		double[] scales = new double[features.size()];
+		StochasticLogisticClassifier vocabularyModel = new StochasticLogisticClassifier("1850", features, scales, 1d, 0.1);
+		for (int j = 0; j < features.size(); ++j) {
+			int hash = hasher.hash(features.get(j));
+			scales[j] = hashedScales[hasher.position(hash)];
+			vocabularyModel.weights[j] = hasher.sign(hash) * hashedModel.weights[hasher.position(hash)];
+		}
+		vocabularyModel.intercept = hashedModel.intercept;
+		assertEquals(vocabularyModel.predictDocument(new Document(counts, vol, true)),
+				hashedModel.predictDocument(hashed), 1e-12);
+	}
+
+	/** MurmurHash3_x86_32 over bytes, as published. */
+	private static int referenceMurmur3(byte[] data, int seed) {
+		int h = seed;
+		int blocks = data.length / 4;
+		for (int i = 0; i < blocks; ++i) {
+			int k = (data[4 * i] & 0xff) | ((data[4 * i + 1] & 0xff) << 8) |
+					((data[4 * i + 2] & 0xff) << 16) | ((data[4 * i + 3] & 0xff) << 24);
+			k *= 0xcc9e2d51;
+			k = Integer.rotateLeft(k, 15);
+			k *= 0x1b873593;
+			h ^= k;
+			h = Integer.rotateLeft(h, 13);
+			h = h * 5 + 0xe6546b64;
+		}
+		int tail = blocks * 4;
+		int k = 0;
+		switch (data.length & 3) {
+		case 3:
+			k ^= (data[tail + 2] & 0xff) << 16;
+		case 2:
+			k ^= (data[tail + 1] & 0xff) << 8;
+		case 1:
+			k ^= data[tail] & 0xff;
+			k *= 0xcc9e2d51;
+			k = Integer.rotateLeft(k, 15);
+			k *= 0x1b873593;
+			h ^= k;
+		}
+		h ^= data.length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
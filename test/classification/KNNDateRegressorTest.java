@@ -0,0 +1,191 @@
+package classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import datasets.Volume;
+
+/**
+ * The forest search must find the neighbours a brute-force scan finds when its
+ * budget covers the whole index, and most of them when it doesn't; the date it
+ * predicts must be the similarity-weighted mean of those neighbours; and a saved
+ * index must load to give the same answers.
+ *
+ * @author tunderwood
+ *
+ */
+public class KNNDateRegressorTest {
+	static final int DIMENSIONS = 64;
+	static final int TREES = 8;
+	static final int K = 10;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void fullBudgetSearchIsExact() {
+		KNNDateRegressor model = model(800, 38);
+		model.setSearchBudget(model.size() * TREES);
+		float[][] queries = queries(model, 60, 39);
+		for (float[] query : queries) {
+			int[] neighbours = new int[K];
+			float[] similarities = new float[K];
+			assertEquals(K, model.nearestNeighbours(query, K, neighbours, similarities));
+			double[] exact = bruteForceSimilarities(model, query);
+			for (int i = 0; i < K; ++i) {
+				assertEquals(exact[i], similarities[i], 1e-5);
+				assertEquals(similarities[i], dot(model, neighbours[i], query), 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void smallBudgetFindsMostNeighbours() {
+		KNNDateRegressor model = model(3000, 40);
+		float[][] queries = queries(model, 100, 41);
+		double smallRecall = recall(model, queries, 200);
+		double recall = recall(model, queries, 800);
+		assertTrue("recall " + recall, recall > 0.8);
+		assertTrue(recall > smallRecall);
+	}
+
+	@Test
+	public void predictionIsWeightedMeanOfNeighbours() {
+		KNNDateRegressor model = model(600, 42);
+		model.setK(K);
+		model.setSearchBudget(model.size() * TREES);
+		for (float[] query : queries(model, 40, 43)) {
+			int[] neighbours = new int[K];
+			float[] similarities = new float[K];
+			model.nearestNeighbours(query, K, neighbours, similarities);
+			double weighted = 0d;
+			double total = 0d;
+			for (int i = 0; i < K; ++i) {
+				double weight = Math.max(similarities[i], 0f);
+				weighted += weight * model.dates[neighbours[i]];
+				total += weight;
+			}
+			assertEquals(weighted / total, model.predictVector(query), 1e-9);
+		}
+		// Topics drift with date, so neighbours should know roughly when a volume was written.
+		ArrayList<Document> heldout = new ArrayList<Document>();
+		int[] heldoutDates = documents(model.getFeatures(), 200, 44, heldout);
+		double error = 0d;
+		for (int d = 0; d < heldout.size(); ++d) {
+			error += Math.abs(model.predictDocument(heldout.get(d)) - heldoutDates[d]);
+		}
+		assertTrue("mean error " + error / heldout.size(), error / heldout.size() < 12);
+	}
+
+	@Test
+	public void savedIndexLoadsIdentically() throws Exception {
+		KNNDateRegressor model = model(500, 45);
+		model.setK(7);
+		model.setSearchBudget(150);
+		String path = new File(folder.getRoot(), "index.knn").getPath();
+		model.save(path);
+		KNNDateRegressor loaded = KNNDateRegressor.load(path);
+		assertEquals(model.size(), loaded.size());
+		assertEquals(model.getFeatures(), loaded.getFeatures());
+		assertArrayEquals(model.scales, loaded.scales, 0d);
+		ArrayList<Document> documents = new ArrayList<Document>();
+		documents(model.getFeatures(), 100, 46, documents);
+		for (Document doc : documents) {
+			double expected = model.predictDocument(doc);
+			assertEquals(expected, loaded.predictDocument(doc), 0d);
+		}
+	}
+
+	private static KNNDateRegressor model(int size, long seed) {
+		ArrayList<String> features = TestModels.vocabulary(400);
+		ArrayList<Document> documents = new ArrayList<Document>();
+		int[] dates = documents(features, size, seed, documents);
+		return new KNNDateRegressor(features, documents, dates, DIMENSIONS, TREES, 20, seed);
+	}
+
+	/**
+	 * Documents whose vocabulary drifts with their date: each draws most of its
+	 * words from a window of the vocabulary centred on a position set by the date.
+	 */
+	private static int[] documents(ArrayList<String> features, int count, long seed, ArrayList<Document> documents) {
+		Random random = new Random(seed);
+		int[] dates = new int[count];
+		for (int d = 0; d < count; ++d) {
+			dates[d] = 1800 + random.nextInt(100);
+			int centre = (dates[d] - 1800) * 3;
+			HashMap<String, Double> counts = new HashMap<String, Double>();
+			for (int w = 0; w < 80; ++w) {
+				int position = (random.nextInt(4) == 0) ? random.nextInt(features.size())
+						: Math.min(features.size() - 1, Math.max(0, centre + (int) (random.nextGaussian() * 20)));
+				String word = features.get(position);
+				Double previous = counts.get(word);
+				counts.put(word, 1d + ((previous == null) ? 0d : previous));
+			}
+			documents.add(new Document(counts, new Volume("test.volume" + d, new HashMap<String, String>()), true));
+		}
+		return dates;
+	}
+
+	/** Projected queries, drawn from the same distribution as the index. */
+	private static float[][] queries(KNNDateRegressor model, int count, long seed) {
+		ArrayList<Document> documents = new ArrayList<Document>();
+		documents(model.getFeatures(), count, seed, documents);
+		TermIndex index = FeatureVector.indexFeatures(model.getFeatures());
+		float[][] queries = new float[count][DIMENSIONS];
+		for (int q = 0; q < count; ++q) {
+			assertTrue(model.project(FeatureVector.fromDocument(documents.get(q), index), queries[q]));
+		}
+		return queries;
+	}
+
+	/**
+	 * @return The fraction of neighbours found that are at least as similar as
+	 * the true kth nearest.
+	 */
+	private static double recall(KNNDateRegressor model, float[][] queries, int budget) {
+		model.setSearchBudget(budget);
+		int found = 0;
+		for (float[] query : queries) {
+			int[] neighbours = new int[K];
+			float[] similarities = new float[K];
+			model.nearestNeighbours(query, K, neighbours, similarities);
+			double[] exact = bruteForceSimilarities(model, query);
+			for (int i = 0; i < K; ++i) {
+				if (similarities[i] >= exact[K - 1] - 1e-6) found += 1;
+			}
+		}
+		return found / (double) (K * queries.length);
+	}
+
+	/** Every item's similarity to the query, highest first. */
+	private static double[] bruteForceSimilarities(KNNDateRegressor model, float[] query) {
+		double[] similarities = new double[model.size()];
+		for (int i = 0; i < similarities.length; ++i) {
+			similarities[i] = -dot(model, i, query);
+		}
+		Arrays.sort(similarities);
+		for (int i = 0; i < similarities.length; ++i) {
+			similarities[i] = -similarities[i];
+		}
+		return similarities;
+	}
+
+	private static double dot(KNNDateRegressor model, int item, float[] query) {
+		double sum = 0d;
+		for (int d = 0; d < DIMENSIONS; ++d) {
+			sum += model.vectors[item * DIMENSIONS + d] * query[d];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,128 @@
+package classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import datasets.Volume;
+
+/**
+ * The sparse ranking must give the rho the dense Mann-Whitney computation
+ * gave, ranking every document's normalized frequency with ties averaged, and
+ * must order terms the same way whether they're ranked on one thread or many.
+ *
+ * @author tunderwood
+ *
+ */
+public class MannWhitneySorterTest {
+	static final int NUMTERMS = 300;
+
+	@Test
+	public void sparseRhoMatchesDenseRanking() {
+		MembershipCorpus corpus = corpus(400, 29);
+		ArrayList<String> terms = terms();
+		double[] rho = new MannWhitneySorter(corpus, 4).rhoValues(terms);
+		for (int t = 0; t < terms.size(); ++t) {
+			double expected = denseRho(corpus, terms.get(t));
+			assertEquals(terms.get(t), expected, rho[t], 1e-12 * Math.abs(expected));
+		}
+	}
+
+	@Test
+	public void topTermsAreTheHighestRho() {
+		MembershipCorpus corpus = corpus(250, 30);
+		ArrayList<String> terms = terms();
+		double[] rho = new MannWhitneySorter(corpus, 1).rhoValues(terms);
+		Integer[] order = new Integer[terms.size()];
+		for (int t = 0; t < order.length; ++t) {
+			order[t] = t;
+		}
+		final double[] values = rho;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int comparison = Double.compare(values[b], values[a]);
+				return (comparison != 0) ? comparison : a.compareTo(b);
+			}
+		});
+		int[] expected = new int[50];
+		for (int i = 0; i < expected.length; ++i) {
+			expected[i] = order[i];
+		}
+		assertArrayEquals(expected, new MannWhitneySorter(corpus, 1).topTermsByMW(terms, 50));
+		assertArrayEquals(expected, new MannWhitneySorter(corpus, 8).topTermsByMW(terms, 50));
+		assertEquals(terms.size(), new MannWhitneySorter(corpus, 3).rankTermsByMW(terms).length);
+	}
+
+	private static ArrayList<String> terms() {
+		ArrayList<String> terms = new ArrayList<String>(NUMTERMS);
+		for (int t = 0; t < NUMTERMS; ++t) {
+			terms.add("term" + t);
+		}
+		return terms;
+	}
+
+	/**
+	 * Documents whose use of a term depends a little on their membership, with
+	 * many zeros and many tied counts.
+	 */
+	private static MembershipCorpus corpus(int numDocuments, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Document> documents = new ArrayList<Document>(numDocuments);
+		ArrayList<Double> membership = new ArrayList<Double>(numDocuments);
+		for (int d = 0; d < numDocuments; ++d) {
+			double degree = (random.nextInt(3) == 0) ? random.nextDouble() : random.nextInt(2);
+			HashMap<String, Double> counts = new HashMap<String, Double>();
+			for (int t = 0; t < NUMTERMS; ++t) {
+				double rate = (t % 7 == 0) ? 0.05 + 0.3 * degree : 0.1;
+				if (random.nextDouble() < rate) counts.put("term" + t, 1d + random.nextInt(4));
+			}
+			HashMap<String, String> values = new HashMap<String, String>();
+			values.put("totalpages", Integer.toString(1 + random.nextInt(3)));
+			documents.add(new Document(counts, new Volume("test.volume" + d, values), true));
+			membership.add(degree);
+		}
+		return new MembershipCorpus(documents, membership, "test");
+	}
+
+	/** Rho as the original implementation computed it, over all documents. */
+	private static double denseRho(Corpus corpus, String term) {
+		ArrayList<Double> frequencies = corpus.normalizedFreqOverDocs(term);
+		ArrayList<Double> degrees = corpus.getMembershipProbs();
+		int D = frequencies.size();
+		Integer[] order = new Integer[D];
+		for (int i = 0; i < D; ++i) {
+			order[i] = i;
+		}
+		final ArrayList<Double> values = frequencies;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values.get(a), values.get(b));
+			}
+		});
+		double[] ranks = new double[D];
+		int i = 0;
+		while (i < D) {
+			int j = i + 1;
+			while (j < D && values.get(order[j]).equals(values.get(order[i]))) j += 1;
+			double averageRank = ((i + 1) + j) / 2d;
+			for (int h = i; h < j; ++h) {
+				ranks[order[h]] = averageRank;
+			}
+			i = j;
+		}
+		double inSum = 0d;
+		double n1 = 0d;
+		for (int d = 0; d < D; ++d) {
+			inSum += ranks[d] * degrees.get(d);
+			n1 += degrees.get(d);
+		}
+		return inSum / (n1 * (D - n1));
+	}
+}
@@ -0,0 +1,104 @@
+package classification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * An ensemble mapped from a registry file must predict exactly what the same
+ * ensemble does from the heap, and rewriting the file mustn't disturb a
+ * mapping of the old one.
+ *
+ * @author tunderwood
+ *
+ */
+public class ModelRegistryTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void float32MappedMatchesHeap() throws IOException {
+		mappedMatchesHeap(false, false);
+	}
+
+	@Test
+	public void int8MappedMatchesHeap() throws IOException {
+		mappedMatchesHeap(true, false);
+	}
+
+	@Test
+	public void hashedFloat32MappedMatchesHeap() throws IOException {
+		mappedMatchesHeap(false, true);
+	}
+
+	@Test
+	public void hashedInt8MappedMatchesHeap() throws IOException {
+		mappedMatchesHeap(true, true);
+	}
+
+	@Test
+	public void rewriteLeavesOldMappingIntact() throws IOException {
+		ArrayList<String> features = TestModels.vocabulary(300);
+		ArrayList<Document> documents = TestModels.documents(features, 50, 6);
+		CompactEnsemble first = CompactEnsemble.fromModels(TestModels.models(features, null, 7), TestModels.labels(), false);
+		CompactEnsemble second = CompactEnsemble.fromModels(TestModels.models(features, null, 8), TestModels.labels(), false);
+		String path = new File(folder.getRoot(), "models.registry").getPath();
+
+		ModelRegistry.write(first, path);
+		CompactEnsemble mapped = ModelRegistry.open(path);
+		ModelRegistry.write(second, path);
+
+		double[][] expected = TestModels.predict(first, documents);
+		double[][] actual = TestModels.predict(mapped, documents);
+		for (int d = 0; d < documents.size(); ++d) {
+			assertArrayEquals(expected[d], actual[d], 0d);
+		}
+		double[][] rewritten = TestModels.predict(ModelRegistry.open(path), documents);
+		double[][] secondExpected = TestModels.predict(second, documents);
+		for (int d = 0; d < documents.size(); ++d) {
+			assertArrayEquals(secondExpected[d], rewritten[d], 0d);
+		}
+		assertFalse(new File(path + ".tmp").exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsFilesThatAreNotRegistries() throws IOException {
+		File file = folder.newFile();
+		ArrayList<String> features = TestModels.vocabulary(10);
+		CompactEnsemble.fromModels(TestModels.models(features, null, 9), TestModels.labels(), false).save(file.getPath());
+		ModelRegistry.open(file.getPath());
+	}
+
+	private void mappedMatchesHeap(boolean quantize, boolean hashed) throws IOException {
+		ArrayList<String> features = TestModels.vocabulary(500);
+		FeatureHasher hasher = hashed ? new FeatureHasher(10, 17) : null;
+		CompactEnsemble ensemble = CompactEnsemble.fromModels(TestModels.models(features, hasher, 1), TestModels.labels(), quantize);
+		ArrayList<Document> documents;
+		if (hashed) documents = TestModels.hashedDocuments(hasher, 100, 2);
+		else documents = TestModels.documents(features, 100, 2);
+
+		String path = new File(folder.getRoot(), "models.registry").getPath();
+		ModelRegistry.write(ensemble, path);
+		CompactEnsemble mapped = ModelRegistry.open(path);
+
+		assertTrue(mapped.isMapped());
+		assertEquals(quantize, mapped.isQuantized());
+		assertEquals(ensemble.getClassLabels(), mapped.getClassLabels());
+		assertEquals(ensemble.getFeatures(), mapped.getFeatures());
+		assertEquals(hashed, mapped.getHasher() != null);
+		double[][] expected = TestModels.predict(ensemble, documents);
+		double[][] actual = TestModels.predict(mapped, documents);
+		for (int d = 0; d < documents.size(); ++d) {
+			assertArrayEquals(expected[d], actual[d], 0d);
+		}
+	}
+}
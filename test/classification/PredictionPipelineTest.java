@@ -0,0 +1,184 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import datasets.Volume;
+
+/**
+ * Volumes must be written in their original order however many threads read
+ * and score them; a volume that can't be read or scored must still be written,
+ * without predictions; an Error in any stage must stop the run and come out of
+ * <code>run</code> rather than leave it waiting; and the volumes in flight must
+ * stay within the heap budget.
+ *
+ * @author tunderwood
+ *
+ */
+public class PredictionPipelineTest {
+	static final int NUMVOLUMES = 400;
+
+	@Test(timeout = 60000)
+	public void volumesAreWrittenInOrder() throws InterruptedException {
+		final ArrayList<Integer> written = new ArrayList<Integer>();
+		final ArrayList<PredictionPipeline.Item> failed = new ArrayList<PredictionPipeline.Item>();
+		PredictionPipeline.Stages stages = new PredictionPipeline.Stages() {
+			public Document read(Volume vol) {
+				int index = index(vol);
+				jitter(index);
+				if (index % 37 == 0) throw new IllegalArgumentException("unreadable");
+				return document(vol);
+			}
+
+			public void score(PredictionPipeline.Item item) {
+				jitter(item.index + 1);
+				if (item.index % 41 == 0) throw new IllegalStateException("unscorable");
+				item.predictions = new double[] {item.index};
+				item.predictedDate = 1800 + item.index;
+			}
+
+			public void write(PredictionPipeline.Item item) {
+				written.add(item.index);
+				if (item.index % 37 == 0 || item.index % 41 == 0) {
+					failed.add(item);
+				}
+				else {
+					assertEquals(item.index, item.predictions[0], 0d);
+					assertEquals(1800 + item.index, item.predictedDate);
+				}
+			}
+		};
+		PredictionPipeline pipeline = new PredictionPipeline(4, 3, 3);
+		int from = 7;
+		pipeline.run(volumes(), from, NUMVOLUMES, stages, 1L << 30);
+
+		assertEquals(NUMVOLUMES - from, written.size());
+		for (int i = 0; i < written.size(); ++i) {
+			assertEquals(from + i, (int) written.get(i));
+		}
+		assertTrue(failed.size() > 10);
+		for (PredictionPipeline.Item item : failed) {
+			assertNull(item.predictions);
+			assertTrue(Double.isNaN(item.expectedDate));
+			if (item.index % 37 == 0) assertNull(item.doc);
+			else assertNotNull(item.doc);
+		}
+		assertTrue(pipeline.report().startsWith("Pipeline: 4 readers"));
+	}
+
+	@Test(timeout = 60000)
+	public void errorsInAnyStageStopTheRun() throws InterruptedException {
+		for (final String stage : new String[] {"read", "score", "write"}) {
+			final OutOfMemoryError error = new OutOfMemoryError(stage);
+			final AtomicInteger written = new AtomicInteger();
+			PredictionPipeline.Stages stages = new PredictionPipeline.Stages() {
+				public Document read(Volume vol) {
+					if (stage.equals("read") && index(vol) == 150) throw error;
+					return document(vol);
+				}
+
+				public void score(PredictionPipeline.Item item) {
+					if (stage.equals("score") && item.index == 150) throw error;
+				}
+
+				public void write(PredictionPipeline.Item item) {
+					if (stage.equals("write") && item.index == 150) throw error;
+					written.incrementAndGet();
+				}
+			};
+			try {
+				new PredictionPipeline(3, 2, 4).run(volumes(), 0, NUMVOLUMES, stages, 1L << 30);
+				fail("no error from " + stage);
+			}
+			catch (OutOfMemoryError e) {
+				assertSame(error, e);
+			}
+			// Volumes after the failure are never written.
+			assertTrue(stage + " wrote " + written.get(), written.get() <= 150);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void volumesInFlightStayWithinBudget() throws InterruptedException {
+		final long perVolume = 100 << 10;
+		final long budget = 1 << 20;
+		final int oversized = 200;
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger mostInFlight = new AtomicInteger();
+		final AtomicInteger aloneWithOversized = new AtomicInteger();
+		PredictionPipeline.Stages stages = new PredictionPipeline.Stages() {
+			public Document read(Volume vol) {
+				int count = inFlight.incrementAndGet();
+				if (index(vol) == oversized) {
+					aloneWithOversized.set(count);
+				}
+				else {
+					synchronized (mostInFlight) {
+						mostInFlight.set(Math.max(mostInFlight.get(), count));
+					}
+				}
+				return document(vol);
+			}
+
+			public long estimateBytes(Volume vol) {
+				return (index(vol) == oversized) ? 10 * budget : perVolume;
+			}
+
+			public void score(PredictionPipeline.Item item) {
+			}
+
+			public void write(PredictionPipeline.Item item) {
+				// A slow writer, so that volumes pile up behind it.
+				jitter(item.index);
+				inFlight.decrementAndGet();
+			}
+		};
+		// The window alone would allow 22 volumes.
+		new PredictionPipeline(4, 2, 8).run(volumes(), 0, NUMVOLUMES, stages, budget);
+		assertTrue("most in flight " + mostInFlight.get(), mostInFlight.get() <= budget / perVolume);
+		assertTrue(mostInFlight.get() > 1);
+		assertEquals(1, aloneWithOversized.get());
+		assertEquals(0, inFlight.get());
+	}
+
+	private static ArrayList<Volume> volumes() {
+		ArrayList<Volume> volumes = new ArrayList<Volume>();
+		for (int v = 0; v < NUMVOLUMES; ++v) {
+			volumes.add(new Volume("test.pipeline" + v, new HashMap<String, String>()));
+		}
+		return volumes;
+	}
+
+	private static int index(Volume vol) {
+		return Integer.parseInt(vol.htid.substring("test.pipeline".length()));
+	}
+
+	private static Document document(Volume vol) {
+		HashMap<String, Double> counts = new HashMap<String, Double>();
+		counts.put("word", 1d);
+		return new Document(counts, vol, true);
+	}
+
+	/** Delays some volumes, so that threads finish them out of order. */
+	private static void jitter(int seed) {
+		int delay = new Random(seed).nextInt(4);
+		if (delay == 0) return;
+		try {
+			Thread.sleep(delay - 1, 200000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import datasets.Volume;
+
+/**
+ * A request's volumes must be scored together, in one batch, to the dates they'd
+ * get one at a time; volumes whose request timed out must be dropped rather
+ * than scored; and every request's latency must be recorded, including those
+ * that fail.
+ *
+ * @author tunderwood
+ *
+ */
+public class PredictionServiceTest {
+	static final int NUMVOLUMES = 12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	String modelFolder;
+	String dataFolder;
+	ArrayList<String> htids = new ArrayList<String>();
+	Thread scorer;
+
+	@Before
+	public void writeModelsAndVolumes() throws IOException {
+		modelFolder = folder.newFolder("models").getPath() + "/";
+		dataFolder = folder.newFolder("data").getPath() + "/";
+		ArrayList<String> features = TestModels.vocabulary(300);
+		ArrayList<SupervisedLearner> models = TestModels.models(features, null, 44);
+		ArrayList<String> labels = TestModels.labels();
+		for (int m = 0; m < models.size(); ++m) {
+			DatePredictor.serializeModel(models.get(m), modelFolder + labels.get(m) + ".classifier");
+		}
+		ArrayList<Document> documents = TestModels.documents(features, NUMVOLUMES, 45);
+		for (int d = 0; d < NUMVOLUMES; ++d) {
+			String htid = "test.service" + d;
+			TestModels.writeVolume(dataFolder, htid, documents.get(d).getFeatures());
+			htids.add(htid);
+		}
+	}
+
+	@After
+	public void stopScorer() throws InterruptedException {
+		if (scorer != null) {
+			scorer.interrupt();
+			scorer.join();
+		}
+	}
+
+	@Test
+	public void requestIsScoredInOneBatch() throws Exception {
+		PredictionService service = new PredictionService(modelFolder, dataFolder, 1800, 1899, 64, 20000, 10000);
+		startScorer(service);
+		ArrayList<String> request = new ArrayList<String>(htids);
+		request.add(3, "test.absent");
+		ArrayList<PredictionService.Pending> results = service.predict(request);
+
+		assertEquals(request.size(), results.size());
+		assertEquals(1, service.batches);
+		assertEquals(NUMVOLUMES, service.volumesScored);
+		PredictionService.ModelSet models = service.current.get();
+		for (int i = 0; i < results.size(); ++i) {
+			PredictionService.Pending pending = results.get(i);
+			assertEquals(request.get(i), pending.htid);
+			assertFalse(pending.failed);
+			if (i == 3) {
+				assertTrue(pending.doc.fileNotFound);
+				continue;
+			}
+			assertTrue(pending.scored);
+			// Scored alone, the volume gets the same date.
+			Document doc = models.read(service.dataReader, new Volume(pending.htid, new HashMap<String, String>()));
+			double[][] predictions = new double[1][models.classLabels.size()];
+			models.score(doc, predictions[0]);
+			int[] date = new int[1];
+			double[] expected = new double[1];
+			models.inference.inferDates(predictions, 1, date, expected);
+			assertEquals(date[0], pending.predictedDate);
+			assertEquals(expected[0], pending.expectedDate, 1e-9);
+		}
+	}
+
+	@Test
+	public void timedOutVolumesAreDroppedUnscored() throws Exception {
+		PredictionService service = new PredictionService(modelFolder, dataFolder, 1800, 1899, 64, 1000, 50);
+		// Nothing is scoring yet, so the request times out.
+		ArrayList<PredictionService.Pending> results = service.predict(htids);
+		for (PredictionService.Pending pending : results) {
+			assertTrue(pending.failed);
+			assertFalse(pending.scored);
+		}
+		assertEquals(NUMVOLUMES, service.queue.size());
+
+		startScorer(service);
+		service.timeoutMillis = 10000;
+		ArrayList<String> later = new ArrayList<String>();
+		later.add(htids.get(0));
+		results = service.predict(later);
+		assertTrue(results.get(0).scored);
+		assertEquals(NUMVOLUMES, service.volumesDropped);
+		assertEquals(1, service.volumesScored);
+		assertEquals(0, service.queue.size());
+	}
+
+	@Test
+	public void everyRequestsLatencyIsRecorded() throws Exception {
+		PredictionService service = new PredictionService(modelFolder, dataFolder, 1800, 1899, 64, 1000, 50);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/predict", service.new PredictHandler());
+		server.start();
+		try {
+			String base = "http://localhost:" + server.getAddress().getPort() + "/predict";
+			assertEquals(400, status(base + "?htid=nonsense"));
+			// No scorer yet: a timeout.
+			assertEquals(500, status(base + "?htid=" + htids.get(0)));
+			startScorer(service);
+			service.timeoutMillis = 10000;
+			assertEquals(200, status(base + "?htid=" + htids.get(1) + "&htid=" + htids.get(2)));
+		}
+		finally {
+			server.stop(0);
+		}
+		assertEquals(3, service.latencies.getCount());
+		assertEquals(2, service.requestsFailed);
+		// The timeout is among the recorded latencies.
+		assertTrue(service.latencies.percentileMillis(1.0) >= 50);
+		assertTrue(service.statsJSON().contains("\"requests_failed\": 2"));
+	}
+
+	private void startScorer(final PredictionService service) {
+		scorer = new Thread(new Runnable() {
+			public void run() {
+				service.scoreBatches();
+			}
+		}, "scorer");
+		scorer.setDaemon(true);
+		scorer.start();
+	}
+
+	private static int status(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		int status = connection.getResponseCode();
+		InputStream body = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+		if (body != null) {
+			while (body.read() >= 0) {
+			}
+			body.close();
+		}
+		connection.disconnect();
+		return status;
+	}
+}
@@ -0,0 +1,133 @@
+package classification;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import datasets.Volume;
+
+/**
+ * Random linear models and Documents for the compact ensemble tests, so that
+ * round trips can be checked without training anything, and wordcount files
+ * for tests that read them.
+ *
+ * @author tunderwood
+ *
+ */
+class TestModels {
+	static final int NUMMODELS = 7;
+
+	static ArrayList<String> vocabulary(int size) {
+		ArrayList<String> features = new ArrayList<String>(size);
+		for (int j = 0; j < size; ++j) {
+			features.add("word" + j);
+		}
+		return features;
+	}
+
+	static ArrayList<String> labels() {
+		ArrayList<String> labels = new ArrayList<String>(NUMMODELS);
+		for (int m = 0; m < NUMMODELS; ++m) {
+			labels.add(Integer.toString(1800 + 10 * m));
+		}
+		return labels;
+	}
+
+	/**
+	 * @param hasher If not null, the models read hashed features, and
+	 * features is ignored.
+	 */
+	static ArrayList<SupervisedLearner> models(ArrayList<String> features, FeatureHasher hasher, long seed) {
+		Random random = new Random(seed);
+		int numFeatures = (hasher != null) ? hasher.numFeatures() : features.size();
+		double[] scales = new double[numFeatures];
+		for (int j = 0; j < numFeatures; ++j) {
+			scales[j] = 0.5 + random.nextDouble();
+		}
+		ArrayList<SupervisedLearner> models = new ArrayList<SupervisedLearner>(NUMMODELS);
+		for (String label : labels()) {
+			StochasticLogisticClassifier model;
+			if (hasher != null) model = new StochasticLogisticClassifier(label, hasher, scales, 1d, 0.1);
+			else model = new StochasticLogisticClassifier(label, features, scales, 1d, 0.1);
+			for (int j = 0; j < numFeatures; ++j) {
+				// Mostly small weights, with the occasional large one of a rare word.
+				model.weights[j] = random.nextGaussian() * ((random.nextInt(20) == 0) ? 5 : 0.3);
+			}
+			model.intercept = random.nextGaussian();
+			models.add(model);
+		}
+		return models;
+	}
+
+	/** Documents over the vocabulary, with a few words outside it. */
+	static ArrayList<Document> documents(ArrayList<String> features, int count, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Document> documents = new ArrayList<Document>(count);
+		for (int d = 0; d < count; ++d) {
+			HashMap<String, Double> counts = new HashMap<String, Double>();
+			int words = 1 + random.nextInt(60);
+			for (int w = 0; w < words; ++w) {
+				String word = (random.nextInt(10) == 0) ? "unknown" + random.nextInt(100) : features.get(random.nextInt(features.size()));
+				Double previous = counts.get(word);
+				counts.put(word, 1d + random.nextInt(5) + ((previous == null) ? 0d : previous));
+			}
+			documents.add(new Document(counts, volume(d), true));
+		}
+		return documents;
+	}
+
+	/** Documents as PairtreeReader.getHashedDocument would read them. */
+	static ArrayList<Document> hashedDocuments(FeatureHasher hasher, int count, long seed) {
+		Random random = new Random(seed);
+		ArrayList<Document> documents = new ArrayList<Document>(count);
+		for (int d = 0; d < count; ++d) {
+			int words = 1 + random.nextInt(60);
+			int[] positions = new int[words];
+			float[] values = new float[words];
+			double numWords = 0d;
+			for (int w = 0; w < words; ++w) {
+				float frequency = 1 + random.nextInt(5);
+				int hash = hasher.hash("word" + random.nextInt(5000));
+				positions[w] = hasher.position(hash);
+				values[w] = hasher.sign(hash) * frequency;
+				numWords += frequency;
+			}
+			documents.add(new Document(positions, values, words, volume(d), numWords));
+		}
+		return documents;
+	}
+
+	static double[][] predict(CompactEnsemble ensemble, ArrayList<Document> documents) {
+		double[][] predictions = new double[documents.size()][ensemble.numModels()];
+		for (int d = 0; d < documents.size(); ++d) {
+			ensemble.predictDocument(documents.get(d), predictions[d]);
+		}
+		return predictions;
+	}
+
+	/**
+	 * Writes a volume's wordcounts where PairtreeReader will look for them.
+	 */
+	static void writeVolume(String dataPath, String htid, Map<String, Double> counts) throws IOException {
+		Pairtree pairtree = new Pairtree();
+		String prefix = htid.substring(0, htid.indexOf("."));
+		String id = htid.substring(htid.indexOf(".") + 1);
+		String directory = pairtree.cleanId(id);
+		File file = new File(dataPath + prefix + "/pairtree_root/" + pairtree.mapToPPath(id) + "/" + directory +
+				"/" + directory + ".vol.tsv");
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		for (Map.Entry<String, Double> entry : counts.entrySet()) {
+			writer.write(entry.getKey() + "\t" + entry.getValue().intValue() + "\n");
+		}
+		writer.close();
+	}
+
+	private static Volume volume(int d) {
+		return new Volume("test.volume" + d, new HashMap<String, String>());
+	}
+}
@@ -0,0 +1,137 @@
+package classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The SIMD kernels must agree with the scalar kernels, up to the order of
+ * addition, at every length: whole vectors, leftover lanes, and lengths shorter
+ * than one vector. Tests run with the incubator module, so <code>get</code>
+ * must have chosen the SIMD kernels.
+ *
+ * @author tunderwood
+ *
+ */
+public class VectorKernelsTest {
+	static final int MAXLENGTH = 70;
+
+	VectorKernels simd = new SimdKernels();
+	VectorKernels scalar = VectorKernels.scalar();
+	Random random = new Random(43);
+
+	@Test
+	public void simdKernelsAreChosen() {
+		assertTrue(VectorKernels.get().getName(), VectorKernels.get() instanceof SimdKernels);
+	}
+
+	@Test
+	public void denseKernelsAgree() {
+		for (int length = 0; length <= MAXLENGTH; ++length) {
+			double[] a = doubles(length);
+			double[] b = doubles(length);
+			assertEquals(scalar.dot(a, b), simd.dot(a, b), 1e-12);
+			assertEquals(scalar.squaredDistance(a, b), simd.squaredDistance(a, b), 1e-12);
+			assertEquals(scalar.cosineSimilarity(a, b, 1e-9), simd.cosineSimilarity(a, b, 1e-9), 1e-12);
+			double[] expected = new double[3];
+			double[] actual = new double[3];
+			scalar.dotAndSquaredNorms(a, b, expected);
+			simd.dotAndSquaredNorms(a, b, actual);
+			for (int i = 0; i < 3; ++i) {
+				assertEquals(expected[i], actual[i], 1e-12);
+			}
+
+			float[] x = floats(length + 5);
+			float[] y = floats(length + 3);
+			assertEquals(scalar.dot(x, 5, y, 3, length), simd.dot(x, 5, y, 3, length), 1e-4);
+		}
+		assertEquals(0d, simd.cosineSimilarity(new double[8], doubles(8), 1e-9), 0d);
+	}
+
+	@Test
+	public void sparseKernelsAgree() {
+		int numRows = 50;
+		for (int width = 1; width <= MAXLENGTH; ++width) {
+			float[] table = floats(numRows * width);
+			byte[] quantized = new byte[numRows * width];
+			random.nextBytes(quantized);
+			ByteBuffer floatBuffer = ByteBuffer.allocateDirect(table.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < table.length; ++i) {
+				floatBuffer.putFloat(i * 4, table[i]);
+			}
+			ByteBuffer byteBuffer = ByteBuffer.allocateDirect(quantized.length).order(ByteOrder.LITTLE_ENDIAN);
+			byteBuffer.put(quantized);
+			byteBuffer.clear();
+
+			// Rows include the last, so loads that ran past a row's end would fail.
+			int n = 1 + random.nextInt(12);
+			int[] rows = new int[n + 1];
+			float[] values = floats(n + 1);
+			for (int k = 0; k < n; ++k) {
+				rows[k] = random.nextInt(numRows);
+			}
+			rows[n] = numRows - 1;
+			n += 1;
+
+			float[] start = floats(width);
+			checkSparse(start, width, new Sparse() {
+				public void apply(VectorKernels kernels, int[] rows, float[] values, int n, int width, float[] out) {
+					kernels.sparseDot(rows, values, n, table, width, out);
+				}
+			}, rows, values, n);
+			checkSparse(start, width, new Sparse() {
+				public void apply(VectorKernels kernels, int[] rows, float[] values, int n, int width, float[] out) {
+					kernels.sparseDot(rows, values, n, quantized, width, out);
+				}
+			}, rows, values, n);
+			checkSparse(start, width, new Sparse() {
+				public void apply(VectorKernels kernels, int[] rows, float[] values, int n, int width, float[] out) {
+					kernels.sparseDotFloat32(rows, values, n, floatBuffer, width, out);
+				}
+			}, rows, values, n);
+			checkSparse(start, width, new Sparse() {
+				public void apply(VectorKernels kernels, int[] rows, float[] values, int n, int width, float[] out) {
+					kernels.sparseDotInt8(rows, values, n, byteBuffer, width, out);
+				}
+			}, rows, values, n);
+			assertEquals(0, floatBuffer.position());
+			assertEquals(0, byteBuffer.position());
+		}
+	}
+
+	private interface Sparse {
+		void apply(VectorKernels kernels, int[] rows, float[] values, int n, int width, float[] out);
+	}
+
+	private void checkSparse(float[] start, int width, Sparse kernel, int[] rows, float[] values, int n) {
+		float[] expected = start.clone();
+		float[] actual = start.clone();
+		kernel.apply(scalar, rows, values, n, width, expected);
+		kernel.apply(simd, rows, values, n, width, actual);
+		for (int m = 0; m < width; ++m) {
+			// int8 values reach 128, so allow for the size of the sums.
+			assertEquals("width " + width + ", lane " + m, expected[m], actual[m], 1e-4 * (1 + Math.abs(expected[m])));
+		}
+	}
+
+	private double[] doubles(int length) {
+		double[] values = new double[length];
+		for (int i = 0; i < length; ++i) {
+			values[i] = random.nextGaussian();
+		}
+		return values;
+	}
+
+	private float[] floats(int length) {
+		float[] values = new float[length];
+		for (int i = 0; i < length; ++i) {
+			values[i] = (float) random.nextGaussian();
+		}
+		return values;
+	}
+}
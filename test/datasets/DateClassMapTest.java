@@ -0,0 +1,149 @@
+package datasets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * DateClassMap computes the range of bins containing a date arithmetically.
+ * These tests check it against the loop it replaced, which tested the date
+ * against every midpoint in turn, over bin layouts that overlap, leave gaps,
+ * and run off either end of the allowed dates.
+ *
+ * @author tunderwood
+ *
+ */
+public class DateClassMapTest {
+	static final String FIELD = "date";
+
+	@Test
+	public void adjacentBins() {
+		checkAgainstLoop(1700, 1899, 5, 10, 1700, 1899);
+	}
+
+	@Test
+	public void overlappingBins() {
+		checkAgainstLoop(1700, 1899, 12, 10, 1690, 1910);
+	}
+
+	@Test
+	public void binsWithGaps() {
+		checkAgainstLoop(1701, 1900, 2, 7, 1650, 1950);
+	}
+
+	@Test
+	public void singleYearBins() {
+		checkAgainstLoop(1750, 1850, 0, 1, 1700, 1900);
+	}
+
+	@Test
+	public void lastMidpointBeforeEnd() {
+		checkAgainstLoop(1703, 1898, 9, 25, 1600, 2000);
+	}
+
+	@Test
+	public void negativeAndZeroDates() {
+		checkAgainstLoop(0, 60, 4, 5, -10, 100);
+	}
+
+	@Test
+	public void parsesWhatIntegerParseIntDoes() {
+		String[] values = {"1850", "+1850", "-3", "1850-1855", "1850?", "185", "18a0", "", "-", "+",
+				"2147483647", "2147483648", "-2147483648", "١٨٥٠", "18 50", "c1850"};
+		for (String value : values) {
+			assertEquals(value, oldParseDate(value), DateClassMap.parseDate(value));
+		}
+	}
+
+	/**
+	 * Maps random dates, some messy or missing, and compares every class's
+	 * members with what the old loop assigns.
+	 */
+	private void checkAgainstLoop(int startBinDate, int endBinDate, int binRadius, int binSpacing,
+			int allowableStart, int allowableEnd) {
+		Random random = new Random(startBinDate * 31L + binRadius * 7L + binSpacing);
+		Metadata collection = new Metadata(new String[] {FIELD});
+		for (int v = 0; v < 3000; ++v) {
+			HashMap<String, String> values = new HashMap<String, String>();
+			int kind = random.nextInt(20);
+			int year = allowableStart - 30 + random.nextInt(allowableEnd - allowableStart + 61);
+			String date;
+			if (kind == 0) date = "n.d.";
+			else if (kind == 1) date = year + "-" + (year + 5);
+			else if (kind == 2) date = year + "?";
+			else date = Integer.toString(year);
+			// The first few volumes leave the field out altogether.
+			if (v >= 3) values.put(FIELD, date);
+			collection.addVolume(new Volume("test.volume" + v, values));
+		}
+
+		DateClassMap map = new DateClassMap(startBinDate, endBinDate, binRadius, binSpacing, collection, FIELD);
+		map.mapVolsByMetadata(allowableStart, allowableEnd);
+		HashMap<String, ArrayList<Integer>> expected = oldMembers(map.classLabels, binRadius, collection, allowableStart, allowableEnd);
+
+		int total = 0;
+		for (String label : map.getAllClasses()) {
+			ArrayList<Integer> members = expected.get(label);
+			int[] indices = new int[members.size()];
+			for (int i = 0; i < indices.length; ++i) {
+				indices[i] = members.get(i);
+			}
+			assertArrayEquals("class " + label, indices, map.getMemberIndices(label));
+			assertEquals(indices.length, map.getClassSize(label));
+			total += indices.length;
+		}
+		assertEquals(total, map.totalVolumes);
+	}
+
+	/** The membership loop from before bins were computed arithmetically. */
+	private static HashMap<String, ArrayList<Integer>> oldMembers(ArrayList<Integer> classLabels, int binRadius,
+			Metadata collection, int allowableStartDate, int allowableEndDate) {
+		HashMap<String, ArrayList<Integer>> classMembers = new HashMap<String, ArrayList<Integer>>();
+		for (int midpoint : classLabels) {
+			classMembers.put(Integer.toString(midpoint), new ArrayList<Integer>());
+		}
+		ArrayList<Integer> unknown = new ArrayList<Integer>();
+		classMembers.put("__unknown__", unknown);
+		ArrayList<Volume> volumes = collection.getVolumes();
+		for (int v = 0; v < volumes.size(); ++v) {
+			String value = volumes.get(v).getValue(FIELD);
+			if (value == null) continue;
+			int thisdate = oldParseDate(value);
+			if (thisdate < 0 || thisdate < allowableStartDate || thisdate > allowableEndDate) {
+				unknown.add(v);
+				continue;
+			}
+			for (int midpoint : classLabels) {
+				if (thisdate >= (midpoint - binRadius) && thisdate <= (midpoint + binRadius)) {
+					classMembers.get(Integer.toString(midpoint)).add(v);
+				}
+			}
+		}
+		return classMembers;
+	}
+
+	/** The date parser from before parsing stopped throwing exceptions. */
+	private static int oldParseDate(String value) {
+		if (oldIsInteger(value)) return Integer.parseInt(value);
+		if (value.length() >= 4) {
+			String firstfour = value.substring(0, 4);
+			if (oldIsInteger(firstfour)) return Integer.parseInt(firstfour);
+		}
+		return -1;
+	}
+
+	private static boolean oldIsInteger(String s) {
+		try {
+			Integer.parseInt(s);
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,162 @@
+package datasets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import classification.Document;
+import classification.Pairtree;
+
+/**
+ * Streaming a volume's pages must account for every word the volume-level file
+ * counts, page by page and in order, whether or not the stream is restricted to
+ * a feature set.
+ *
+ * @author tunderwood
+ *
+ */
+public class PageStreamTest {
+	static final int NUMWORDS = 200;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void pagesAddUpToTheVolume() throws IOException {
+		String dataPath = folder.getRoot().getPath() + "/";
+		PairtreeReader reader = new PairtreeReader(dataPath);
+		Volume vol = volume("test.pages40", 700);
+		int[][] pageCounts = writeVolume(dataPath, vol, 700, 40);
+
+		// An empty feature set means every word.
+		checkStream(reader, vol, pageCounts, new HashSet<String>());
+		HashSet<String> features = new HashSet<String>();
+		for (int w = 0; w < NUMWORDS; w += 3) {
+			features.add("pagestreamword" + w);
+		}
+		checkStream(reader, vol, pageCounts, features);
+	}
+
+	@Test
+	public void missingPagesAreReportedAsNull() {
+		PairtreeReader reader = new PairtreeReader(folder.getRoot().getPath() + "/");
+		assertNull(reader.getPageStream(volume("test.absent", 3), new HashSet<String>()));
+	}
+
+	@Test
+	public void interruptedPagesComeBackSeparately() throws IOException {
+		String dataPath = folder.getRoot().getPath() + "/";
+		Volume vol = volume("test.interrupted", 2);
+		File file = new File(path(dataPath, vol, ".pg.tsv"));
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		writer.write("1\tpagestreamword1\t2\n2\tpagestreamword2\t3\n1\tpagestreamword3\t4\n");
+		writer.close();
+		PageStream stream = new PairtreeReader(dataPath).getPageStream(vol, new HashSet<String>());
+		int[] pages = new int[3];
+		for (int p = 0; p < 3; ++p) {
+			pages[p] = stream.nextPage().getPage();
+		}
+		assertNull(stream.nextPage());
+		assertEquals(1, pages[0]);
+		assertEquals(2, pages[1]);
+		assertEquals(1, pages[2]);
+		assertEquals(3, stream.getPagesRead());
+	}
+
+	private void checkStream(PairtreeReader reader, Volume vol, int[][] pageCounts, HashSet<String> features) {
+		Document whole = reader.getDocument(vol, features);
+		PageStream stream = reader.getPageStream(vol, features);
+		double[] totals = new double[NUMWORDS];
+		double totalWords = 0d;
+		int expectedPage = 0;
+		Document page;
+		while ((page = stream.nextPage()) != null) {
+			// Pages with no words aren't in the file at all.
+			while (isEmpty(pageCounts[expectedPage])) expectedPage += 1;
+			assertEquals(expectedPage, page.getPage());
+			double pageWords = 0d;
+			for (int w = 0; w < NUMWORDS; ++w) {
+				double count = page.getRawTermFreq("pagestreamword" + w);
+				if (features.size() > 0 && !features.contains("pagestreamword" + w)) assertEquals(0d, count, 0d);
+				else assertEquals(pageCounts[expectedPage][w], count, 0d);
+				totals[w] += count;
+				pageWords += count;
+			}
+			assertEquals(pageWords, page.getNumWords(), 1e-9);
+			totalWords += page.getNumWords();
+			expectedPage += 1;
+		}
+		stream.close();
+		assertTrue(stream.getPagesRead() > 600);
+		for (int w = 0; w < NUMWORDS; ++w) {
+			assertEquals(whole.getRawTermFreq("pagestreamword" + w), totals[w], 0d);
+		}
+		assertEquals(whole.getNumWords(), totalWords, 1e-6);
+	}
+
+	/**
+	 * Writes random page counts, and their sums as the volume's wordcounts. Some
+	 * pages have no words.
+	 */
+	private static int[][] writeVolume(String dataPath, Volume vol, int numPages, long seed) throws IOException {
+		Random random = new Random(seed);
+		int[][] pageCounts = new int[numPages][NUMWORDS];
+		int[] volumeCounts = new int[NUMWORDS];
+		File pageFile = new File(path(dataPath, vol, ".pg.tsv"));
+		pageFile.getParentFile().mkdirs();
+		FileWriter pageWriter = new FileWriter(pageFile);
+		for (int p = 0; p < numPages; ++p) {
+			if (random.nextInt(20) == 0) continue;
+			int words = 1 + random.nextInt(40);
+			for (int i = 0; i < words; ++i) {
+				pageCounts[p][random.nextInt(NUMWORDS)] += 1 + random.nextInt(3);
+			}
+			for (int w = 0; w < NUMWORDS; ++w) {
+				if (pageCounts[p][w] == 0) continue;
+				pageWriter.write(p + "\tpagestreamword" + w + "\t" + pageCounts[p][w] + "\n");
+				volumeCounts[w] += pageCounts[p][w];
+			}
+		}
+		pageWriter.close();
+		FileWriter volumeWriter = new FileWriter(path(dataPath, vol, ".vol.tsv"));
+		for (int w = 0; w < NUMWORDS; ++w) {
+			if (volumeCounts[w] > 0) volumeWriter.write("pagestreamword" + w + "\t" + volumeCounts[w] + "\n");
+		}
+		volumeWriter.close();
+		return pageCounts;
+	}
+
+	private static boolean isEmpty(int[] counts) {
+		for (int count : counts) {
+			if (count > 0) return false;
+		}
+		return true;
+	}
+
+	/** The path PairtreeReader derives from a volume ID. */
+	private static String path(String dataPath, Volume vol, String suffix) {
+		Pairtree pairtree = new Pairtree();
+		String prefix = vol.htid.substring(0, vol.htid.indexOf("."));
+		String id = vol.htid.substring(vol.htid.indexOf(".") + 1);
+		String directory = pairtree.cleanId(id);
+		return dataPath + prefix + "/pairtree_root/" + pairtree.mapToPPath(id) + "/" + directory + "/" + directory + suffix;
+	}
+
+	private static Volume volume(String htid, int pages) {
+		HashMap<String, String> values = new HashMap<String, String>();
+		values.put("totalpages", Integer.toString(pages));
+		return new Volume(htid, values);
+	}
+}
@@ -0,0 +1,134 @@
+package datasets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Samples must be drawn without replacement, roughly uniformly, and
+ * reproducibly for a seed, including from split streams whatever order they're
+ * used in. DateClassMap's samples must come from the classes they claim to.
+ *
+ * @author tunderwood
+ *
+ */
+public class SamplerTest {
+
+	@Test
+	public void samplesAreDistinctAndInRange() {
+		Sampler sampler = new Sampler(37);
+		// Small samples go through Floyd's algorithm, large ones through the shuffle.
+		int[][] sizes = {{1000, 1}, {1000, 10}, {1000, 499}, {1000, 500}, {1000, 999}, {1000, 1000},
+				{5, 9}, {0, 3}, {7, 0}};
+		for (int[] size : sizes) {
+			int n = size[0];
+			int k = size[1];
+			int[] sample = sampler.sampleIndices(n, k);
+			assertEquals(Math.min(n, k), sample.length);
+			HashSet<Integer> seen = new HashSet<Integer>();
+			for (int index : sample) {
+				assertTrue(index >= 0 && index < n);
+				assertTrue("drawn twice: " + index, seen.add(index));
+			}
+		}
+	}
+
+	@Test
+	public void samplesAreRoughlyUniform() {
+		Sampler sampler = new Sampler(38);
+		int n = 50;
+		int trials = 20000;
+		int[] smallCounts = new int[n];
+		int[] largeCounts = new int[n];
+		int[] firstCounts = new int[n];
+		for (int t = 0; t < trials; ++t) {
+			int[] small = sampler.sampleIndices(n, 5);
+			for (int index : small) smallCounts[index] += 1;
+			firstCounts[small[0]] += 1;
+			for (int index : sampler.sampleIndices(n, 40)) largeCounts[index] += 1;
+		}
+		for (int i = 0; i < n; ++i) {
+			// Expected 2000, 16000 and 400; these bounds are about five standard deviations.
+			assertEquals(2000, smallCounts[i], 220);
+			assertEquals(16000, largeCounts[i], 300);
+			// Floyd's algorithm favours late indices in its raw order; the shuffle
+			// that follows it must not.
+			assertEquals(400, firstCounts[i], 100);
+		}
+	}
+
+	@Test
+	public void samplesAreReproducibleForASeed() {
+		int[] population = new int[300];
+		for (int i = 0; i < population.length; ++i) {
+			population[i] = 3 * i;
+		}
+		Sampler first = new Sampler(99);
+		Sampler second = new Sampler(99);
+		for (int k = 0; k < 300; k += 17) {
+			assertArrayEquals(first.sample(population, k), second.sample(population, k));
+		}
+		assertFalse(Arrays.equals(new Sampler(1).sampleIndices(1000, 20),
+				new Sampler(2).sampleIndices(1000, 20)));
+	}
+
+	@Test
+	public void splitStreamsDontDependOnTheOrderTheyAreUsed() {
+		Sampler parent = new Sampler(7);
+		Sampler a = parent.split();
+		Sampler b = parent.split();
+		int[] aFirst = a.sampleIndices(10000, 50);
+		int[] bSecond = b.sampleIndices(10000, 50);
+
+		Sampler again = new Sampler(7);
+		Sampler a2 = again.split();
+		Sampler b2 = again.split();
+		// Used in the other order, as a different schedule of threads might.
+		assertArrayEquals(bSecond, b2.sampleIndices(10000, 50));
+		assertArrayEquals(aFirst, a2.sampleIndices(10000, 50));
+		assertFalse(Arrays.equals(aFirst, bSecond));
+	}
+
+	@Test
+	public void classMapSamplesComeFromTheRightClasses() {
+		Random random = new Random(37);
+		Metadata collection = new Metadata(new String[] {"date"});
+		for (int v = 0; v < 3000; ++v) {
+			HashMap<String, String> values = new HashMap<String, String>();
+			values.put("date", Integer.toString(1800 + random.nextInt(100)));
+			collection.addVolume(new Volume("test.volume" + v, values));
+		}
+		// Overlapping bins, so some volumes belong to two classes.
+		DateClassMap classMap = new DateClassMap(1805, 1899, 7, 10, collection, "date");
+		classMap.mapVolsByMetadata(1800, 1899);
+		String label = classMap.getKnownClasses().get(3);
+		HashSet<Volume> members = new HashSet<Volume>(classMap.getMembers(label));
+
+		classMap.setSeed(5);
+		ArrayList<Volume> positives = classMap.takeRandomSample(label, 40);
+		ArrayList<Volume> negatives = classMap.stratifiedSampleExcept(label, 200);
+		assertEquals(40, positives.size());
+		assertEquals(40, new HashSet<Volume>(positives).size());
+		assertTrue(members.containsAll(positives));
+		assertTrue(negatives.size() > 150 && negatives.size() <= 200);
+		for (Volume volume : negatives) {
+			assertFalse(volume.htid, members.contains(volume));
+		}
+		for (Volume volume : classMap.getSelectedNonmembers(label, 100)) {
+			assertFalse(volume.htid, members.contains(volume));
+		}
+
+		classMap.setSeed(5);
+		assertEquals(positives, classMap.takeRandomSample(label, 40));
+		assertEquals(negatives, classMap.stratifiedSampleExcept(label, 200));
+	}
+}